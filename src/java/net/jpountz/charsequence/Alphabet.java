@@ -0,0 +1,116 @@
+package net.jpountz.charsequence;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import net.jpountz.charsequence.util.RamUsageUtils;
+
+/**
+ * A mapping from a set of chars to dense codes in [0, size()).
+ *
+ * Codes are assigned in the order of a {@link CharComparator}, so that
+ * structures which are ordered by code are also ordered by this comparator.
+ * The mapping is stored as a two-level table of 256 pages of 256 chars so
+ * that pages which contain no char of the alphabet do not use any memory.
+ */
+public final class Alphabet {
+
+	/**
+	 * Build the alphabet of all chars which are used in keys.
+	 *
+	 * @param keys the keys
+	 * @param comparator the order of the codes, or null for the natural order
+	 */
+	public static Alphabet of(Iterable<? extends CharSequence> keys, CharComparator comparator) {
+		BitSet chars = new BitSet(1 << 16);
+		for (CharSequence key : keys) {
+			for (int i = 0; i < key.length(); ++i) {
+				chars.set(key.charAt(i));
+			}
+		}
+		char[] result = new char[chars.cardinality()];
+		int j = 0;
+		for (int c = chars.nextSetBit(0); c >= 0; c = chars.nextSetBit(c + 1)) {
+			result[j++] = (char) c;
+		}
+		return of(result, comparator);
+	}
+
+	/**
+	 * Build an alphabet of the given chars.
+	 *
+	 * @param chars the chars, duplicates are ignored
+	 * @param comparator the order of the codes, or null for the natural order
+	 */
+	public static Alphabet of(char[] chars, CharComparator comparator) {
+		Character[] sorted = new Character[chars.length];
+		for (int i = 0; i < chars.length; ++i) {
+			sorted[i] = chars[i];
+		}
+		Arrays.sort(sorted, comparator == null ? CharComparator.DEFAULT : comparator);
+		char[] distinct = new char[sorted.length];
+		int size = 0;
+		BitSet seen = new BitSet(1 << 16);
+		for (Character c : sorted) {
+			if (!seen.get(c)) {
+				seen.set(c);
+				distinct[size++] = c;
+			}
+		}
+		return new Alphabet(Arrays.copyOf(distinct, size));
+	}
+
+	// pages[c >>> 8][c & 0xFF] is the code of c + 1, or 0
+	private final char[][] pages;
+	private final char[] chars;
+
+	private Alphabet(char[] chars) {
+		if (chars.length > 0xFFFF) {
+			throw new IllegalArgumentException("too many chars");
+		}
+		this.chars = chars;
+		pages = new char[256][];
+		for (int i = 0; i < chars.length; ++i) {
+			char c = chars[i];
+			char[] page = pages[c >>> 8];
+			if (page == null) {
+				page = pages[c >>> 8] = new char[256];
+			}
+			page[c & 0xFF] = (char) (i + 1);
+		}
+	}
+
+	/**
+	 * Return the number of chars of this alphabet.
+	 */
+	public int size() {
+		return chars.length;
+	}
+
+	/**
+	 * Return the code of c, or -1 if c does not belong to this alphabet.
+	 */
+	public int code(char c) {
+		char[] page = pages[c >>> 8];
+		return page == null ? -1 : page[c & 0xFF] - 1;
+	}
+
+	/**
+	 * Return the char whose code is code.
+	 */
+	public char charAt(int code) {
+		return chars[code];
+	}
+
+	public long ramBytesUsed() {
+		long result = RamUsageUtils.shallowSizeOf(this) + RamUsageUtils.sizeOf(pages)
+			+ RamUsageUtils.sizeOf(chars);
+		for (char[] page : pages) {
+			if (page != null) {
+				result += RamUsageUtils.sizeOf(page);
+			}
+		}
+		return result;
+	}
+
+}
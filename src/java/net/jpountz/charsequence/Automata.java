@@ -2,6 +2,10 @@ package net.jpountz.charsequence;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.Set;
+
+import net.jpountz.charsequence.Automaton.AutomatonConsumer;
+import net.jpountz.charsequence.util.OperationMetrics;
 
 public enum Automata {
 	;
@@ -54,6 +58,56 @@ public enum Automata {
 
 	}
 
+	private static final class InstrumentedConsumer<State> implements AutomatonConsumer<State> {
+
+		private final AutomatonConsumer<State> delegate;
+		private final OperationMetrics metrics;
+
+		InstrumentedConsumer(AutomatonConsumer<State> delegate, OperationMetrics metrics) {
+			this.delegate = delegate;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public int consume(char c) {
+			long start = System.nanoTime();
+			int paths = delegate.consume(c);
+			metrics.record(System.nanoTime() - start, 1, paths);
+			return paths;
+		}
+
+		@Override
+		public boolean cancel() {
+			return delegate.cancel();
+		}
+
+		@Override
+		public Set<State> getCurrentStates() {
+			return delegate.getCurrentStates();
+		}
+
+		@Override
+		public boolean isAtFinalState() {
+			return delegate.isAtFinalState();
+		}
+
+		@Override
+		public void reset() {
+			delegate.reset();
+		}
+
+	}
+
+	/**
+	 * Wrap a consumer so that every call to
+	 * {@link AutomatonConsumer#consume(char)} is recorded in metrics, the
+	 * number of results being the number of current paths.
+	 */
+	public static <State> AutomatonConsumer<State> instrument(
+			AutomatonConsumer<State> consumer, OperationMetrics metrics) {
+		return new InstrumentedConsumer<State>(consumer, metrics);
+	}
+
 	public static DFA<Integer> forWord(CharSequence word) {
 		Integer previous = 0;
 		DFA<Integer> result = new DFA<Integer>(previous);
@@ -49,4 +49,27 @@ public abstract class CharSequenceDistance {
 		return distance(from, 0, from.length, to, 0, to.length());
 	}
 
+	/**
+	 * Compute the distances from a query to several candidates at once.
+	 * Candidates are stored contiguously in a single array: candidate i
+	 * starts at offsets[i] and ends at offsets[i+1].
+	 *
+	 * @param query the source {@link CharSequence}
+	 * @param offset
+	 * @param length
+	 * @param candidates the chars of all candidates
+	 * @param offsets the start offsets of the candidates, followed by the end
+	 *                offset of the last candidate
+	 * @param count the number of candidates
+	 * @param distances the array to store distances into
+	 */
+	public void distances(CharSequence query, int offset, int length,
+			char[] candidates, int[] offsets, int count, double[] distances) {
+		CharBuffer buffer = CharBuffer.wrap(candidates);
+		for (int i = 0; i < count; ++i) {
+			distances[i] = distance(query, offset, length,
+					buffer, offsets[i], offsets[i+1] - offsets[i]);
+		}
+	}
+
 }
@@ -0,0 +1,154 @@
+package net.jpountz.charsequence;
+
+import net.jpountz.charsequence.util.RamUsageUtils;
+
+/**
+ * An {@link EditWeight} whose costs are stored in dense matrices indexed by
+ * the codes of an {@link Alphabet}, so that algorithms which know about this
+ * class can look costs up with array accesses instead of interface calls.
+ *
+ * Costs are compiled from another weight by evaluating it at offset 0, so
+ * only weights which do not depend on offsets can be compiled. Costs of
+ * chars which do not belong to the alphabet are computed by the original
+ * weight.
+ */
+public final class CompiledEditWeight implements EditWeight {
+
+	/**
+	 * Compile the costs of weight for all chars of alphabet.
+	 */
+	public static CompiledEditWeight compile(EditWeight weight, Alphabet alphabet) {
+		if (weight instanceof CompiledEditWeight) {
+			weight = ((CompiledEditWeight) weight).weight;
+		}
+		return new CompiledEditWeight(weight, alphabet);
+	}
+
+	private final EditWeight weight;
+	private final Alphabet alphabet;
+	private final int size;
+	private final double[] insertions, deletions;
+	// [from * size + to]
+	private final double[] substitutions, transpositions;
+	private final boolean substitutionEnabled, transpositionEnabled;
+
+	private CompiledEditWeight(EditWeight weight, Alphabet alphabet) {
+		this.weight = weight;
+		this.alphabet = alphabet;
+		size = alphabet.size();
+		if ((long) size * size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("alphabet is too large: " + size);
+		}
+		substitutionEnabled = weight.substitutionEnabled();
+		transpositionEnabled = weight.transpositionEnabled();
+		insertions = new double[size];
+		deletions = new double[size];
+		substitutions = new double[size * size];
+		transpositions = transpositionEnabled ? new double[size * size] : null;
+		for (int i = 0; i < size; ++i) {
+			char c1 = alphabet.charAt(i);
+			insertions[i] = weight.insertionCost(0, c1);
+			deletions[i] = weight.deletionCost(0, c1);
+			for (int j = 0; j < size; ++j) {
+				char c2 = alphabet.charAt(j);
+				substitutions[i * size + j] = i == j ? 0 : weight.substitutionCost(0, 0, c1, c2);
+				if (transpositionEnabled) {
+					transpositions[i * size + j] = weight.transpositionCost(0, 0, c1, c2);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the weight these costs have been compiled from.
+	 */
+	public EditWeight getWeight() {
+		return weight;
+	}
+
+	public Alphabet getAlphabet() {
+		return alphabet;
+	}
+
+	/**
+	 * Return the code of c in the alphabet, or -1 if it does not belong to
+	 * the alphabet.
+	 */
+	public int code(char c) {
+		return alphabet.code(c);
+	}
+
+	/**
+	 * Return the cost of inserting the char whose code is code.
+	 */
+	public double insertion(int code) {
+		return insertions[code];
+	}
+
+	/**
+	 * Return the cost of deleting the char whose code is code.
+	 */
+	public double deletion(int code) {
+		return deletions[code];
+	}
+
+	/**
+	 * Return the cost of substituting the char whose code is from with the
+	 * char whose code is to.
+	 */
+	public double substitution(int from, int to) {
+		return substitutions[from * size + to];
+	}
+
+	/**
+	 * Return the cost of transposing the chars whose codes are c1 and c2.
+	 */
+	public double transposition(int c1, int c2) {
+		return transpositions[c1 * size + c2];
+	}
+
+	@Override
+	public double insertionCost(int offset, char c) {
+		int code = alphabet.code(c);
+		return code < 0 ? weight.insertionCost(offset, c) : insertions[code];
+	}
+
+	@Override
+	public double deletionCost(int offset, char c) {
+		int code = alphabet.code(c);
+		return code < 0 ? weight.deletionCost(offset, c) : deletions[code];
+	}
+
+	@Override
+	public double substitutionCost(int fromOffset, int toOffset, char c1, char c2) {
+		int code1 = alphabet.code(c1), code2 = alphabet.code(c2);
+		return code1 < 0 || code2 < 0
+			? weight.substitutionCost(fromOffset, toOffset, c1, c2)
+			: substitutions[code1 * size + code2];
+	}
+
+	@Override
+	public double transpositionCost(int fromOffset, int toOffset, char c1, char c2) {
+		int code1 = alphabet.code(c1), code2 = alphabet.code(c2);
+		return code1 < 0 || code2 < 0 || !transpositionEnabled
+			? weight.transpositionCost(fromOffset, toOffset, c1, c2)
+			: transpositions[code1 * size + code2];
+	}
+
+	@Override
+	public boolean substitutionEnabled() {
+		return substitutionEnabled;
+	}
+
+	@Override
+	public boolean transpositionEnabled() {
+		return transpositionEnabled;
+	}
+
+	public long ramBytesUsed() {
+		return RamUsageUtils.shallowSizeOf(this) + alphabet.ramBytesUsed()
+			+ RamUsageUtils.sizeOf(insertions) + RamUsageUtils.sizeOf(deletions)
+			+ RamUsageUtils.sizeOf(substitutions) + RamUsageUtils.sizeOf(transpositions);
+	}
+
+}
@@ -1,7 +1,17 @@
 package net.jpountz.charsequence;
 
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
 /**
  * Edit distance based on an {@link EditWeight} for various operations.
+ *
+ * Distances based on {@link CommonEditWeight#LEVENSHTEIN} and
+ * {@link CommonEditWeight#DAMEREAU_LEVENSHTEIN} are computed with the
+ * bit-parallel algorithm of Myers (1999), extended to transpositions by
+ * Hyyrö (2002), which processes 64 rows of the dynamic programming matrix
+ * at once. Other weights use the classic O(n*m) dynamic programming, which
+ * reads costs from arrays for {@link CompiledEditWeight}s.
  */
 public final class EditDistance extends CharSequenceDistance {
 
@@ -9,10 +19,421 @@ public final class EditDistance extends CharSequenceDistance {
 	public static final EditDistance LEVENSHTEIN = new EditDistance(CommonEditWeight.LEVENSHTEIN);
 	public static final EditDistance DAMEREAU_LEVENSHTEIN = new EditDistance(CommonEditWeight.DAMEREAU_LEVENSHTEIN);
 
+	/**
+	 * The bit masks of the positions of every char of a pattern, split into
+	 * blocks of 64 positions. There is one row of blocks masks per distinct
+	 * char of the pattern.
+	 */
+	static final class PatternMasks {
+
+		int length, blocks, distinct;
+		// direct lookup table from ASCII chars to the index of their masks
+		final int[] ascii = new int[128];
+		// open-addressing table from other chars to the row of their masks
+		int[] keys = new int[16], rows = new int[16];
+		int mask = 15;
+		long[] masks = new long[16];
+
+		void reset(CharSequence pattern, int offset, int length) {
+			this.length = length;
+			blocks = (length + 63) >>> 6;
+			distinct = 0;
+			Arrays.fill(ascii, -1);
+			Arrays.fill(keys, 0, mask + 1, -1);
+			for (int i = 0; i < length; ++i) {
+				final char c = pattern.charAt(offset + i);
+				int row = c < 128 ? ascii[c] : rowOf(c);
+				if (row < 0) {
+					row = distinct++;
+					if (masks.length < distinct * blocks) {
+						masks = Arrays.copyOf(masks, Math.max(masks.length * 2, distinct * blocks));
+					}
+					Arrays.fill(masks, row * blocks, distinct * blocks, 0L);
+					if (c < 128) {
+						ascii[c] = row * blocks;
+					} else {
+						addRow(c, row);
+					}
+					row *= blocks;
+				}
+				masks[row + (i >>> 6)] |= 1L << i;
+			}
+		}
+
+		private static int slot(char c, int mask) {
+			return (c * 0x9E3779B9 >>> 16) & mask;
+		}
+
+		/**
+		 * Return the index of the masks of non-ASCII char c, or -1.
+		 */
+		private int rowOf(char c) {
+			int slot = slot(c, mask);
+			int key;
+			while ((key = keys[slot]) != -1) {
+				if (key == c) {
+					return rows[slot] * blocks;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		private void addRow(char c, int row) {
+			// the table holds distinct chars, keep it at most half full
+			if (2 * distinct > mask + 1) {
+				int[] oldKeys = keys, oldRows = rows;
+				int oldLength = mask + 1;
+				mask = 2 * oldLength - 1;
+				keys = new int[mask + 1];
+				rows = new int[mask + 1];
+				Arrays.fill(keys, -1);
+				for (int i = 0; i < oldLength; ++i) {
+					if (oldKeys[i] != -1) {
+						put((char) oldKeys[i], oldRows[i]);
+					}
+				}
+			}
+			put(c, row);
+		}
+
+		private void put(char c, int row) {
+			int slot = slot(c, mask);
+			while (keys[slot] != -1) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = c;
+			rows[slot] = row;
+		}
+
+		/**
+		 * Return the index of the masks of c, or -1 if c does not appear in
+		 * the pattern.
+		 */
+		int indexOf(char c) {
+			return c < 128 ? ascii[c] : rowOf(c);
+		}
+
+		/**
+		 * Drop buffers which are larger than maxLongs.
+		 */
+		void trim(int maxLongs) {
+			if (masks.length > maxLongs) {
+				masks = new long[16];
+			}
+			if (keys.length > maxLongs) {
+				keys = new int[16];
+				rows = new int[16];
+				mask = 15;
+			}
+		}
+
+	}
+
+	/**
+	 * Compute the unit-cost edit distance between the pattern and text using
+	 * a single 64-bits word per column, or return -1 if it is greater than
+	 * max.
+	 */
+	static int distance(PatternMasks pattern, boolean transpositions, int max,
+			CharSequence text, int offset, int length) {
+		final long[] masks = pattern.masks;
+		final long last = 1L << (pattern.length - 1);
+		long pv = -1L, mv = 0, d0 = 0, lastEq = 0;
+		int score = pattern.length;
+		for (int j = 0; j < length; ++j) {
+			int index = pattern.indexOf(text.charAt(offset + j));
+			long eq = index < 0 ? 0 : masks[index];
+			long x = eq | mv;
+			if (transpositions) {
+				x |= ((~d0 & eq) << 1) & lastEq;
+				lastEq = eq;
+			}
+			d0 = (((eq & pv) + pv) ^ pv) | x;
+			long hp = mv | ~(d0 | pv);
+			long hm = pv & d0;
+			if ((hp & last) != 0) {
+				++score;
+			} else if ((hm & last) != 0) {
+				--score;
+			}
+			// the first row of the matrix increases by 1 on every column
+			hp = (hp << 1) | 1;
+			hm <<= 1;
+			pv = hm | ~(d0 | hp);
+			mv = hp & d0;
+			// every remaining column decreases the score by at most 1
+			if (score - (length - 1 - j) > max) {
+				return -1;
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Same as {@link #distance(PatternMasks, boolean, int, CharSequence, int, int)}
+	 * for patterns of more than 64 chars: columns are split into blocks of
+	 * 64 bits and carries are propagated from one block to the next one.
+	 */
+	static int distance(PatternMasks pattern, boolean transpositions, int max,
+			CharSequence text, int offset, int length,
+			long[] pv, long[] mv, long[] d0) {
+		final long[] masks = pattern.masks;
+		final int blocks = pattern.blocks;
+		final long last = 1L << ((pattern.length - 1) & 63);
+		Arrays.fill(pv, 0, blocks, -1L);
+		Arrays.fill(mv, 0, blocks, 0L);
+		Arrays.fill(d0, 0, blocks, 0L);
+		int lastIndex = -1;
+		int score = pattern.length;
+		for (int j = 0; j < length; ++j) {
+			int index = pattern.indexOf(text.charAt(offset + j));
+			long hpCarry = 1, hmCarry = 0, addCarry = 0, trCarry = 0;
+			for (int b = 0; b < blocks; ++b) {
+				long eq = index < 0 ? 0 : masks[index + b];
+				long pvb = pv[b], mvb = mv[b];
+				long x = eq | mvb;
+				if (transpositions) {
+					long lastEq = lastIndex < 0 ? 0 : masks[lastIndex + b];
+					long tr = ~d0[b] & eq;
+					x |= ((tr << 1) | trCarry) & lastEq;
+					trCarry = tr >>> 63;
+				}
+				long a = eq & pvb;
+				long sum = a + pvb + addCarry;
+				addCarry = ((a & pvb) | ((a | pvb) & ~sum)) >>> 63;
+				long d0b = (sum ^ pvb) | x;
+				long hp = mvb | ~(d0b | pvb);
+				long hm = pvb & d0b;
+				if (b == blocks - 1) {
+					if ((hp & last) != 0) {
+						++score;
+					} else if ((hm & last) != 0) {
+						--score;
+					}
+				}
+				long hpOut = hp >>> 63, hmOut = hm >>> 63;
+				hp = (hp << 1) | hpCarry;
+				hm = (hm << 1) | hmCarry;
+				hpCarry = hpOut;
+				hmCarry = hmOut;
+				pv[b] = hm | ~(d0b | hp);
+				mv[b] = hp & d0b;
+				d0[b] = d0b;
+			}
+			lastIndex = index;
+			if (score - (length - 1 - j) > max) {
+				return -1;
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Buffers which are reused across computations of a thread.
+	 */
+	private static final class Workspace {
+
+		// buffers which are larger than this number of elements are not
+		// retained across computations
+		static final int MAX_RETAINED = 1 << 14;
+
+		final PatternMasks pattern = new PatternMasks();
+		long[] pv = new long[2], mv = new long[2], d0 = new long[2];
+		double[] lastCosts = new double[16], costs = new double[16];
+		int[] fromCodes = new int[16], toCodes = new int[16];
+
+		void ensureBlocks(int blocks) {
+			if (pv.length < blocks) {
+				pv = new long[blocks];
+				mv = new long[blocks];
+				d0 = new long[blocks];
+			}
+		}
+
+		void ensureCosts(int length) {
+			if (costs.length < length) {
+				costs = new double[length];
+				lastCosts = new double[length];
+			}
+		}
+
+		void ensureCodes(int length) {
+			if (fromCodes.length < length) {
+				fromCodes = new int[length];
+			}
+			if (toCodes.length < length) {
+				toCodes = new int[length];
+			}
+		}
+
+		/**
+		 * Drop the buffers which grew larger than {@link #MAX_RETAINED}, so
+		 * that a single computation on long sequences does not keep them
+		 * alive for the lifetime of the thread.
+		 */
+		void trim() {
+			pattern.trim(MAX_RETAINED);
+			if (pv.length > MAX_RETAINED) {
+				pv = new long[2];
+				mv = new long[2];
+				d0 = new long[2];
+			}
+			if (costs.length > MAX_RETAINED) {
+				costs = new double[16];
+				lastCosts = new double[16];
+			}
+			if (fromCodes.length > MAX_RETAINED) {
+				fromCodes = new int[16];
+			}
+			if (toCodes.length > MAX_RETAINED) {
+				toCodes = new int[16];
+			}
+		}
+
+	}
+
+	private static final ThreadLocal<Workspace> WORKSPACES = new ThreadLocal<Workspace>() {
+		@Override
+		protected Workspace initialValue() {
+			return new Workspace();
+		}
+	};
+
 	private final EditWeight edit;
+	private final CompiledEditWeight compiled;
+	private final boolean unitCost, transpositions;
 
 	public EditDistance(EditWeight edit) {
 		this.edit = edit;
+		unitCost = edit == CommonEditWeight.LEVENSHTEIN
+			|| edit == CommonEditWeight.DAMEREAU_LEVENSHTEIN;
+		transpositions = edit == CommonEditWeight.DAMEREAU_LEVENSHTEIN;
+		compiled = edit instanceof CompiledEditWeight ? (CompiledEditWeight) edit : null;
+	}
+
+	/**
+	 * Get the weight of edit operations.
+	 */
+	public EditWeight getWeight() {
+		return edit;
+	}
+
+	/**
+	 * Store the codes of the chars of sequence in codes and return true, or
+	 * return false if one of them does not belong to the alphabet of
+	 * compiled.
+	 */
+	private boolean encode(CharSequence sequence, int offset, int length, int[] codes) {
+		for (int i = 0; i < length; ++i) {
+			if ((codes[i] = compiled.code(sequence.charAt(offset+i))) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Same dynamic programming as {@link #distance(Workspace, double, CharSequence, int, int, CharSequence, int, int)}
+	 * with costs which are read from the matrices of a {@link CompiledEditWeight}.
+	 */
+	private double compiledDistance(Workspace workspace, double maxDistance,
+			int len1, int len2) {
+		final CompiledEditWeight weight = compiled;
+		final int[] fromCodes = workspace.fromCodes;
+		final int[] toCodes = workspace.toCodes;
+		final boolean substitutionEnabled = weight.substitutionEnabled();
+		final boolean transpositionEnabled = weight.transpositionEnabled();
+		double[] lastCosts = workspace.lastCosts;
+		double[] costs = workspace.costs;
+
+		lastCosts[0] = 0;
+		for (int j = 1; j <= len2; ++j) {
+			lastCosts[j] = lastCosts[j-1] + weight.insertion(toCodes[j-1]);
+		}
+
+		for (int i = 1; i <= len1; ++i) {
+			final int cFrom = fromCodes[i-1];
+			final double deletionCost = weight.deletion(cFrom);
+			costs[0] = lastCosts[0] + deletionCost;
+			double min = costs[0];
+
+			for (int j = 1; j <= len2; ++j) {
+				final int cTo = toCodes[j-1];
+				double cost = Math.min(
+						costs[j-1] + weight.insertion(cTo),
+						lastCosts[j] + deletionCost);
+				if (cFrom != cTo) {
+					if (substitutionEnabled) {
+						cost = Math.min(cost, lastCosts[j-1] + weight.substitution(cFrom, cTo));
+					}
+					if (transpositionEnabled && i < len1 && j < len2
+							&& cFrom == toCodes[j] && cTo == fromCodes[i]) {
+						cost = Math.min(cost, lastCosts[j-1]
+								+ weight.transposition(cFrom, cTo)
+								- weight.substitution(cTo, cFrom));
+					}
+				} else {
+					cost = Math.min(cost, lastCosts[j-1]);
+				}
+				costs[j] = cost;
+				min = Math.min(min, cost);
+			}
+
+			if (min > maxDistance) {
+				// max value exceeded
+				return Double.MAX_VALUE;
+			}
+
+			double[] tmp = lastCosts;
+			lastCosts = costs;
+			costs = tmp;
+		}
+
+		return lastCosts[len2];
+	}
+
+	private static int maxDistance(double maxDistance) {
+		return maxDistance >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.floor(maxDistance);
+	}
+
+	/**
+	 * Compute the distance between the pattern of the workspace and text,
+	 * or return -1 if it is greater than max.
+	 */
+	private int unitCostDistance(Workspace workspace, int max,
+			CharSequence text, int offset, int length) {
+		PatternMasks pattern = workspace.pattern;
+		if (Math.abs(length - pattern.length) > max) {
+			return -1;
+		}
+		if (pattern.length == 0) {
+			return length;
+		} else if (pattern.blocks == 1) {
+			return distance(pattern, transpositions, max, text, offset, length);
+		} else {
+			workspace.ensureBlocks(pattern.blocks);
+			return distance(pattern, transpositions, max, text, offset, length,
+					workspace.pv, workspace.mv, workspace.d0);
+		}
+	}
+
+	private double unitCostDistance(Workspace workspace, double maxDistance,
+			CharSequence from, int off1, int len1,
+			CharSequence to, int off2, int len2) {
+		// both distances are symmetric, use the shortest sequence as the pattern
+		if (len1 > len2) {
+			CharSequence tmp = from; from = to; to = tmp;
+			int t = off1; off1 = off2; off2 = t;
+			t = len1; len1 = len2; len2 = t;
+		}
+		final int max = maxDistance(maxDistance);
+		if (len2 - len1 > max) {
+			return Double.MAX_VALUE;
+		}
+		workspace.pattern.reset(from, off1, len1);
+		int result = unitCostDistance(workspace, max, to, off2, len2);
+		return result < 0 ? Double.MAX_VALUE : result;
 	}
 
 	@Override
@@ -24,6 +445,11 @@ public final class EditDistance extends CharSequenceDistance {
 				to, off2, len2);
 	}
 
+	/**
+	 * Compute the distance from 'from' to 'to', stopping as soon as it is
+	 * known to be greater than maxDistance, in which case
+	 * {@link Double#MAX_VALUE} is returned.
+	 */
 	public final double distance(double maxDistance, CharSequence from, CharSequence to) {
 		return distance(maxDistance,
 				from, 0, from.length(),
@@ -33,6 +459,60 @@ public final class EditDistance extends CharSequenceDistance {
 	public final double distance(double maxDistance,
 			CharSequence from, int off1, int len1,
 			CharSequence to, int off2, int len2) {
+		final Workspace workspace = WORKSPACES.get();
+		try {
+			return distance(workspace, maxDistance,
+					from, off1, len1,
+					to, off2, len2);
+		} finally {
+			workspace.trim();
+		}
+	}
+
+	@Override
+	public void distances(CharSequence query, int offset, int length,
+			char[] candidates, int[] offsets, int count, double[] distances) {
+		distances(Double.MAX_VALUE, query, offset, length, candidates, offsets, count, distances);
+	}
+
+	/**
+	 * Same as {@link #distances(CharSequence, int, int, char[], int[], int, double[])}
+	 * but distances which are greater than maxDistance are reported as
+	 * {@link Double#MAX_VALUE}.
+	 */
+	public void distances(double maxDistance, CharSequence query, int offset, int length,
+			char[] candidates, int[] offsets, int count, double[] distances) {
+		final Workspace workspace = WORKSPACES.get();
+		final CharBuffer buffer = CharBuffer.wrap(candidates);
+		try {
+			if (unitCost) {
+				// the query is the pattern of all computations
+				final int max = maxDistance(maxDistance);
+				workspace.pattern.reset(query, offset, length);
+				for (int i = 0; i < count; ++i) {
+					int result = unitCostDistance(workspace, max,
+							buffer, offsets[i], offsets[i+1] - offsets[i]);
+					distances[i] = result < 0 ? Double.MAX_VALUE : result;
+				}
+			} else {
+				for (int i = 0; i < count; ++i) {
+					distances[i] = distance(workspace, maxDistance,
+							query, offset, length,
+							buffer, offsets[i], offsets[i+1] - offsets[i]);
+				}
+			}
+		} finally {
+			workspace.trim();
+		}
+	}
+
+	private double distance(Workspace workspace, double maxDistance,
+			CharSequence from, int off1, int len1,
+			CharSequence to, int off2, int len2) {
+
+		if (unitCost) {
+			return unitCostDistance(workspace, maxDistance, from, off1, len1, to, off2, len2);
+		}
 
 		// Empty case
 		if (len1 == 0) {
@@ -41,26 +521,32 @@ public final class EditDistance extends CharSequenceDistance {
 			}
 			double result = 0;
 			for (int i = 0; i < len2; ++i) {
-				result += edit.insertionCost(i, to.charAt(i));
+				result += edit.insertionCost(i, to.charAt(off2+i));
 			}
 			return result;
 		} else if (len2 == 0) {
 			double result = 0;
 			for (int i = 0; i < len1; ++i) {
-				result += edit.deletionCost(i, from.charAt(i));
+				result += edit.deletionCost(i, from.charAt(off1+i));
 			}
 			return result;
 		}
 
-		double[] lastCosts = new double[len2+1];
-		double[] costs = new double[len2+1];
-
-		for (int i = 0; i <= len2; ++i) {
-			lastCosts[i] = 0;
-			for (int j = 0; j < i; ++j) {
-				lastCosts[i] += edit.insertionCost(j, to.charAt(j));
+		workspace.ensureCosts(len2+1);
+		if (compiled != null) {
+			workspace.ensureCodes(Math.max(len1, len2));
+			if (encode(from, off1, len1, workspace.fromCodes)
+					&& encode(to, off2, len2, workspace.toCodes)) {
+				return compiledDistance(workspace, maxDistance, len1, len2);
 			}
 		}
+		double[] lastCosts = workspace.lastCosts;
+		double[] costs = workspace.costs;
+
+		lastCosts[0] = 0;
+		for (int i = 1; i <= len2; ++i) {
+			lastCosts[i] = lastCosts[i-1] + edit.insertionCost(i-1, to.charAt(off2+i-1));
+		}
 
 		for (int i = 1; i <= len1; ++i) {
 			char cFrom = from.charAt(off1+i-1);
@@ -82,12 +568,12 @@ public final class EditDistance extends CharSequenceDistance {
 					}
 
 					if (edit.transpositionEnabled() && i < len1 && j < len2) {
-						char ccFrom = from.charAt(i);
-						char ccTo = to.charAt(j);
+						char ccFrom = from.charAt(off1+i);
+						char ccTo = to.charAt(off2+j);
 						if (cFrom == ccTo && cTo == ccFrom) {
 							double transpositionCost = lastCosts[j-1] +
 								edit.transpositionCost(i-1, j-1, cFrom, cTo) -
-								edit.substitutionCost(i, j, ccTo, ccFrom);
+								edit.substitutionCost(i, j, ccFrom, ccTo);
 							cost = Math.min(cost, transpositionCost);
 						}
 					}
@@ -103,8 +589,8 @@ public final class EditDistance extends CharSequenceDistance {
 
 			if (maxDistance < Double.MAX_VALUE) {
 				boolean shouldContinue = false;
-				for (double cost : costs) {
-					if (cost <= maxDistance) {
+				for (int j = 0; j <= len2; ++j) {
+					if (costs[j] <= maxDistance) {
 						shouldContinue = true;
 						break;
 					}
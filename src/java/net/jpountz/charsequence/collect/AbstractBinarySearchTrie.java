@@ -7,8 +7,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
 
 import net.jpountz.charsequence.CharComparator;
+import net.jpountz.charsequence.util.RamUsageUtils;
 
 /**
  * Trie view of two key-value lists using binary search.
@@ -16,11 +18,19 @@ import net.jpountz.charsequence.CharComparator;
  */
 abstract class AbstractBinarySearchTrie<K, T> extends AbstractTrie<T> {
 
+	/**
+	 * Nodes at the same depth match disjoint ranges of keys, so a node is
+	 * identified by its depth and by the first key of its range.
+	 */
 	protected static class BinarySearchTrieNode implements Node {
-		final String key;
-		BinarySearchTrieNode(String key) { this.key = key; }
+		final int depth;
+		final int low;
+		BinarySearchTrieNode(int depth, int low) {
+			this.depth = depth;
+			this.low = low;
+		}
 		@Override
-		public int hashCode() { return key.hashCode(); }
+		public int hashCode() { return 31 * depth + low; }
 		@Override
 		public boolean equals(Object obj) {
 			if (this == obj)
@@ -30,7 +40,7 @@ abstract class AbstractBinarySearchTrie<K, T> extends AbstractTrie<T> {
 			if (getClass() != obj.getClass())
 				return false;
 			BinarySearchTrieNode other = (BinarySearchTrieNode) obj;
-			if (!key.equals(other.key))
+			if (depth != other.depth || low != other.low)
 				return false;
 			return true;
 		}
@@ -88,14 +98,14 @@ abstract class AbstractBinarySearchTrie<K, T> extends AbstractTrie<T> {
 
 		@Override
 		public Node getNode() {
-			return new BinarySearchTrieNode(getLabel());
+			return new BinarySearchTrieNode(label.length(), peekLowParent());
 		}
 
 		@Override
 		public boolean isAt(Node node) {
 			if (node instanceof BinarySearchTrieNode) {
 				BinarySearchTrieNode n = (BinarySearchTrieNode) node;
-				return trie.comparator.compare(label, n.key) == 0;
+				return n.depth == label.length() && n.low == peekLowParent();
 			}
 			return false;
 		}
@@ -285,6 +295,7 @@ abstract class AbstractBinarySearchTrie<K, T> extends AbstractTrie<T> {
 	protected abstract int size(K key);
 	protected abstract String toString(K key);
 	protected abstract char charAt(K key, int offset);
+	protected abstract long ramBytesUsed(K key);
 
 	int binarySearch(CharSequence key, int offset, int length) {
 		int lo = 0, hi = keys.size()-1;
@@ -343,6 +354,47 @@ abstract class AbstractBinarySearchTrie<K, T> extends AbstractTrie<T> {
 		return new BinarySearchTrieCursor<K, T>(this);
 	}
 
+	@Override
+	public Cursor<T> getCursor(Cursor<T> reuse) {
+		if (reuse instanceof BinarySearchTrieCursor
+				&& ((BinarySearchTrieCursor<?, T>) reuse).trie == this) {
+			reuse.reset();
+			return reuse;
+		}
+		return getCursor();
+	}
+
+	/**
+	 * Binary searches are faster than cursor moves on this trie, so keys are
+	 * looked up independently.
+	 */
+	@Override
+	public void getAll(CharSequence[] keys, T[] results, boolean sorted) {
+		if (results.length < keys.length) {
+			throw new IllegalArgumentException("results is too small");
+		}
+		for (int i = 0; i < keys.length; ++i) {
+			results[i] = get(keys[i]);
+		}
+	}
+
+	/**
+	 * The lists are assumed to be backed by arrays. Since keys are not owned
+	 * by this trie, computing their memory usage requires to iterate over
+	 * all keys.
+	 */
+	@Override
+	protected void addRamUsage(RamUsage usage) {
+		usage.addNodes(this);
+		long keysBytes = RamUsageUtils.sizeOfArray(RamUsageUtils.NUM_BYTES_OBJECT_REF, keys.size());
+		for (K key : keys) {
+			keysBytes += ramBytesUsed(key);
+		}
+		usage.addLabels(keysBytes, keysBytes);
+		long valuesBytes = RamUsageUtils.sizeOfArray(RamUsageUtils.NUM_BYTES_OBJECT_REF, values.size());
+		usage.addValues(valuesBytes, valuesBytes);
+	}
+
 	@Override
 	public Set<Map.Entry<String, T>> entrySet() {
 		return new AbstractSet<Map.Entry<String,T>>() {
@@ -378,6 +430,11 @@ abstract class AbstractBinarySearchTrie<K, T> extends AbstractTrie<T> {
 				};
 			}
 
+			@Override
+			public Spliterator<Map.Entry<String, T>> spliterator() {
+				return Tries.entrySpliterator(AbstractBinarySearchTrie.this);
+			}
+
 			@Override
 			public int size() {
 				return keys.size();
@@ -86,4 +86,23 @@ public abstract class AbstractCharSequenceMap<V>
 		return remove(key, 0, key.length);
 	}
 
+	@Override
+	public long ramBytesUsed() {
+		return ramUsage().total();
+	}
+
+	@Override
+	public RamUsage ramUsage() {
+		RamUsage usage = new RamUsage();
+		addRamUsage(usage);
+		return usage;
+	}
+
+	/**
+	 * Add the memory used by this map to usage.
+	 *
+	 * @param usage the memory usage to update
+	 */
+	protected abstract void addRamUsage(RamUsage usage);
+
 }
@@ -57,9 +57,10 @@ abstract class AbstractListRadixTrie<T> extends AbstractRadixTrie<T> {
 	static final class ArrayRadixTrieCursor<T> extends AbstractCursor<T> implements RadixTrie.Cursor<T> {
 
 		private StringBuilder label;
-		final AbstractListRadixTrie<T> trie;
+		AbstractListRadixTrie<T> trie;
 		final IntArrayList parents;
 		int parent, child, offset;
+		private ArrayRadixTrieNode node;
 
 		protected ArrayRadixTrieCursor(AbstractListRadixTrie<T> trie, int parent, int child, int offset,
 				IntArrayList parents, StringBuilder label) {
@@ -82,7 +83,11 @@ abstract class AbstractListRadixTrie<T> extends AbstractRadixTrie<T> {
 
 		@Override
 		public Node getNode() {
-			return new ArrayRadixTrieNode(parent, child, offset);
+			if (node == null || node.parent != parent || node.child != child
+					|| node.offset != offset) {
+				node = new ArrayRadixTrieNode(parent, child, offset);
+			}
+			return node;
 		}
 
 		private void moveToChildAux(char c) {
@@ -268,13 +273,7 @@ abstract class AbstractListRadixTrie<T> extends AbstractRadixTrie<T> {
 		@Override
 		public int getChildrenSize() {
 			if (offset == 0) {
-				int result = 0;
-				int child = trie.firstChildRadix(parent);
-				while (child != NOT_FOUND) {
-					++result;
-					child = trie.brother(child);
-				}
-				return result;
+				return trie.childrenCountRadix(parent);
 			} else {
 				return 1;
 			}
@@ -397,6 +396,17 @@ abstract class AbstractListRadixTrie<T> extends AbstractRadixTrie<T> {
 			label.setLength(0);
 		}
 
+		/**
+		 * Move this cursor to the root of trie.
+		 */
+		void reset(AbstractListRadixTrie<T> trie) {
+			if (this.trie != trie) {
+				this.trie = trie;
+				node = null;
+			}
+			reset();
+		}
+
 		@Override
 		public ArrayRadixTrieCursor<T> clone() {
 			return new ArrayRadixTrieCursor<T>(trie, parent, child, offset,
@@ -463,6 +473,19 @@ abstract class AbstractListRadixTrie<T> extends AbstractRadixTrie<T> {
 		return NOT_FOUND;
 	}
 
+	/**
+	 * Return the number of children of position in the radix trie.
+	 */
+	protected int childrenCountRadix(int position) {
+		int result = 0;
+		int child = firstChildRadix(position);
+		while (child != NOT_FOUND) {
+			++result;
+			child = brother(child);
+		}
+		return result;
+	}
+
 	protected abstract void addChildRadix(int parent, int child, char[] label, int offset, int length);
 
 	protected abstract void addChildRadix(int parent, int child, CharSequence sequence, int offset, int length);
@@ -587,6 +610,17 @@ abstract class AbstractListRadixTrie<T> extends AbstractRadixTrie<T> {
 		return new ArrayRadixTrieCursor<T>(this);
 	}
 
+	@Override
+	@SuppressWarnings("unchecked")
+	public ArrayRadixTrieCursor<T> getCursor(Trie.Cursor<T> reuse) {
+		if (reuse instanceof ArrayRadixTrieCursor) {
+			ArrayRadixTrieCursor<T> cursor = (ArrayRadixTrieCursor<T>) reuse;
+			cursor.reset(this);
+			return cursor;
+		}
+		return getCursor();
+	}
+
 	@SuppressWarnings("unchecked")
 	public T getValue(int node) {
 		if (node == NOT_FOUND) {
@@ -601,4 +635,11 @@ abstract class AbstractListRadixTrie<T> extends AbstractRadixTrie<T> {
 		return size;
 	}
 
+	@Override
+	protected void addRamUsage(RamUsage usage) {
+		usage.addNodes(this);
+		usage.addNodes(brothers, size);
+		usage.addValues(values, size);
+	}
+
 }
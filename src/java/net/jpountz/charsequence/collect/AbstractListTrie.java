@@ -1,7 +1,6 @@
 package net.jpountz.charsequence.collect;
 
 import it.unimi.dsi.fastutil.chars.CharCollection;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 import java.util.Arrays;
 
@@ -44,23 +43,62 @@ abstract class AbstractListTrie<T> extends AbstractTrie<T> {
 
 	}
 
+	/**
+	 * A cursor which only stores the ids of the nodes on the path from the
+	 * root. The label is a view over this path, so that moving the cursor
+	 * does not allocate anything once the path has grown to its final size.
+	 */
 	static final class AbstractListTrieCursor<T> extends AbstractCursor<T> {
 
-		private StringBuilder label;
-		final AbstractListTrie<T> trie;
+		private final class Label implements CharSequence {
+
+			@Override
+			public int length() {
+				return depth;
+			}
+
+			@Override
+			public char charAt(int index) {
+				if (index < 0 || index >= depth) {
+					throw new IndexOutOfBoundsException(Integer.toString(index));
+				}
+				return trie.label(path[index + 1]);
+			}
+
+			@Override
+			public CharSequence subSequence(int start, int end) {
+				return toString().substring(start, end);
+			}
+
+			@Override
+			public String toString() {
+				char[] chars = new char[depth];
+				for (int i = 0; i < depth; ++i) {
+					chars[i] = trie.label(path[i + 1]);
+				}
+				return new String(chars);
+			}
+
+		}
+
+		AbstractListTrie<T> trie;
 		int current;
-		final IntArrayList parents;
+		// path[0..depth] are the nodes from the root to current
+		int[] path;
+		int depth;
+		private final Label label;
+		private ArrayTrieNode node;
 
-		protected AbstractListTrieCursor(AbstractListTrie<T> trie, int current,
-				IntArrayList parents, StringBuilder label) {
-			this.label = label;
+		protected AbstractListTrieCursor(AbstractListTrie<T> trie, int[] path, int depth) {
 			this.trie = trie;
-			this.current = current;
-			this.parents = parents;
+			this.path = path;
+			this.depth = depth;
+			this.current = path[depth];
+			this.label = new Label();
 		}
 
 		public AbstractListTrieCursor(AbstractListTrie<T> trie) {
-			this(trie, START, new IntArrayList(), new StringBuilder());
+			this(trie, new int[16], 0);
 		}
 
 		@Override
@@ -72,9 +110,37 @@ abstract class AbstractListTrie<T> extends AbstractTrie<T> {
 			return current;
 		}
 
+		/**
+		 * Get whether the cursor is at the node whose id is nodeId.
+		 */
+		public boolean isAt(int nodeId) {
+			return current == nodeId;
+		}
+
 		@Override
 		public Node getNode() {
-			return new ArrayTrieNode(current);
+			if (node == null || node.position != current) {
+				node = new ArrayTrieNode(current);
+			}
+			return node;
+		}
+
+		@Override
+		public int depth() {
+			return depth;
+		}
+
+		@Override
+		public char getEdgeLabel() {
+			return depth == 0 ? '\0' : trie.label(current);
+		}
+
+		private void push(int child) {
+			if (++depth == path.length) {
+				path = Arrays.copyOf(path, depth << 1);
+			}
+			path[depth] = child;
+			current = child;
 		}
 
 		@Override
@@ -83,9 +149,7 @@ abstract class AbstractListTrie<T> extends AbstractTrie<T> {
 			if (child == NOT_FOUND) {
 				return false;
 			} else {
-				parents.push(current);
-				current = child;
-				label.append(c);
+				push(child);
 				return true;
 			}
 		}
@@ -96,33 +160,29 @@ abstract class AbstractListTrie<T> extends AbstractTrie<T> {
 			if (child == NOT_FOUND) {
 				return false;
 			} else {
-				parents.push(current);
-				current = child;
-				label.append(trie.label(current));
+				push(child);
 				return true;
 			}
 		}
 
 		@Override
 		public boolean moveToBrother() {
+			if (depth == 0) {
+				return false;
+			}
 			int brother = trie.brother(current);
 			if (brother == NOT_FOUND) {
 				return false;
 			} else {
 				current = brother;
-				label.setCharAt(label.length() - 1, trie.label(current));
+				path[depth] = brother;
 				return true;
 			}
 		}
 
 		@Override
 		public void addChild(char c) {
-			parents.push(current);
-			label.append(c);
-			current = trie.addChild(current, c);
-			if (current == 0) {
-				System.out.println("error");
-			}
+			push(trie.addChild(current, c));
 		}
 
 		@Override
@@ -157,18 +217,17 @@ abstract class AbstractListTrie<T> extends AbstractTrie<T> {
 
 		@Override
 		public boolean moveToParent() {
-			if (parents.isEmpty()) {
+			if (depth == 0) {
 				return false;
 			} else {
-				current = parents.popInt();
-				label.setLength(label.length() - 1);
+				current = path[--depth];
 				return true;
 			}
 		}
 
 		@Override
 		public boolean isAtRoot() {
-			return current == START;
+			return depth == 0;
 		}
 
 		@Override
@@ -187,32 +246,27 @@ abstract class AbstractListTrie<T> extends AbstractTrie<T> {
 			trie.values[current] = value;
 		}
 
-		private int sizeUnder(int position) {
-			if (position == NOT_FOUND) {
-				return 0;
-			} else {
-				int result = 1;
-				int node = trie.firstChild(current);
-				while (node != NOT_FOUND) {
-					result += sizeUnder(node);
-					node = trie.brother(node);
-				}
-				return result;
-			}
-		}
-
 		@Override
 		public void reset() {
 			current = START;
-			parents.clear();
-			label.setLength(0);
+			path[0] = START;
+			depth = 0;
+		}
+
+		/**
+		 * Move this cursor to the root of trie.
+		 */
+		void reset(AbstractListTrie<T> trie) {
+			if (this.trie != trie) {
+				this.trie = trie;
+				node = null;
+			}
+			reset();
 		}
 
 		@Override
 		public AbstractListTrieCursor<T> clone() {
-			return new AbstractListTrieCursor<T>(trie, current,
-					new IntArrayList(parents),
-					new StringBuilder(label));
+			return new AbstractListTrieCursor<T>(trie, path.clone(), depth);
 		}
 	}
 
@@ -264,6 +318,7 @@ abstract class AbstractListTrie<T> extends AbstractTrie<T> {
 			deleted = Arrays.copyOf(deleted, newCapacity);
 		}
 		deleted[deletedCount++] = node;
+		values[node] = null;
 		setBrother(NOT_FOUND, node, NOT_FOUND);
 	}
 
@@ -349,6 +404,17 @@ abstract class AbstractListTrie<T> extends AbstractTrie<T> {
 		return new AbstractListTrieCursor<T>(this);
 	}
 
+	@Override
+	@SuppressWarnings("unchecked")
+	public AbstractListTrieCursor<T> getCursor(Trie.Cursor<T> reuse) {
+		if (reuse instanceof AbstractListTrieCursor) {
+			AbstractListTrieCursor<T> cursor = (AbstractListTrieCursor<T>) reuse;
+			cursor.reset(this);
+			return cursor;
+		}
+		return getCursor();
+	}
+
 	@Override
 	public T put(char[] buffer, int offset, int length, T value) {
 		int node = START;
@@ -418,6 +484,42 @@ abstract class AbstractListTrie<T> extends AbstractTrie<T> {
 		return getValue(getNode(sequence, offset, length));
 	}
 
+	@Override
+	public void getAll(CharSequence[] keys, T[] results, boolean sorted) {
+		if (results.length < keys.length) {
+			throw new IllegalArgumentException("results is too small");
+		}
+		int[] order = sorted ? null : Tries.sortedOrder(keys);
+		int[] path = new int[16]; // path[d] is the node at depth d
+		path[0] = START;
+		CharSequence previous = null;
+		int depth = 0;
+		for (int n = 0; n < keys.length; ++n) {
+			int i = order == null ? n : order[n];
+			CharSequence key = keys[i];
+			int common = 0;
+			if (previous != null) {
+				int max = Math.min(depth, key.length());
+				while (common < max && previous.charAt(common) == key.charAt(common)) {
+					++common;
+				}
+			}
+			depth = common;
+			if (key.length() >= path.length) {
+				path = Arrays.copyOf(path, growthStrategy.grow(key.length() + 1));
+			}
+			while (depth < key.length()) {
+				int child = child(path[depth], key.charAt(depth));
+				if (child == NOT_FOUND) {
+					break;
+				}
+				path[++depth] = child;
+			}
+			results[i] = depth == key.length() ? getValue(path[depth]) : null;
+			previous = key;
+		}
+	}
+
 	@Override
 	public T remove(char[] buffer, int offset, int length) {
 		if (length == 0) {
@@ -433,19 +535,22 @@ abstract class AbstractListTrie<T> extends AbstractTrie<T> {
 			if (child == NOT_FOUND) {
 				return null;
 			}
-			if (brother(firstChild(node)) != NOT_FOUND) {
-				// several brothers
+			if (brother(firstChild(node)) != NOT_FOUND || values[node] != null) {
+				// several brothers or a value to keep
 				nodeToRemoveParent = node;
 				childToRemove = c;
 			}
 			node = child;
 		}
-		if (nodeToRemoveParent != NOT_FOUND && firstChild(node) == NOT_FOUND) {
-			T result = getValue(child(nodeToRemoveParent, childToRemove));
+		if (firstChild(node) == NOT_FOUND) {
+			T result = getValue(node);
 			removeChild(nodeToRemoveParent, childToRemove);
 			return result;
 		} else {
-			return null;
+			// other keys start with this one
+			T result = getValue(node);
+			values[node] = null;
+			return result;
 		}
 	}
 
@@ -464,19 +569,22 @@ abstract class AbstractListTrie<T> extends AbstractTrie<T> {
 			if (child == NOT_FOUND) {
 				return null;
 			}
-			if (brother(firstChild(node)) != NOT_FOUND) {
-				// several brothers
+			if (brother(firstChild(node)) != NOT_FOUND || values[node] != null) {
+				// several brothers or a value to keep
 				nodeToRemoveParent = node;
 				childToRemove = c;
 			}
 			node = child;
 		}
-		if (nodeToRemoveParent != NOT_FOUND && firstChild(node) == NOT_FOUND) {
-			T result = getValue(child(nodeToRemoveParent, childToRemove));
+		if (firstChild(node) == NOT_FOUND) {
+			T result = getValue(node);
 			removeChild(nodeToRemoveParent, childToRemove);
 			return result;
 		} else {
-			return null;
+			// other keys start with this one
+			T result = getValue(node);
+			values[node] = null;
+			return result;
 		}
 	}
 
@@ -485,4 +593,16 @@ abstract class AbstractListTrie<T> extends AbstractTrie<T> {
 		return size - deletedCount;
 	}
 
+	@Override
+	protected void addRamUsage(RamUsage usage) {
+		int used = size - deletedCount;
+		usage.addNodes(this);
+		usage.addNodes(brothers, used);
+		if (deleted != EMPTY_INT_ARRAY) {
+			usage.addNodes(deleted, deletedCount);
+		}
+		usage.addLabels(labels, used);
+		usage.addValues(values, used);
+	}
+
 }
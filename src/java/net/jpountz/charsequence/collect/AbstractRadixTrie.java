@@ -2,8 +2,13 @@ package net.jpountz.charsequence.collect;
 
 abstract class AbstractRadixTrie<T> extends AbstractTrie<T> implements RadixTrie<T> {
 
+	// recycled across insertions, tries are not thread-safe for writes anyway
+	private RadixTrie.Cursor<T> writeCursor;
+
+	public abstract RadixTrie.Cursor<T> getCursor(Trie.Cursor<T> reuse);
+
 	public T put(char[] buffer, int offset, int length, T value) {
-		RadixTrie.Cursor<T> cursor = getCursor();
+		RadixTrie.Cursor<T> cursor = writeCursor = getCursor(writeCursor);
 		cursor.addChild(buffer, offset, length);
 		T result = cursor.getValue();
 		cursor.setValue(value);
@@ -11,7 +16,7 @@ abstract class AbstractRadixTrie<T> extends AbstractTrie<T> implements RadixTrie
 	}
 
 	public T put(CharSequence sequence, int offset, int length, T value) {
-		RadixTrie.Cursor<T> cursor = getCursor();
+		RadixTrie.Cursor<T> cursor = writeCursor = getCursor(writeCursor);
 		cursor.addChild(sequence, offset, length);
 		T result = cursor.getValue();
 		cursor.setValue(value);
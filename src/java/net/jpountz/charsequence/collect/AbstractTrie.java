@@ -2,11 +2,14 @@ package net.jpountz.charsequence.collect;
 
 import it.unimi.dsi.fastutil.chars.CharCollection;
 
+import java.util.AbstractCollection;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
 
 
 /**
@@ -76,6 +79,10 @@ abstract class AbstractTrie<T> extends AbstractCharSequenceMap<T>
 
 	}
 
+	public Cursor<T> getCursor(Cursor<T> reuse) {
+		return getCursor();
+	}
+
 	public T put(char[] buffer, int offset, int length, T value) {
 		Cursor<T> cursor = getCursor();
 		for (int i = 0; i < length; ++i) {
@@ -136,6 +143,39 @@ abstract class AbstractTrie<T> extends AbstractCharSequenceMap<T>
 		return cursor.getValue();
 	}
 
+	public void getAll(CharSequence[] keys, T[] results) {
+		getAll(keys, results, false);
+	}
+
+	public void getAll(CharSequence[] keys, T[] results, boolean sorted) {
+		if (results.length < keys.length) {
+			throw new IllegalArgumentException("results is too small");
+		}
+		int[] order = sorted ? null : Tries.sortedOrder(keys);
+		Cursor<T> cursor = getCursor();
+		CharSequence previous = null;
+		int depth = 0; // number of chars of previous the cursor is at
+		for (int n = 0; n < keys.length; ++n) {
+			int i = order == null ? n : order[n];
+			CharSequence key = keys[i];
+			int common = 0;
+			if (previous != null) {
+				int max = Math.min(depth, key.length());
+				while (common < max && previous.charAt(common) == key.charAt(common)) {
+					++common;
+				}
+			}
+			for (; depth > common; --depth) {
+				cursor.moveToParent();
+			}
+			while (depth < key.length() && cursor.moveToChild(key.charAt(depth))) {
+				++depth;
+			}
+			results[i] = depth == key.length() ? cursor.getValue() : null;
+			previous = key;
+		}
+	}
+
 	public int size() {
 		Cursor<T> cursor = getCursor();
 		Node root = cursor.getNode();
@@ -212,6 +252,97 @@ abstract class AbstractTrie<T> extends AbstractCharSequenceMap<T>
 				};
 			}
 
+			@Override
+			public Spliterator<Map.Entry<String, T>> spliterator() {
+				return Tries.entrySpliterator(AbstractTrie.this);
+			}
+
+			@Override
+			public int size() {
+				return AbstractTrie.this.size();
+			}
+		};
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return new AbstractSet<String>() {
+
+			@Override
+			public Iterator<String> iterator() {
+				final Iterator<Map.Entry<String, T>> it = entrySet().iterator();
+				return new Iterator<String>() {
+
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					@Override
+					public String next() {
+						Map.Entry<String, T> next = it.next();
+						return next == null ? null : next.getKey();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+
+				};
+			}
+
+			@Override
+			public Spliterator<String> spliterator() {
+				return Tries.keySpliterator(AbstractTrie.this);
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof CharSequence
+					&& AbstractTrie.this.containsKey((CharSequence) o);
+			}
+
+			@Override
+			public int size() {
+				return AbstractTrie.this.size();
+			}
+		};
+	}
+
+	@Override
+	public Collection<T> values() {
+		return new AbstractCollection<T>() {
+
+			@Override
+			public Iterator<T> iterator() {
+				final Iterator<Map.Entry<String, T>> it = entrySet().iterator();
+				return new Iterator<T>() {
+
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					@Override
+					public T next() {
+						Map.Entry<String, T> next = it.next();
+						return next == null ? null : next.getValue();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+
+				};
+			}
+
+			@Override
+			public Spliterator<T> spliterator() {
+				return Tries.valueSpliterator(AbstractTrie.this);
+			}
+
 			@Override
 			public int size() {
 				return AbstractTrie.this.size();
@@ -0,0 +1,519 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.Arrays;
+
+import net.jpountz.charsequence.GrowthStrategy;
+
+/**
+ * An adaptive radix trie (Leis et al., 2013).
+ *
+ * Labels are stored the same way as in {@link ListRadixTrie}, but the
+ * children of every node are also indexed by a table whose layout depends
+ * on the number of children:
+ * <ul>
+ * <li>{@link Layout#NODE4} and {@link Layout#NODE16}: up to 4 or 16 sorted
+ * labels, which are scanned linearly,</li>
+ * <li>{@link Layout#NODE48}: an index from the low byte of the label to one
+ * of 48 slots,</li>
+ * <li>{@link Layout#NODE256}: one slot per low byte of the label.</li>
+ * </ul>
+ * Since labels are 16-bits chars, NODE48 and NODE256 require all labels to
+ * share the same high byte, which is the case for most alphabets. Larger
+ * nodes whose labels span several pages use a sorted array of labels which
+ * is searched by dichotomy ({@link Layout#SORTED}).
+ *
+ * All tables are stored in a single pool of ints:
+ * <pre>
+ * layout, count, page (capacity for SORTED)
+ * NODE4, NODE16, SORTED: labels (2 per int), children
+ * NODE48: index (4 slots + 1 per int), 48 children
+ * NODE256: 256 children
+ * </pre>
+ *
+ * @param <T> the values type
+ */
+public class AdaptiveRadixTrie<T> extends ListRadixTrie<T> {
+
+	/**
+	 * The layout of the table of children of a node.
+	 */
+	public static enum Layout {
+		/** The node is a leaf, or the cursor is inside the label of an edge. */
+		NONE,
+		NODE4,
+		NODE16,
+		NODE48,
+		NODE256,
+		SORTED;
+	}
+
+	private static final Layout[] LAYOUTS = Layout.values();
+	private static final int NODE4 = Layout.NODE4.ordinal();
+	private static final int NODE16 = Layout.NODE16.ordinal();
+	private static final int NODE48 = Layout.NODE48.ordinal();
+	private static final int NODE256 = Layout.NODE256.ordinal();
+	private static final int SORTED = Layout.SORTED.ordinal();
+
+	private static final int HEADER = 3;
+	private static final int NODE48_CHILDREN = HEADER + 64;
+	private static final int MIN_SORTED_CAPACITY = 32;
+
+	// offset of the table of children of every node in pool, or NOT_FOUND
+	protected int[] tables;
+	protected int[] pool;
+	protected int poolSize;
+	// number of ints of pool which are not used by any table anymore
+	protected int poolGarbage;
+	private char[] keysBuffer;
+	private int[] childrenBuffer;
+
+	public AdaptiveRadixTrie(int initialCapacity, GrowthStrategy growthStrategy) {
+		super(initialCapacity, growthStrategy);
+		tables = new int[initialCapacity];
+		Arrays.fill(tables, NOT_FOUND);
+		pool = new int[Math.max(16, initialCapacity * 4)];
+		keysBuffer = new char[16];
+		childrenBuffer = new int[16];
+	}
+
+	public AdaptiveRadixTrie() {
+		this(DEFAULT_CAPACITY, GrowthStrategy.FAST_GROWTH);
+	}
+
+	private static int tableLength(int layout, int capacity) {
+		if (layout == NODE48) {
+			return NODE48_CHILDREN + 48;
+		} else if (layout == NODE256) {
+			return HEADER + 256;
+		} else {
+			return HEADER + ((capacity + 1) >>> 1) + capacity;
+		}
+	}
+
+	private int capacity(int offset) {
+		int layout = pool[offset];
+		if (layout == NODE4) {
+			return 4;
+		} else if (layout == NODE16) {
+			return 16;
+		} else if (layout == SORTED) {
+			return pool[offset + 2];
+		} else {
+			throw new AssertionError();
+		}
+	}
+
+	private int tableLength(int offset) {
+		int layout = pool[offset];
+		if (layout == NODE48 || layout == NODE256) {
+			return tableLength(layout, 0);
+		}
+		return tableLength(layout, capacity(offset));
+	}
+
+	private int allocate(int layout, int capacity) {
+		int length = tableLength(layout, capacity);
+		if (poolSize + length > pool.length) {
+			if (poolGarbage > poolSize >>> 1) {
+				compact(pool.length);
+			}
+			if (poolSize + length > pool.length) {
+				int newCapacity = pool.length;
+				while (newCapacity < poolSize + length) {
+					newCapacity = growthStrategy.grow(newCapacity);
+				}
+				pool = Arrays.copyOf(pool, newCapacity);
+			}
+		}
+		int offset = poolSize;
+		poolSize += length;
+		pool[offset] = layout;
+		pool[offset + 1] = 0;
+		pool[offset + 2] = capacity;
+		if (layout == NODE48) {
+			Arrays.fill(pool, offset + HEADER, offset + NODE48_CHILDREN, 0);
+		} else if (layout == NODE256) {
+			Arrays.fill(pool, offset + HEADER, offset + length, NOT_FOUND);
+		}
+		return offset;
+	}
+
+	/**
+	 * Copy all tables of children to a new pool, in node order.
+	 */
+	private void compact(int capacity) {
+		int[] newPool = new int[Math.max(capacity, poolSize - poolGarbage)];
+		int newSize = 0;
+		for (int node = 0; node < size; ++node) {
+			int offset = tables[node];
+			if (offset != NOT_FOUND) {
+				int length = tableLength(offset);
+				System.arraycopy(pool, offset, newPool, newSize, length);
+				tables[node] = newSize;
+				newSize += length;
+			}
+		}
+		pool = newPool;
+		poolSize = newSize;
+		poolGarbage = 0;
+	}
+
+	private char key(int offset, int i) {
+		int keys = pool[offset + HEADER + (i >>> 1)];
+		return (char) ((i & 1) == 0 ? keys : keys >>> 16);
+	}
+
+	private void setKey(int offset, int i, char c) {
+		int index = offset + HEADER + (i >>> 1);
+		int shift = (i & 1) << 4;
+		pool[index] = (pool[index] & ~(0xFFFF << shift)) | (c << shift);
+	}
+
+	/**
+	 * Offset of the first child of a sorted table.
+	 */
+	private static int sortedChildren(int offset, int capacity) {
+		return offset + HEADER + ((capacity + 1) >>> 1);
+	}
+
+	/**
+	 * Index of the first label which is &gt;= c in a sorted table.
+	 */
+	private int search(int offset, char c) {
+		int count = pool[offset + 1];
+		if (pool[offset] != SORTED) {
+			int i = 0;
+			while (i < count && key(offset, i) < c) {
+				++i;
+			}
+			return i;
+		}
+		int lo = 0, hi = count;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (key(offset, mid) < c) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Slot + 1 of the child whose label has b as a low byte in a NODE48
+	 * table, or 0.
+	 */
+	private int slot(int offset, int b) {
+		return (pool[offset + HEADER + (b >>> 2)] >>> ((b & 3) << 3)) & 0xFF;
+	}
+
+	private void setSlot(int offset, int b, int slot) {
+		int index = offset + HEADER + (b >>> 2);
+		int shift = (b & 3) << 3;
+		pool[index] = (pool[index] & ~(0xFF << shift)) | (slot << shift);
+	}
+
+	/**
+	 * Child whose label has b as a low byte in a NODE48 or NODE256 table.
+	 */
+	private int pageChild(int offset, int b) {
+		if (pool[offset] == NODE256) {
+			return pool[offset + HEADER + b];
+		}
+		int slot = slot(offset, b);
+		return slot == 0 ? NOT_FOUND : pool[offset + NODE48_CHILDREN + slot - 1];
+	}
+
+	@Override
+	protected int firstChildRadix(int position, char label) {
+		int offset = tables[position];
+		if (offset == NOT_FOUND) {
+			return NOT_FOUND;
+		}
+		int layout = pool[offset];
+		if (layout == NODE48 || layout == NODE256) {
+			if (label >>> 8 != pool[offset + 2]) {
+				return NOT_FOUND;
+			}
+			return pageChild(offset, label & 0xFF);
+		}
+		int i = search(offset, label);
+		if (i < pool[offset + 1] && key(offset, i) == label) {
+			return pool[sortedChildren(offset, capacity(offset)) + i];
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Return the child of position with the greatest label which is &lt; c.
+	 */
+	private int previousChild(int position, char c) {
+		int offset = tables[position];
+		if (offset == NOT_FOUND) {
+			return NOT_FOUND;
+		}
+		int layout = pool[offset];
+		if (layout == NODE48 || layout == NODE256) {
+			int page = pool[offset + 2];
+			if (c >>> 8 < page) {
+				return NOT_FOUND;
+			}
+			int b = c >>> 8 > page ? 255 : (c & 0xFF) - 1;
+			for (; b >= 0; --b) {
+				int child = pageChild(offset, b);
+				if (child != NOT_FOUND) {
+					return child;
+				}
+			}
+			return NOT_FOUND;
+		}
+		int i = search(offset, c);
+		return i == 0 ? NOT_FOUND : pool[sortedChildren(offset, capacity(offset)) + i - 1];
+	}
+
+	/**
+	 * Copy the labels and children of a table to the buffers, in label order.
+	 */
+	private int collect(int offset) {
+		int count = pool[offset + 1];
+		if (keysBuffer.length < count) {
+			keysBuffer = new char[count];
+			childrenBuffer = new int[count];
+		}
+		int layout = pool[offset];
+		if (layout == NODE48 || layout == NODE256) {
+			int page = pool[offset + 2] << 8;
+			int i = 0;
+			for (int b = 0; b < 256; ++b) {
+				int child = pageChild(offset, b);
+				if (child != NOT_FOUND) {
+					keysBuffer[i] = (char) (page | b);
+					childrenBuffer[i++] = child;
+				}
+			}
+		} else {
+			int children = sortedChildren(offset, capacity(offset));
+			for (int i = 0; i < count; ++i) {
+				keysBuffer[i] = key(offset, i);
+			}
+			System.arraycopy(pool, children, childrenBuffer, 0, count);
+		}
+		return count;
+	}
+
+	/**
+	 * Move the children of position to a table which has room for c.
+	 */
+	private void grow(int position, char c) {
+		int offset = tables[position];
+		int count = collect(offset);
+		poolGarbage += tableLength(offset);
+		tables[position] = NOT_FOUND;
+
+		int n = count + 1;
+		boolean samePage = keysBuffer[0] >>> 8 == c >>> 8
+				&& keysBuffer[count - 1] >>> 8 == c >>> 8;
+		int layout, capacity;
+		if (n <= 16) {
+			layout = NODE16;
+			capacity = 16;
+		} else if (samePage) {
+			layout = n <= 48 ? NODE48 : NODE256;
+			capacity = c >>> 8; // page
+		} else {
+			layout = SORTED;
+			capacity = Math.max(MIN_SORTED_CAPACITY, Integer.highestOneBit(count) << 1);
+		}
+
+		offset = allocate(layout, capacity);
+		tables[position] = offset;
+		pool[offset + 1] = count;
+		if (layout == NODE48) {
+			for (int i = 0; i < count; ++i) {
+				setSlot(offset, keysBuffer[i] & 0xFF, i + 1);
+			}
+			System.arraycopy(childrenBuffer, 0, pool, offset + NODE48_CHILDREN, count);
+		} else if (layout == NODE256) {
+			for (int i = 0; i < count; ++i) {
+				pool[offset + HEADER + (keysBuffer[i] & 0xFF)] = childrenBuffer[i];
+			}
+		} else {
+			for (int i = 0; i < count; ++i) {
+				setKey(offset, i, keysBuffer[i]);
+			}
+			System.arraycopy(childrenBuffer, 0, pool, sortedChildren(offset, capacity), count);
+		}
+	}
+
+	/**
+	 * Make child the child of position with label c, replacing any previous
+	 * child with the same label.
+	 */
+	private void putChild(int position, char c, int child) {
+		int offset = tables[position];
+		if (offset == NOT_FOUND) {
+			offset = allocate(NODE4, 4);
+			tables[position] = offset;
+		}
+		int layout = pool[offset];
+		int count = pool[offset + 1];
+		if (layout == NODE48 || layout == NODE256) {
+			if (c >>> 8 == pool[offset + 2]) {
+				int b = c & 0xFF;
+				if (layout == NODE256) {
+					int index = offset + HEADER + b;
+					if (pool[index] == NOT_FOUND) {
+						++pool[offset + 1];
+					}
+					pool[index] = child;
+					return;
+				}
+				int slot = slot(offset, b);
+				if (slot != 0) {
+					pool[offset + NODE48_CHILDREN + slot - 1] = child;
+					return;
+				} else if (count < 48) {
+					setSlot(offset, b, count + 1);
+					pool[offset + NODE48_CHILDREN + count] = child;
+					++pool[offset + 1];
+					return;
+				}
+			}
+		} else {
+			int capacity = capacity(offset);
+			int children = sortedChildren(offset, capacity);
+			int i = search(offset, c);
+			if (i < count && key(offset, i) == c) {
+				pool[children + i] = child;
+				return;
+			} else if (count < capacity) {
+				for (int j = count; j > i; --j) {
+					setKey(offset, j, key(offset, j - 1));
+				}
+				System.arraycopy(pool, children + i, pool, children + i + 1, count - i);
+				setKey(offset, i, c);
+				pool[children + i] = child;
+				++pool[offset + 1];
+				return;
+			}
+		}
+		grow(position, c);
+		putChild(position, c, child);
+	}
+
+	/**
+	 * Insert child in the list of children of parent, in label order.
+	 */
+	private void link(int parent, int child, char c) {
+		int previous = previousChild(parent, c);
+		int replaced = firstChildRadix(parent, c);
+		int next;
+		if (replaced != NOT_FOUND) {
+			next = brother(replaced);
+		} else if (previous == NOT_FOUND) {
+			next = children[parent];
+		} else {
+			next = brother(previous);
+		}
+		if (previous == NOT_FOUND) {
+			children[parent] = child;
+		} else {
+			setBrother(previous, child);
+		}
+		setBrother(child, next);
+		putChild(parent, c, child);
+	}
+
+	@Override
+	protected void addChildRadix(int parent, int child, char[] label,
+			int offset, int length) {
+		link(parent, child, label[offset]);
+		setLabel(child, label, offset, length);
+	}
+
+	@Override
+	protected void addChildRadix(int parent, int child, CharSequence sequence,
+			int offset, int length) {
+		link(parent, child, sequence.charAt(offset));
+		setLabel(child, sequence, offset, length);
+	}
+
+	@Override
+	protected int childrenCountRadix(int position) {
+		int offset = tables[position];
+		return offset == NOT_FOUND ? 0 : pool[offset + 1];
+	}
+
+	/**
+	 * Return the layout of the table of children of the node the cursor is
+	 * positioned on.
+	 *
+	 * @param cursor a cursor of this trie
+	 */
+	public Layout getLayout(Trie.Cursor<T> cursor) {
+		if (!(cursor instanceof ArrayRadixTrieCursor)
+				|| ((ArrayRadixTrieCursor<T>) cursor).trie != this) {
+			throw new IllegalArgumentException("cursor does not belong to this trie");
+		}
+		ArrayRadixTrieCursor<T> c = (ArrayRadixTrieCursor<T>) cursor;
+		if (c.offset != 0 || tables[c.parent] == NOT_FOUND) {
+			return Layout.NONE;
+		}
+		return LAYOUTS[pool[tables[c.parent]]];
+	}
+
+	@Override
+	public void ensureCapacity(int capacity) {
+		int previousCapacity = getCapacity();
+		super.ensureCapacity(capacity);
+		if (capacity > previousCapacity) {
+			tables = Arrays.copyOf(tables, capacity);
+			Arrays.fill(tables, previousCapacity, capacity, NOT_FOUND);
+		}
+	}
+
+	@Override
+	public void trimToSize() {
+		super.trimToSize();
+		tables = Arrays.copyOf(tables, size);
+		compact(poolSize - poolGarbage);
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		Arrays.fill(tables, NOT_FOUND);
+		poolSize = poolGarbage = 0;
+	}
+
+	@Override
+	protected void addRamUsage(RamUsage usage) {
+		super.addRamUsage(usage);
+		usage.addChildren(tables, size);
+		usage.addChildren(pool, poolSize - poolGarbage);
+	}
+
+	@Override
+	public void optimizeFor(Trie.Traversal traversal) {
+		AdaptiveRadixTrie<T> trie = new AdaptiveRadixTrie<T>(radixSize(), growthStrategy);
+		ArrayRadixTrieCursor<T> cursor = getCursor();
+		Node node = cursor.getNode();
+		do {
+			trie.put(cursor.getLabelInternal(), cursor.getValue());
+		} while (Tries.moveToNextSuffix(node, cursor, traversal));
+		trie.trimToSize();
+		this.brothers = trie.brothers;
+		this.children = trie.children;
+		this.labels = trie.labels;
+		this.labelsBytes = trie.labelsBytes;
+		this.sharedLabels = null;
+		this.values = trie.values;
+		this.size = trie.size;
+		this.tables = trie.tables;
+		this.pool = trie.pool;
+		this.poolSize = trie.poolSize;
+		this.poolGarbage = trie.poolGarbage;
+	}
+
+}
@@ -2,11 +2,28 @@ package net.jpountz.charsequence.collect;
 
 import java.util.Arrays;
 
+import net.jpountz.charsequence.Alphabet;
 import net.jpountz.charsequence.GrowthStrategy;
 
 /**
  * An array trie. This trie provides O(1) access from a node to any of its
  * children.
+ *
+ * The children of all nodes are stored in a single pool of ints. The table
+ * of children of a node covers a window of labels, split into words of 32
+ * labels. Every word stores a bitmap of the labels which are present and the
+ * number of children in the previous words so that the position of a child
+ * is computed with a single popcount:
+ *
+ * <pre>
+ * header = firstWord &lt;&lt; 16 | words
+ * (bitmap, rank) * words
+ * children, sorted by label
+ * </pre>
+ *
+ * When labels are sparse, an {@link Alphabet} can be given to the trie so
+ * that tables are indexed by dense codes instead of raw chars. Children are
+ * then enumerated in the order of the alphabet.
  */
 public class ArrayTrie<T> extends AbstractListTrie<T> implements Trie.Optimizable, Trie.Trimmable {
 
@@ -15,196 +32,266 @@ public class ArrayTrie<T> extends AbstractListTrie<T> implements Trie.Optimizabl
 
 	protected final int initialChildrenCapacity;
 	protected final GrowthStrategy childrenGrowthStrategy;
-	protected int[][] children;
+	protected final Alphabet alphabet;
+	// offset of the table of children of every node in pool, or NOT_FOUND
+	protected int[] childrenOffsets;
+	protected int[] pool;
+	protected int poolSize;
+	// number of ints of pool which are not used by any table anymore
+	protected int poolGarbage;
 
+	/**
+	 * @param initialCapacity the initial number of nodes
+	 * @param growthStrategy how to grow the nodes arrays
+	 * @param initialChildrenCapacity the initial number of ints of the pool of
+	 *                                children tables per node
+	 * @param childrenGrowthStrategy how to grow the pool of children tables
+	 * @param alphabet the alphabet of the labels, or null to index tables by
+	 *                 raw chars
+	 */
 	public ArrayTrie(int initialCapacity, GrowthStrategy growthStrategy,
-			int initialChildrenCapacity, GrowthStrategy childrenGrowthStrategy) {
+			int initialChildrenCapacity, GrowthStrategy childrenGrowthStrategy,
+			Alphabet alphabet) {
 		super(initialCapacity, growthStrategy);
+		this.alphabet = alphabet;
 		this.initialChildrenCapacity = initialChildrenCapacity;
+		if (childrenGrowthStrategy == null) {
+			childrenGrowthStrategy = GrowthStrategy.FAST_GROWTH;
+		}
 		this.childrenGrowthStrategy = childrenGrowthStrategy;
-		children = new int[initialCapacity][];
+		childrenOffsets = new int[initialCapacity];
+		Arrays.fill(childrenOffsets, NOT_FOUND);
+		pool = new int[Math.max(4, initialCapacity * initialChildrenCapacity)];
 	}
 
-	public ArrayTrie() {
+	public ArrayTrie(int initialCapacity, GrowthStrategy growthStrategy,
+			int initialChildrenCapacity, GrowthStrategy childrenGrowthStrategy) {
+		this(initialCapacity, growthStrategy, initialChildrenCapacity,
+				childrenGrowthStrategy, null);
+	}
+
+	public ArrayTrie(Alphabet alphabet) {
 		this(DEFAULT_CAPACITY, GrowthStrategy.FAST_GROWTH,
-				DEFAULT_CHILDREN_CAPACITY, GrowthStrategy.FAST_GROWTH);
+				DEFAULT_CHILDREN_CAPACITY, GrowthStrategy.FAST_GROWTH, alphabet);
+	}
+
+	public ArrayTrie() {
+		this(null);
+	}
+
+	/**
+	 * Return the code of c in the alphabet, or -1 if it does not belong to it.
+	 */
+	private int code(char c) {
+		return alphabet == null ? c : alphabet.code(c);
+	}
+
+	private int tableLength(int offset) {
+		int words = pool[offset] & 0xFFFF;
+		return 1 + 2 * words + pool[offset + 2 * words]
+				+ Integer.bitCount(pool[offset + 2 * words - 1]);
+	}
+
+	private int allocate(int length) {
+		if (poolSize + length > pool.length) {
+			if (poolGarbage > poolSize >>> 1) {
+				compact(pool.length);
+			}
+			if (poolSize + length > pool.length) {
+				int newCapacity = pool.length;
+				while (newCapacity < poolSize + length) {
+					newCapacity = childrenGrowthStrategy.grow(newCapacity);
+				}
+				pool = Arrays.copyOf(pool, newCapacity);
+			}
+		}
+		int offset = poolSize;
+		poolSize += length;
+		return offset;
+	}
+
+	/**
+	 * Copy all tables of children to a new pool, in node order.
+	 */
+	private void compact(int capacity) {
+		int[] newPool = new int[Math.max(capacity, poolSize - poolGarbage)];
+		int newSize = 0;
+		for (int node = 0; node < childrenOffsets.length; ++node) {
+			int offset = childrenOffsets[node];
+			if (offset != NOT_FOUND) {
+				int length = tableLength(offset);
+				System.arraycopy(pool, offset, newPool, newSize, length);
+				childrenOffsets[node] = newSize;
+				newSize += length;
+			}
+		}
+		pool = newPool;
+		poolSize = newSize;
+		poolGarbage = 0;
+	}
+
+	private void freeChildren(int node) {
+		int offset = childrenOffsets[node];
+		if (offset != NOT_FOUND) {
+			poolGarbage += tableLength(offset);
+			childrenOffsets[node] = NOT_FOUND;
+		}
 	}
 
 	@Override
 	protected void setDeleted(int node) {
 		super.setDeleted(node);
-		children[node] = null;
+		freeChildren(node);
 	}
 
 	@Override
 	protected int firstChild(int position) {
-		int[] cs = children[position];
-		if (cs != null && cs[0] > 0) {
-			return cs[1];
+		int offset = childrenOffsets[position];
+		if (offset != NOT_FOUND) {
+			return pool[offset + 1 + 2 * (pool[offset] & 0xFFFF)];
 		}
 		return NOT_FOUND;
 	}
 
 	@Override
-	protected int child(int node, char label) {
-		int[] cs = children[node];
-		if (cs != null && cs[0] > 0) {
-			int firstChild = cs[1];
-			char firstChildLabel = label(firstChild);
-			int offset = label - firstChildLabel;
-			if (offset >= 0 && offset < cs[0]) {
-				return cs[offset+1];
+	protected int child(int node, char c) {
+		int offset = childrenOffsets[node];
+		int label = code(c);
+		if (offset != NOT_FOUND && label >= 0) {
+			int header = pool[offset];
+			int words = header & 0xFFFF;
+			int w = (label >>> 5) - (header >>> 16);
+			if (w >= 0 && w < words) {
+				int bitmap = pool[offset + 1 + 2 * w];
+				int bit = 1 << label;
+				if ((bitmap & bit) != 0) {
+					int rank = pool[offset + 2 + 2 * w] + Integer.bitCount(bitmap & (bit - 1));
+					return pool[offset + 1 + 2 * words + rank];
+				}
 			}
 		}
 		return NOT_FOUND;
 	}
 
 	@Override
-	protected int addChild(final int node, char c) {
-		int[] cs = children[node];
-		int size = cs == null ? 0 : cs[0];
+	protected int addChild(final int node, char label) {
+		int c = code(label);
+		if (c < 0) {
+			throw new IllegalArgumentException("'" + label + "' is not in the alphabet");
+		}
+		int offset = childrenOffsets[node];
 		int child;
-		if (size == 0) {
-			cs = new int[1+initialChildrenCapacity];
-			Arrays.fill(cs, 2, cs.length, NOT_FOUND);
+		if (offset == NOT_FOUND) {
 			child = newNode();
-			setLabel(child, c);
-			cs[0] = 1;
-			cs[1] = child;
-		} else {
-			int firstChild = cs[1];
-			char firstChildLabel = label(firstChild);
-			int offset = c - firstChildLabel;
-			if (offset < 0) {
-				int newSize = size - offset;
-				if (1+newSize > cs.length) {
-					int newCapacity = cs.length - 1;
-					while (newCapacity < 1+newSize) {
-						newCapacity = growthStrategy.grow(newCapacity);
-					}
-					int[] newCs = new int[newCapacity+1];
-					Arrays.fill(newCs, NOT_FOUND);
-					System.arraycopy(cs, 1, newCs, 1-offset, size);
-					cs = newCs;
-				} else {
-					System.arraycopy(cs, 1, cs, 1-offset, size);
-				}
-				Arrays.fill(cs, 1, 1-offset, NOT_FOUND);
-				child = newNode();
-				setLabel(child, c);
-				size = cs[0] = newSize;
-				offset = 0;
-				setBrother(NOT_FOUND, child, firstChild);
-			} else if (offset >= size) {
-				int newSize = offset+1;
-				if (1+newSize > cs.length) {
-					int previousCapacity = cs.length - 1;
-					int newCapacity = previousCapacity;
-					while (newCapacity < newSize) {
-						newCapacity = growthStrategy.grow(newCapacity);
-					}
-					cs = Arrays.copyOf(cs, newCapacity + 1);
-					Arrays.fill(cs, previousCapacity + 1, newCapacity + 1, NOT_FOUND);
-				}
-				child = newNode();
-				setLabel(child, c);
-				setBrother(NOT_FOUND, cs[size], child);
-				size = cs[0] = newSize;
-			} else {
-				child = cs[1+offset];
-				if (child == NOT_FOUND) {
-					child = newNode();
-					setLabel(child, c);
-					for (int i = offset+1; i < size; ++i) {
-						int next = cs[i+1];
-						if (next != NOT_FOUND) {
-							setBrother(NOT_FOUND, child, next);
-							break;
-						}
-					}
-					for (int i = offset-1; i >= 0; --i) {
-						int previous = cs[1+i];
-						if (previous != NOT_FOUND) {
-							setBrother(NOT_FOUND, previous, child);
-							break;
-						}
-					}
-				}
+			setLabel(child, label);
+			offset = allocate(4);
+			pool[offset] = (c >>> 5) << 16 | 1;
+			pool[offset + 1] = 1 << c;
+			pool[offset + 2] = 0;
+			pool[offset + 3] = child;
+			childrenOffsets[node] = offset;
+			return child;
+		}
+		child = child(node, label);
+		if (child != NOT_FOUND) {
+			return child;
+		}
+		child = newNode();
+		setLabel(child, label);
+
+		int length = tableLength(offset);
+		int header = pool[offset];
+		int words = header & 0xFFFF;
+		int firstWord = header >>> 16;
+		int count = length - 1 - 2 * words;
+		int word = c >>> 5;
+		int newFirstWord = Math.min(firstWord, word);
+		int newWords = Math.max(firstWord + words, word + 1) - newFirstWord;
+
+		int newOffset = allocate(1 + 2 * newWords + count + 1);
+		offset = childrenOffsets[node]; // the pool may have been compacted
+		pool[newOffset] = newFirstWord << 16 | newWords;
+		int rank = 0, index = 0;
+		for (int w = 0; w < newWords; ++w) {
+			int previous = newFirstWord + w - firstWord;
+			int bitmap = previous >= 0 && previous < words ? pool[offset + 1 + 2 * previous] : 0;
+			if (newFirstWord + w == word) {
+				index = rank + Integer.bitCount(bitmap & ((1 << c) - 1));
+				bitmap |= 1 << c;
 			}
-			cs[1+offset] = child;
+			pool[newOffset + 1 + 2 * w] = bitmap;
+			pool[newOffset + 2 + 2 * w] = rank;
+			rank += Integer.bitCount(bitmap);
+		}
+		int src = offset + 1 + 2 * words;
+		int dst = newOffset + 1 + 2 * newWords;
+		System.arraycopy(pool, src, pool, dst, index);
+		pool[dst + index] = child;
+		System.arraycopy(pool, src + index, pool, dst + index + 1, count - index);
+		poolGarbage += length;
+		childrenOffsets[node] = newOffset;
+
+		if (index > 0) {
+			setBrother(NOT_FOUND, pool[dst + index - 1], child);
+		}
+		if (index < count) {
+			setBrother(NOT_FOUND, child, pool[dst + index + 1]);
 		}
-		children[node] = cs;
 		return child;
 	}
 
 	@Override
-	protected boolean removeChild(int node, char c) {
-		int[] cs = children[node];
-		if (cs == null || cs[0] == 0) {
+	protected boolean removeChild(int node, char label) {
+		int offset = childrenOffsets[node];
+		int c = code(label);
+		if (offset == NOT_FOUND || c < 0) {
+			return false;
+		}
+		int header = pool[offset];
+		int words = header & 0xFFFF;
+		int w = (c >>> 5) - (header >>> 16);
+		if (w < 0 || w >= words) {
+			return false;
+		}
+		int bitmap = pool[offset + 1 + 2 * w];
+		int bit = 1 << c;
+		if ((bitmap & bit) == 0) {
 			return false;
+		}
+		int count = tableLength(offset) - 1 - 2 * words;
+		int rank = pool[offset + 2 + 2 * w] + Integer.bitCount(bitmap & (bit - 1));
+		int cs = offset + 1 + 2 * words;
+		int child = pool[cs + rank];
+		if (rank > 0) {
+			setBrother(NOT_FOUND, pool[cs + rank - 1], brother(child));
+		}
+		if (count == 1) {
+			freeChildren(node);
 		} else {
-			int firstChild = cs[1];
-			char firstChildLabel = label(firstChild);
-			int offset = c - firstChildLabel;
-			if (offset < 0 || offset >= cs[0] || cs[offset+1] == NOT_FOUND) {
-				return false;
-			} else if (offset == 0) {
-				int shift;
-				for (shift = 1; shift < cs[0]; ++shift) {
-					if (cs[1+shift] != NOT_FOUND) {
-						break;
-					}
-				}
-				for (int i = shift; i < cs[0]; ++i) {
-					cs[i+1-shift] = cs[i+1];
-				}
-				cs[0] -= shift;
-				removeChildren(firstChild);
-				setDeleted(firstChild);
-				return true;
-			} else if (offset == cs[0] - 1) {
-				for (int i = offset - 1; i >= 0; --i) {
-					if (cs[1+i] != NOT_FOUND) {
-						removeChildren(cs[1+i]);
-						setBrother(NOT_FOUND, cs[1+i], NOT_FOUND);
-						setDeleted(cs[1+i]);
-						cs[0] = 1+i;
-						break;
-					}
-				}
-				return true;
-			} else {
-				int child = cs[offset+1];
-				if (child != NOT_FOUND) {
-					for (int i = offset - 1; i >= 0; --i) {
-						if (cs[i+1] != NOT_FOUND) {
-							setBrother(NOT_FOUND, cs[i+1], brother(child));
-							break;
-						}
-					}
-					removeChildren(child);
-					setDeleted(child);
-					cs[offset+1] = NOT_FOUND;
-					return true;
-				} else {
-					return false;
-				}
+			pool[offset + 1 + 2 * w] = bitmap & ~bit;
+			for (int i = w + 1; i < words; ++i) {
+				--pool[offset + 2 + 2 * i];
 			}
+			System.arraycopy(pool, cs + rank + 1, pool, cs + rank, count - rank - 1);
+			++poolGarbage; // the last slot of the table
 		}
+		removeChildren(child);
+		setDeleted(child);
+		return true;
 	}
 
 	@Override
 	protected void removeChildren(int node) {
-		int[] cs = children[node];
-		if (cs != null && cs[0] > 0) {
-			for (int i = 1; i <= cs[0]; ++i) {
-				int child = cs[i];
-				if (child != NOT_FOUND) {
-					removeChildren(child);
-					setDeleted(child);
-				}
+		int offset = childrenOffsets[node];
+		if (offset != NOT_FOUND) {
+			int cs = offset + 1 + 2 * (pool[offset] & 0xFFFF);
+			int end = offset + tableLength(offset);
+			for (int i = cs; i < end; ++i) {
+				int child = pool[i];
+				removeChildren(child);
+				setDeleted(child);
 			}
-			children[node] = null;
+			freeChildren(node);
 		}
 	}
 
@@ -213,34 +300,38 @@ public class ArrayTrie<T> extends AbstractListTrie<T> implements Trie.Optimizabl
 		int previousCapacity = getCapacity();
 		super.ensureCapacity(capacity);
 		if (capacity > previousCapacity) {
-			children = Arrays.copyOf(children, capacity);
+			childrenOffsets = Arrays.copyOf(childrenOffsets, capacity);
+			Arrays.fill(childrenOffsets, previousCapacity, capacity, NOT_FOUND);
 		}
 	}
 
 	@Override
 	public void trimToSize() {
 		super.trimToSize();
-		children = Arrays.copyOf(children, size);
-		for (int i = 0; i < size; ++i) {
-			int[] cs = children[i];
-			int size = cs == null ? 0 : cs[0];
-			if (size == 0) {
-				children[i] = null;
-			} else if (1+size < cs.length) {
-				children[i] = Arrays.copyOf(cs, 1+size);
-			}
-		}
+		childrenOffsets = Arrays.copyOf(childrenOffsets, size);
+		compact(poolSize - poolGarbage);
 	}
 
 	@Override
 	public void clear() {
 		super.clear();
-		Arrays.fill(children, null);
+		Arrays.fill(childrenOffsets, NOT_FOUND);
+		poolSize = poolGarbage = 0;
+	}
+
+	@Override
+	protected void addRamUsage(RamUsage usage) {
+		super.addRamUsage(usage);
+		usage.addChildren(childrenOffsets, size - deletedCount);
+		usage.addChildren(pool, poolSize - poolGarbage);
+		if (alphabet != null) {
+			usage.addChildren(alphabet.ramBytesUsed(), alphabet.ramBytesUsed());
+		}
 	}
 
 	public void optimizeFor(Trie.Traversal traversal) {
 		ArrayTrie<T> trie = new ArrayTrie<T>(size(), growthStrategy,
-				initialChildrenCapacity, childrenGrowthStrategy);
+				initialChildrenCapacity, childrenGrowthStrategy, alphabet);
 		AbstractListTrieCursor<T> cursor = getCursor();
 		Node node = cursor.getNode();
 		do {
@@ -248,9 +339,15 @@ public class ArrayTrie<T> extends AbstractListTrie<T> implements Trie.Optimizabl
 		} while (traversal.moveToNextNode(node, cursor));
 		trie.trimToSize();
 		this.brothers = trie.brothers;
-		this.children = trie.children;
+		this.childrenOffsets = trie.childrenOffsets;
+		this.pool = trie.pool;
+		this.poolSize = trie.poolSize;
+		this.poolGarbage = trie.poolGarbage;
 		this.labels = trie.labels;
 		this.values = trie.values;
+		this.size = trie.size;
+		this.deleted = trie.deleted;
+		this.deletedCount = trie.deletedCount;
 	}
 
 }
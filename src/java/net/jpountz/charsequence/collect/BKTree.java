@@ -0,0 +1,375 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import net.jpountz.charsequence.CharSequenceDistance;
+import net.jpountz.charsequence.EditDistance;
+
+/**
+ * A Burkhard-Keller tree: a metric index to find the keys which are close
+ * to a query according to any {@link CharSequenceDistance} which is
+ * symmetric and satisfies the triangle inequality.
+ *
+ * {@link EditDistance}s which allow transpositions, such as
+ * {@link EditDistance#DAMEREAU_LEVENSHTEIN}, compute the optimal string
+ * alignment distance, which does not satisfy the triangle inequality: "ca"
+ * is 1 transposition away from "ac" which is 1 insertion away from "abc",
+ * but "ca" and "abc" are 3 edits apart. Searches with these distances may
+ * miss results, so {@link EditDistance}s whose weight has
+ * {@link net.jpountz.charsequence.EditWeight#transpositionEnabled() transpositions enabled}
+ * are rejected.
+ *
+ * Every node stores a key, and its children are sorted by their distance
+ * to this key. Every key of a subtree is at the distance of its child to
+ * the key of the node. So when looking for keys within r of a query q, the
+ * triangle inequality tells that only the children whose distance d to the
+ * key of the node satisfies |d(q, node) - d| <= r need to be visited.
+ * Children are looked up by binary search, so that distances need not be
+ * integers.
+ *
+ * Distances which are computed during searches are from the query to the
+ * keys. When the distance is an {@link EditDistance}, computations stop as
+ * soon as no child of a node may be within range.
+ *
+ * This class is not thread-safe, but concurrent searches are safe as long
+ * as the tree is not modified.
+ *
+ * @param <T> the value type
+ */
+public class BKTree<T> {
+
+	private static final class Node {
+
+		static final Node[] NO_CHILDREN = new Node[0];
+		static final double[] NO_DISTANCES = new double[0];
+
+		final String key;
+		Object value;
+		// sorted
+		double[] distances;
+		Node[] children;
+		int childCount;
+
+		Node(String key, Object value) {
+			this.key = key;
+			this.value = value;
+			distances = NO_DISTANCES;
+			children = NO_CHILDREN;
+		}
+
+		double maxChildDistance() {
+			return childCount == 0 ? 0 : distances[childCount - 1];
+		}
+
+		/**
+		 * Return the index of the first child whose distance is at least d.
+		 */
+		int lowerBound(double d) {
+			int lo = 0, hi = childCount;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (distances[mid] < d) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		/**
+		 * Return the child at distance d, or null if there is none.
+		 */
+		Node child(double d) {
+			int i = lowerBound(d);
+			return i < childCount && distances[i] == d ? children[i] : null;
+		}
+
+		void addChild(double d, Node child) {
+			int i = lowerBound(d);
+			if (childCount == children.length) {
+				int newLength = Math.max(2, childCount * 2);
+				distances = Arrays.copyOf(distances, newLength);
+				children = Arrays.copyOf(children, newLength);
+			}
+			System.arraycopy(distances, i, distances, i + 1, childCount - i);
+			System.arraycopy(children, i, children, i + 1, childCount - i);
+			distances[i] = d;
+			children[i] = child;
+			++childCount;
+		}
+
+	}
+
+	private final CharSequenceDistance distance;
+	private final EditDistance editDistance;
+	private Node root;
+	private int size;
+
+	/**
+	 * Create an empty tree.
+	 *
+	 * @throws IllegalArgumentException if distance is an {@link EditDistance}
+	 *         which allows transpositions
+	 */
+	public BKTree(CharSequenceDistance distance) {
+		if (distance instanceof EditDistance
+				&& ((EditDistance) distance).getWeight().transpositionEnabled()) {
+			throw new IllegalArgumentException("edit distances with transpositions are not metrics");
+		}
+		this.distance = distance;
+		this.editDistance = distance instanceof EditDistance ? (EditDistance) distance : null;
+	}
+
+	/**
+	 * Create a tree which contains the entries of map. Every subtree is
+	 * built at once from the entries which are at the same distance of its
+	 * parent, so that children arrays are allocated with their final size.
+	 */
+	public BKTree(CharSequenceDistance distance, Map<String, ? extends T> map) {
+		this(distance);
+		if (map.isEmpty()) {
+			return;
+		}
+		List<Map.Entry<String, ? extends T>> entries = new ArrayList<Map.Entry<String, ? extends T>>(map.size());
+		entries.addAll(map.entrySet());
+		size = entries.size();
+		root = new Node(entries.get(0).getKey(), entries.get(0).getValue());
+
+		// nodes to build, and the entries of their subtrees but their own
+		Deque<Node> nodes = new ArrayDeque<Node>();
+		Deque<List<Map.Entry<String, ? extends T>>> subtrees = new ArrayDeque<List<Map.Entry<String, ? extends T>>>();
+		nodes.push(root);
+		subtrees.push(entries.subList(1, entries.size()));
+		while (!nodes.isEmpty()) {
+			final Node node = nodes.pop();
+			final List<Map.Entry<String, ? extends T>> subtree = subtrees.pop();
+			if (subtree.isEmpty()) {
+				continue;
+			}
+			final double[] distances = new double[subtree.size()];
+			Integer[] order = new Integer[subtree.size()];
+			for (int i = 0; i < distances.length; ++i) {
+				distances[i] = distance.distance(node.key, subtree.get(i).getKey());
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					return Double.compare(distances[o1], distances[o2]);
+				}
+			});
+			int childCount = 0;
+			for (int i = 0; i < order.length; ++i) {
+				if (i == 0 || distances[order[i]] != distances[order[i-1]]) {
+					++childCount;
+				}
+			}
+			node.distances = new double[childCount];
+			node.children = new Node[childCount];
+			for (int i = 0; i < order.length; ) {
+				final double d = distances[order[i]];
+				int j = i + 1;
+				while (j < order.length && distances[order[j]] == d) {
+					++j;
+				}
+				Map.Entry<String, ? extends T> first = subtree.get(order[i]);
+				Node child = new Node(first.getKey(), first.getValue());
+				node.distances[node.childCount] = d;
+				node.children[node.childCount++] = child;
+				List<Map.Entry<String, ? extends T>> grandChildren = new ArrayList<Map.Entry<String, ? extends T>>(j - i - 1);
+				for (int k = i + 1; k < j; ++k) {
+					grandChildren.add(subtree.get(order[k]));
+				}
+				nodes.push(child);
+				subtrees.push(grandChildren);
+				i = j;
+			}
+		}
+	}
+
+	public CharSequenceDistance getDistance() {
+		return distance;
+	}
+
+	/**
+	 * Get the number of keys of this tree.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Associate value to key and return the previous value, or null if
+	 * there was none.
+	 */
+	public T put(CharSequence key, T value) {
+		if (root == null) {
+			root = new Node(key.toString(), value);
+			++size;
+			return null;
+		}
+		Node node = root;
+		while (true) {
+			double d = distance.distance(node.key, key);
+			if (d == 0 && node.key.contentEquals(key)) {
+				@SuppressWarnings("unchecked")
+				T result = (T) node.value;
+				node.value = value;
+				return result;
+			}
+			Node child = node.child(d);
+			if (child == null) {
+				node.addChild(d, new Node(key.toString(), value));
+				++size;
+				return null;
+			}
+			node = child;
+		}
+	}
+
+	/**
+	 * Return the value associated to key, or null if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(CharSequence key) {
+		Node node = root;
+		while (node != null) {
+			double d = distance.distance(node.key, key);
+			if (d == 0 && node.key.contentEquals(key)) {
+				return (T) node.value;
+			}
+			node = node.child(d);
+		}
+		return null;
+	}
+
+	/**
+	 * Distance from query to the key of node, which may be any value
+	 * greater than max if it is greater than max.
+	 */
+	private double distance(CharSequence query, Node node, double max) {
+		if (editDistance != null) {
+			return editDistance.distance(max, query, node.key);
+		}
+		return distance.distance(query, node.key);
+	}
+
+	/**
+	 * Add all entries whose keys are within maxDistance of query to
+	 * neighbors.
+	 */
+	public void getNeighbors(CharSequence query, double maxDistance,
+			Set<Map.Entry<String, T>> neighbors) {
+		if (root == null) {
+			return;
+		}
+		Deque<Node> stack = new ArrayDeque<Node>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			final Node node = stack.pop();
+			final double d = distance(query, node, maxDistance + node.maxChildDistance());
+			if (d <= maxDistance) {
+				@SuppressWarnings("unchecked")
+				T value = (T) node.value;
+				neighbors.add(new AbstractMap.SimpleImmutableEntry<String, T>(node.key, value));
+			}
+			for (int i = node.lowerBound(d - maxDistance);
+					i < node.childCount && node.distances[i] <= d + maxDistance; ++i) {
+				stack.push(node.children[i]);
+			}
+		}
+	}
+
+	private static final class Match {
+
+		final Node node;
+		final double distance;
+
+		Match(Node node, double distance) {
+			this.node = node;
+			this.distance = distance;
+		}
+
+	}
+
+	private static final Comparator<Match> FARTHEST_FIRST = new Comparator<Match>() {
+		@Override
+		public int compare(Match o1, Match o2) {
+			return Double.compare(o2.distance, o1.distance);
+		}
+	};
+
+	/**
+	 * Report the k entries whose keys are the closest to query to consumer,
+	 * in increasing order of distance. Entries whose keys are farther than
+	 * maxDistance from query are not reported. Ties are broken arbitrarily.
+	 *
+	 * @return the number of reported entries
+	 */
+	public int getNearest(CharSequence query, int k, double maxDistance,
+			Tries.MatchConsumer<T> consumer) {
+		if (root == null || k <= 0) {
+			return 0;
+		}
+		PriorityQueue<Match> best = new PriorityQueue<Match>(k, FARTHEST_FIRST);
+		double radius = maxDistance;
+		Deque<Node> stack = new ArrayDeque<Node>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			final Node node = stack.pop();
+			final double d = distance(query, node, radius + node.maxChildDistance());
+			if (d <= radius) {
+				best.add(new Match(node, d));
+				if (best.size() > k) {
+					best.poll();
+				}
+				if (best.size() == k) {
+					radius = Math.min(radius, best.peek().distance);
+				}
+			}
+			// children which are the most likely to be close to the query are
+			// pushed last so that they are visited first and shrink the radius
+			final int from = node.lowerBound(d - radius);
+			int to = from;
+			while (to < node.childCount && node.distances[to] <= d + radius) {
+				++to;
+			}
+			int lo = from, hi = to - 1;
+			while (lo <= hi) {
+				if (d - node.distances[lo] > node.distances[hi] - d) {
+					stack.push(node.children[lo++]);
+				} else {
+					stack.push(node.children[hi--]);
+				}
+			}
+		}
+		Match[] matches = best.toArray(new Match[best.size()]);
+		Arrays.sort(matches, Collections.reverseOrder(FARTHEST_FIRST));
+		for (Match match : matches) {
+			@SuppressWarnings("unchecked")
+			T value = (T) match.node.value;
+			consumer.accept(match.node.key, value, match.distance);
+		}
+		return matches.length;
+	}
+
+	/**
+	 * Same as {@link #getNearest(CharSequence, int, double, Tries.MatchConsumer)}
+	 * without any maximum distance.
+	 */
+	public int getNearest(CharSequence query, int k, Tries.MatchConsumer<T> consumer) {
+		return getNearest(query, k, Double.MAX_VALUE, consumer);
+	}
+
+}
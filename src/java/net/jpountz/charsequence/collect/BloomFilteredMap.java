@@ -0,0 +1,198 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jpountz.charsequence.util.BlockedBloomFilter;
+
+/**
+ * A {@link CharSequenceMap} which guards lookups in another map with a
+ * {@link BlockedBloomFilter}, so that most lookups of absent keys are
+ * answered without accessing the map.
+ *
+ * Keys are added to the filter on put, but removed keys cannot be removed
+ * from the filter: they only make false positives more likely until the
+ * filter is {@link #rebuild() rebuilt}. The filter is also rebuilt
+ * automatically with twice the capacity when more keys than expected have
+ * been added to it. The wrapped map must not be modified directly.
+ * Lookups may be performed concurrently as long as the map is not
+ * modified, and are all counted.
+ *
+ * @param <V> the value type
+ */
+public class BloomFilteredMap<V> extends AbstractCharSequenceMap<V> {
+
+	public static final int DEFAULT_BITS_PER_KEY = 10;
+	private static final int MIN_CAPACITY = 64;
+
+	protected final CharSequenceMap<V> delegate;
+	private final int bitsPerKey;
+	private BlockedBloomFilter filter;
+	private int capacity;
+	// updated by concurrent lookups
+	private final LongAdder lookups = new LongAdder(), rejections = new LongAdder();
+
+	/**
+	 * @param delegate the map to guard, its keys are added to the filter
+	 * @param bitsPerKey the number of bits per key of the filter
+	 */
+	public BloomFilteredMap(CharSequenceMap<V> delegate, int bitsPerKey) {
+		this.delegate = delegate;
+		this.bitsPerKey = bitsPerKey;
+		rebuild();
+	}
+
+	public BloomFilteredMap(CharSequenceMap<V> delegate) {
+		this(delegate, DEFAULT_BITS_PER_KEY);
+	}
+
+	/**
+	 * Rebuild the filter from the keys of the map, so that removed keys are
+	 * not reported by the filter anymore.
+	 */
+	public void rebuild() {
+		capacity = Math.max(MIN_CAPACITY, delegate.size() * 2);
+		filter = new BlockedBloomFilter(capacity, bitsPerKey);
+		for (String key : delegate.keySet()) {
+			filter.add(key, 0, key.length());
+		}
+	}
+
+	public BlockedBloomFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Get the number of lookups which have been made on this map.
+	 */
+	public long getLookups() {
+		return lookups.sum();
+	}
+
+	/**
+	 * Get the number of lookups which have been answered by the filter only.
+	 */
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	/**
+	 * Estimate the probability that the lookup of an absent key needs to
+	 * access the map.
+	 */
+	public double getFalsePositiveRate() {
+		return filter.falsePositiveRate();
+	}
+
+	private void added() {
+		if (filter.count() > capacity) {
+			rebuild();
+		}
+	}
+
+	@Override
+	public V get(CharSequence key, int offset, int length) {
+		lookups.increment();
+		if (!filter.mightContain(key, offset, length)) {
+			rejections.increment();
+			return null;
+		}
+		return delegate.get(key, offset, length);
+	}
+
+	@Override
+	public V get(char[] key, int offset, int length) {
+		lookups.increment();
+		if (!filter.mightContain(key, offset, length)) {
+			rejections.increment();
+			return null;
+		}
+		return delegate.get(key, offset, length);
+	}
+
+	@Override
+	public boolean containsKey(CharSequence key, int offset, int length) {
+		lookups.increment();
+		if (!filter.mightContain(key, offset, length)) {
+			rejections.increment();
+			return false;
+		}
+		return delegate.containsKey(key, offset, length);
+	}
+
+	@Override
+	public boolean containsKey(char[] key, int offset, int length) {
+		lookups.increment();
+		if (!filter.mightContain(key, offset, length)) {
+			rejections.increment();
+			return false;
+		}
+		return delegate.containsKey(key, offset, length);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (key instanceof char[]) {
+			return containsKey((char[]) key);
+		} else if (key instanceof CharSequence) {
+			return containsKey((CharSequence) key);
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public V put(CharSequence key, int offset, int length, V value) {
+		V result = delegate.put(key, offset, length, value);
+		if (result == null) {
+			filter.add(key, offset, length);
+			added();
+		}
+		return result;
+	}
+
+	@Override
+	public V put(char[] key, int offset, int length, V value) {
+		V result = delegate.put(key, offset, length, value);
+		if (result == null) {
+			filter.add(key, offset, length);
+			added();
+		}
+		return result;
+	}
+
+	@Override
+	public V remove(CharSequence key, int offset, int length) {
+		return delegate.remove(key, offset, length);
+	}
+
+	@Override
+	public V remove(char[] key, int offset, int length) {
+		return delegate.remove(key, offset, length);
+	}
+
+	@Override
+	public void clear() {
+		delegate.clear();
+		filter.clear();
+	}
+
+	@Override
+	public int size() {
+		return delegate.size();
+	}
+
+	@Override
+	public Set<Map.Entry<String, V>> entrySet() {
+		return delegate.entrySet();
+	}
+
+	@Override
+	protected void addRamUsage(RamUsage usage) {
+		usage.addNodes(this);
+		usage.addNodes(filter.ramBytesUsed(), filter.ramBytesUsed());
+		usage.add(delegate.ramUsage());
+	}
+
+}
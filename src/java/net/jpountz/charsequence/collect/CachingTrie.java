@@ -0,0 +1,442 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jpountz.charsequence.Hash;
+import net.jpountz.charsequence.StringHash;
+import net.jpountz.charsequence.util.RamUsageUtils;
+
+/**
+ * A {@link DelegatingTrie} which keeps the values of frequently looked up
+ * keys in a small hash table so that hot keys can be found without walking
+ * the trie.
+ *
+ * The cache is set-associative: the {@link StringHash} of a key selects a
+ * set of {@value #WAYS} consecutive slots, and a lookup probes at most these
+ * slots. When a set is full, a victim is chosen with the CLOCK algorithm:
+ * every slot has a reference bit which is set on hits, and the hand of the
+ * set skips (and clears) referenced slots. The victim is only replaced if
+ * the key which missed has been looked up more often than the key of the
+ * victim, according to a {@link FrequencySketch} of recent lookups
+ * (TinyLFU admission), so that a scan of cold keys does not flush hot keys.
+ *
+ * Only hits are cached. Entries are invalidated by put and remove, and the
+ * whole cache is cleared whenever a cursor modifies the trie, but the
+ * delegate must not be modified directly.
+ *
+ * Like other tries, this trie must not be modified concurrently with other
+ * operations, but lookups may run concurrently. Entries are immutable and
+ * published through atomic slots, reference bits and hands are atomics, and
+ * statistics are {@link LongAdder}s. Two threads which miss the same key at
+ * the same time may both cache it, and a thread may lose a race to fill a
+ * slot, which are only missed opportunities to cache a key.
+ *
+ * @param <T> the value type
+ */
+public class CachingTrie<T> extends DelegatingTrie<T> {
+
+	private static final int WAYS = 8;
+	private static final Hash HASH = StringHash.INSTANCE;
+
+	/**
+	 * A cursor which clears the cache whenever it modifies the trie.
+	 */
+	static class CachingCursor<T> extends DelegatingTrie.Cursor<T> {
+
+		final CachingTrie<T> trie;
+
+		CachingCursor(Trie.Cursor<T> delegate, CachingTrie<T> trie) {
+			super(delegate);
+			this.trie = trie;
+		}
+
+		@Override
+		public boolean removeChild(char c) {
+			trie.clearCache();
+			return delegate.removeChild(c);
+		}
+
+		@Override
+		public void removeChildren() {
+			trie.clearCache();
+			delegate.removeChildren();
+		}
+
+		@Override
+		public void setValue(T value) {
+			trie.clearCache();
+			delegate.setValue(value);
+		}
+
+	}
+
+	private static final class Entry {
+
+		final int slot;
+		final int hash;
+		final char[] key;
+		final Object value;
+
+		Entry(int slot, int hash, char[] key, Object value) {
+			this.slot = slot;
+			this.hash = hash;
+			this.key = key;
+			this.value = value;
+		}
+
+		boolean matches(int hash, char[] buffer, int offset, int length) {
+			if (this.hash != hash || key.length != length) {
+				return false;
+			}
+			for (int j = 0; j < length; ++j) {
+				if (key[j] != buffer[offset + j]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		boolean matches(int hash, CharSequence sequence, int offset, int length) {
+			if (this.hash != hash || key.length != length) {
+				return false;
+			}
+			for (int j = 0; j < length; ++j) {
+				if (key[j] != sequence.charAt(offset + j)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+	private final int mask;
+	private final AtomicReferenceArray<Entry> entries;
+	private final AtomicIntegerArray referenced;
+	private final AtomicIntegerArray hands;
+	private final FrequencySketch sketch;
+	private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+	/**
+	 * @param delegate the trie to cache lookups of
+	 * @param capacity the maximum number of cached entries, rounded up to a
+	 *                 power of two which is at least {@value #WAYS}
+	 */
+	public CachingTrie(Trie<T> delegate, int capacity) {
+		super(delegate);
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be > 0");
+		}
+		int sets = (capacity + WAYS - 1) / WAYS;
+		if (sets > 1) {
+			sets = Integer.highestOneBit(sets - 1) << 1;
+		}
+		mask = sets - 1;
+		entries = new AtomicReferenceArray<Entry>(sets * WAYS);
+		referenced = new AtomicIntegerArray(sets * WAYS);
+		hands = new AtomicIntegerArray(sets);
+		sketch = new FrequencySketch(sets * WAYS);
+	}
+
+	private static int set(int hash, int mask) {
+		hash *= 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Return the cached entry of a key, or null. The entry is the one which
+	 * has been compared to the key, so its value is always the value of this
+	 * key even if its slot is replaced concurrently.
+	 */
+	private Entry find(int hash, char[] buffer, int offset, int length) {
+		int start = set(hash, mask) * WAYS;
+		for (int i = start; i < start + WAYS; ++i) {
+			Entry entry = entries.get(i);
+			if (entry != null && entry.matches(hash, buffer, offset, length)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private Entry find(int hash, CharSequence sequence, int offset, int length) {
+		int start = set(hash, mask) * WAYS;
+		for (int i = start; i < start + WAYS; ++i) {
+			Entry entry = entries.get(i);
+			if (entry != null && entry.matches(hash, sequence, offset, length)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Record a hit on entry and return its value. The reference bit of its
+	 * slot is only set if the slot still holds entry.
+	 */
+	private Object hit(Entry entry) {
+		hits.increment();
+		final int i = entry.slot;
+		if (referenced.get(i) == 0 && entries.get(i) == entry) {
+			referenced.lazySet(i, 1);
+		}
+		return entry.value;
+	}
+
+	/**
+	 * Cache key, whose hash is hash, unless the victim of its set has been
+	 * looked up more often.
+	 */
+	private void admit(int hash, char[] key, Object value) {
+		int set = set(hash, mask);
+		int start = set * WAYS;
+		for (int i = start; i < start + WAYS; ++i) {
+			if (entries.get(i) == null
+					&& entries.compareAndSet(i, null, new Entry(i, hash, key, value))) {
+				referenced.lazySet(i, 0);
+				return;
+			}
+		}
+		// the hand is only a hint, concurrent misses may move it racily
+		int hand = hands.get(set);
+		for (int scanned = 0; scanned < WAYS && referenced.get(start + hand) != 0; ++scanned) {
+			referenced.lazySet(start + hand, 0);
+			hand = (hand + 1) & (WAYS - 1);
+		}
+		hands.lazySet(set, (hand + 1) & (WAYS - 1));
+		int i = start + hand;
+		Entry victim = entries.get(i);
+		if (victim != null && sketch.frequency(hash) <= sketch.frequency(victim.hash)) {
+			return;
+		}
+		if (entries.compareAndSet(i, victim, new Entry(i, hash, key, value))) {
+			referenced.lazySet(i, 0);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T get(char[] buffer, int offset, int length) {
+		int hash = HASH.hash(buffer, offset, length);
+		sketch.increment(hash);
+		Entry entry = find(hash, buffer, offset, length);
+		if (entry != null) {
+			return (T) hit(entry);
+		}
+		misses.increment();
+		T result = delegate.get(buffer, offset, length);
+		if (result != null) {
+			admit(hash, Arrays.copyOfRange(buffer, offset, offset + length), result);
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T get(CharSequence sequence, int offset, int length) {
+		int hash = HASH.hash(sequence, offset, length);
+		sketch.increment(hash);
+		Entry entry = find(hash, sequence, offset, length);
+		if (entry != null) {
+			return (T) hit(entry);
+		}
+		misses.increment();
+		T result = delegate.get(sequence, offset, length);
+		if (result != null) {
+			char[] key = new char[length];
+			for (int j = 0; j < length; ++j) {
+				key[j] = sequence.charAt(offset + j);
+			}
+			admit(hash, key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Serve the keys which are cached from the cache and look the other ones
+	 * up in the delegate at once.
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public void getAll(CharSequence[] keys, T[] results, boolean sorted) {
+		if (results.length < keys.length) {
+			throw new IllegalArgumentException("results is too small");
+		}
+		int[] hashes = new int[keys.length];
+		int[] missing = new int[keys.length];
+		int missCount = 0;
+		for (int n = 0; n < keys.length; ++n) {
+			CharSequence key = keys[n];
+			int hash = hashes[n] = HASH.hash(key, 0, key.length());
+			sketch.increment(hash);
+			Entry entry = find(hash, key, 0, key.length());
+			if (entry != null) {
+				results[n] = (T) hit(entry);
+			} else {
+				misses.increment();
+				missing[missCount++] = n;
+			}
+		}
+		if (missCount == 0) {
+			return;
+		}
+		// a subsequence of sorted keys is sorted
+		CharSequence[] missingKeys = new CharSequence[missCount];
+		for (int m = 0; m < missCount; ++m) {
+			missingKeys[m] = keys[missing[m]];
+		}
+		T[] missingResults = Arrays.copyOf(results, missCount);
+		delegate.getAll(missingKeys, missingResults, sorted);
+		for (int m = 0; m < missCount; ++m) {
+			final int n = missing[m];
+			final T result = missingResults[m];
+			results[n] = result;
+			if (result != null) {
+				CharSequence key = keys[n];
+				char[] chars = new char[key.length()];
+				for (int j = 0; j < chars.length; ++j) {
+					chars[j] = key.charAt(j);
+				}
+				admit(hashes[n], chars, result);
+			}
+		}
+	}
+
+	/**
+	 * Remove all the cached entries of a key.
+	 */
+	private void invalidate(char[] buffer, int offset, int length) {
+		final int hash = HASH.hash(buffer, offset, length);
+		Entry entry;
+		while ((entry = find(hash, buffer, offset, length)) != null) {
+			entries.compareAndSet(entry.slot, entry, null);
+		}
+	}
+
+	private void invalidate(CharSequence sequence, int offset, int length) {
+		final int hash = HASH.hash(sequence, offset, length);
+		Entry entry;
+		while ((entry = find(hash, sequence, offset, length)) != null) {
+			entries.compareAndSet(entry.slot, entry, null);
+		}
+	}
+
+	@Override
+	public T put(char[] buffer, int offset, int length, T value) {
+		invalidate(buffer, offset, length);
+		return delegate.put(buffer, offset, length, value);
+	}
+
+	@Override
+	public T put(CharSequence sequence, int offset, int length, T value) {
+		invalidate(sequence, offset, length);
+		return delegate.put(sequence, offset, length, value);
+	}
+
+	@Override
+	public T remove(char[] buffer, int offset, int length) {
+		invalidate(buffer, offset, length);
+		return delegate.remove(buffer, offset, length);
+	}
+
+	@Override
+	public T remove(CharSequence sequence, int offset, int length) {
+		invalidate(sequence, offset, length);
+		return delegate.remove(sequence, offset, length);
+	}
+
+	@Override
+	public void clear() {
+		clearCache();
+		sketch.clear();
+		delegate.clear();
+	}
+
+	/**
+	 * Remove all entries from the cache.
+	 */
+	public void clearCache() {
+		for (int i = 0; i < entries.length(); ++i) {
+			entries.set(i, null);
+			referenced.set(i, 0);
+		}
+		for (int i = 0; i < hands.length(); ++i) {
+			hands.set(i, 0);
+		}
+	}
+
+	@Override
+	public Trie.Cursor<T> getCursor() {
+		return new CachingCursor<T>(delegate.getCursor(), this);
+	}
+
+	@Override
+	public Trie.Cursor<T> getCursor(Trie.Cursor<T> reuse) {
+		if (reuse instanceof CachingCursor && ((CachingCursor<T>) reuse).trie == this) {
+			CachingCursor<T> cursor = (CachingCursor<T>) reuse;
+			Trie.Cursor<T> inner = delegate.getCursor(cursor.delegate);
+			if (inner == cursor.delegate) {
+				return cursor;
+			}
+			return new CachingCursor<T>(inner, this);
+		}
+		return getCursor();
+	}
+
+	/**
+	 * Get the number of lookups which have been served by the cache.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Get the number of lookups which had to walk the trie.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Get the ratio of lookups which have been served by the cache.
+	 */
+	public double getHitRate() {
+		long hits = getHits(), lookups = hits + getMisses();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * Reset hit and miss counts. Lookups which run concurrently may be lost.
+	 */
+	public void resetStats() {
+		hits.reset();
+		misses.reset();
+	}
+
+	@Override
+	protected void addRamUsage(RamUsage usage) {
+		super.addRamUsage(usage);
+		final int slots = entries.length();
+		long bytes = RamUsageUtils.shallowSizeOf(entries)
+			+ RamUsageUtils.sizeOfArray(RamUsageUtils.NUM_BYTES_OBJECT_REF, slots)
+			+ RamUsageUtils.shallowSizeOf(referenced)
+			+ RamUsageUtils.sizeOfArray(RamUsageUtils.NUM_BYTES_INT, slots)
+			+ RamUsageUtils.shallowSizeOf(hands)
+			+ RamUsageUtils.sizeOfArray(RamUsageUtils.NUM_BYTES_INT, hands.length())
+			+ sketch.ramBytesUsed();
+		long labels = 0;
+		for (int i = 0; i < slots; ++i) {
+			Entry entry = entries.get(i);
+			if (entry != null) {
+				bytes += RamUsageUtils.shallowSizeOf(entry);
+				labels += RamUsageUtils.sizeOf(entry.key);
+			}
+		}
+		usage.addNodes(bytes, bytes);
+		usage.addLabels(labels, labels);
+	}
+
+}
@@ -3,6 +3,7 @@ package net.jpountz.charsequence.collect;
 import java.util.List;
 
 import net.jpountz.charsequence.CharComparator;
+import net.jpountz.charsequence.util.RamUsageUtils;
 
 /**
  * Adapdation of {@link AbstractBinarySearchTrie} to handle char[] keys.
@@ -41,6 +42,11 @@ class CharArrayBinarySearchTrie<T> extends AbstractBinarySearchTrie<char[], T> {
 		return key[offset];
 	}
 
+	@Override
+	protected long ramBytesUsed(char[] key) {
+		return RamUsageUtils.sizeOf(key);
+	}
+
 	@Override
 	protected String toString(char[] key) {
 		return new String(key);
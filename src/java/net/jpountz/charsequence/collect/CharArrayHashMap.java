@@ -9,22 +9,31 @@ import java.util.Set;
 
 import net.jpountz.charsequence.Hash;
 import net.jpountz.charsequence.StringHash;
+import net.jpountz.charsequence.util.RamUsageUtils;
 
 /**
  * An open-addressing hashtable.
+ *
+ * Entries which are removed through the iterators of the map are replaced
+ * with a tombstone, so that the keys which follow them in their probe
+ * sequence can still be found. Tombstones are reused by insertions and
+ * dropped when the table is resized.
  */
 public class CharArrayHashMap<V> extends AbstractCharSequenceMap<V> {
 
 	private static final int DEFAULT_INITIAL_CAPACITY = 16;
 	private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+	// compared by identity, never equal to a key
+	private static final char[] DELETED = new char[0];
 
 	private char[][] keys;
 	private Object[] values;
 	private final Hash hash;
 	private final float loadFactor;
-	private int size;
+	private int size, deleted;
 	private int threshold;
 	private int mask;
+	private long keysBytes;
 
 	public CharArrayHashMap() {
 		this.hash = StringHash.INSTANCE;
@@ -36,12 +45,19 @@ public class CharArrayHashMap<V> extends AbstractCharSequenceMap<V> {
 
 	}
 
+	// spread the bits of the hash so that keys which only differ by their
+	// last chars do not end up in the same cluster
+	private int indexFor(int h) {
+		h *= 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
 	private int indexFor(CharSequence sequence, int offset, int length) {
-		return hash.hash(sequence, offset, length) & mask;
+		return indexFor(hash.hash(sequence, offset, length));
 	}
 
 	private int indexFor(char[] sequence, int offset, int length) {
-		return hash.hash(sequence, offset, length) & mask;
+		return indexFor(hash.hash(sequence, offset, length));
 	}
 
 	private static boolean equals(char[] s, CharSequence key, int offset,
@@ -62,7 +78,7 @@ public class CharArrayHashMap<V> extends AbstractCharSequenceMap<V> {
 		if (length == s.length) {
 			int o = offset;
 			for (int i = 0; i < length; ++i) {
-				if (s[i] == key[o++]) {
+				if (s[i] != key[o++]) {
 					return false;
 				}
 			}
@@ -76,7 +92,7 @@ public class CharArrayHashMap<V> extends AbstractCharSequenceMap<V> {
 	public V get(CharSequence key, int offset, int length) {
 		int start = indexFor(key, offset, length);
 		for (int i = start; keys[i] != null; i = (i + 1) & mask) {
-			if (equals(keys[i], key, offset, length)) {
+			if (keys[i] != DELETED && equals(keys[i], key, offset, length)) {
 				return (V) values[i];
 			}
 		}
@@ -88,50 +104,77 @@ public class CharArrayHashMap<V> extends AbstractCharSequenceMap<V> {
 	public V get(char[] key, int offset, int length) {
 		int start = indexFor(key, offset, length);
 		for (int i = start; keys[i] != null; i = (i + 1) & mask) {
-			if (equals(keys[i], key, offset, length)) {
+			if (keys[i] != DELETED && equals(keys[i], key, offset, length)) {
 				return (V) values[i];
 			}
 		}
 		return null;
 	}
 
-	@SuppressWarnings("unchecked")
 	private void ensureCapacity() {
-		if (size >= threshold) {
+		if (size + deleted >= threshold) {
 			char[][] oldKeys = keys;
 			Object[] oldValues = values;
-			int newLength = values.length * 2;
+			// only grow if tombstones do not account for most of the load
+			int newLength = size >= threshold / 2 ? values.length * 2 : values.length;
 			mask = newLength - 1;
 			keys = new char[newLength][];
 			values = new Object[newLength];
 			for (int i = 0; i < oldKeys.length; ++i) {
-				if (oldKeys[i] != null) {
-					put(oldKeys[i], (V) oldValues[i]);
+				char[] key = oldKeys[i];
+				if (key != null && key != DELETED) {
+					int j = indexFor(key, 0, key.length);
+					while (keys[j] != null) {
+						j = (j + 1) & mask;
+					}
+					keys[j] = key;
+					values[j] = oldValues[i];
 				}
 			}
 			threshold = (int) (loadFactor * keys.length);
+			deleted = 0;
 		}
 	}
 
+	/**
+	 * Return the slot of the key which is being inserted: the slot of the
+	 * key if it is found, otherwise the first tombstone of its probe
+	 * sequence, or the free slot which ends it.
+	 */
+	private int slotFor(int i, int tombstone) {
+		if (keys[i] == null && tombstone >= 0) {
+			--deleted;
+			keys[tombstone] = null;
+			return tombstone;
+		}
+		return i;
+	}
+
 	@Override
 	public V put(CharSequence key, int offset, int length, V value) {
 		ensureCapacity();
-		int i = indexFor(key, offset, length);
+		int i = indexFor(key, offset, length), tombstone = -1;
 		for (; keys[i] != null; i = (i + 1) & mask) {
-			if (equals(keys[i], key, offset, length)) {
+			if (keys[i] == DELETED) {
+				if (tombstone < 0) {
+					tombstone = i;
+				}
+			} else if (equals(keys[i], key, offset, length)) {
 				break;
 			}
 		}
+		i = slotFor(i, tombstone);
 		if (keys[i] == null) {
-			keys[i] = new char[key.length()];
+			keys[i] = new char[length];
 			if (key instanceof String) {
-				((String) key).getChars(offset, length, keys[i], 0);
+				((String) key).getChars(offset, offset + length, keys[i], 0);
 			} else {
 				int o = offset;
 				for (int k = 0; k < length; ++k) {
 					keys[i][k] = key.charAt(o++);
 				}
 			}
+			keysBytes += RamUsageUtils.sizeOf(keys[i]);
 			++size;
 		}
 		@SuppressWarnings("unchecked")
@@ -143,14 +186,20 @@ public class CharArrayHashMap<V> extends AbstractCharSequenceMap<V> {
 	@Override
 	public V put(char[] key, int offset, int length, V value) {
 		ensureCapacity();
-		int i = indexFor(key, offset, length);
+		int i = indexFor(key, offset, length), tombstone = -1;
 		for (; keys[i] != null; i = (i + 1) & mask) {
-			if (equals(keys[i], key, offset, length)) {
+			if (keys[i] == DELETED) {
+				if (tombstone < 0) {
+					tombstone = i;
+				}
+			} else if (equals(keys[i], key, offset, length)) {
 				break;
 			}
 		}
+		i = slotFor(i, tombstone);
 		if (keys[i] == null) {
 			keys[i] = Arrays.copyOfRange(key, offset, offset + length);
+			keysBytes += RamUsageUtils.sizeOf(keys[i]);
 			++size;
 		}
 		@SuppressWarnings("unchecked")
@@ -159,6 +208,19 @@ public class CharArrayHashMap<V> extends AbstractCharSequenceMap<V> {
 		return result;
 	}
 
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	protected void addRamUsage(RamUsage usage) {
+		usage.addNodes(this);
+		usage.addLabels(keys, size);
+		usage.addLabels(keysBytes, keysBytes);
+		usage.addValues(values, size);
+	}
+
 	@Override
 	public Set<java.util.Map.Entry<String, V>> entrySet() {
 		return new AbstractSet<Map.Entry<String, V>>() {
@@ -180,7 +242,7 @@ public class CharArrayHashMap<V> extends AbstractCharSequenceMap<V> {
 						if (next < keys.length) {
 							do {
 								++next;
-							} while (next < keys.length && keys[next] == null);
+							} while (next < keys.length && (keys[next] == null || keys[next] == DELETED));
 						}
 
 						return next < keys.length;
@@ -206,11 +268,14 @@ public class CharArrayHashMap<V> extends AbstractCharSequenceMap<V> {
 
 					@Override
 					public void remove() {
-						if (current < 0) {
+						if (current < 0 || keys[current] == DELETED) {
 							throw new IllegalStateException("Not positioned");
 						}
-						keys[current] = null;
+						keysBytes -= RamUsageUtils.sizeOf(keys[current]);
+						keys[current] = DELETED;
 						values[current] = null;
+						--size;
+						++deleted;
 					}
 				};
 			}
@@ -3,6 +3,7 @@ package net.jpountz.charsequence.collect;
 import java.util.List;
 
 import net.jpountz.charsequence.CharComparator;
+import net.jpountz.charsequence.util.RamUsageUtils;
 
 /**
  * Adapdation of {@link AbstractBinarySearchTrie} to handle char[] keys.
@@ -41,6 +42,11 @@ class CharSequenceBinarySearchTrie<K extends CharSequence, T> extends AbstractBi
 		return key.charAt(offset);
 	}
 
+	@Override
+	protected long ramBytesUsed(CharSequence key) {
+		return RamUsageUtils.sizeOf(key);
+	}
+
 	protected String toString(K key) {
 		return key.toString();
 	}
@@ -24,4 +24,24 @@ public interface CharSequenceMap<V> extends Map<String, V> {
 	V remove(char[] key, int offset, int length);
 	V remove(char[] key);
 
+	/**
+	 * Get the number of bytes used by this map, not counting the values
+	 * themselves. Maps which own their storage keep track of it as they
+	 * grow, so that this method does not need to traverse the whole map.
+	 * However, views over lists of keys, such as
+	 * {@link Tries#sortedCharSequenceListAsTrie}, visit every key since the
+	 * lists may be modified without them knowing.
+	 *
+	 * @return the number of bytes used by this map
+	 */
+	long ramBytesUsed();
+
+	/**
+	 * Get a breakdown of the memory used by this map.
+	 *
+	 * @return the memory usage of this map
+	 * @see #ramBytesUsed()
+	 */
+	RamUsage ramUsage();
+
 }
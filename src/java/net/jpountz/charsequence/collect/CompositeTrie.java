@@ -2,6 +2,7 @@ package net.jpountz.charsequence.collect;
 
 import it.unimi.dsi.fastutil.chars.CharCollection;
 import net.jpountz.charsequence.collect.RadixTrie.LabelsInternable;
+import net.jpountz.charsequence.util.RamUsageUtils;
 
 /**
  * A composite trie composed of a root trie, and several sub-tries.
@@ -49,6 +50,12 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 		private final CompositeTrie<T> trie;
 		private final Cursor<Object> rootCursor;
 		private Cursor<T> childCursor;
+		// the sub-trie childCursor belongs to
+		private Trie<T> subTrie;
+		// the last child cursor, recycled when moving to another sub-trie
+		private Cursor<T> spareCursor;
+		// the last node, returned again while the cursor does not move
+		private CompositeNode node;
 
 		private CompositeCursor(CompositeTrie<T> trie,
 				Cursor<Object> rootCursor, Cursor<T> childCursor) {
@@ -61,6 +68,18 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 			this(trie, trie.backend.getCursor(), null);
 		}
 
+		private void enter(Trie<T> subTrie) {
+			this.subTrie = subTrie;
+			childCursor = subTrie.getCursor(spareCursor);
+			spareCursor = null;
+		}
+
+		private void leave() {
+			spareCursor = childCursor;
+			childCursor = null;
+			subTrie = null;
+		}
+
 		@Override
 		protected CharSequence getLabelInternal() {
 			// useless for this implementation
@@ -74,17 +93,26 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 
 		@Override
 		public Node getNode() {
-			return new CompositeNode(rootCursor.getNode(),
-					childCursor == null || childCursor.isAtRoot()
-						? null
-						: childCursor.getNode());
+			Node rootNode = rootCursor.getNode();
+			Node childNode = childCursor == null || childCursor.isAtRoot()
+				? null
+				: childCursor.getNode();
+			if (node == null || node.rootNode != rootNode || node.childNode != childNode) {
+				node = new CompositeNode(rootNode, childNode);
+			}
+			return node;
 		}
 
 		@Override
 		public boolean isAt(Node n) {
 			CompositeNode node = (CompositeNode) n;
-			return rootCursor.isAt(node.rootNode) &&
-				(childCursor == null || (node.childNode == null && childCursor.isAtRoot()) || childCursor.isAt(node.childNode));
+			if (!rootCursor.isAt(node.rootNode)) {
+				return false;
+			} else if (childCursor == null || childCursor.isAtRoot()) {
+				return node.childNode == null;
+			} else {
+				return node.childNode != null && childCursor.isAt(node.childNode);
+			}
 		}
 
 		@SuppressWarnings("unchecked")
@@ -99,7 +127,7 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 					Object value = rootCursor.getValue();
 					if (value != null) {
 						if (depth() == trie.rootDepth) {
-							childCursor = ((Trie<T>) value).getCursor();
+							enter((Trie<T>) value);
 							return childCursor.moveToChild(c);
 						}
 					}
@@ -124,7 +152,7 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 					Object value = rootCursor.getValue();
 					if (value != null) {
 						if (depth() == trie.rootDepth) {
-							childCursor = ((Trie<T>) value).getCursor();
+							enter((Trie<T>) value);
 							return childCursor.moveToFirstChild();
 						}
 					}
@@ -139,7 +167,7 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 				if (!childCursor.isAtRoot()) {
 					return childCursor.moveToBrother();
 				} else {
-					childCursor = null;
+					leave();
 				}
 			}
 			if (rootCursor.moveToBrother()) {
@@ -159,12 +187,14 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 					@SuppressWarnings("unchecked")
 					Trie<T> subTrie = (Trie<T>) rootCursor.getValue();
 					if (subTrie == null) {
-						subTrie = trie.childFactory.newTrie();
+						subTrie = trie.newSubTrie();
 						rootCursor.setValue(subTrie);
 					}
-					childCursor = subTrie.getCursor();
+					enter(subTrie);
 				}
+				RamUsage before = subTrie.ramUsage();
 				childCursor.addChild(c);
+				trie.modified(subTrie, before);
 			}
 		}
 
@@ -198,8 +228,15 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 		@Override
 		public boolean removeChild(char c) {
 			if (childCursor != null) {
-				return childCursor.removeChild(c);
+				RamUsage before = subTrie.ramUsage();
+				boolean result = childCursor.removeChild(c);
+				trie.modified(subTrie, before);
+				return result;
 			} else {
+				Cursor<Object> cursor = trie.backendCursor(rootCursor.getLabel());
+				if (cursor.moveToChild(c)) {
+					trie.releaseSubTries(cursor);
+				}
 				return rootCursor.removeChild(c);
 			}
 		}
@@ -207,8 +244,16 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 		@Override
 		public void removeChildren() {
 			if (childCursor != null) {
+				RamUsage before = subTrie.ramUsage();
 				childCursor.removeChildren();
+				trie.modified(subTrie, before);
 			} else {
+				Cursor<Object> cursor = trie.backendCursor(rootCursor.getLabel());
+				if (cursor.moveToFirstChild()) {
+					do {
+						trie.releaseSubTries(cursor);
+					} while (cursor.moveToBrother());
+				}
 				rootCursor.removeChildren();
 			}
 		}
@@ -219,7 +264,7 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 				if (childCursor.moveToParent()) {
 					return true;
 				} else {
-					childCursor = null;
+					leave();
 				}
 			}
 			return rootCursor.moveToParent();
@@ -263,15 +308,19 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 		@Override
 		public void setValue(T value) {
 			if (childCursor != null) {
+				RamUsage before = subTrie.ramUsage();
 				childCursor.setValue(value);
+				trie.modified(subTrie, before);
 			} else if (depth() == trie.rootDepth) {
 				@SuppressWarnings("unchecked")
 				Trie<T> subTrie = (Trie<T>) rootCursor.getValue();
 				if (subTrie == null) {
-					subTrie = trie.childFactory.newTrie();
+					subTrie = trie.newSubTrie();
 					rootCursor.setValue(subTrie);
 				}
+				RamUsage before = subTrie.ramUsage();
 				subTrie.put("", value);
+				trie.modified(subTrie, before);
 			} else {
 				rootCursor.setValue(value);
 			}
@@ -280,16 +329,22 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 		@Override
 		public void reset() {
 			rootCursor.reset();
-			childCursor = null;
+			if (childCursor != null) {
+				leave();
+			}
 		}
 
 	}
 
 	private final TrieFactory<T> childFactory;
-	private final Trie<Object> backend;
+	final Trie<Object> backend;
 	private final int rootDepth;
 	private final boolean subTriesAreOptimizable;
 	private final boolean subTriesAreTrimmable;
+	// memory used by the labels which have been interned by trimToSize
+	private long internedLabelsBytes;
+	// sum of the memory used by sub-tries
+	private RamUsage subTriesUsage = new RamUsage();
 
 	public CompositeTrie(TrieFactory<Object> parentFactory,
 			TrieFactory<T> childFactory, int rootDepth) {
@@ -304,11 +359,72 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 		subTriesAreTrimmable   = subTrie instanceof Trimmable || subTrie instanceof LabelsInternable;
 	}
 
+	private Trie<T> newSubTrie() {
+		Trie<T> subTrie = childFactory.newTrie();
+		subTriesUsage.add(subTrie.ramUsage());
+		return subTrie;
+	}
+
+	/**
+	 * Update the memory usage of sub-tries after subTrie has been modified.
+	 */
+	private void modified(Trie<T> subTrie, RamUsage before) {
+		subTriesUsage.remove(before);
+		subTriesUsage.add(subTrie.ramUsage());
+	}
+
+	/**
+	 * Get a cursor over the backend which is at the node of the given label,
+	 * which must exist.
+	 */
+	private Cursor<Object> backendCursor(CharSequence label) {
+		Cursor<Object> cursor = backend.getCursor();
+		for (int i = 0; i < label.length(); ++i) {
+			cursor.moveToChild(label.charAt(i));
+		}
+		return cursor;
+	}
+
+	/**
+	 * Stop counting the sub-tries under the node cursor is at, which is
+	 * about to be removed. The cursor is left at this node.
+	 */
+	private void releaseSubTries(Cursor<Object> cursor) {
+		if (cursor.depth() == rootDepth) {
+			Object value = cursor.getValue();
+			if (value != null) {
+				subTriesUsage.remove(((Trie<?>) value).ramUsage());
+			}
+		} else if (cursor.moveToFirstChild()) {
+			do {
+				releaseSubTries(cursor);
+			} while (cursor.moveToBrother());
+			cursor.moveToParent();
+		}
+	}
+
+	/**
+	 * Get the depth of the nodes which are the roots of sub-tries.
+	 */
+	public int getRootDepth() {
+		return rootDepth;
+	}
+
 	@Override
 	public Cursor<T> getCursor() {
 		return new CompositeCursor<T>(this);
 	}
 
+	@Override
+	public Cursor<T> getCursor(Cursor<T> reuse) {
+		if (reuse instanceof CompositeCursor
+				&& ((CompositeCursor<T>) reuse).trie == this) {
+			reuse.reset();
+			return reuse;
+		}
+		return getCursor();
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public T put(char[] buffer, int offset, int length, T value) {
@@ -317,10 +433,13 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 		} else {
 			Trie<T> sub = (Trie<T>) backend.get(buffer, offset, rootDepth);
 			if (sub == null) {
-				sub = childFactory.newTrie();
+				sub = newSubTrie();
 				backend.put(buffer, offset, rootDepth, sub);
 			}
-			return sub.put(buffer, offset + rootDepth, length - rootDepth, value);
+			RamUsage before = sub.ramUsage();
+			T result = sub.put(buffer, offset + rootDepth, length - rootDepth, value);
+			modified(sub, before);
+			return result;
 		}
 	}
 
@@ -338,10 +457,13 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 				throw e;
 			}
 			if (sub == null) {
-				sub = childFactory.newTrie();
+				sub = newSubTrie();
 				backend.put(sequence, offset, rootDepth, sub);
 			}
-			return sub.put(sequence, offset + rootDepth, length - rootDepth, value);
+			RamUsage before = sub.ramUsage();
+			T result = sub.put(sequence, offset + rootDepth, length - rootDepth, value);
+			modified(sub, before);
+			return result;
 		}
 	}
 
@@ -353,9 +475,13 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 		} else {
 			Trie<T> sub = (Trie<T>) backend.get(buffer, offset, rootDepth);
 			if (sub != null) {
+				RamUsage before = sub.ramUsage();
 				T result = sub.remove(buffer, offset + rootDepth, length - rootDepth);
 				if (sub.isEmpty()) {
 					backend.remove(buffer, offset, rootDepth);
+					subTriesUsage.remove(before);
+				} else {
+					modified(sub, before);
 				}
 				return result;
 			}
@@ -366,14 +492,18 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 	@SuppressWarnings("unchecked")
 	@Override
 	public T remove(CharSequence buffer, int offset, int length) {
-		if (length <= rootDepth) {
+		if (length < rootDepth) {
 			return (T) backend.remove(buffer, offset, length);
 		} else {
 			Trie<T> sub = (Trie<T>) backend.get(buffer, offset, rootDepth);
 			if (sub != null) {
+				RamUsage before = sub.ramUsage();
 				T result = sub.remove(buffer, offset + rootDepth, length - rootDepth);
 				if (sub.isEmpty()) {
 					backend.remove(buffer, offset, rootDepth);
+					subTriesUsage.remove(before);
+				} else {
+					modified(sub, before);
 				}
 				return result;
 			}
@@ -414,6 +544,20 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 	@Override
 	public void clear() {
 		backend.clear();
+		internedLabelsBytes = 0;
+		subTriesUsage = new RamUsage();
+	}
+
+	/**
+	 * The memory usage of sub-tries is kept up to date as they are modified
+	 * through this trie, so that this method does not need to visit them.
+	 */
+	@Override
+	protected void addRamUsage(RamUsage usage) {
+		usage.addNodes(this);
+		usage.addLabels(internedLabelsBytes, internedLabelsBytes);
+		usage.add(backend.ramUsage());
+		usage.add(subTriesUsage);
 	}
 
 	@Override
@@ -436,6 +580,9 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 				}
 				Object value = cursor.getValue();
 				if (value != null) {
+					@SuppressWarnings("unchecked")
+					Trie<T> subTrie = (Trie<T>) value;
+					RamUsage before = subTrie.ramUsage();
 					if (value instanceof Trimmable) {
 						((Trimmable) value).trimToSize();
 					}
@@ -445,8 +592,15 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 						}
 						((LabelsInternable) value).internLabels(interner);
 					}
+					modified(subTrie, before);
 				}
 			} while (Trie.Traversal.BREADTH_FIRST.moveToNextNode(root, cursor));
+			if (interner != null) {
+				internedLabelsBytes = 0;
+				for (char[] label : interner.values()) {
+					internedLabelsBytes += RamUsageUtils.sizeOf(label);
+				}
+			}
 		}
 	}
 
@@ -469,9 +623,15 @@ public class CompositeTrie<T> extends AbstractTrie<T> implements Trie.Optimizabl
 				}
 				Object value = cursor.getValue();
 				if (value != null) {
+					@SuppressWarnings("unchecked")
+					Trie<T> subTrie = (Trie<T>) value;
+					RamUsage before = subTrie.ramUsage();
 					((Optimizable) value).optimizeFor(traversal);
+					modified(subTrie, before);
 				}
 			} while (Trie.Traversal.BREADTH_FIRST.moveToNextNode(root, cursor));
+			// sub-tries do not use interned labels anymore
+			internedLabelsBytes = 0;
 		}
 	}
 
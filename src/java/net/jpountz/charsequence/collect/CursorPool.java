@@ -0,0 +1,46 @@
+package net.jpountz.charsequence.collect;
+
+/**
+ * A pool of cursors on a trie, with one cursor per thread. This allows read
+ * paths which are executed very frequently to traverse the trie without
+ * allocating a new cursor every time.
+ *
+ * A cursor returned by {@link #get()} must not be used anymore after the
+ * next call to {@link #get()} from the same thread.
+ *
+ * @param <T> the value type
+ */
+public final class CursorPool<T> {
+
+	private final Trie<T> trie;
+	private final ThreadLocal<Trie.Cursor<T>> cursors;
+
+	public CursorPool(Trie<T> trie) {
+		this.trie = trie;
+		this.cursors = new ThreadLocal<Trie.Cursor<T>>();
+	}
+
+	public Trie<T> getTrie() {
+		return trie;
+	}
+
+	/**
+	 * Get the cursor of the current thread, at the root node.
+	 */
+	public Trie.Cursor<T> get() {
+		Trie.Cursor<T> previous = cursors.get();
+		Trie.Cursor<T> cursor = trie.getCursor(previous);
+		if (cursor != previous) {
+			cursors.set(cursor);
+		}
+		return cursor;
+	}
+
+	/**
+	 * Release the cursor of the current thread.
+	 */
+	public void remove() {
+		cursors.remove();
+	}
+
+}
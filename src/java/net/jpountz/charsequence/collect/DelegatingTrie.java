@@ -116,6 +116,11 @@ public class DelegatingTrie<T> extends AbstractTrie<T> implements Trie.Optimizab
 		return delegate.getCursor();
 	}
 
+	@Override
+	public Trie.Cursor<T> getCursor(Trie.Cursor<T> reuse) {
+		return delegate.getCursor(reuse);
+	}
+
 	@Override
 	public void clear() {
 		delegate.clear();
@@ -151,6 +156,11 @@ public class DelegatingTrie<T> extends AbstractTrie<T> implements Trie.Optimizab
 		return delegate.get(sequence, offset, length);
 	}
 
+	@Override
+	public void getAll(CharSequence[] keys, T[] results, boolean sorted) {
+		delegate.getAll(keys, results, sorted);
+	}
+
 	@Override
 	public int size() {
 		return delegate.size();
@@ -161,6 +171,12 @@ public class DelegatingTrie<T> extends AbstractTrie<T> implements Trie.Optimizab
 		return delegate.isEmpty();
 	}
 
+	@Override
+	protected void addRamUsage(RamUsage usage) {
+		usage.addNodes(this);
+		usage.add(delegate.ramUsage());
+	}
+
 	@Override
 	public void trimToSize() {
 		if (delegate instanceof Trimmable) {
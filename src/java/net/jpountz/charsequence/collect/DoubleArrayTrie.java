@@ -0,0 +1,421 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.Arrays;
+
+import net.jpountz.charsequence.Alphabet;
+import net.jpountz.charsequence.GrowthStrategy;
+
+/**
+ * A double-array trie (Aoe, 1989). The child of node with label c is at
+ * position base[node] + c if check[base[node] + c] == node, so that moving
+ * to a child only requires an addition and a bounds-checked array load.
+ *
+ * Children are also linked in label order so that they can be enumerated
+ * without scanning the whole alphabet. When the position of a new child is
+ * already used, the children of the node are moved to a new base, so that
+ * adding a child never moves the node itself nor any of its ancestors.
+ *
+ * Free positions are linked together through their base and check slots, so
+ * that finding room for the children of a node does not need to scan used
+ * positions.
+ *
+ * Labels of the children of a node must fit in a window of the array, this
+ * trie is therefore best suited to small alphabets. Sparse labels can be
+ * remapped to dense codes by giving an {@link Alphabet} to the trie, in
+ * which case children are enumerated in the order of the alphabet.
+ */
+public class DoubleArrayTrie<T> extends AbstractListTrie<T> implements Trie.Optimizable, Trie.Trimmable {
+
+	private static final int ROOT_CHECK = -2;
+	// number of free positions to try before appending children at the end
+	private static final int MAX_FREE_TRIES = 64;
+
+	// for a free position p < size, ~check[p] and ~base[p] are the next and
+	// previous free positions, 0 meaning none
+	protected int[] base;
+	protected int[] check;
+	protected int[] firstChildren;
+	private int freeHead;
+	// codes of labels
+	private char[] labelsBuffer;
+	protected final Alphabet alphabet;
+
+	/**
+	 * @param initialCapacity the initial number of positions
+	 * @param growthStrategy how to grow the arrays
+	 * @param alphabet the alphabet of the labels, or null to index positions
+	 *                 by raw chars
+	 */
+	public DoubleArrayTrie(int initialCapacity, GrowthStrategy growthStrategy, Alphabet alphabet) {
+		super(initialCapacity, growthStrategy);
+		this.alphabet = alphabet;
+		base = new int[initialCapacity];
+		check = new int[initialCapacity];
+		Arrays.fill(check, NOT_FOUND);
+		check[START] = ROOT_CHECK;
+		firstChildren = new int[initialCapacity];
+		Arrays.fill(firstChildren, NOT_FOUND);
+		labelsBuffer = new char[8];
+	}
+
+	public DoubleArrayTrie(int initialCapacity, GrowthStrategy growthStrategy) {
+		this(initialCapacity, growthStrategy, null);
+	}
+
+	public DoubleArrayTrie(Alphabet alphabet) {
+		this(DEFAULT_CAPACITY, GrowthStrategy.FAST_GROWTH, alphabet);
+	}
+
+	public DoubleArrayTrie() {
+		this(null);
+	}
+
+	/**
+	 * Return the code of c in the alphabet, or -1 if it does not belong to it.
+	 */
+	private int code(char c) {
+		return alphabet == null ? c : alphabet.code(c);
+	}
+
+	private char labelCode(int position) {
+		return (char) code(label(position));
+	}
+
+	private boolean isFree(int position) {
+		return position > START
+			&& (position >= check.length || check[position] < 0);
+	}
+
+	private void addFree(int position) {
+		int next = freeHead;
+		check[position] = ~next;
+		base[position] = ~0;
+		if (next != 0) {
+			base[next] = ~position;
+		}
+		freeHead = position;
+	}
+
+	private void removeFree(int position) {
+		int next = ~check[position];
+		int previous = ~base[position];
+		if (previous == 0) {
+			freeHead = next;
+		} else {
+			check[previous] = ~next;
+		}
+		if (next != 0) {
+			base[next] = ~previous;
+		}
+	}
+
+	/**
+	 * Find a base so that base + labels[i] is free for every i.
+	 *
+	 * @param labels the labels, sorted
+	 * @param count the number of labels
+	 */
+	private int findBase(char[] labels, int count) {
+		int tries = 0;
+		for (int position = freeHead; position != 0 && tries < MAX_FREE_TRIES;
+				position = ~check[position], ++tries) {
+			int base = position - labels[0];
+			boolean found = true;
+			for (int i = 1; i < count; ++i) {
+				if (!isFree(base + labels[i])) {
+					found = false;
+					break;
+				}
+			}
+			if (found) {
+				return base;
+			}
+		}
+		// all positions after size are free
+		return size - labels[0];
+	}
+
+	private void use(int position, int parent, char code) {
+		int capacity = getCapacity();
+		if (position >= capacity) {
+			int newCapacity = capacity;
+			while (newCapacity <= position) {
+				newCapacity = growthStrategy.grow(newCapacity);
+			}
+			ensureCapacity(newCapacity);
+		}
+		if (position >= size) {
+			for (int i = size; i < position; ++i) {
+				addFree(i);
+			}
+			deletedCount += position - size;
+			size = position + 1;
+		} else {
+			removeFree(position);
+			--deletedCount;
+		}
+		check[position] = parent;
+		base[position] = 0;
+		firstChildren[position] = NOT_FOUND;
+		setLabel(position, alphabet == null ? code : alphabet.charAt(code));
+	}
+
+	@Override
+	protected void setDeleted(int node) {
+		addFree(node);
+		firstChildren[node] = NOT_FOUND;
+		brothers[node] = NOT_FOUND;
+		values[node] = null;
+		++deletedCount;
+	}
+
+	@Override
+	protected int firstChild(int position) {
+		return firstChildren[position];
+	}
+
+	@Override
+	protected int child(int node, char label) {
+		int code = code(label);
+		if (code < 0) {
+			return NOT_FOUND;
+		}
+		int position = base[node] + code;
+		if (position >= 0 && position < check.length && check[position] == node) {
+			return position;
+		}
+		return NOT_FOUND;
+	}
+
+	@Override
+	protected int addChild(int node, char label) {
+		int child = child(node, label);
+		if (child != NOT_FOUND) {
+			return child;
+		}
+		int code = code(label);
+		if (code < 0) {
+			throw new IllegalArgumentException("'" + label + "' is not in the alphabet");
+		}
+		char c = (char) code;
+		int first = firstChildren[node];
+		if (first == NOT_FOUND) {
+			labelsBuffer[0] = c;
+			base[node] = findBase(labelsBuffer, 1);
+			child = base[node] + c;
+			use(child, node, c);
+			firstChildren[node] = child;
+			return child;
+		}
+		child = base[node] + c;
+		if (isFree(child)) {
+			use(child, node, c);
+			if (c < labelCode(first)) {
+				brothers[child] = first;
+				firstChildren[node] = child;
+			} else {
+				int previous = first;
+				while (brothers[previous] != NOT_FOUND && labelCode(brothers[previous]) < c) {
+					previous = brothers[previous];
+				}
+				brothers[child] = brothers[previous];
+				brothers[previous] = child;
+			}
+			return child;
+		}
+		return relocate(node, c);
+	}
+
+	/**
+	 * Move the children of node to a new base which also has room for the
+	 * code c.
+	 */
+	private int relocate(int node, char c) {
+		int count = 0;
+		boolean added = false;
+		for (int child = firstChildren[node]; child != NOT_FOUND; child = brothers[child]) {
+			if (count + 2 > labelsBuffer.length) {
+				labelsBuffer = Arrays.copyOf(labelsBuffer, growthStrategy.grow(count + 2));
+			}
+			char label = labelCode(child);
+			if (!added && c < label) {
+				labelsBuffer[count++] = c;
+				added = true;
+			}
+			labelsBuffer[count++] = label;
+		}
+		if (!added) {
+			labelsBuffer[count++] = c;
+		}
+		int oldBase = base[node];
+		int newBase = findBase(labelsBuffer, count);
+		int previous = NOT_FOUND;
+		for (int i = 0; i < count; ++i) {
+			char label = labelsBuffer[i];
+			int position = newBase + label;
+			use(position, node, label);
+			if (label != c) {
+				int old = oldBase + label;
+				base[position] = base[old];
+				values[position] = values[old];
+				int grandChild = firstChildren[old];
+				firstChildren[position] = grandChild;
+				for (; grandChild != NOT_FOUND; grandChild = brothers[grandChild]) {
+					check[grandChild] = position;
+				}
+				firstChildren[old] = NOT_FOUND;
+				setDeleted(old);
+			}
+			if (previous == NOT_FOUND) {
+				firstChildren[node] = position;
+			} else {
+				brothers[previous] = position;
+			}
+			previous = position;
+		}
+		base[node] = newBase;
+		return newBase + c;
+	}
+
+	@Override
+	protected boolean removeChild(int node, char label) {
+		int child = child(node, label);
+		if (child == NOT_FOUND) {
+			return false;
+		}
+		int first = firstChildren[node];
+		if (first == child) {
+			firstChildren[node] = brothers[child];
+		} else {
+			int previous = first;
+			while (brothers[previous] != child) {
+				previous = brothers[previous];
+			}
+			brothers[previous] = brothers[child];
+		}
+		removeChildren(child);
+		setDeleted(child);
+		return true;
+	}
+
+	@Override
+	protected void removeChildren(int node) {
+		int child = firstChildren[node];
+		firstChildren[node] = NOT_FOUND;
+		while (child != NOT_FOUND) {
+			int brother = brothers[child];
+			removeChildren(child);
+			setDeleted(child);
+			child = brother;
+		}
+	}
+
+	@Override
+	public void ensureCapacity(int capacity) {
+		int previousCapacity = getCapacity();
+		super.ensureCapacity(capacity);
+		if (capacity > previousCapacity) {
+			base = Arrays.copyOf(base, capacity);
+			check = Arrays.copyOf(check, capacity);
+			Arrays.fill(check, previousCapacity, capacity, NOT_FOUND);
+			firstChildren = Arrays.copyOf(firstChildren, capacity);
+			Arrays.fill(firstChildren, previousCapacity, capacity, NOT_FOUND);
+		}
+	}
+
+	@Override
+	public void trimToSize() {
+		super.trimToSize();
+		base = Arrays.copyOf(base, size);
+		check = Arrays.copyOf(check, size);
+		firstChildren = Arrays.copyOf(firstChildren, size);
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		Arrays.fill(base, 0);
+		Arrays.fill(check, NOT_FOUND);
+		check[START] = ROOT_CHECK;
+		Arrays.fill(firstChildren, NOT_FOUND);
+		size = 1;
+		deletedCount = 0;
+		freeHead = 0;
+	}
+
+	@Override
+	protected void addRamUsage(RamUsage usage) {
+		super.addRamUsage(usage);
+		int used = size - deletedCount;
+		usage.addChildren(base, used);
+		usage.addChildren(check, used);
+		usage.addChildren(firstChildren, used);
+		if (alphabet != null) {
+			usage.addChildren(alphabet.ramBytesUsed(), alphabet.ramBytesUsed());
+		}
+	}
+
+	/**
+	 * Give node all the children of source at once. This packs the arrays
+	 * much better than adding children one by one.
+	 */
+	private void copyChildren(int node, DoubleArrayTrie<T> source, int sourceNode) {
+		if (firstChildren[node] != NOT_FOUND) {
+			return;
+		}
+		int count = 0;
+		for (int child = source.firstChildren[sourceNode]; child != NOT_FOUND; child = source.brothers[child]) {
+			if (count == labelsBuffer.length) {
+				labelsBuffer = Arrays.copyOf(labelsBuffer, growthStrategy.grow(count + 1));
+			}
+			labelsBuffer[count++] = source.labelCode(child);
+		}
+		if (count > 0) {
+			int base = findBase(labelsBuffer, count);
+			this.base[node] = base;
+			int previous = NOT_FOUND;
+			for (int i = 0; i < count; ++i) {
+				int position = base + labelsBuffer[i];
+				use(position, node, labelsBuffer[i]);
+				if (previous == NOT_FOUND) {
+					firstChildren[node] = position;
+				} else {
+					brothers[previous] = position;
+				}
+				previous = position;
+			}
+		}
+	}
+
+	/**
+	 * Rebuild the arrays so that nodes are laid out in traversal order. This
+	 * also removes most of the free positions left by insertions and
+	 * removals.
+	 */
+	public void optimizeFor(Trie.Traversal traversal) {
+		DoubleArrayTrie<T> trie = new DoubleArrayTrie<T>(size, growthStrategy, alphabet);
+		AbstractListTrieCursor<T> cursor = getCursor();
+		Node root = cursor.getNode();
+		do {
+			CharSequence label = cursor.getLabelInternal();
+			int node = START;
+			for (int i = 0; i < label.length(); ++i) {
+				node = trie.addChild(node, label.charAt(i));
+			}
+			trie.values[node] = cursor.getValue();
+			trie.copyChildren(node, this, cursor.getNodeId());
+		} while (traversal.moveToNextNode(root, cursor));
+		trie.trimToSize();
+		this.brothers = trie.brothers;
+		this.labels = trie.labels;
+		this.values = trie.values;
+		this.base = trie.base;
+		this.check = trie.check;
+		this.firstChildren = trie.firstChildren;
+		this.size = trie.size;
+		this.deleted = trie.deleted;
+		this.deletedCount = trie.deletedCount;
+		this.freeHead = trie.freeHead;
+	}
+
+}
@@ -0,0 +1,117 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jpountz.charsequence.util.RamUsageUtils;
+
+/**
+ * An approximate count of how often hashes have been seen recently: a
+ * count-min sketch of {@value #DEPTH} rows of 4-bit counters, packed 16 per
+ * long.
+ *
+ * Once the number of increments reaches ten times the capacity of the
+ * sketch, all counters are halved, so that estimates favor recent history.
+ *
+ * Updates are single compare-and-set operations which are not retried: an
+ * increment which races with another update of the same word may be lost,
+ * which only makes an estimate slightly lower. So this class can be updated
+ * concurrently without locking.
+ */
+final class FrequencySketch {
+
+	private static final int DEPTH = 4;
+	private static final int MAX_COUNT = 15;
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+	private final AtomicLongArray table;
+	private final int mask;
+	private final int sampleSize;
+	private final AtomicInteger additions;
+
+	/**
+	 * @param capacity the number of entries whose frequencies need to be
+	 *                 compared, there are 16 counters per entry in every row
+	 */
+	FrequencySketch(int capacity) {
+		int words = Math.max(1, capacity);
+		if (words > 1) {
+			words = Integer.highestOneBit(words - 1) << 1;
+		}
+		table = new AtomicLongArray(words);
+		mask = words - 1;
+		sampleSize = 10 * Math.max(1, capacity);
+		additions = new AtomicInteger();
+	}
+
+	private static int spread(int hash, int row) {
+		hash *= SEEDS[row];
+		return hash ^ (hash >>> 15);
+	}
+
+	/**
+	 * Return the estimated number of times hash has been seen, at most
+	 * {@value #MAX_COUNT}.
+	 */
+	int frequency(int hash) {
+		int result = MAX_COUNT;
+		for (int row = 0; row < DEPTH; ++row) {
+			int h = spread(hash, row);
+			int shift = (h >>> 28) << 2;
+			int count = (int) (table.get(h & mask) >>> shift) & 0xF;
+			result = Math.min(result, count);
+		}
+		return result;
+	}
+
+	/**
+	 * Record an occurrence of hash.
+	 */
+	void increment(int hash) {
+		boolean added = false;
+		for (int row = 0; row < DEPTH; ++row) {
+			int h = spread(hash, row);
+			int index = h & mask;
+			int shift = (h >>> 28) << 2;
+			long word = table.get(index);
+			if (((word >>> shift) & 0xF) < MAX_COUNT) {
+				added |= table.compareAndSet(index, word, word + (1L << shift));
+			}
+		}
+		if (added && additions.incrementAndGet() == sampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * Halve all counters.
+	 */
+	private void reset() {
+		for (int i = 0; i < table.length(); ++i) {
+			long word;
+			do {
+				word = table.get(i);
+			} while (!table.compareAndSet(i, word, (word >>> 1) & RESET_MASK));
+		}
+		additions.addAndGet(-sampleSize / 2);
+	}
+
+	/**
+	 * Set all counters to 0.
+	 */
+	void clear() {
+		for (int i = 0; i < table.length(); ++i) {
+			table.set(i, 0L);
+		}
+		additions.set(0);
+	}
+
+	long ramBytesUsed() {
+		return RamUsageUtils.shallowSizeOf(this)
+			+ RamUsageUtils.shallowSizeOf(table)
+			+ RamUsageUtils.sizeOfArray(RamUsageUtils.NUM_BYTES_LONG, table.length())
+			+ RamUsageUtils.shallowSizeOf(additions);
+	}
+
+}
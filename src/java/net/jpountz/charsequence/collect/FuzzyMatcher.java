@@ -0,0 +1,422 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.jpountz.charsequence.BasicEditWeight;
+import net.jpountz.charsequence.CompiledEditWeight;
+import net.jpountz.charsequence.EditWeight;
+
+/**
+ * Find the keys of a trie which are within a given edit distance of a
+ * query (Ukkonen, 1985; Shang and Merrett, 1996).
+ *
+ * The matcher carries one row of the dynamic programming matrix per depth
+ * of the cursor: the row of a node is computed from the row of its parent
+ * when the cursor moves to the node, and is popped when the cursor moves
+ * back to the parent. Subtrees are pruned as soon as no cell of the rows
+ * they depend on is within the maximum distance, so that every node is
+ * visited at most once, and the work is O(visited nodes * query length).
+ * Moreover, only the band of cells which may be within the maximum
+ * distance is computed on every row. Costs of {@link CompiledEditWeight}s
+ * are read from their matrices. When all edits have a positive cost and
+ * the budget left by the only cell of a row is smaller than any edit, keys
+ * under the node can only be neighbors by matching the rest of the query
+ * exactly, so the matcher follows this path instead of exploring the
+ * subtree.
+ *
+ * Like in {@link net.jpountz.charsequence.EditDistance}, 'from' is the
+ * query and 'to' is the key of the trie.
+ */
+final class FuzzyMatcher {
+
+	private final char[] query;
+	private final int length;
+	private final EditWeight weight;
+	private final double distance;
+	private final boolean substitutions, transpositions;
+	private final double[] deletions;
+	// minimum cost of an edit, or 0 if it is not known to be positive
+	private final double minCost;
+	// codes of the chars of the query if the weight is compiled
+	private final CompiledEditWeight compiled;
+	private final int[] codes;
+
+	// rows[depth][i] is the distance from the first i chars of the query to
+	// the label of the node at depth. Only cells in [lows[depth], highs[depth]]
+	// are computed, cells outside of this band are greater than the maximum
+	// distance.
+	private double[][] rows;
+	private int[] lows, highs;
+	private char[] path;
+	// number of prefix matches which may still be reported
+	private int remaining;
+
+	FuzzyMatcher(CharSequence query, int offset, int length,
+			EditWeight weight, double distance) {
+		this.query = new char[length];
+		for (int i = 0; i < length; ++i) {
+			this.query[i] = query.charAt(offset + i);
+		}
+		this.length = length;
+		this.weight = weight;
+		this.distance = distance;
+		substitutions = weight.substitutionEnabled();
+		transpositions = weight.transpositionEnabled();
+		deletions = new double[length];
+		for (int i = 0; i < length; ++i) {
+			deletions[i] = weight.deletionCost(i, this.query[i]);
+		}
+		minCost = minCost(weight);
+		if (weight instanceof CompiledEditWeight) {
+			compiled = (CompiledEditWeight) weight;
+			codes = new int[length];
+			for (int i = 0; i < length; ++i) {
+				codes[i] = compiled.code(this.query[i]);
+			}
+		} else {
+			compiled = null;
+			codes = null;
+		}
+		rows = new double[Math.max(8, length + 2)][];
+		lows = new int[rows.length];
+		highs = new int[rows.length];
+		path = new char[rows.length];
+		double[] row = rows[0] = new double[length + 1];
+		int high = -1;
+		for (int i = 0; i <= length; ++i) {
+			row[i] = i == 0 ? 0 : row[i-1] + deletions[i-1];
+			if (row[i] > distance) {
+				break;
+			}
+			high = i;
+		}
+		lows[0] = 0;
+		highs[0] = high;
+	}
+
+	/**
+	 * Return the minimum cost of an edit, or 0 if it is not known to be
+	 * positive for all chars and offsets.
+	 */
+	private static double minCost(EditWeight weight) {
+		if (weight instanceof CompiledEditWeight) {
+			// chars out of the alphabet use the original weight
+			return minCost(((CompiledEditWeight) weight).getWeight());
+		} else if (weight instanceof BasicEditWeight) {
+			BasicEditWeight basic = (BasicEditWeight) weight;
+			double min = Math.min(basic.insertionCost(), basic.deletionCost());
+			if (basic.substitutionEnabled()) {
+				min = Math.min(min, basic.substitutionCost());
+			}
+			if (basic.transpositionEnabled()) {
+				min = Math.min(min, basic.transpositionCost());
+			}
+			return Math.max(min, 0);
+		} else {
+			return 0;
+		}
+	}
+
+	private double cell(int depth, int i) {
+		return i >= lows[depth] && i <= highs[depth]
+			? rows[depth][i]
+			: Double.POSITIVE_INFINITY;
+	}
+
+	private void grow() {
+		int newLength = rows.length << 1;
+		double[][] newRows = new double[newLength][];
+		System.arraycopy(rows, 0, newRows, 0, rows.length);
+		rows = newRows;
+		int[] newLows = new int[newLength];
+		System.arraycopy(lows, 0, newLows, 0, lows.length);
+		lows = newLows;
+		int[] newHighs = new int[newLength];
+		System.arraycopy(highs, 0, newHighs, 0, highs.length);
+		highs = newHighs;
+		char[] newPath = new char[newLength];
+		System.arraycopy(path, 0, newPath, 0, path.length);
+		path = newPath;
+	}
+
+	/**
+	 * Compute the row of the node at depth whose edge label is c.
+	 */
+	private void push(int depth, char c) {
+		if (depth == rows.length) {
+			grow();
+		}
+		double[] row = rows[depth];
+		if (row == null) {
+			row = rows[depth] = new double[length + 1];
+		}
+		path[depth] = c;
+		final int to = depth - 1;
+		// cells which may be derived from a cell of the previous rows which
+		// is within the maximum distance
+		int start = lows[depth-1];
+		int end = Math.min(length, highs[depth-1] + 1);
+		final boolean transpose = transpositions && depth >= 2 && lows[depth-2] <= highs[depth-2];
+		if (transpose) {
+			start = Math.min(start, lows[depth-2] + 2);
+			end = Math.max(end, Math.min(length, highs[depth-2] + 2));
+		}
+		final double insertion = weight.insertionCost(to, c);
+		final int code = compiled == null ? -1 : compiled.code(c);
+		int low = 0, high = -1;
+		double left = Double.POSITIVE_INFINITY;
+		for (int i = start; i <= length; ++i) {
+			if (i > end && left > distance) {
+				// only deletions could reach the next cells
+				break;
+			}
+			double cost = cell(depth-1, i) + insertion;
+			if (i > 0) {
+				cost = Math.min(cost, left + deletions[i-1]);
+				final char q = query[i-1];
+				final double diagonal = cell(depth-1, i-1);
+				if (q == c) {
+					cost = Math.min(cost, diagonal);
+				} else {
+					final int qCode = code < 0 ? -1 : codes[i-1];
+					if (substitutions && diagonal <= distance) {
+						cost = Math.min(cost, diagonal + (qCode < 0
+								? weight.substitutionCost(i-1, to, q, c)
+								: compiled.substitution(qCode, code)));
+					}
+					if (transpose && i >= 2 && q == path[depth-1] && query[i-2] == c) {
+						double previous = cell(depth-2, i-2);
+						if (previous <= distance) {
+							cost = Math.min(cost, previous + (qCode < 0
+									? weight.transpositionCost(i-2, to-1, c, q)
+									: compiled.transposition(code, qCode)));
+						}
+					}
+				}
+			}
+			row[i] = left = cost;
+			if (cost <= distance) {
+				if (high < 0) {
+					low = i;
+				}
+				high = i;
+			}
+		}
+		lows[depth] = low;
+		highs[depth] = high;
+	}
+
+	/**
+	 * Return whether a node under the node at depth may be within the
+	 * maximum distance.
+	 */
+	private boolean canDescend(int depth) {
+		if (lows[depth] <= highs[depth]) {
+			return true;
+		}
+		if (transpositions && depth > 0) {
+			// a child may still be reached by transposing its label with the
+			// label of this node
+			final char c = path[depth];
+			final int end = Math.min(length, highs[depth-1] + 2);
+			for (int i = Math.max(2, lows[depth-1] + 2); i <= end; ++i) {
+				if (query[i-1] == c) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return the offset of the query from which the labels of the nodes
+	 * under the node at depth must match the query exactly to be within the
+	 * maximum distance, or -1 if edits may still be applied under this node.
+	 */
+	private int exactFrom(int depth) {
+		final int i = lows[depth];
+		if (minCost <= 0 || i != highs[depth] || rows[depth][i] + minCost <= distance) {
+			return -1;
+		}
+		if (transpositions && depth > 0) {
+			// children may also be derived from the previous row
+			for (int j = lows[depth-1]; j <= highs[depth-1]; ++j) {
+				if (rows[depth-1][j] + minCost <= distance) {
+					return -1;
+				}
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Add the entry whose key is the label of the cursor followed by the
+	 * chars of the query from offset from to neighbors, if it exists. The
+	 * cursor is moved back to its node.
+	 */
+	private <T> void getExactNeighbor(Trie.Cursor<T> cursor, int from,
+			Set<Map.Entry<String, T>> neighbors) {
+		int i = from;
+		while (i < length && cursor.moveToChild(query[i])) {
+			++i;
+		}
+		if (i == length && i > from) {
+			T value = cursor.getValue();
+			if (value != null) {
+				neighbors.add(new AbstractMap.SimpleImmutableEntry<String, T>(cursor.getLabel(), value));
+			}
+		}
+		for (; i > from; --i) {
+			cursor.moveToParent();
+		}
+	}
+
+	/**
+	 * Add all entries under the cursor whose keys are within the maximum
+	 * distance of the query to neighbors. The cursor must be at the root
+	 * node, and is moved back to it.
+	 */
+	<T> void getNeighbors(Trie.Cursor<T> cursor, Set<Map.Entry<String, T>> neighbors) {
+		getNeighbors(cursor, 0, neighbors);
+	}
+
+	private <T> void getNeighbors(Trie.Cursor<T> cursor, int depth,
+			Set<Map.Entry<String, T>> neighbors) {
+		if (highs[depth] == length) {
+			T value = cursor.getValue();
+			if (value != null) {
+				neighbors.add(new AbstractMap.SimpleImmutableEntry<String, T>(cursor.getLabel(), value));
+			}
+		}
+		final int from = exactFrom(depth);
+		if (from >= 0) {
+			getExactNeighbor(cursor, from, neighbors);
+		} else if (canDescend(depth) && cursor.moveToFirstChild()) {
+			do {
+				push(depth + 1, cursor.getEdgeLabel());
+				getNeighbors(cursor, depth + 1, neighbors);
+			} while (cursor.moveToBrother());
+			cursor.moveToParent();
+		}
+	}
+
+	/**
+	 * Report all entries under the cursor whose keys have a prefix which is
+	 * within the maximum distance of the query to consumer, until maxResults
+	 * entries have been reported. The cursor must be at the root node, and
+	 * is moved back to it.
+	 *
+	 * @return the number of reported entries
+	 */
+	<T> int getPrefixMatches(Trie.Cursor<T> cursor, int maxResults, Tries.MatchConsumer<T> consumer) {
+		if (maxResults <= 0) {
+			return 0;
+		}
+		remaining = maxResults;
+		getPrefixMatches(cursor, 0, Double.POSITIVE_INFINITY, consumer);
+		return maxResults - remaining;
+	}
+
+	/**
+	 * @param best the minimum distance from the query to a prefix of the
+	 *             label of the parent node
+	 */
+	private <T> void getPrefixMatches(Trie.Cursor<T> cursor, int depth, double best,
+			Tries.MatchConsumer<T> consumer) {
+		if (highs[depth] == length) {
+			best = Math.min(best, rows[depth][length]);
+		}
+		if (best <= distance) {
+			T value = cursor.getValue();
+			if (value != null) {
+				consumer.accept(cursor.getLabel(), value, best);
+				if (--remaining == 0) {
+					return;
+				}
+			}
+		}
+		if (canDescend(depth)) {
+			if (cursor.moveToFirstChild()) {
+				do {
+					push(depth + 1, cursor.getEdgeLabel());
+					getPrefixMatches(cursor, depth + 1, best, consumer);
+				} while (remaining > 0 && cursor.moveToBrother());
+				cursor.moveToParent();
+			}
+		} else if (best <= distance) {
+			// no longer prefix can be closer to the query, all entries under
+			// this node match with the same distance
+			enumerate(cursor, best, consumer);
+		}
+	}
+
+	private <T> void enumerate(Trie.Cursor<T> cursor, double distance,
+			Tries.MatchConsumer<T> consumer) {
+		if (cursor.moveToFirstChild()) {
+			do {
+				T value = cursor.getValue();
+				if (value != null) {
+					consumer.accept(cursor.getLabel(), value, distance);
+					--remaining;
+				}
+				if (remaining > 0) {
+					enumerate(cursor, distance, consumer);
+				}
+			} while (remaining > 0 && cursor.moveToBrother());
+			cursor.moveToParent();
+		}
+	}
+
+	/**
+	 * Add the labels of the nodes at depth which may have neighbors under
+	 * them to prefixes, and the entries above this depth which are
+	 * neighbors to neighbors. The cursor must be at the root node, and is
+	 * moved back to it.
+	 */
+	<T> void split(Trie.Cursor<T> cursor, int depth, Set<Map.Entry<String, T>> neighbors,
+			List<String> prefixes) {
+		split(cursor, 0, depth, neighbors, prefixes);
+	}
+
+	private <T> void split(Trie.Cursor<T> cursor, int depth, int splitDepth,
+			Set<Map.Entry<String, T>> neighbors, List<String> prefixes) {
+		if (depth == splitDepth) {
+			prefixes.add(cursor.getLabel());
+			return;
+		}
+		if (highs[depth] == length) {
+			T value = cursor.getValue();
+			if (value != null) {
+				neighbors.add(new AbstractMap.SimpleImmutableEntry<String, T>(cursor.getLabel(), value));
+			}
+		}
+		if (canDescend(depth) && cursor.moveToFirstChild()) {
+			do {
+				push(depth + 1, cursor.getEdgeLabel());
+				split(cursor, depth + 1, splitDepth, neighbors, prefixes);
+			} while (cursor.moveToBrother());
+			cursor.moveToParent();
+		}
+	}
+
+	/**
+	 * Same as {@link #getNeighbors(Trie.Cursor, Set)} for the entries whose
+	 * keys start with prefix. The cursor must be at the root node, and is
+	 * left on the deepest node of the path to prefix.
+	 */
+	<T> void getNeighbors(Trie.Cursor<T> cursor, CharSequence prefix,
+			Set<Map.Entry<String, T>> neighbors) {
+		for (int i = 0; i < prefix.length(); ++i) {
+			char c = prefix.charAt(i);
+			if (!cursor.moveToChild(c)) {
+				return;
+			}
+			push(i + 1, c);
+		}
+		getNeighbors(cursor, prefix.length(), neighbors);
+	}
+
+}
@@ -0,0 +1,261 @@
+package net.jpountz.charsequence.collect;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jpountz.charsequence.EditWeight;
+
+/**
+ * A cache of the results of {@link Tries#getNeighbors(CharSequence, Trie, EditWeight, double, Set)}
+ * and {@link Tries#getFuzzyPrefixMatches(CharSequence, Trie, EditWeight, double, int, Tries.MatchConsumer)}
+ * on a {@link VersionedTrie}.
+ *
+ * Results are keyed by the query, the weight (compared by identity), the
+ * distance and the maximum number of results. The cache is bounded by its
+ * weight, which is the number of cached entries plus the number of results
+ * they hold, and least recently used entries are evicted first. All
+ * entries are dropped as soon as the version of the trie changes.
+ *
+ * Searches are executed outside of the lock of the cache, so concurrent
+ * readers only contend on lookups.
+ *
+ * @param <T> the value type
+ */
+public class FuzzySearchCache<T> {
+
+	private static final class Key {
+
+		final String query;
+		final EditWeight weight;
+		final double distance;
+		// -1 for neighbors
+		final int maxResults;
+
+		Key(String query, EditWeight weight, double distance, int maxResults) {
+			this.query = query;
+			this.weight = weight;
+			this.distance = distance;
+			this.maxResults = maxResults;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = query.hashCode();
+			result = prime * result + System.identityHashCode(weight);
+			long bits = Double.doubleToLongBits(distance);
+			result = prime * result + (int) (bits ^ (bits >>> 32));
+			result = prime * result + maxResults;
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return query.equals(other.query)
+				&& weight == other.weight
+				&& Double.doubleToLongBits(distance) == Double.doubleToLongBits(other.distance)
+				&& maxResults == other.maxResults;
+		}
+
+	}
+
+	/**
+	 * The results of a search.
+	 */
+	private static final class Results {
+
+		final long version;
+		final String[] keys;
+		final Object[] values;
+		final double[] distances; // null for neighbors
+
+		Results(long version, int size, boolean withDistances) {
+			this.version = version;
+			keys = new String[size];
+			values = new Object[size];
+			distances = withDistances ? new double[size] : null;
+		}
+
+		int weight() {
+			return 1 + keys.length;
+		}
+
+	}
+
+	private final VersionedTrie<T> trie;
+	private final long maxWeight;
+	private final LinkedHashMap<Key, Results> cache;
+	private long weight;
+	private long version;
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+	/**
+	 * @param trie the trie to search
+	 * @param maxWeight the maximum number of cached entries plus results
+	 */
+	public FuzzySearchCache(VersionedTrie<T> trie, long maxWeight) {
+		if (maxWeight < 1) {
+			throw new IllegalArgumentException("maxWeight must be > 0");
+		}
+		this.trie = trie;
+		this.maxWeight = maxWeight;
+		cache = new LinkedHashMap<Key, Results>(16, 0.75f, true);
+		version = trie.getVersion();
+	}
+
+	public VersionedTrie<T> getTrie() {
+		return trie;
+	}
+
+	private synchronized Results get(Key key, long version) {
+		if (version != this.version) {
+			cache.clear();
+			weight = 0;
+			this.version = version;
+			return null;
+		}
+		return cache.get(key);
+	}
+
+	private synchronized void put(Key key, Results results) {
+		if (results.version != version || results.weight() > maxWeight) {
+			return;
+		}
+		Results previous = cache.put(key, results);
+		if (previous != null) {
+			weight -= previous.weight();
+		}
+		weight += results.weight();
+		for (Iterator<Results> it = cache.values().iterator(); weight > maxWeight; ) {
+			weight -= it.next().weight();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Same as {@link Tries#getNeighbors(CharSequence, Trie, EditWeight, double, Set)}.
+	 */
+	@SuppressWarnings("unchecked")
+	public void getNeighbors(CharSequence query, EditWeight weight, double distance,
+			Set<Map.Entry<String, T>> neighbors) {
+		final long version = trie.getVersion();
+		final Key key = new Key(query.toString(), weight, distance, -1);
+		Results results = get(key, version);
+		if (results != null) {
+			hits.incrementAndGet();
+			for (int i = 0; i < results.keys.length; ++i) {
+				neighbors.add(new AbstractMap.SimpleImmutableEntry<String, T>(results.keys[i], (T) results.values[i]));
+			}
+			return;
+		}
+		misses.incrementAndGet();
+		Set<Map.Entry<String, T>> result = new HashSet<Map.Entry<String, T>>();
+		Tries.getNeighbors(query, trie, weight, distance, result);
+		results = new Results(version, result.size(), false);
+		int i = 0;
+		for (Map.Entry<String, T> entry : result) {
+			results.keys[i] = entry.getKey();
+			results.values[i++] = entry.getValue();
+		}
+		put(key, results);
+		neighbors.addAll(result);
+	}
+
+	/**
+	 * Same as {@link Tries#getFuzzyPrefixMatches(CharSequence, Trie, EditWeight, double, int, Tries.MatchConsumer)}.
+	 */
+	@SuppressWarnings("unchecked")
+	public int getFuzzyPrefixMatches(CharSequence query, EditWeight weight, double distance,
+			int maxResults, Tries.MatchConsumer<T> consumer) {
+		final long version = trie.getVersion();
+		final Key key = new Key(query.toString(), weight, distance, Math.max(0, maxResults));
+		Results results = get(key, version);
+		if (results == null) {
+			misses.incrementAndGet();
+			final List<String> keys = new ArrayList<String>();
+			final List<T> values = new ArrayList<T>();
+			final DoubleArrayList distances = new DoubleArrayList();
+			Tries.getFuzzyPrefixMatches(query, trie, weight, distance, maxResults, new Tries.MatchConsumer<T>() {
+				public void accept(String key, T value, double distance) {
+					keys.add(key);
+					values.add(value);
+					distances.add(distance);
+				}
+			});
+			results = new Results(version, keys.size(), true);
+			keys.toArray(results.keys);
+			values.toArray(results.values);
+			distances.toDoubleArray(results.distances);
+			put(key, results);
+		} else {
+			hits.incrementAndGet();
+		}
+		for (int i = 0; i < results.keys.length; ++i) {
+			consumer.accept(results.keys[i], (T) results.values[i], results.distances[i]);
+		}
+		return results.keys.length;
+	}
+
+	/**
+	 * Remove all cached results.
+	 */
+	public synchronized void clear() {
+		cache.clear();
+		weight = 0;
+	}
+
+	/**
+	 * Get the number of cached results.
+	 */
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Get the weight of the cached results.
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	/**
+	 * Get the number of searches which have been served by the cache.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of searches which had to search the trie.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Get the ratio of searches which have been served by the cache.
+	 */
+	public double getHitRate() {
+		long hits = getHits(), lookups = hits + getMisses();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	public void resetStats() {
+		hits.set(0);
+		misses.set(0);
+	}
+
+}
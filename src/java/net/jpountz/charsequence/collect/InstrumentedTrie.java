@@ -0,0 +1,249 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link DelegatingTrie} which records metrics about the operations
+ * performed on the underlying trie. {@link Tries#getNeighbors} also records
+ * its metrics when called on an instance of this class.
+ *
+ * Counting the nodes visited by get, put and remove is opt-in. When it is
+ * enabled, these operations are performed with a cursor walk of the
+ * delegate which counts the nodes of the path of the key which exist before
+ * the operation, instead of the delegate's own lookup code. Otherwise, they
+ * are delegated as-is and record 0 visited nodes.
+ *
+ * @param <T> the value type
+ */
+public class InstrumentedTrie<T> extends DelegatingTrie<T> {
+
+	static class InstrumentedCursor<T> extends DelegatingTrie.Cursor<T> {
+
+		final LongAdder cursorMoves;
+		long moves;
+
+		public InstrumentedCursor(Trie.Cursor<T> delegate, LongAdder cursorMoves) {
+			super(delegate);
+			this.cursorMoves = cursorMoves;
+		}
+
+		private boolean moved(boolean moved) {
+			if (moved) {
+				++moves;
+				cursorMoves.increment();
+			}
+			return moved;
+		}
+
+		@Override
+		public boolean moveToChild(char c) {
+			return moved(delegate.moveToChild(c));
+		}
+
+		@Override
+		public boolean moveToFirstChild() {
+			return moved(delegate.moveToFirstChild());
+		}
+
+		@Override
+		public boolean moveToBrother() {
+			return moved(delegate.moveToBrother());
+		}
+
+		@Override
+		public boolean moveToParent() {
+			return moved(delegate.moveToParent());
+		}
+
+		@Override
+		public void addChild(char c) {
+			delegate.addChild(c);
+			moved(true);
+		}
+
+	}
+
+	protected final TrieMetrics metrics;
+	private final boolean countVisitedNodes;
+
+	/**
+	 * @param delegate the trie to instrument
+	 * @param metrics where to record metrics
+	 * @param countVisitedNodes whether get, put and remove should count the
+	 *                          nodes they visit
+	 */
+	public InstrumentedTrie(Trie<T> delegate, TrieMetrics metrics, boolean countVisitedNodes) {
+		super(delegate);
+		this.metrics = metrics;
+		this.countVisitedNodes = countVisitedNodes;
+	}
+
+	public InstrumentedTrie(Trie<T> delegate, TrieMetrics metrics) {
+		this(delegate, metrics, false);
+	}
+
+	public InstrumentedTrie(Trie<T> delegate) {
+		this(delegate, new TrieMetrics());
+	}
+
+	public TrieMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public Trie.Cursor<T> getCursor() {
+		return new InstrumentedCursor<T>(delegate.getCursor(), metrics.cursorMoves());
+	}
+
+	@Override
+	public Trie.Cursor<T> getCursor(Trie.Cursor<T> reuse) {
+		if (reuse instanceof InstrumentedCursor) {
+			InstrumentedCursor<T> cursor = (InstrumentedCursor<T>) reuse;
+			if (cursor.cursorMoves == metrics.cursorMoves()) {
+				Trie.Cursor<T> inner = delegate.getCursor(cursor.delegate);
+				if (inner == cursor.delegate) {
+					cursor.moves = 0;
+					return cursor;
+				}
+				return new InstrumentedCursor<T>(inner, metrics.cursorMoves());
+			}
+		}
+		return getCursor();
+	}
+
+	/**
+	 * Look a key up with a single cursor walk, and store the number of
+	 * visited nodes in visited[0].
+	 */
+	private T walk(char[] buffer, int offset, int length, int[] visited) {
+		Trie.Cursor<T> cursor = delegate.getCursor();
+		int depth = 0;
+		while (depth < length && cursor.moveToChild(buffer[offset + depth])) {
+			++depth;
+		}
+		visited[0] = depth + 1;
+		return depth == length ? cursor.getValue() : null;
+	}
+
+	private T walk(CharSequence sequence, int offset, int length, int[] visited) {
+		Trie.Cursor<T> cursor = delegate.getCursor();
+		int depth = 0;
+		while (depth < length && cursor.moveToChild(sequence.charAt(offset + depth))) {
+			++depth;
+		}
+		visited[0] = depth + 1;
+		return depth == length ? cursor.getValue() : null;
+	}
+
+	/**
+	 * Insert a key with a single cursor walk which only adds the nodes which
+	 * do not exist yet, and store the number of existing nodes in visited[0].
+	 */
+	private T insert(char[] buffer, int offset, int length, T value, int[] visited) {
+		Trie.Cursor<T> cursor = delegate.getCursor();
+		int depth = 0;
+		while (depth < length && cursor.moveToChild(buffer[offset + depth])) {
+			++depth;
+		}
+		visited[0] = depth + 1;
+		for (; depth < length; ++depth) {
+			cursor.addChild(buffer[offset + depth]);
+		}
+		T result = cursor.getValue();
+		cursor.setValue(value);
+		return result;
+	}
+
+	private T insert(CharSequence sequence, int offset, int length, T value, int[] visited) {
+		Trie.Cursor<T> cursor = delegate.getCursor();
+		int depth = 0;
+		while (depth < length && cursor.moveToChild(sequence.charAt(offset + depth))) {
+			++depth;
+		}
+		visited[0] = depth + 1;
+		for (; depth < length; ++depth) {
+			cursor.addChild(sequence.charAt(offset + depth));
+		}
+		T result = cursor.getValue();
+		cursor.setValue(value);
+		return result;
+	}
+
+	@Override
+	public T get(char[] buffer, int offset, int length) {
+		int[] visited = countVisitedNodes ? new int[1] : null;
+		long start = System.nanoTime();
+		T result = countVisitedNodes
+			? walk(buffer, offset, length, visited)
+			: delegate.get(buffer, offset, length);
+		metrics.getGet().record(System.nanoTime() - start,
+				countVisitedNodes ? visited[0] : 0, result == null ? 0 : 1);
+		return result;
+	}
+
+	@Override
+	public T get(CharSequence sequence, int offset, int length) {
+		int[] visited = countVisitedNodes ? new int[1] : null;
+		long start = System.nanoTime();
+		T result = countVisitedNodes
+			? walk(sequence, offset, length, visited)
+			: delegate.get(sequence, offset, length);
+		metrics.getGet().record(System.nanoTime() - start,
+				countVisitedNodes ? visited[0] : 0, result == null ? 0 : 1);
+		return result;
+	}
+
+	@Override
+	public T put(char[] buffer, int offset, int length, T value) {
+		int[] visited = countVisitedNodes ? new int[1] : null;
+		long start = System.nanoTime();
+		T result = countVisitedNodes
+			? insert(buffer, offset, length, value, visited)
+			: delegate.put(buffer, offset, length, value);
+		metrics.getPut().record(System.nanoTime() - start,
+				countVisitedNodes ? visited[0] : 0, result == null ? 1 : 0);
+		return result;
+	}
+
+	@Override
+	public T put(CharSequence sequence, int offset, int length, T value) {
+		int[] visited = countVisitedNodes ? new int[1] : null;
+		long start = System.nanoTime();
+		T result = countVisitedNodes
+			? insert(sequence, offset, length, value, visited)
+			: delegate.put(sequence, offset, length, value);
+		metrics.getPut().record(System.nanoTime() - start,
+				countVisitedNodes ? visited[0] : 0, result == null ? 1 : 0);
+		return result;
+	}
+
+	/**
+	 * When nodes are counted, keys which are not in the trie are found with
+	 * the counting walk only, and the delegate removes the other ones, so
+	 * that it can prune the nodes which become useless.
+	 */
+	@Override
+	public T remove(char[] buffer, int offset, int length) {
+		int[] visited = countVisitedNodes ? new int[1] : null;
+		long start = System.nanoTime();
+		T result = countVisitedNodes && walk(buffer, offset, length, visited) == null
+			? null
+			: delegate.remove(buffer, offset, length);
+		metrics.getRemove().record(System.nanoTime() - start,
+				countVisitedNodes ? visited[0] : 0, result == null ? 0 : 1);
+		return result;
+	}
+
+	@Override
+	public T remove(CharSequence sequence, int offset, int length) {
+		int[] visited = countVisitedNodes ? new int[1] : null;
+		long start = System.nanoTime();
+		T result = countVisitedNodes && walk(sequence, offset, length, visited) == null
+			? null
+			: delegate.remove(sequence, offset, length);
+		metrics.getRemove().record(System.nanoTime() - start,
+				countVisitedNodes ? visited[0] : 0, result == null ? 0 : 1);
+		return result;
+	}
+
+}
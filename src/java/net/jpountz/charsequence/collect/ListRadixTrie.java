@@ -3,6 +3,7 @@ package net.jpountz.charsequence.collect;
 import java.util.Arrays;
 
 import net.jpountz.charsequence.GrowthStrategy;
+import net.jpountz.charsequence.util.RamUsageUtils;
 
 /**
  * A Radix Trie.
@@ -17,6 +18,12 @@ public class ListRadixTrie<T> extends AbstractListRadixTrie<T> implements Trie.O
 
 	protected int[] children;
 	protected char[][] labels;
+	// memory used by the labels which are not shared, labels which have been
+	// interned are accounted by the owner of the interning trie
+	protected long labelsBytes;
+	// bit set of the positions whose label has been interned, null if labels
+	// have never been interned
+	protected long[] sharedLabels;
 
 	protected ListRadixTrie(int initialCapacity, GrowthStrategy growthStrategy,
 			int size, Object[] values, int[] brothers) {
@@ -66,11 +73,28 @@ public class ListRadixTrie<T> extends AbstractListRadixTrie<T> implements Trie.O
 	}
 
 	protected void setLabel(int position, char[] label, int offset, int length) {
-		labels[position] = Arrays.copyOfRange(label, offset, offset+length);
+		setLabel(position, Arrays.copyOfRange(label, offset, offset+length));
 	}
 
 	protected void setLabel(int position, CharSequence label, int offset, int length) {
-		labels[position] = toArray(label, offset, length);
+		setLabel(position, toArray(label, offset, length));
+	}
+
+	private boolean isShared(int position) {
+		return sharedLabels != null
+			&& (sharedLabels[position >>> 6] & (1L << position)) != 0;
+	}
+
+	private void setLabel(int position, char[] label) {
+		char[] previous = labels[position];
+		if (isShared(position)) {
+			// not accounted by this trie
+			sharedLabels[position >>> 6] &= ~(1L << position);
+		} else if (previous != null) {
+			labelsBytes -= RamUsageUtils.sizeOf(previous);
+		}
+		labels[position] = label;
+		labelsBytes += RamUsageUtils.sizeOf(label);
 	}
 
 	protected char[] toArray(CharSequence sequence, int offset, int length) {
@@ -139,6 +163,9 @@ public class ListRadixTrie<T> extends AbstractListRadixTrie<T> implements Trie.O
 			children = Arrays.copyOf(children, capacity);
 			Arrays.fill(children, previousCapacity, capacity, NOT_FOUND);
 			labels = Arrays.copyOf(labels, capacity);
+			if (sharedLabels != null) {
+				sharedLabels = Arrays.copyOf(sharedLabels, (capacity + 63) >>> 6);
+			}
 		}
 	}
 
@@ -147,6 +174,9 @@ public class ListRadixTrie<T> extends AbstractListRadixTrie<T> implements Trie.O
 		super.trimToSize();
 		children = Arrays.copyOf(children, size);
 		labels = Arrays.copyOf(labels, size);
+		if (sharedLabels != null) {
+			sharedLabels = Arrays.copyOf(sharedLabels, (size + 63) >>> 6);
+		}
 	}
 
 	@Override
@@ -155,6 +185,18 @@ public class ListRadixTrie<T> extends AbstractListRadixTrie<T> implements Trie.O
 		Arrays.fill(children, NOT_FOUND);
 	}
 
+	@Override
+	protected void addRamUsage(RamUsage usage) {
+		super.addRamUsage(usage);
+		usage.addChildren(children, size);
+		usage.addLabels(labels, size);
+		usage.addLabels(labelsBytes, labelsBytes);
+		if (sharedLabels != null) {
+			long bytes = RamUsageUtils.sizeOf(sharedLabels);
+			usage.addLabels(bytes, bytes);
+		}
+	}
+
 	public void optimizeFor(Trie.Traversal traversal) {
 		ListRadixTrie<T> trie = new ListRadixTrie<T>(radixSize(), growthStrategy);
 		ArrayRadixTrieCursor<T> cursor = getCursor();
@@ -165,6 +207,8 @@ public class ListRadixTrie<T> extends AbstractListRadixTrie<T> implements Trie.O
 		this.brothers = trie.brothers;
 		this.children = trie.children;
 		this.labels = trie.labels;
+		this.labelsBytes = trie.labelsBytes;
+		this.sharedLabels = null;
 		this.values = trie.values;
 	}
 
@@ -173,15 +217,22 @@ public class ListRadixTrie<T> extends AbstractListRadixTrie<T> implements Trie.O
 	}
 
 	public void internLabels(Trie<char[]> trie) {
-		for (int i = 0; i < size; ++i) {
+		if (sharedLabels == null) {
+			sharedLabels = new long[(getCapacity() + 63) >>> 6];
+		}
+		// the label of the root is a constant which is not accounted
+		for (int i = START + 1; i < size; ++i) {
 			char[] label = labels[i];
 			char[] shared = trie.get(label);
 			if (shared == null) {
 				shared = label;
 				trie.put(shared, shared);
-			} else {
-				labels[i] = shared;
 			}
+			if (!isShared(i)) {
+				labelsBytes -= RamUsageUtils.sizeOf(label);
+				sharedLabels[i >>> 6] |= 1L << i;
+			}
+			labels[i] = shared;
 		}
 	}
 
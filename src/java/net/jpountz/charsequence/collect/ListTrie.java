@@ -1,32 +1,173 @@
 package net.jpountz.charsequence.collect;
 
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
 import java.util.Arrays;
 
 import net.jpountz.charsequence.GrowthStrategy;
+import net.jpountz.charsequence.util.RamUsageUtils;
 
+/**
+ * A trie whose nodes store their children as a linked list sorted by label.
+ *
+ * Nodes which have many children, such as the first levels of CJK
+ * dictionaries, additionally index their children in an open-addressed hash
+ * table so that finding a child does not need to scan all its brothers.
+ */
 public class ListTrie<T> extends AbstractListTrie<T> implements Trie.Optimizable, Trie.Trimmable {
 
+	/**
+	 * Default number of children above which children are also indexed in a
+	 * hash table.
+	 */
+	public static final int DEFAULT_HASH_THRESHOLD = 32;
+
 	private int[] children;
+	protected final int hashThreshold;
+	// bit i is set if node i has a hash table of children, null until the
+	// first node has more than hashThreshold children
+	private long[] hashed;
+	// table[0] is the number of children, other slots are children or NOT_FOUND,
+	// null until the first node has more than hashThreshold children
+	private Int2ObjectOpenHashMap<int[]> tables;
 
-	public ListTrie(int initialCapacity, GrowthStrategy growthStrategy) {
+	/**
+	 * @param initialCapacity the initial number of nodes
+	 * @param growthStrategy how to grow the arrays
+	 * @param hashThreshold the number of children above which children are
+	 *                      also indexed in a hash table
+	 */
+	public ListTrie(int initialCapacity, GrowthStrategy growthStrategy, int hashThreshold) {
 		super(initialCapacity, growthStrategy);
+		if (hashThreshold < 1) {
+			throw new IllegalArgumentException("hashThreshold must be > 0");
+		}
+		this.hashThreshold = hashThreshold;
 		children = new int[initialCapacity];
 		Arrays.fill(children, NOT_FOUND);
 	}
 
+	public ListTrie(int initialCapacity, GrowthStrategy growthStrategy) {
+		this(initialCapacity, growthStrategy, DEFAULT_HASH_THRESHOLD);
+	}
+
 	public ListTrie() {
 		this(DEFAULT_CAPACITY, GrowthStrategy.FAST_GROWTH);
 	}
 
+	private boolean isHashed(int node) {
+		return hashed != null && (hashed[node >>> 6] & (1L << node)) != 0;
+	}
+
+	private static int slot(char c, int mask) {
+		int h = c * 0x9E3779B9;
+		return 1 + ((h ^ (h >>> 16)) & mask);
+	}
+
+	private int hashGet(int[] table, char c) {
+		int mask = table.length - 2;
+		for (int i = slot(c, mask); ; i = 1 + (i & mask)) {
+			int child = table[i];
+			if (child == NOT_FOUND || label(child) == c) {
+				return child;
+			}
+		}
+	}
+
+	private void hashInsert(int[] table, int child) {
+		int mask = table.length - 2;
+		int i = slot(label(child), mask);
+		while (table[i] != NOT_FOUND) {
+			i = 1 + (i & mask);
+		}
+		table[i] = child;
+		++table[0];
+	}
+
+	private void hashRemove(int[] table, int child) {
+		int mask = table.length - 2;
+		int i = slot(label(child), mask);
+		while (table[i] != child) {
+			i = 1 + (i & mask);
+		}
+		// move back the following entries of the cluster which would not be
+		// reachable anymore
+		for (int j = 1 + (i & mask); table[j] != NOT_FOUND; j = 1 + (j & mask)) {
+			int k = slot(label(table[j]), mask);
+			if (i <= j ? (i < k && k <= j) : (i < k || k <= j)) {
+				continue;
+			}
+			table[i] = table[j];
+			i = j;
+		}
+		table[i] = NOT_FOUND;
+		--table[0];
+	}
+
+	private static int[] newTable(int children) {
+		int capacity = 4;
+		while (children * 4 > capacity * 3) {
+			capacity <<= 1;
+		}
+		int[] table = new int[1 + capacity];
+		Arrays.fill(table, NOT_FOUND);
+		table[0] = 0;
+		return table;
+	}
+
+	private void buildTable(int node, int count) {
+		if (tables == null) {
+			hashed = new long[(getCapacity() + 63) >>> 6];
+			tables = new Int2ObjectOpenHashMap<int[]>();
+		}
+		int[] table = newTable(count);
+		for (int child = firstChild(node); child != NOT_FOUND; child = brother(child)) {
+			hashInsert(table, child);
+		}
+		tables.put(node, table);
+		hashed[node >>> 6] |= 1L << node;
+	}
+
+	private void dropTable(int node) {
+		tables.remove(node);
+		hashed[node >>> 6] &= ~(1L << node);
+	}
+
 	@Override
 	protected void setDeleted(int node) {
 		super.setDeleted(node);
 		children[node] = NOT_FOUND;
+		if (isHashed(node)) {
+			dropTable(node);
+		}
+	}
+
+	@Override
+	protected int child(int node, char label) {
+		if (isHashed(node)) {
+			return hashGet(tables.get(node), label);
+		}
+		return super.child(node, label);
 	}
 
 	@Override
 	protected boolean removeChild(int node, char c) {
+		if (isHashed(node)) {
+			int[] table = tables.get(node);
+			int child = hashGet(table, c);
+			if (child == NOT_FOUND) {
+				return false;
+			}
+			hashRemove(table, child);
+			if (table[0] < hashThreshold / 2) {
+				dropTable(node);
+			}
+		}
+		return removeListChild(node, c);
+	}
+
+	private boolean removeListChild(int node, char c) {
 		int firstChild = firstChild(node);
 		int child = firstChild;
 		if (child == NOT_FOUND) {
@@ -69,6 +210,9 @@ public class ListTrie<T> extends AbstractListTrie<T> implements Trie.Optimizable
 			child = newChild;
 		}
 		children[node] = NOT_FOUND;
+		if (isHashed(node)) {
+			dropTable(node);
+		}
 	}
 
 	protected int firstChild(int position) {
@@ -76,6 +220,37 @@ public class ListTrie<T> extends AbstractListTrie<T> implements Trie.Optimizable
 	}
 
 	protected int addChild(int node, char c) {
+		int[] table = null;
+		if (isHashed(node)) {
+			table = tables.get(node);
+			int child = hashGet(table, c);
+			if (child != NOT_FOUND) {
+				return child;
+			}
+		}
+		int nodes = size - deletedCount;
+		int child = addListChild(node, c);
+		if (size - deletedCount != nodes) {
+			if (table != null) {
+				if ((table[0] + 1) * 4 > (table.length - 1) * 3) {
+					buildTable(node, table[0] + 1);
+				} else {
+					hashInsert(table, child);
+				}
+			} else {
+				int count = 0;
+				for (int n = firstChild(node); n != NOT_FOUND && count <= hashThreshold; n = brother(n)) {
+					++count;
+				}
+				if (count > hashThreshold) {
+					buildTable(node, count);
+				}
+			}
+		}
+		return child;
+	}
+
+	private int addListChild(int node, char c) {
 		int firstChild = firstChild(node);
 		if (firstChild == NOT_FOUND) {
 			firstChild = newNode();
@@ -131,6 +306,9 @@ public class ListTrie<T> extends AbstractListTrie<T> implements Trie.Optimizable
 		if (capacity > previousCapacity) {
 			children = Arrays.copyOf(children, capacity);
 			Arrays.fill(children, previousCapacity, capacity, NOT_FOUND);
+			if (hashed != null) {
+				hashed = Arrays.copyOf(hashed, (capacity + 63) >>> 6);
+			}
 		}
 	}
 
@@ -138,16 +316,35 @@ public class ListTrie<T> extends AbstractListTrie<T> implements Trie.Optimizable
 	public void trimToSize() {
 		super.trimToSize();
 		children = Arrays.copyOf(children, size);
+		if (tables != null) {
+			hashed = Arrays.copyOf(hashed, (size + 63) >>> 6);
+			tables.trim();
+		}
 	}
 
 	@Override
 	public void clear() {
 		super.clear();
 		Arrays.fill(children, NOT_FOUND);
+		hashed = null;
+		tables = null;
+	}
+
+	@Override
+	protected void addRamUsage(RamUsage usage) {
+		super.addRamUsage(usage);
+		usage.addChildren(children, size - deletedCount);
+		if (tables != null) {
+			long tablesBytes = RamUsageUtils.sizeOf(hashed);
+			for (int[] table : tables.values()) {
+				tablesBytes += RamUsageUtils.sizeOf(table);
+			}
+			usage.addChildren(tablesBytes, tablesBytes);
+		}
 	}
 
 	public void optimizeFor(Trie.Traversal traversal) {
-		ListTrie<T> trie = new ListTrie<T>(size(), growthStrategy);
+		ListTrie<T> trie = new ListTrie<T>(size(), growthStrategy, hashThreshold);
 		AbstractListTrieCursor<T> cursor = getCursor();
 		Node node = cursor.getNode();
 		do {
@@ -155,7 +352,12 @@ public class ListTrie<T> extends AbstractListTrie<T> implements Trie.Optimizable
 		} while (traversal.moveToNextNode(node, cursor));
 		this.brothers = trie.brothers;
 		this.children = trie.children;
+		this.hashed = trie.hashed;
+		this.tables = trie.tables;
 		this.labels = trie.labels;
 		this.values = trie.values;
+		this.size = trie.size;
+		this.deleted = trie.deleted;
+		this.deletedCount = trie.deletedCount;
 	}
 }
@@ -0,0 +1,415 @@
+package net.jpountz.charsequence.collect;
+
+import it.unimi.dsi.fastutil.chars.CharArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.jpountz.charsequence.CharComparator;
+import net.jpountz.charsequence.util.RamUsageUtils;
+import net.jpountz.charsequence.util.RankSelectBitVector;
+
+/**
+ * A read-only succinct trie, using the level-order unary degree sequence
+ * (LOUDS) representation.
+ *
+ * Nodes are numbered from 1 in breadth-first order, the root being node 1.
+ * The structure of the trie is a bit vector which starts with 10 and then
+ * contains, for every node in breadth-first order, as many ones as the node
+ * has children followed by a zero. Node x is the x-th one, its children
+ * start right after the x-th zero, and its parent is the number of zeros
+ * before it. This requires about 2 bits per node, plus the rank and select
+ * directories, plus 16 bits for the label. Whether a node has a value is
+ * stored in another bit vector so that only values are stored in an array.
+ *
+ * Children are stored in label order so that they can be looked up by
+ * binary search.
+ *
+ * @param <T> the value type
+ */
+public class LoudsTrie<T> extends AbstractTrie<T> {
+
+	private static class LoudsNode implements Node {
+
+		final int node;
+
+		LoudsNode(int node) {
+			this.node = node;
+		}
+
+		@Override
+		public int hashCode() {
+			return node;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+			return node == ((LoudsNode) obj).node;
+		}
+
+	}
+
+	static final class LoudsCursor<T> extends AbstractCursor<T> {
+
+		final LoudsTrie<T> trie;
+		private final StringBuilder label;
+		// current node and position of its one in the LOUDS bit vector
+		private int node, position;
+
+		LoudsCursor(LoudsTrie<T> trie) {
+			this.trie = trie;
+			this.label = new StringBuilder();
+			reset();
+		}
+
+		@Override
+		protected CharSequence getLabelInternal() {
+			return label;
+		}
+
+		@Override
+		public Node getNode() {
+			return new LoudsNode(node);
+		}
+
+		@Override
+		public boolean isAt(Node node) {
+			return this.node == ((LoudsNode) node).node;
+		}
+
+		@Override
+		public boolean isAtRoot() {
+			return node == ROOT;
+		}
+
+		@Override
+		public boolean moveToChild(char c) {
+			int child = trie.child(node, c);
+			if (child == NOT_FOUND) {
+				return false;
+			}
+			node = child;
+			position = trie.louds.select1(child);
+			label.append(c);
+			return true;
+		}
+
+		@Override
+		public boolean moveToFirstChild() {
+			int first = trie.louds.select0(node) + 1;
+			if (!trie.louds.get(first)) {
+				return false;
+			}
+			node = trie.louds.rank1(first) + 1;
+			position = first;
+			label.append(trie.label(node));
+			return true;
+		}
+
+		@Override
+		public boolean moveToBrother() {
+			if (node == ROOT || !trie.louds.get(position + 1)) {
+				return false;
+			}
+			++node;
+			++position;
+			label.setCharAt(label.length() - 1, trie.label(node));
+			return true;
+		}
+
+		@Override
+		public boolean moveToParent() {
+			if (node == ROOT) {
+				return false;
+			}
+			node = trie.louds.rank0(position);
+			position = trie.louds.select1(node);
+			label.setLength(label.length() - 1);
+			return true;
+		}
+
+		@Override
+		public void addChild(char c) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean removeChild(char c) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void removeChildren() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int getChildrenSize() {
+			return trie.louds.select0(node + 1) - trie.louds.select0(node) - 1;
+		}
+
+		@Override
+		public T getValue() {
+			return trie.getValue(node);
+		}
+
+		@Override
+		public void setValue(T value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void reset() {
+			node = ROOT;
+			position = 0;
+			label.setLength(0);
+		}
+
+		@Override
+		public LoudsCursor<T> clone() {
+			LoudsCursor<T> clone = new LoudsCursor<T>(trie);
+			clone.node = node;
+			clone.position = position;
+			clone.label.append(label);
+			return clone;
+		}
+
+	}
+
+	private static final int ROOT = 1;
+	private static final int NOT_FOUND = -1;
+
+	private final CharComparator comparator = CharComparator.DEFAULT;
+	private final RankSelectBitVector louds;
+	// labels[x - 1] is the label of node x
+	private final char[] labels;
+	// terminals[x - 1] tells whether node x has a value
+	private final RankSelectBitVector terminals;
+	private final Object[] values;
+
+	/**
+	 * Nodes of the source trie, grouped by depth. Children are visited in
+	 * label order so that the nodes of every depth are in breadth-first
+	 * order.
+	 */
+	private static final class Levels {
+
+		final List<CharArrayList> labels = new ArrayList<CharArrayList>();
+		final List<IntArrayList> childCounts = new ArrayList<IntArrayList>();
+		final List<List<Object>> values = new ArrayList<List<Object>>();
+		// sorted labels of the children of the current node, per depth
+		final List<char[]> children = new ArrayList<char[]>();
+
+		void add(Trie.Cursor<?> cursor, int depth, char label) {
+			if (depth == labels.size()) {
+				labels.add(new CharArrayList());
+				childCounts.add(new IntArrayList());
+				values.add(new ArrayList<Object>());
+				children.add(new char[4]);
+			}
+			char[] sorted = children.get(depth);
+			int count = 0;
+			if (cursor.moveToFirstChild()) {
+				do {
+					if (count == sorted.length) {
+						sorted = Arrays.copyOf(sorted, count * 2);
+						children.set(depth, sorted);
+					}
+					sorted[count++] = cursor.getEdgeLabel();
+				} while (cursor.moveToBrother());
+				cursor.moveToParent();
+			}
+			Arrays.sort(sorted, 0, count);
+			labels.get(depth).add(label);
+			childCounts.get(depth).add(count);
+			values.get(depth).add(cursor.getValue());
+			for (int i = 0; i < count; ++i) {
+				final char c = sorted[i];
+				cursor.moveToChild(c);
+				add(cursor, depth + 1, c);
+				cursor.moveToParent();
+			}
+		}
+
+	}
+
+	/**
+	 * Build a succinct copy of source. Children are copied in label order,
+	 * whatever the order in which source enumerates them.
+	 */
+	public LoudsTrie(Trie<T> source) {
+		Levels levels = new Levels();
+		levels.add(source.getCursor(), 0, '\0');
+
+		LongArrayList louds = new LongArrayList();
+		LongArrayList terminals = new LongArrayList();
+		CharArrayList labels = new CharArrayList();
+		List<Object> values = new ArrayList<Object>();
+		int loudsLength = 0;
+		loudsLength = append(louds, loudsLength, true);
+		loudsLength = append(louds, loudsLength, false);
+		for (int depth = 0; depth < levels.labels.size(); ++depth) {
+			CharArrayList levelLabels = levels.labels.get(depth);
+			IntArrayList levelChildCounts = levels.childCounts.get(depth);
+			List<Object> levelValues = levels.values.get(depth);
+			for (int i = 0; i < levelLabels.size(); ++i) {
+				labels.add(levelLabels.getChar(i));
+				Object value = levelValues.get(i);
+				append(terminals, labels.size() - 1, value != null);
+				if (value != null) {
+					values.add(value);
+				}
+				for (int j = levelChildCounts.getInt(i); j > 0; --j) {
+					loudsLength = append(louds, loudsLength, true);
+				}
+				loudsLength = append(louds, loudsLength, false);
+			}
+		}
+		this.louds = new RankSelectBitVector(louds.toLongArray(), loudsLength);
+		this.terminals = new RankSelectBitVector(terminals.toLongArray(), labels.size());
+		this.labels = labels.toCharArray();
+		this.values = values.toArray();
+	}
+
+	private static int append(LongArrayList words, int length, boolean bit) {
+		if ((length & 63) == 0) {
+			words.add(0L);
+		}
+		if (bit) {
+			int word = length >>> 6;
+			words.set(word, words.getLong(word) | (1L << length));
+		}
+		return length + 1;
+	}
+
+	char label(int node) {
+		return labels[node - 1];
+	}
+
+	@SuppressWarnings("unchecked")
+	T getValue(int node) {
+		if (terminals.get(node - 1)) {
+			return (T) values[terminals.rank1(node - 1)];
+		}
+		return null;
+	}
+
+	/**
+	 * Find the child of node labeled c by binary search, children being
+	 * consecutive nodes.
+	 */
+	int child(int node, char c) {
+		int start = louds.select0(node) + 1;
+		int end = louds.select0(node + 1);
+		if (start == end) {
+			return NOT_FOUND;
+		}
+		int first = louds.rank1(start) + 1;
+		int lo = first, hi = first + end - start - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = comparator.compare(labels[mid - 1], c);
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return NOT_FOUND;
+	}
+
+	@Override
+	public T get(char[] buffer, int offset, int length) {
+		int node = ROOT;
+		for (int i = 0; i < length; ++i) {
+			node = child(node, buffer[offset + i]);
+			if (node == NOT_FOUND) {
+				return null;
+			}
+		}
+		return getValue(node);
+	}
+
+	@Override
+	public T get(CharSequence sequence, int offset, int length) {
+		int node = ROOT;
+		for (int i = 0; i < length; ++i) {
+			node = child(node, sequence.charAt(offset + i));
+			if (node == NOT_FOUND) {
+				return null;
+			}
+		}
+		return getValue(node);
+	}
+
+	@Override
+	public T put(char[] buffer, int offset, int length, T value) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public T put(CharSequence sequence, int offset, int length, T value) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public T remove(char[] buffer, int offset, int length) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public T remove(CharSequence sequence, int offset, int length) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int size() {
+		return values.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return values.length == 0;
+	}
+
+	@Override
+	public int nodes() {
+		return labels.length;
+	}
+
+	@Override
+	public LoudsCursor<T> getCursor() {
+		return new LoudsCursor<T>(this);
+	}
+
+	@Override
+	public Cursor<T> getCursor(Cursor<T> reuse) {
+		if (reuse instanceof LoudsCursor && ((LoudsCursor<T>) reuse).trie == this) {
+			reuse.reset();
+			return reuse;
+		}
+		return getCursor();
+	}
+
+	@Override
+	protected void addRamUsage(RamUsage usage) {
+		usage.addNodes(this);
+		usage.addChildren(louds.ramBytesUsed(), louds.ramBytesUsed());
+		usage.addNodes(terminals.ramBytesUsed(), terminals.ramBytesUsed());
+		usage.addLabels(labels, labels.length);
+		usage.addValues(values, values.length);
+	}
+
+}
@@ -0,0 +1,78 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Work on the subtrees under a list of prefixes of a trie which is split
+ * across the threads of a {@link ForkJoinPool}.
+ *
+ * The list of prefixes is split in halves until ranges have at most
+ * granularity prefixes, so that there are a few tasks per thread of the
+ * pool whatever the number of prefixes, and every task amortizes its
+ * cursors and its search state over all the subtrees of its range.
+ *
+ * @param <R> the result type
+ */
+abstract class PrefixSplitter<R> {
+
+	// number of tasks per thread of the pool, for load balancing
+	private static final int TASKS_PER_THREAD = 4;
+
+	/**
+	 * Get the depth of the prefixes to split the work on trie at: the roots
+	 * of the sub-tries of a {@link CompositeTrie}, or the first level.
+	 */
+	static int splitDepth(Trie<?> trie) {
+		return trie instanceof CompositeTrie
+			? ((CompositeTrie<?>) trie).getRootDepth()
+			: 1;
+	}
+
+	private final class Task extends RecursiveTask<R> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<String> prefixes;
+		private final int granularity;
+
+		Task(List<String> prefixes, int granularity) {
+			this.prefixes = prefixes;
+			this.granularity = granularity;
+		}
+
+		@Override
+		protected R compute() {
+			final int size = prefixes.size();
+			if (size <= granularity) {
+				return PrefixSplitter.this.compute(prefixes);
+			}
+			Task left = new Task(prefixes.subList(0, size >>> 1), granularity);
+			left.fork();
+			R right = new Task(prefixes.subList(size >>> 1, size), granularity).compute();
+			return merge(left.join(), right);
+		}
+
+	}
+
+	/**
+	 * Process the subtrees under prefixes in the calling thread.
+	 */
+	protected abstract R compute(List<String> prefixes);
+
+	/**
+	 * Merge the results of two ranges of prefixes.
+	 */
+	protected abstract R merge(R left, R right);
+
+	/**
+	 * Process the subtrees under prefixes in pool, and wait for the result.
+	 */
+	final R invoke(ForkJoinPool pool, List<String> prefixes) {
+		final int granularity = Math.max(1,
+				prefixes.size() / (TASKS_PER_THREAD * pool.getParallelism()));
+		return pool.invoke(new Task(prefixes, granularity));
+	}
+
+}
@@ -0,0 +1,351 @@
+package net.jpountz.charsequence.collect;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.jpountz.charsequence.BasicEditWeight;
+import net.jpountz.charsequence.EditDistance;
+import net.jpountz.charsequence.EditWeight;
+import net.jpountz.charsequence.util.RamUsageUtils;
+
+/**
+ * A read-only inverted index from the q-grams of the keys of a trie to the
+ * ordinals of these keys, to find the keys which are within a large edit
+ * distance of a query.
+ *
+ * Keys are padded with q-1 '\0's on both sides, so that a key of length n
+ * has n+q-1 q-grams. An edit destroys at most q of them, or q+1 for a
+ * transposition, so two sequences of lengths m and n which are within k
+ * edits of each other share at least max(m, n)+q-1-k*q of their q-grams
+ * (count filtering), and |m - n| <= k (length filtering).
+ *
+ * Ordinals are assigned by increasing key length, so that the keys of a
+ * given length are a range of ordinals. Postings lists are sorted, delta
+ * encoded and stored with a variable-length encoding in a single byte
+ * array. Long lists also store the offset at which the ordinals of every
+ * key length start, so that decoding starts at the shortest key length
+ * which passes the length filter. Candidates are verified with the bounded
+ * {@link EditDistance#distance(double, CharSequence, CharSequence)}.
+ *
+ * Changes to the trie are not reflected in the index.
+ *
+ * @param <T> the value type
+ */
+public class QGramIndex<T> {
+
+	private static final char PADDING = '\0';
+	// minimum number of postings of a list to store skip offsets
+	private static final int SKIP_THRESHOLD = 16;
+
+	private final int q;
+	private final String[] keys;
+	private final Object[] values;
+	// ordinals of the keys of length l are in [lengthStarts[l], lengthStarts[l+1])
+	private final int[] lengthStarts;
+	// q-gram -> id
+	private final CharArrayHashMap<Integer> grams;
+	// the postings of q-gram id are in [postingsStarts[id], postingsStarts[id+1])
+	private final int[] postingsStarts;
+	private final byte[] postings;
+	// the skip offsets of q-gram id are in [skipStarts[id], skipStarts[id+1]),
+	// by pairs of the last ordinal before a key length and of the offset of
+	// the next posting
+	private final int[] skipStarts;
+	private final int[] skips;
+
+	/**
+	 * @param trie the trie to index
+	 * @param q the length of q-grams, usually 2 or 3
+	 */
+	public QGramIndex(Trie<T> trie, int q) {
+		if (q < 1) {
+			throw new IllegalArgumentException("q must be >= 1, got " + q);
+		}
+		this.q = q;
+		List<Map.Entry<String, T>> entries = new ArrayList<Map.Entry<String, T>>(trie.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, T>>() {
+			@Override
+			public int compare(Map.Entry<String, T> o1, Map.Entry<String, T> o2) {
+				return o1.getKey().length() - o2.getKey().length();
+			}
+		});
+		final int size = entries.size();
+		keys = new String[size];
+		values = new Object[size];
+		int maxLength = size == 0 ? 0 : entries.get(size - 1).getKey().length();
+		lengthStarts = new int[maxLength + 2];
+		grams = new CharArrayHashMap<Integer>();
+		List<IntArrayList> ordinals = new ArrayList<IntArrayList>();
+		char[] padded = new char[16];
+		for (int ordinal = 0; ordinal < size; ++ordinal) {
+			Map.Entry<String, T> entry = entries.get(ordinal);
+			keys[ordinal] = entry.getKey();
+			values[ordinal] = entry.getValue();
+			++lengthStarts[keys[ordinal].length() + 1];
+			padded = pad(keys[ordinal], padded);
+			for (int i = 0, n = gramCount(keys[ordinal].length()); i < n; ++i) {
+				Integer id = grams.get(padded, i, q);
+				if (id == null) {
+					id = ordinals.size();
+					grams.put(padded, i, q, id);
+					ordinals.add(new IntArrayList(2));
+				}
+				ordinals.get(id).add(ordinal);
+			}
+		}
+		for (int l = 1; l < lengthStarts.length; ++l) {
+			lengthStarts[l] += lengthStarts[l - 1];
+		}
+
+		postingsStarts = new int[ordinals.size() + 1];
+		skipStarts = new int[ordinals.size() + 1];
+		IntArrayList skips = new IntArrayList();
+		byte[] buffer = new byte[64];
+		int length = 0;
+		for (int id = 0; id < ordinals.size(); ++id) {
+			postingsStarts[id] = length;
+			skipStarts[id] = skips.size();
+			IntArrayList list = ordinals.get(id);
+			final boolean skip = list.size() >= SKIP_THRESHOLD;
+			int previous = 0;
+			for (int i = 0; i < list.size(); ++i) {
+				if (length + 5 > buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+				int ordinal = list.getInt(i);
+				if (skip && i > 0 && keys[ordinal].length() != keys[previous].length()) {
+					skips.add(previous);
+					skips.add(length);
+				}
+				length = writeVInt(buffer, length, ordinal - previous);
+				previous = ordinal;
+			}
+		}
+		postingsStarts[ordinals.size()] = length;
+		skipStarts[ordinals.size()] = skips.size();
+		postings = Arrays.copyOf(buffer, length);
+		this.skips = skips.toIntArray();
+	}
+
+	private int gramCount(int length) {
+		return length + q - 1;
+	}
+
+	/**
+	 * Copy sequence, padded with q-1 {@link #PADDING}s on both sides, to
+	 * buffer, or to a larger buffer if it is too small.
+	 */
+	private char[] pad(CharSequence sequence, char[] buffer) {
+		final int length = sequence.length() + 2 * (q - 1);
+		if (buffer.length < length) {
+			buffer = new char[Math.max(length, buffer.length * 2)];
+		}
+		Arrays.fill(buffer, 0, q - 1, PADDING);
+		for (int i = 0; i < sequence.length(); ++i) {
+			buffer[q - 1 + i] = sequence.charAt(i);
+		}
+		Arrays.fill(buffer, q - 1 + sequence.length(), length, PADDING);
+		return buffer;
+	}
+
+	private static int writeVInt(byte[] buffer, int offset, int i) {
+		while ((i & ~0x7F) != 0) {
+			buffer[offset++] = (byte) ((i & 0x7F) | 0x80);
+			i >>>= 7;
+		}
+		buffer[offset++] = (byte) i;
+		return offset;
+	}
+
+	/**
+	 * Get the length of q-grams.
+	 */
+	public int getQ() {
+		return q;
+	}
+
+	/**
+	 * Get the number of indexed keys.
+	 */
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * Get the number of distinct q-grams of the indexed keys.
+	 */
+	public int gramCount() {
+		return grams.size();
+	}
+
+	/**
+	 * Add all entries whose keys are within distance of sequence to
+	 * neighbors. The number of edits is the maximum number of operations
+	 * whose total cost is distance or less.
+	 */
+	public void getNeighbors(CharSequence sequence, BasicEditWeight weight,
+			double distance, Set<Map.Entry<String, T>> neighbors) {
+		double edits = Tries.maxEdits(weight, distance);
+		getNeighbors(sequence, edits >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) edits,
+				weight, distance, neighbors);
+	}
+
+	/**
+	 * Add all entries whose keys are within distance of sequence to
+	 * neighbors, provided that these keys are within edits insertions,
+	 * deletions, substitutions or transpositions of sequence. This is the
+	 * case if no edit costs less than distance / edits.
+	 */
+	public void getNeighbors(CharSequence sequence, int edits, EditWeight weight,
+			double distance, Set<Map.Entry<String, T>> neighbors) {
+		final EditDistance editDistance = new EditDistance(weight);
+		final int length = sequence.length();
+		final int maxLength = lengthStarts.length - 2;
+		final int minKeyLength = Math.max(0, length - edits);
+		final int maxKeyLength = (int) Math.min(maxLength, (long) length + edits);
+		if (minKeyLength > maxKeyLength) {
+			return;
+		}
+		// q-grams which may be destroyed by a single edit
+		final long gramsPerEdit = weight.transpositionEnabled() ? q + 1 : q;
+
+		// keys which are so short that they need not share any q-gram
+		// with the query are all candidates
+		int countFrom = minKeyLength;
+		while (countFrom <= maxKeyLength && threshold(length, countFrom, edits, gramsPerEdit) <= 0) {
+			++countFrom;
+		}
+		for (int ordinal = lengthStarts[minKeyLength]; ordinal < lengthStarts[countFrom]; ++ordinal) {
+			verify(editDistance, sequence, ordinal, distance, neighbors);
+		}
+		if (countFrom > maxKeyLength) {
+			return;
+		}
+
+		final int fromOrdinal = lengthStarts[countFrom];
+		final int toOrdinal = lengthStarts[maxKeyLength + 1];
+		final char[] padded = pad(sequence, new char[length + 2 * (q - 1)]);
+		final int queryGrams = gramCount(length);
+
+		// ids of the q-grams of the query, sorted so that the occurrences of
+		// a q-gram are contiguous
+		final int[] ids = new int[queryGrams];
+		int idCount = 0;
+		for (int i = 0; i < queryGrams; ++i) {
+			Integer id = grams.get(padded, i, q);
+			if (id != null) {
+				ids[idCount++] = id;
+			}
+		}
+		Arrays.sort(ids, 0, idCount);
+
+		// number of q-grams that every candidate shares with the query
+		Int2IntOpenHashMap counts = new Int2IntOpenHashMap();
+		for (int i = 0; i < idCount; ) {
+			final int id = ids[i];
+			int queryCount = 1;
+			while (++i < idCount && ids[i] == id) {
+				++queryCount;
+			}
+			final int end = postingsStarts[id + 1];
+			int offset = postingsStarts[id];
+			int ordinal = 0, run = 0, previous = -1;
+			// skip the keys which are too short
+			for (int s = skipStarts[id]; s < skipStarts[id + 1] && skips[s] < fromOrdinal; s += 2) {
+				ordinal = skips[s];
+				offset = skips[s + 1];
+			}
+			while (offset < end) {
+				// inlined readVInt
+				byte b = postings[offset++];
+				int delta = b & 0x7F;
+				for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+					b = postings[offset++];
+					delta |= (b & 0x7F) << shift;
+				}
+				ordinal += delta;
+				if (ordinal >= toOrdinal) {
+					break;
+				}
+				if (ordinal < fromOrdinal) {
+					continue;
+				}
+				if (ordinal == previous) {
+					++run;
+				} else {
+					if (previous >= 0) {
+						counts.put(previous, counts.get(previous) + Math.min(run, queryCount));
+					}
+					previous = ordinal;
+					run = 1;
+				}
+			}
+			if (previous >= 0) {
+				counts.put(previous, counts.get(previous) + Math.min(run, queryCount));
+			}
+		}
+
+		for (IntIterator it = counts.keySet().iterator(); it.hasNext(); ) {
+			final int ordinal = it.nextInt();
+			if (counts.get(ordinal) >= threshold(length, keys[ordinal].length(), edits, gramsPerEdit)) {
+				verify(editDistance, sequence, ordinal, distance, neighbors);
+			}
+		}
+	}
+
+	/**
+	 * Minimum number of q-grams that sequences of lengths m and n which are
+	 * within edits of each other share.
+	 */
+	private long threshold(int m, int n, int edits, long gramsPerEdit) {
+		return gramCount(Math.max(m, n)) - edits * gramsPerEdit;
+	}
+
+	private void verify(EditDistance editDistance, CharSequence sequence, int ordinal,
+			double distance, Set<Map.Entry<String, T>> neighbors) {
+		if (editDistance.distance(distance, sequence, keys[ordinal]) <= distance) {
+			@SuppressWarnings("unchecked")
+			T value = (T) values[ordinal];
+			neighbors.add(new AbstractMap.SimpleImmutableEntry<String, T>(keys[ordinal], value));
+		}
+	}
+
+	/**
+	 * Get a breakdown of the memory used by this index.
+	 */
+	public RamUsage ramUsage() {
+		RamUsage usage = new RamUsage();
+		usage.addNodes(this);
+		usage.addNodes(lengthStarts, lengthStarts.length);
+		usage.addLabels(keys, keys.length);
+		for (String key : keys) {
+			usage.addLabels(RamUsageUtils.sizeOf(key), RamUsageUtils.sizeOf(key));
+		}
+		usage.addValues(values, values.length);
+		usage.add(grams.ramUsage());
+		usage.addChildren(postingsStarts, postingsStarts.length);
+		usage.addChildren(skipStarts, skipStarts.length);
+		usage.addChildren(skips, skips.length);
+		long postingsBytes = RamUsageUtils.sizeOfArray(RamUsageUtils.NUM_BYTES_BYTE, postings.length);
+		usage.addChildren(postingsBytes, postingsBytes);
+		return usage;
+	}
+
+	/**
+	 * Get the number of bytes used by this index.
+	 */
+	public long ramBytesUsed() {
+		return ramUsage().total();
+	}
+
+}
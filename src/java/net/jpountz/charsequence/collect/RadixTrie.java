@@ -10,6 +10,10 @@ public interface RadixTrie<T> extends Trie<T> {
 	/**
 	 * Indicate that a substantial amount of memory can be saved by interning
 	 * the labels of the edges of this radix trie.
+	 *
+	 * Interned labels are shared with the interning trie, so they are not
+	 * counted in the memory usage of this radix trie anymore, even if it
+	 * provided them.
 	 */
 	public interface LabelsInternable {
 		public void internLabels(TrieFactory<char[]> labels);
@@ -90,6 +94,11 @@ public interface RadixTrie<T> extends Trie<T> {
 	 */
 	Cursor<T> getCursor();
 
+	/**
+	 * Return a cursor on the radix trie, recycling reuse when possible.
+	 */
+	Cursor<T> getCursor(Trie.Cursor<T> reuse);
+
 	/**
 	 * Return the number of nodes in the radix trie. The value is usually
 	 * lower than the size of a regular trie having the same content.
@@ -0,0 +1,152 @@
+package net.jpountz.charsequence.collect;
+
+import net.jpountz.charsequence.util.RamUsageUtils;
+
+/**
+ * Breakdown of the memory used by a {@link CharSequenceMap}, in bytes.
+ *
+ * Every category only counts the bytes which are actually used. Capacity
+ * which has been allocated ahead of time (see {@link Trie.Trimmable}) is
+ * reported as slack. Values themselves are not counted, only the references
+ * to them.
+ */
+public final class RamUsage {
+
+	private long nodes;
+	private long labels;
+	private long children;
+	private long values;
+	private long slack;
+
+	/**
+	 * Memory used by the structure of the map and by per-node bookkeeping.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Memory used by labels (or keys).
+	 */
+	public long getLabels() {
+		return labels;
+	}
+
+	/**
+	 * Memory used to link nodes to their children.
+	 */
+	public long getChildren() {
+		return children;
+	}
+
+	/**
+	 * Memory used by references to values.
+	 */
+	public long getValues() {
+		return values;
+	}
+
+	/**
+	 * Memory which has been allocated but is not used yet.
+	 */
+	public long getSlack() {
+		return slack;
+	}
+
+	/**
+	 * Total memory used.
+	 */
+	public long total() {
+		return nodes + labels + children + values + slack;
+	}
+
+	void addNodes(long used, long allocated) {
+		nodes += used;
+		slack += allocated - used;
+	}
+
+	void addLabels(long used, long allocated) {
+		labels += used;
+		slack += allocated - used;
+	}
+
+	void addChildren(long used, long allocated) {
+		children += used;
+		slack += allocated - used;
+	}
+
+	void addValues(long used, long allocated) {
+		values += used;
+		slack += allocated - used;
+	}
+
+	void addNodes(Object o) {
+		nodes += RamUsageUtils.shallowSizeOf(o);
+	}
+
+	void addNodes(int[] array, int used) {
+		if (array != null) {
+			addNodes(RamUsageUtils.sizeOfArrayUnaligned(RamUsageUtils.NUM_BYTES_INT, used),
+					RamUsageUtils.sizeOf(array));
+		}
+	}
+
+	void addLabels(char[] array, int used) {
+		if (array != null) {
+			addLabels(RamUsageUtils.sizeOfArrayUnaligned(RamUsageUtils.NUM_BYTES_CHAR, used),
+					RamUsageUtils.sizeOf(array));
+		}
+	}
+
+	void addLabels(Object[] array, int used) {
+		if (array != null) {
+			addLabels(RamUsageUtils.sizeOfArrayUnaligned(RamUsageUtils.NUM_BYTES_OBJECT_REF, used),
+					RamUsageUtils.sizeOf(array));
+		}
+	}
+
+	void addChildren(int[] array, int used) {
+		if (array != null) {
+			addChildren(RamUsageUtils.sizeOfArrayUnaligned(RamUsageUtils.NUM_BYTES_INT, used),
+					RamUsageUtils.sizeOf(array));
+		}
+	}
+
+	void addChildren(Object[] array, int used) {
+		if (array != null) {
+			addChildren(RamUsageUtils.sizeOfArrayUnaligned(RamUsageUtils.NUM_BYTES_OBJECT_REF, used),
+					RamUsageUtils.sizeOf(array));
+		}
+	}
+
+	void addValues(Object[] array, int used) {
+		if (array != null) {
+			addValues(RamUsageUtils.sizeOfArrayUnaligned(RamUsageUtils.NUM_BYTES_OBJECT_REF, used),
+					RamUsageUtils.sizeOf(array));
+		}
+	}
+
+	void add(RamUsage other) {
+		nodes += other.nodes;
+		labels += other.labels;
+		children += other.children;
+		values += other.values;
+		slack += other.slack;
+	}
+
+	void remove(RamUsage other) {
+		nodes -= other.nodes;
+		labels -= other.labels;
+		children -= other.children;
+		values -= other.values;
+		slack -= other.slack;
+	}
+
+	@Override
+	public String toString() {
+		return "RamUsage [total=" + total() + ", nodes=" + nodes
+			+ ", labels=" + labels + ", children=" + children
+			+ ", values=" + values + ", slack=" + slack + "]";
+	}
+
+}
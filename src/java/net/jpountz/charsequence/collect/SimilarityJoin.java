@@ -0,0 +1,386 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.jpountz.charsequence.EditWeight;
+
+/**
+ * Find all pairs of keys of two tries which are within a given edit
+ * distance of each other.
+ *
+ * The first trie is traversed depth-first. For every node of the first
+ * trie, the join keeps a column of the dynamic programming matrix: the
+ * distance from the label of this node to the labels of the nodes of the
+ * second trie which are within the maximum distance. The column of a node
+ * is computed from the column of its parent, so that the work for a prefix
+ * is shared by all keys of the first trie which start with it, and the
+ * nodes of the second trie are visited top-down, so that the work for a
+ * prefix is shared by all keys of the second trie which start with it.
+ *
+ * The nodes of the second trie which are visited are materialized lazily,
+ * so that they can be looked up from one column to the next one. They are
+ * kept from one join to the next one, so that joining the subtrees under
+ * several prefixes with the same instance only materializes them once.
+ *
+ * Like in {@link net.jpountz.charsequence.EditDistance}, 'from' is the key
+ * of the first trie and 'to' is the key of the second trie.
+ */
+final class SimilarityJoin {
+
+	/**
+	 * A node of the second trie.
+	 */
+	private static final class Node {
+
+		static final Node[] NO_CHILDREN = new Node[0];
+
+		final Node parent;
+		final char label;
+		final int depth;
+		final boolean hasValue;
+		String key;
+		Node[] children;
+		// values[i] is the distance from the label of the node of the first
+		// trie at depth i, if stamps[i] is the stamp of the column at depth i
+		double[] values;
+		int[] stamps;
+		// stamp of the last column this node was queued for
+		int queued;
+
+		Node(Node parent, char label, boolean hasValue) {
+			this.parent = parent;
+			this.label = label;
+			this.depth = parent == null ? 0 : parent.depth + 1;
+			this.hasValue = hasValue;
+		}
+
+		Node child(char c) {
+			for (Node child : children) {
+				if (child.label == c) {
+					return child;
+				}
+			}
+			return null;
+		}
+
+	}
+
+	private final Trie.Cursor<?> cursor2;
+	private final EditWeight weight;
+	private final double distance;
+	private final boolean substitutions, transpositions;
+	private final Node root2;
+	private int stamp;
+
+	// labels of the path of the first trie
+	private char[] path = new char[16];
+	// columns[i] contains the nodes of the second trie which are within the
+	// maximum distance of the node of the first trie at depth i
+	private Node[][] columns = new Node[16][];
+	private int[] columnSizes = new int[16];
+	private int[] columnStamps = new int[16];
+	// nodes to compute, by depth
+	private Node[][] queue = new Node[16][];
+	private int[] queueSizes = new int[16];
+	private int queueDepth;
+
+	SimilarityJoin(Trie<?> trie2, EditWeight weight, double distance) {
+		this.cursor2 = trie2.getCursor();
+		this.weight = weight;
+		this.distance = distance;
+		substitutions = weight.substitutionEnabled();
+		transpositions = weight.transpositionEnabled();
+		root2 = new Node(null, '\0', cursor2.getValue() != null);
+		root2.key = "";
+	}
+
+	private static Node[] grow(Node[] array, int minLength) {
+		return Arrays.copyOf(array, Math.max(minLength, array.length << 1));
+	}
+
+	/**
+	 * Load the children of node.
+	 */
+	private Node[] children(Node node) {
+		if (node.children == null) {
+			char[] labels = new char[node.depth];
+			for (Node n = node; n.parent != null; n = n.parent) {
+				labels[n.depth - 1] = n.label;
+			}
+			while (!cursor2.isAtRoot()) {
+				cursor2.moveToParent();
+			}
+			for (char c : labels) {
+				cursor2.moveToChild(c);
+			}
+			Node[] children = Node.NO_CHILDREN;
+			int size = 0;
+			if (cursor2.moveToFirstChild()) {
+				children = new Node[cursor2.getChildrenSize()];
+				do {
+					if (size == children.length) {
+						children = grow(children, size + 1);
+					}
+					children[size++] = new Node(node, cursor2.getEdgeLabel(), cursor2.getValue() != null);
+				} while (cursor2.moveToBrother());
+				cursor2.moveToParent();
+			}
+			node.children = size == children.length ? children : Arrays.copyOf(children, size);
+		}
+		return node.children;
+	}
+
+	private static String key(Node node) {
+		if (node.key == null) {
+			char[] chars = new char[node.depth];
+			for (Node n = node; n.parent != null; n = n.parent) {
+				chars[n.depth - 1] = n.label;
+			}
+			node.key = new String(chars);
+		}
+		return node.key;
+	}
+
+	/**
+	 * Get the distance from the node of the first trie at depth1 to node.
+	 */
+	private double value(Node node, int depth1) {
+		return node != null && node.stamps != null && node.stamps.length > depth1
+			&& node.stamps[depth1] == columnStamps[depth1]
+			? node.values[depth1]
+			: Double.POSITIVE_INFINITY;
+	}
+
+	private void setValue(Node node, int depth1, double value) {
+		if (node.stamps == null || node.stamps.length <= depth1) {
+			int length = Math.max(depth1 + 1, path.length);
+			node.stamps = node.stamps == null ? new int[length] : Arrays.copyOf(node.stamps, length);
+			node.values = node.values == null ? new double[length] : Arrays.copyOf(node.values, length);
+		}
+		node.stamps[depth1] = columnStamps[depth1];
+		node.values[depth1] = value;
+		if (value <= distance) {
+			if (columnSizes[depth1] == columns[depth1].length) {
+				columns[depth1] = grow(columns[depth1], 0);
+			}
+			columns[depth1][columnSizes[depth1]++] = node;
+		}
+	}
+
+	private void enqueue(Node node) {
+		if (node.queued == stamp) {
+			return;
+		}
+		node.queued = stamp;
+		int depth = node.depth;
+		if (depth >= queue.length) {
+			queue = Arrays.copyOf(queue, Math.max(depth + 1, queue.length << 1));
+			queueSizes = Arrays.copyOf(queueSizes, queue.length);
+		}
+		if (queue[depth] == null) {
+			queue[depth] = new Node[16];
+		} else if (queueSizes[depth] == queue[depth].length) {
+			queue[depth] = grow(queue[depth], 0);
+		}
+		queue[depth][queueSizes[depth]++] = node;
+		queueDepth = Math.max(queueDepth, depth);
+	}
+
+	private void newColumn(int depth1) {
+		if (depth1 >= columns.length) {
+			int length = columns.length << 1;
+			columns = Arrays.copyOf(columns, length);
+			columnSizes = Arrays.copyOf(columnSizes, length);
+			columnStamps = Arrays.copyOf(columnStamps, length);
+			path = Arrays.copyOf(path, length);
+		}
+		if (columns[depth1] == null) {
+			columns[depth1] = new Node[16];
+		}
+		columnSizes[depth1] = 0;
+		columnStamps[depth1] = ++stamp;
+	}
+
+	/**
+	 * Compute the column of the root of the first trie: the cost of
+	 * inserting the labels of the second trie.
+	 */
+	private void rootColumn() {
+		newColumn(0);
+		setValue(root2, 0, 0);
+		for (int i = 0; i < columnSizes[0]; ++i) {
+			Node node = columns[0][i];
+			double value = node.values[0];
+			for (Node child : children(node)) {
+				setValue(child, 0, value + weight.insertionCost(node.depth, child.label));
+			}
+		}
+	}
+
+	/**
+	 * Compute the column at depth1 of the node of the first trie whose edge
+	 * label is c.
+	 */
+	private void push(int depth1, char c) {
+		newColumn(depth1);
+		path[depth1] = c;
+		final int previous = depth1 - 1;
+		final int from = depth1 - 1;
+		final boolean transpose = transpositions && depth1 >= 2;
+
+		// queue the nodes which may be derived from a node within the maximum
+		// distance of the previous columns
+		enqueue(root2);
+		for (int i = 0; i < columnSizes[previous]; ++i) {
+			Node node = columns[previous][i];
+			enqueue(node);
+			for (Node child : children(node)) {
+				enqueue(child);
+			}
+		}
+		if (transpose) {
+			final char x = path[depth1 - 1];
+			for (int i = 0; i < columnSizes[depth1 - 2]; ++i) {
+				Node node = columns[depth1 - 2][i];
+				children(node);
+				node = node.child(c);
+				if (node != null) {
+					children(node);
+					node = node.child(x);
+					if (node != null) {
+						enqueue(node);
+					}
+				}
+			}
+		}
+
+		// parents are computed before their children
+		for (int depth2 = 0; depth2 <= queueDepth; ++depth2) {
+			for (int i = 0; i < queueSizes[depth2]; ++i) {
+				final Node node = queue[depth2][i];
+				queue[depth2][i] = null;
+				double cost = value(node, previous) + weight.deletionCost(from, c);
+				final Node parent = node.parent;
+				if (parent != null) {
+					final int to = depth2 - 1;
+					final char d = node.label;
+					cost = Math.min(cost, value(parent, depth1) + weight.insertionCost(to, d));
+					final double diagonal = value(parent, previous);
+					if (c == d) {
+						cost = Math.min(cost, diagonal);
+					} else {
+						if (substitutions && diagonal <= distance) {
+							cost = Math.min(cost, diagonal + weight.substitutionCost(from, to, c, d));
+						}
+						final char x = path[previous];
+						if (transpose && parent.parent != null && c == parent.label && x == d) {
+							double transposition = value(parent.parent, depth1 - 2);
+							if (transposition <= distance) {
+								cost = Math.min(cost, transposition + weight.transpositionCost(from - 1, to - 1, x, c));
+							}
+						}
+					}
+				}
+				setValue(node, depth1, cost);
+				if (cost <= distance) {
+					for (Node child : children(node)) {
+						enqueue(child);
+					}
+				}
+			}
+			queueSizes[depth2] = 0;
+		}
+		queueDepth = 0;
+	}
+
+	/**
+	 * Report all pairs of keys under cursor1 and of the second trie which are
+	 * within the maximum distance to consumer. The cursor must be at the root
+	 * node, and is moved back to it.
+	 */
+	<T> void join(Trie.Cursor<T> cursor1, Tries.PairConsumer consumer) {
+		rootColumn();
+		join(cursor1, 0, consumer);
+	}
+
+	/**
+	 * Same as {@link #join(Trie.Cursor, Tries.PairConsumer)} for the keys of
+	 * the first trie which start with prefix. The cursor must be at the root
+	 * node, and is left on the deepest node of the path to prefix.
+	 */
+	<T> void join(Trie.Cursor<T> cursor1, CharSequence prefix, Tries.PairConsumer consumer) {
+		rootColumn();
+		for (int i = 0; i < prefix.length(); ++i) {
+			char c = prefix.charAt(i);
+			if (!cursor1.moveToChild(c)) {
+				return;
+			}
+			push(i + 1, c);
+		}
+		join(cursor1, prefix.length(), consumer);
+	}
+
+	private <T> void report(Trie.Cursor<T> cursor1, int depth1, Tries.PairConsumer consumer) {
+		final int size = columnSizes[depth1];
+		if (size > 0 && cursor1.getValue() != null) {
+			String key1 = cursor1.getLabel();
+			for (int i = 0; i < size; ++i) {
+				Node node = columns[depth1][i];
+				if (node.hasValue) {
+					consumer.accept(key1, key(node), node.values[depth1]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return whether a node under the node of the first trie at depth1 may
+	 * be within the maximum distance of a node of the second trie.
+	 */
+	private boolean canDescend(int depth1) {
+		return columnSizes[depth1] > 0
+			// a transposition may still reach a child
+			|| (transpositions && depth1 > 0 && columnSizes[depth1 - 1] > 0);
+	}
+
+	private <T> void join(Trie.Cursor<T> cursor1, int depth1, Tries.PairConsumer consumer) {
+		report(cursor1, depth1, consumer);
+		if (canDescend(depth1) && cursor1.moveToFirstChild()) {
+			do {
+				push(depth1 + 1, cursor1.getEdgeLabel());
+				join(cursor1, depth1 + 1, consumer);
+			} while (cursor1.moveToBrother());
+			cursor1.moveToParent();
+		}
+	}
+
+	/**
+	 * Add the labels of the nodes of the first trie at depth which may have
+	 * pairs under them to prefixes, and report the pairs above this depth to
+	 * consumer. The cursor must be at the root node, and is moved back to
+	 * it.
+	 */
+	<T> void split(Trie.Cursor<T> cursor1, int depth, Tries.PairConsumer consumer,
+			List<String> prefixes) {
+		rootColumn();
+		split(cursor1, 0, depth, consumer, prefixes);
+	}
+
+	private <T> void split(Trie.Cursor<T> cursor1, int depth1, int splitDepth,
+			Tries.PairConsumer consumer, List<String> prefixes) {
+		if (depth1 == splitDepth) {
+			prefixes.add(cursor1.getLabel());
+			return;
+		}
+		report(cursor1, depth1, consumer);
+		if (canDescend(depth1) && cursor1.moveToFirstChild()) {
+			do {
+				push(depth1 + 1, cursor1.getEdgeLabel());
+				split(cursor1, depth1 + 1, splitDepth, consumer, prefixes);
+			} while (cursor1.moveToBrother());
+			cursor1.moveToParent();
+		}
+	}
+
+}
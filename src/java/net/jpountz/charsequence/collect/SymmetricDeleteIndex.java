@@ -0,0 +1,198 @@
+package net.jpountz.charsequence.collect;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.jpountz.charsequence.BasicEditWeight;
+import net.jpountz.charsequence.EditDistance;
+import net.jpountz.charsequence.EditWeight;
+import net.jpountz.charsequence.util.RamUsageUtils;
+
+/**
+ * A read-only index to find the keys of a trie which are within a small
+ * edit distance of a query, using the symmetric delete algorithm.
+ *
+ * Every key is indexed under all the sequences which can be obtained by
+ * deleting up to maxEdits of its chars. If two sequences are within k
+ * insertions, deletions, substitutions or transpositions of each other,
+ * then deleting at most k chars from each of them gives the same sequence.
+ * So the candidates for a query are the keys which are indexed under one of
+ * its deletion variants, and every candidate is then verified with an
+ * {@link EditDistance}. A query only needs a few hash lookups, at the cost
+ * of storing about (length choose maxEdits) variants per key.
+ *
+ * Changes to the trie are not reflected in the index.
+ *
+ * @param <T> the value type
+ */
+public class SymmetricDeleteIndex<T> {
+
+	private final int maxEdits;
+	private final String[] keys;
+	private final Object[] values;
+	// deletion variant -> ordinals of the keys which have it
+	private final CharArrayHashMap<int[]> variants;
+
+	/**
+	 * @param trie the trie to index
+	 * @param maxEdits the maximum number of edits that queries may use
+	 */
+	public SymmetricDeleteIndex(Trie<T> trie, int maxEdits) {
+		if (maxEdits < 0) {
+			throw new IllegalArgumentException("maxEdits must be >= 0, got " + maxEdits);
+		}
+		this.maxEdits = maxEdits;
+		List<String> keys = new ArrayList<String>();
+		List<Object> values = new ArrayList<Object>();
+		CharArrayHashMap<IntArrayList> postings = new CharArrayHashMap<IntArrayList>();
+		Set<String> keyVariants = new HashSet<String>();
+		for (Map.Entry<String, T> entry : trie.entrySet()) {
+			final int ordinal = keys.size();
+			keys.add(entry.getKey());
+			values.add(entry.getValue());
+			keyVariants.clear();
+			addVariants(entry.getKey(), maxEdits, keyVariants);
+			for (String variant : keyVariants) {
+				IntArrayList ordinals = postings.get(variant);
+				if (ordinals == null) {
+					ordinals = new IntArrayList(1);
+					postings.put(variant, ordinals);
+				}
+				ordinals.add(ordinal);
+			}
+		}
+		this.keys = keys.toArray(new String[keys.size()]);
+		this.values = values.toArray();
+		variants = new CharArrayHashMap<int[]>();
+		for (Map.Entry<String, IntArrayList> entry : postings.entrySet()) {
+			variants.put(entry.getKey(), entry.getValue().toIntArray());
+		}
+	}
+
+	/**
+	 * Add sequence and all the sequences which can be obtained by deleting
+	 * up to deletions of its chars to variants.
+	 */
+	private static void addVariants(String sequence, int deletions, Set<String> variants) {
+		if (!variants.add(sequence) || deletions == 0) {
+			return;
+		}
+		for (int i = 0; i < sequence.length(); ++i) {
+			// deleting any char of a run gives the same variant
+			if (i == 0 || sequence.charAt(i) != sequence.charAt(i-1)) {
+				addVariants(sequence.substring(0, i) + sequence.substring(i + 1),
+						deletions - 1, variants);
+			}
+		}
+	}
+
+	/**
+	 * Get the maximum number of edits that queries may use.
+	 */
+	public int getMaxEdits() {
+		return maxEdits;
+	}
+
+	/**
+	 * Get the number of indexed keys.
+	 */
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * Get the number of distinct deletion variants of the indexed keys.
+	 */
+	public int variantCount() {
+		return variants.size();
+	}
+
+	/**
+	 * Add all entries whose keys are within distance of sequence to
+	 * neighbors. The number of edits is the maximum number of operations
+	 * whose total cost is distance or less.
+	 */
+	public void getNeighbors(CharSequence sequence, BasicEditWeight weight,
+			double distance, Set<Map.Entry<String, T>> neighbors) {
+		double edits = Tries.maxEdits(weight, distance);
+		if (edits > maxEdits) {
+			throw new IllegalArgumentException("distance " + distance
+					+ " requires " + edits + " edits, but only " + maxEdits
+					+ " are indexed");
+		}
+		getNeighbors(sequence, (int) edits, weight, distance, neighbors);
+	}
+
+	/**
+	 * Add all entries whose keys are within distance of sequence to
+	 * neighbors, provided that these keys are within edits insertions,
+	 * deletions, substitutions or transpositions of sequence. This is the
+	 * case if no edit costs less than distance / edits.
+	 */
+	public void getNeighbors(CharSequence sequence, int edits, EditWeight weight,
+			double distance, Set<Map.Entry<String, T>> neighbors) {
+		if (edits > maxEdits) {
+			throw new IllegalArgumentException("edits must be <= " + maxEdits
+					+ ", got " + edits);
+		}
+		final EditDistance editDistance = new EditDistance(weight);
+		final int length = sequence.length();
+		Set<String> queryVariants = new HashSet<String>();
+		addVariants(sequence.toString(), edits, queryVariants);
+		IntOpenHashSet candidates = new IntOpenHashSet();
+		for (String variant : queryVariants) {
+			int[] ordinals = variants.get(variant);
+			if (ordinals == null) {
+				continue;
+			}
+			for (int ordinal : ordinals) {
+				String key = keys[ordinal];
+				// every key has been indexed with up to maxEdits deletions
+				// although the query only allows edits
+				if (key.length() - variant.length() > edits
+						|| Math.abs(key.length() - length) > edits
+						|| !candidates.add(ordinal)) {
+					continue;
+				}
+				if (editDistance.distance(distance, sequence, key) <= distance) {
+					@SuppressWarnings("unchecked")
+					T value = (T) values[ordinal];
+					neighbors.add(new AbstractMap.SimpleImmutableEntry<String, T>(key, value));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get a breakdown of the memory used by this index.
+	 */
+	public RamUsage ramUsage() {
+		RamUsage usage = new RamUsage();
+		usage.addNodes(this);
+		usage.addLabels(keys, keys.length);
+		for (String key : keys) {
+			usage.addLabels(RamUsageUtils.sizeOf(key), RamUsageUtils.sizeOf(key));
+		}
+		usage.addValues(values, values.length);
+		usage.add(variants.ramUsage());
+		for (int[] ordinals : variants.values()) {
+			usage.addChildren(ordinals, ordinals.length);
+		}
+		return usage;
+	}
+
+	/**
+	 * Get the number of bytes used by this index.
+	 */
+	public long ramBytesUsed() {
+		return ramUsage().total();
+	}
+
+}
@@ -51,57 +51,40 @@ public interface Trie<T> extends CharSequenceMap<T> {
 		};
 
 		public static final Traversal BREADTH_FIRST = new Traversal() {
-			public <T> boolean moveToNextNode(Trie.Node node, Trie.Cursor<T> cursor) {
-				if (cursor.moveToBrother()) {
+
+			/**
+			 * Move to the first node at depth under the current node, or
+			 * stay at the current node if there is no such node.
+			 */
+			private <T> boolean moveToFirstNodeAt(int depth, Trie.Cursor<T> cursor) {
+				if (cursor.depth() == depth) {
 					return true;
-				} else {
-					int depth = cursor.depth();
-					int newDepth = depth;
-					while (true) {
-						if (cursor.isAt(node)) {
-							// go to the first node at depth + 1
-							++depth;
-							if (cursor.moveToFirstChild()) {
-								if (depth == cursor.depth()) {
-									return true;
-								}
-							} else {
-								return false; // nothing under node
-							}
-							while (true) {
-								if (cursor.moveToFirstChild()) {
-									if (depth == cursor.depth()) {
-										return true;
-									}
-								} else if (!cursor.moveToBrother()) {
-									while (cursor.moveToParent()) {
-										if (cursor.isAt(node)) {
-											return false;
-										} else if (cursor.moveToBrother()) {
-											break;
-										}
-									}
-								}
-							}
-						}
-						if (cursor.moveToParent()) {
-							--newDepth;
+				}
+				if (cursor.moveToFirstChild()) {
+					do {
+						if (moveToFirstNodeAt(depth, cursor)) {
+							return true;
 						}
-						// go to the next node at depth
-						while (cursor.moveToBrother()) {
-							int previousDepth = newDepth;
-							while (cursor.moveToFirstChild()) {
-								++newDepth;
-								if (newDepth == depth) {
-									return true;
-								}
-							}
-							for (; newDepth > previousDepth+1; --newDepth) {
-								cursor.moveToParent();
-							}
+					} while (cursor.moveToBrother());
+					cursor.moveToParent();
+				}
+				return false;
+			}
+
+			public <T> boolean moveToNextNode(Trie.Node node, Trie.Cursor<T> cursor) {
+				int depth = cursor.depth();
+				// next node at the same depth
+				while (!cursor.isAt(node)) {
+					if (cursor.moveToBrother()) {
+						if (moveToFirstNodeAt(depth, cursor)) {
+							return true;
 						}
+					} else {
+						cursor.moveToParent();
 					}
 				}
+				// first node at depth + 1
+				return moveToFirstNodeAt(depth + 1, cursor);
 			}
 		};
 
@@ -193,6 +176,8 @@ public interface Trie<T> extends CharSequenceMap<T> {
 
 		/**
 		 * Get the node corresponding to the position of the cursor.
+		 * Traversals call this method once to get the node to stop at, and
+		 * then only {@link #isAt(Node)}, which does not allocate.
 		 *
 		 * @return
 		 */
@@ -221,7 +206,9 @@ public interface Trie<T> extends CharSequenceMap<T> {
 		int depth();
 
 		/**
-		 * Get the label corresponding to the cursor position.
+		 * Get the label corresponding to the cursor position. This builds a
+		 * new String, paths which should not allocate can track the label
+		 * with {@link #depth()} and {@link #getEdgeLabel()} instead.
 		 *
 		 * @return the label
 		 */
@@ -325,6 +312,38 @@ public interface Trie<T> extends CharSequenceMap<T> {
 	 */
 	Cursor<T> getCursor();
 
+	/**
+	 * Get a cursor on this trie, recycling reuse when possible. The returned
+	 * cursor is at the root node. When reuse is recycled, it is returned, so
+	 * callers must not use reuse anymore after this call.
+	 *
+	 * @param reuse a cursor which is not used anymore, may be null
+	 * @return a cursor on this trie
+	 */
+	Cursor<T> getCursor(Cursor<T> reuse);
+
+	/**
+	 * Look up several keys at once. Keys are looked up in lexicographic order
+	 * so that the path from the root to the longest common prefix of two
+	 * consecutive keys is only walked once.
+	 *
+	 * @param keys the keys to look up
+	 * @param results an array to store the values into, results[i] is the
+	 *                value associated with keys[i], or null
+	 */
+	void getAll(CharSequence[] keys, T[] results);
+
+	/**
+	 * Look up several keys at once.
+	 *
+	 * @param keys the keys to look up
+	 * @param results an array to store the values into
+	 * @param sorted whether keys are already sorted, in which case they are
+	 *               looked up in the order of the array
+	 * @see #getAll(CharSequence[], Object[])
+	 */
+	void getAll(CharSequence[] keys, T[] results, boolean sorted);
+
 	/**
 	 * Get the number of nodes of the trie.
 	 *
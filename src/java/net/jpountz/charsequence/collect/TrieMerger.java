@@ -0,0 +1,199 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.Arrays;
+
+/**
+ * Compute the union, intersection or difference of two tries in a single
+ * pass.
+ *
+ * Both tries are walked in lockstep: at every node, the labels of the
+ * children of both cursors are sorted and merged, and only the children
+ * which may contain keys of the result are visited. Subtrees which only
+ * exist in one of the tries are copied without looking at the other trie.
+ * The result is written with a cursor which follows the same path, so that
+ * every node of the result is created once instead of being looked up for
+ * every key which goes through it. Nodes which end up without any value
+ * under them are removed.
+ *
+ * @param <T> the value type
+ */
+final class TrieMerger<T> {
+
+	enum Operation {
+		UNION, INTERSECTION, DIFFERENCE
+	}
+
+	private final Operation operation;
+	private final Tries.MergeFunction<T> merge;
+	private final Trie.Cursor<T> a;
+	private final Trie.Cursor<?> b;
+	private final Trie.Cursor<T> out;
+	// sorted labels of the children of a and b, per depth
+	private char[][] labelsA = new char[16][], labelsB = new char[16][];
+
+	TrieMerger(Operation operation, Tries.MergeFunction<T> merge,
+			Trie<T> a, Trie<?> b, Trie<T> out) {
+		this.operation = operation;
+		this.merge = merge;
+		this.a = a.getCursor();
+		this.b = b.getCursor();
+		this.out = out.getCursor();
+	}
+
+	void merge() {
+		mergeBoth(0);
+	}
+
+	/**
+	 * Store the sorted labels of the children of cursor into labels[depth]
+	 * and return their number.
+	 */
+	private static int labels(Trie.Cursor<?> cursor, int depth, char[][] labels) {
+		char[] result = labels[depth];
+		if (result == null) {
+			result = labels[depth] = new char[4];
+		}
+		int count = 0;
+		boolean sorted = true;
+		if (cursor.moveToFirstChild()) {
+			do {
+				if (count == result.length) {
+					result = labels[depth] = Arrays.copyOf(result, count * 2);
+				}
+				char c = cursor.getEdgeLabel();
+				sorted &= count == 0 || result[count - 1] < c;
+				result[count++] = c;
+			} while (cursor.moveToBrother());
+			cursor.moveToParent();
+		}
+		if (!sorted) {
+			Arrays.sort(result, 0, count);
+		}
+		return count;
+	}
+
+	private void ensureDepth(int depth) {
+		if (depth >= labelsA.length) {
+			labelsA = Arrays.copyOf(labelsA, labelsA.length * 2);
+			labelsB = Arrays.copyOf(labelsB, labelsB.length * 2);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T value(T valueA, Object valueB) {
+		switch (operation) {
+		case UNION:
+			if (valueA == null) {
+				return (T) valueB;
+			} else if (valueB == null) {
+				return valueA;
+			} else {
+				return merge.merge(valueA, (T) valueB);
+			}
+		case INTERSECTION:
+			return valueA == null || valueB == null
+				? null
+				: merge.merge(valueA, (T) valueB);
+		case DIFFERENCE:
+			return valueB == null ? valueA : null;
+		default:
+			throw new AssertionError();
+		}
+	}
+
+	/**
+	 * Merge the subtrees under the current nodes of a and b into the
+	 * current node of out, and return whether a value has been written.
+	 */
+	private boolean mergeBoth(int depth) {
+		boolean written = false;
+		T value = value(a.getValue(), b.getValue());
+		if (value != null) {
+			out.setValue(value);
+			written = true;
+		}
+		ensureDepth(depth);
+		final int countA = labels(a, depth, labelsA);
+		final int countB = operation == Operation.DIFFERENCE && countA == 0
+			? 0
+			: labels(b, depth, labelsB);
+		final char[] la = labelsA[depth], lb = labelsB[depth];
+		int i = 0, j = 0;
+		while (i < countA || j < countB) {
+			final char c;
+			final boolean inA, inB;
+			if (j >= countB || (i < countA && la[i] < lb[j])) {
+				c = la[i++];
+				inA = true;
+				inB = false;
+			} else if (i >= countA || lb[j] < la[i]) {
+				c = lb[j++];
+				inA = false;
+				inB = true;
+			} else {
+				c = la[i];
+				++i;
+				++j;
+				inA = inB = true;
+			}
+			final boolean childWritten;
+			if (inA && inB) {
+				a.moveToChild(c);
+				b.moveToChild(c);
+				out.addChild(c);
+				childWritten = mergeBoth(depth + 1);
+				a.moveToParent();
+				b.moveToParent();
+			} else if (inA && operation != Operation.INTERSECTION) {
+				a.moveToChild(c);
+				out.addChild(c);
+				childWritten = copy(a);
+				a.moveToParent();
+			} else if (inB && operation == Operation.UNION) {
+				b.moveToChild(c);
+				out.addChild(c);
+				childWritten = copy(b);
+				b.moveToParent();
+			} else {
+				continue;
+			}
+			out.moveToParent();
+			if (childWritten) {
+				written = true;
+			} else {
+				out.removeChild(c);
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Copy the subtree under the current node of source into the current
+	 * node of out, and return whether a value has been written.
+	 */
+	private boolean copy(Trie.Cursor<?> source) {
+		boolean written = false;
+		@SuppressWarnings("unchecked")
+		T value = (T) source.getValue();
+		if (value != null) {
+			out.setValue(value);
+			written = true;
+		}
+		if (source.moveToFirstChild()) {
+			do {
+				char c = source.getEdgeLabel();
+				out.addChild(c);
+				boolean childWritten = copy(source);
+				out.moveToParent();
+				if (childWritten) {
+					written = true;
+				} else {
+					out.removeChild(c);
+				}
+			} while (source.moveToBrother());
+			source.moveToParent();
+		}
+		return written;
+	}
+
+}
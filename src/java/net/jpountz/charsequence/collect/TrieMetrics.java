@@ -0,0 +1,71 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jpountz.charsequence.util.OperationMetrics;
+
+/**
+ * Metrics collected by an {@link InstrumentedTrie}.
+ *
+ * The number of results is the number of hits for lookups and removals, and
+ * the number of new keys for insertions. For neighbors searches, the number
+ * of visited elements is the number of cursor moves.
+ */
+public final class TrieMetrics {
+
+	private final OperationMetrics get;
+	private final OperationMetrics put;
+	private final OperationMetrics remove;
+	private final OperationMetrics neighbors;
+	private final LongAdder cursorMoves;
+
+	public TrieMetrics() {
+		get = new OperationMetrics("get");
+		put = new OperationMetrics("put");
+		remove = new OperationMetrics("remove");
+		neighbors = new OperationMetrics("neighbors");
+		cursorMoves = new LongAdder();
+	}
+
+	public OperationMetrics getGet() {
+		return get;
+	}
+
+	public OperationMetrics getPut() {
+		return put;
+	}
+
+	public OperationMetrics getRemove() {
+		return remove;
+	}
+
+	public OperationMetrics getNeighbors() {
+		return neighbors;
+	}
+
+	/**
+	 * Get the number of successful moves of all cursors of the trie.
+	 */
+	public long getCursorMoves() {
+		return cursorMoves.sum();
+	}
+
+	LongAdder cursorMoves() {
+		return cursorMoves;
+	}
+
+	public void reset() {
+		get.reset();
+		put.reset();
+		remove.reset();
+		neighbors.reset();
+		cursorMoves.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "TrieMetrics [" + get + ", " + put + ", " + remove
+			+ ", " + neighbors + ", cursorMoves=" + getCursorMoves() + "]";
+	}
+
+}
@@ -0,0 +1,266 @@
+package net.jpountz.charsequence.collect;
+
+import it.unimi.dsi.fastutil.chars.CharArrayList;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Spliterator} over the entries of a {@link Trie} which splits at
+ * subtree boundaries.
+ *
+ * A spliterator is responsible for a range of subtrees, identified by the
+ * labels of their roots. Splitting gives away half of the range, and when
+ * only one subtree is left, this subtree is replaced by the subtrees of its
+ * children. Every spliterator uses its own cursor, so that the resulting
+ * spliterators can be traversed concurrently as long as the trie is not
+ * modified.
+ *
+ * @param <T> the value type
+ * @param <E> the element type
+ */
+abstract class TrieSpliterator<T, E> implements Spliterator<E> {
+
+	private static final String[] ROOT = new String[] {""};
+
+	static final class Entries<T> extends TrieSpliterator<T, Map.Entry<String, T>> {
+
+		Entries(Trie<T> trie, String[] prefixes, int from, int to, long estimate) {
+			super(trie, prefixes, from, to, estimate);
+		}
+
+		Entries(Trie<T> trie) {
+			this(trie, ROOT, 0, 1, Long.MAX_VALUE);
+		}
+
+		@Override
+		protected Map.Entry<String, T> element(Trie.Cursor<T> cursor) {
+			return new AbstractMap.SimpleImmutableEntry<String, T>(cursor.getLabel(), cursor.getValue());
+		}
+
+		@Override
+		protected TrieSpliterator<T, Map.Entry<String, T>> newSpliterator(
+				String[] prefixes, int from, int to, long estimate) {
+			return new Entries<T>(trie, prefixes, from, to, estimate);
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | DISTINCT | NONNULL;
+		}
+
+	}
+
+	static final class Keys<T> extends TrieSpliterator<T, String> {
+
+		Keys(Trie<T> trie, String[] prefixes, int from, int to, long estimate) {
+			super(trie, prefixes, from, to, estimate);
+		}
+
+		Keys(Trie<T> trie) {
+			this(trie, ROOT, 0, 1, Long.MAX_VALUE);
+		}
+
+		@Override
+		protected String element(Trie.Cursor<T> cursor) {
+			return cursor.getLabel();
+		}
+
+		@Override
+		protected TrieSpliterator<T, String> newSpliterator(
+				String[] prefixes, int from, int to, long estimate) {
+			return new Keys<T>(trie, prefixes, from, to, estimate);
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | DISTINCT | NONNULL;
+		}
+
+	}
+
+	static final class Values<T> extends TrieSpliterator<T, T> {
+
+		Values(Trie<T> trie, String[] prefixes, int from, int to, long estimate) {
+			super(trie, prefixes, from, to, estimate);
+		}
+
+		Values(Trie<T> trie) {
+			this(trie, ROOT, 0, 1, Long.MAX_VALUE);
+		}
+
+		@Override
+		protected T element(Trie.Cursor<T> cursor) {
+			return cursor.getValue();
+		}
+
+		@Override
+		protected TrieSpliterator<T, T> newSpliterator(
+				String[] prefixes, int from, int to, long estimate) {
+			return new Values<T>(trie, prefixes, from, to, estimate);
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL;
+		}
+
+	}
+
+	protected final Trie<T> trie;
+	private String[] prefixes; // labels of the roots of the subtrees to traverse
+	private int from, to;
+	private long estimate;
+	private E pending; // value of a subtree root which has been expanded
+	private boolean hasPending;
+	private Trie.Cursor<T> cursor;
+	private int rootDepth;
+	private boolean traversing;
+
+	TrieSpliterator(Trie<T> trie, String[] prefixes, int from, int to, long estimate) {
+		this.trie = trie;
+		this.prefixes = prefixes;
+		this.from = from;
+		this.to = to;
+		this.estimate = estimate;
+	}
+
+	/**
+	 * Get the element at the position of the cursor.
+	 */
+	protected abstract E element(Trie.Cursor<T> cursor);
+
+	/**
+	 * Create a new spliterator on the same trie.
+	 */
+	protected abstract TrieSpliterator<T, E> newSpliterator(
+			String[] prefixes, int from, int to, long estimate);
+
+	private boolean moveTo(String prefix) {
+		if (cursor == null) {
+			cursor = trie.getCursor();
+		} else {
+			cursor.reset();
+		}
+		for (int i = 0; i < prefix.length(); ++i) {
+			if (!cursor.moveToChild(prefix.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Depth-first traversal limited to the subtree at rootDepth.
+	 */
+	private boolean moveToNextNode() {
+		if (cursor.moveToFirstChild()) {
+			return true;
+		}
+		while (cursor.depth() > rootDepth) {
+			if (cursor.moveToBrother()) {
+				return true;
+			}
+			cursor.moveToParent();
+		}
+		return false;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super E> action) {
+		if (hasPending) {
+			E element = pending;
+			pending = null;
+			hasPending = false;
+			action.accept(element);
+			return true;
+		}
+		while (true) {
+			if (traversing) {
+				while (moveToNextNode()) {
+					if (cursor.getValue() != null) {
+						action.accept(element(cursor));
+						return true;
+					}
+				}
+				traversing = false;
+			}
+			if (from >= to) {
+				return false;
+			}
+			if (moveTo(prefixes[from++])) {
+				traversing = true;
+				rootDepth = cursor.depth();
+				if (cursor.getValue() != null) {
+					action.accept(element(cursor));
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replace the only remaining subtree with the subtrees of its children.
+	 *
+	 * @return false if the subtree has no children
+	 */
+	private boolean expand() {
+		if (!moveTo(prefixes[from])) {
+			return false;
+		}
+		CharArrayList children = new CharArrayList();
+		cursor.getChildrenLabels(children);
+		if (children.isEmpty()) {
+			return false;
+		}
+		if (cursor.getValue() != null) {
+			pending = element(cursor);
+			hasPending = true;
+		}
+		String label = cursor.getLabel();
+		String[] newPrefixes = new String[children.size()];
+		for (int i = 0; i < newPrefixes.length; ++i) {
+			newPrefixes[i] = label + children.getChar(i);
+		}
+		prefixes = newPrefixes;
+		from = 0;
+		to = newPrefixes.length;
+		return true;
+	}
+
+	@Override
+	public Spliterator<E> trySplit() {
+		if (traversing) {
+			// the current subtree comes first in encounter order
+			return null;
+		}
+		while (to - from == 1 && !hasPending) {
+			if (!expand()) {
+				return null;
+			}
+		}
+		int n = to - from;
+		if (n == 0) {
+			return null;
+		}
+		int mid = from + (n >>> 1);
+		estimate >>>= 1;
+		TrieSpliterator<T, E> split = newSpliterator(prefixes, from, mid, estimate);
+		if (hasPending) {
+			split.pending = pending;
+			split.hasPending = true;
+			pending = null;
+			hasPending = false;
+		}
+		from = mid;
+		return split;
+	}
+
+	@Override
+	public long estimateSize() {
+		return estimate;
+	}
+
+}
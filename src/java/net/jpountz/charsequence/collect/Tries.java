@@ -2,9 +2,16 @@ package net.jpountz.charsequence.collect;
 
 import java.nio.CharBuffer;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 
 import net.jpountz.charsequence.BasicEditWeight;
 import net.jpountz.charsequence.CharComparator;
@@ -35,16 +42,292 @@ public enum Tries {
 		return false;
 	}
 
+	/**
+	 * Get a {@link Spliterator} over the entries of a trie. The returned
+	 * spliterator splits at subtree boundaries so that the entries can be
+	 * enumerated in parallel, as long as the trie is not modified.
+	 *
+	 * @param <T> the value type
+	 * @param trie the trie to enumerate
+	 * @return a spliterator over the entries of the trie
+	 */
+	public static <T> Spliterator<Map.Entry<String, T>> entrySpliterator(Trie<T> trie) {
+		return new TrieSpliterator.Entries<T>(trie);
+	}
+
+	/**
+	 * Get a {@link Spliterator} over the keys of a trie.
+	 *
+	 * @see #entrySpliterator(Trie)
+	 */
+	public static <T> Spliterator<String> keySpliterator(Trie<T> trie) {
+		return new TrieSpliterator.Keys<T>(trie);
+	}
+
+	/**
+	 * Get a {@link Spliterator} over the values of a trie.
+	 *
+	 * @see #entrySpliterator(Trie)
+	 */
+	public static <T> Spliterator<T> valueSpliterator(Trie<T> trie) {
+		return new TrieSpliterator.Values<T>(trie);
+	}
+
+	/**
+	 * Add all entries of trie whose keys are within distance of sequence to
+	 * neighbors. {@link BasicEditWeight}s explore all edit paths, other
+	 * weights use a {@link FuzzyMatcher}, which visits every node at most
+	 * once.
+	 */
 	public static <T> void getNeighbors(CharSequence sequence,
 			Trie<T> trie, EditWeight weight, double distance, Set<Map.Entry<String, T>> neighbors) {
+		getNeighbors(sequence, trie, trie.getCursor(), weight, distance, neighbors);
+	}
+
+	/**
+	 * Same as {@link #getNeighbors(CharSequence, Trie, EditWeight, double, Set)}
+	 * on the trie of cursors, with the cursor of the current thread, so that
+	 * frequent searches do not allocate a cursor every time.
+	 */
+	public static <T> void getNeighbors(CharSequence sequence,
+			CursorPool<T> cursors, EditWeight weight, double distance, Set<Map.Entry<String, T>> neighbors) {
+		getNeighbors(sequence, cursors.getTrie(), cursors.get(), weight, distance, neighbors);
+	}
+
+	private static <T> void getNeighbors(CharSequence sequence, Trie<T> trie, Trie.Cursor<T> cursor,
+			EditWeight weight, double distance, Set<Map.Entry<String, T>> neighbors) {
+		long start = 0;
+		int initialSize = 0;
+		if (trie instanceof InstrumentedTrie) {
+			start = System.nanoTime();
+			initialSize = neighbors.size();
+		}
 		if (weight instanceof BasicEditWeight) {
 			// optimisations, twice as fast with distance=4 on an english dictionary
 			getNeighborsR(sequence, 0, sequence.length(),
-					trie.getCursor(), (BasicEditWeight) weight, distance, neighbors);
+					cursor, (BasicEditWeight) weight, distance, neighbors, "");
 		} else {
-			getNeighborsR(sequence, 0, sequence.length(), 0, sequence.length(),
-					trie.getCursor(), weight, distance, neighbors);
+			new FuzzyMatcher(sequence, 0, sequence.length(), weight, distance)
+				.getNeighbors(cursor, neighbors);
+		}
+		if (trie instanceof InstrumentedTrie) {
+			((InstrumentedTrie<T>) trie).getMetrics().getNeighbors().record(
+					System.nanoTime() - start, moves(cursor), neighbors.size() - initialSize);
+		}
+	}
+
+	/**
+	 * Receives the results of a fuzzy search.
+	 *
+	 * @param <T> the value type
+	 */
+	public static interface MatchConsumer<T> {
+
+		/**
+		 * @param key the key of the matching entry
+		 * @param value the value of the matching entry
+		 * @param distance the distance of the match
+		 */
+		void accept(String key, T value, double distance);
+
+	}
+
+	/**
+	 * Report the entries of trie whose keys have a prefix which is within
+	 * distance of query to consumer, for search-as-you-type. The distance
+	 * which is reported for an entry is the minimum distance from query to a
+	 * prefix of its key. Entries are reported in depth-first order, and the
+	 * search stops after maxResults entries.
+	 *
+	 * @return the number of reported entries
+	 */
+	public static <T> int getFuzzyPrefixMatches(CharSequence query,
+			Trie<T> trie, EditWeight weight, double distance,
+			int maxResults, MatchConsumer<T> consumer) {
+		return new FuzzyMatcher(query, 0, query.length(), weight, distance)
+			.getPrefixMatches(trie.getCursor(), maxResults, consumer);
+	}
+
+	private static long moves(Trie.Cursor<?> cursor) {
+		return cursor instanceof InstrumentedTrie.InstrumentedCursor
+			? ((InstrumentedTrie.InstrumentedCursor<?>) cursor).moves
+			: 0;
+	}
+
+	/**
+	 * Same as {@link #getNeighbors(CharSequence, Trie, EditWeight, double, Set)}
+	 * but the search is split across the subtrees under the first level of
+	 * the trie, or under the roots of the sub-tries of a
+	 * {@link CompositeTrie}, and executed in pool with a few tasks per
+	 * thread. Every task uses its own cursor, so the trie must not be
+	 * modified during the search. neighbors is only modified by the calling
+	 * thread.
+	 */
+	public static <T> void getNeighbors(final CharSequence sequence,
+			final Trie<T> trie, final EditWeight weight, final double distance,
+			Set<Map.Entry<String, T>> neighbors, ForkJoinPool pool) {
+		long start = 0;
+		int initialSize = 0;
+		if (trie instanceof InstrumentedTrie) {
+			start = System.nanoTime();
+			initialSize = neighbors.size();
 		}
+		final LongAdder moves = new LongAdder();
+		List<String> prefixes = new ArrayList<String>();
+		Trie.Cursor<T> cursor = trie.getCursor();
+		new FuzzyMatcher(sequence, 0, sequence.length(), weight, distance)
+			.split(cursor, PrefixSplitter.splitDepth(trie), neighbors, prefixes);
+		moves.add(moves(cursor));
+		neighbors.addAll(new PrefixSplitter<Set<Map.Entry<String, T>>>() {
+			@Override
+			protected Set<Map.Entry<String, T>> compute(List<String> prefixes) {
+				Set<Map.Entry<String, T>> result = new HashSet<Map.Entry<String, T>>();
+				Trie.Cursor<T> cursor = trie.getCursor();
+				if (weight instanceof BasicEditWeight) {
+					for (String prefix : prefixes) {
+						getNeighborsR(sequence, 0, sequence.length(),
+								cursor, (BasicEditWeight) weight, distance, result, prefix);
+					}
+				} else {
+					FuzzyMatcher matcher = new FuzzyMatcher(sequence, 0, sequence.length(), weight, distance);
+					for (String prefix : prefixes) {
+						matcher.getNeighbors(cursor, prefix, result);
+						cursor.reset();
+					}
+				}
+				moves.add(moves(cursor));
+				return result;
+			}
+			@Override
+			protected Set<Map.Entry<String, T>> merge(
+					Set<Map.Entry<String, T>> left, Set<Map.Entry<String, T>> right) {
+				if (left.size() < right.size()) {
+					right.addAll(left);
+					return right;
+				} else {
+					left.addAll(right);
+					return left;
+				}
+			}
+		}.invoke(pool, prefixes));
+		if (trie instanceof InstrumentedTrie) {
+			((InstrumentedTrie<T>) trie).getMetrics().getNeighbors().record(
+					System.nanoTime() - start, moves.sum(), neighbors.size() - initialSize);
+		}
+	}
+
+	/**
+	 * Receives the results of a similarity join.
+	 */
+	public static interface PairConsumer {
+
+		/**
+		 * @param keyA the key of the first trie
+		 * @param keyB the key of the second trie
+		 * @param distance the distance from keyA to keyB
+		 */
+		void accept(String keyA, String keyB, double distance);
+
+	}
+
+	/**
+	 * Report all pairs of keys of a and b which are within distance of each
+	 * other to consumer. The distance is computed from the key of a to the
+	 * key of b. Both tries are traversed once, so that the work for a common
+	 * prefix is shared by all the keys which start with it, on both sides.
+	 * a and b may be the same trie, in which case every key is paired with
+	 * itself, and every other pair is reported in both orders.
+	 */
+	public static void join(Trie<?> a, Trie<?> b, EditWeight weight, double distance,
+			PairConsumer consumer) {
+		new SimilarityJoin(b, weight, distance).join(a.getCursor(), consumer);
+	}
+
+	/**
+	 * Same as {@link #join(Trie, Trie, EditWeight, double, PairConsumer)}
+	 * but the join is split across the subtrees under the first level of a,
+	 * or under the roots of the sub-tries of a {@link CompositeTrie}, and
+	 * executed in pool with a few tasks per thread. Every task uses its own
+	 * cursors, and materializes the nodes of b it visits once for all of its
+	 * subtrees, so the tries must not be modified during the join, and
+	 * consumer must be thread-safe.
+	 */
+	public static void join(final Trie<?> a, final Trie<?> b, final EditWeight weight,
+			final double distance, final PairConsumer consumer, ForkJoinPool pool) {
+		List<String> prefixes = new ArrayList<String>();
+		new SimilarityJoin(b, weight, distance).split(a.getCursor(),
+				PrefixSplitter.splitDepth(a), consumer, prefixes);
+		new PrefixSplitter<Void>() {
+			@Override
+			protected Void compute(List<String> prefixes) {
+				SimilarityJoin join = new SimilarityJoin(b, weight, distance);
+				Trie.Cursor<?> cursor = a.getCursor();
+				for (String prefix : prefixes) {
+					join.join(cursor, prefix, consumer);
+					cursor.reset();
+				}
+				return null;
+			}
+			@Override
+			protected Void merge(Void left, Void right) {
+				return null;
+			}
+		}.invoke(pool, prefixes);
+	}
+
+	/**
+	 * Merges the values which are associated to the same key in two tries.
+	 *
+	 * @param <T> the value type
+	 */
+	public static interface MergeFunction<T> {
+
+		/**
+		 * @param a the value of the first trie
+		 * @param b the value of the second trie
+		 * @return the value of the result, or null to leave the key out of it
+		 */
+		T merge(T a, T b);
+
+	}
+
+	/**
+	 * Write the entries of a and b to result, which must be empty. Values
+	 * of the keys which belong to both tries are merged with merge. Both
+	 * tries are walked once in lockstep, so the cost is proportional to
+	 * their number of nodes instead of the number of keys times their
+	 * length.
+	 *
+	 * @return result
+	 */
+	public static <T> Trie<T> union(Trie<T> a, Trie<T> b, MergeFunction<T> merge, Trie<T> result) {
+		new TrieMerger<T>(TrieMerger.Operation.UNION, merge, a, b, result).merge();
+		return result;
+	}
+
+	/**
+	 * Write the entries of a whose keys belong to b to result, which must
+	 * be empty. Values are merged with merge.
+	 *
+	 * @return result
+	 * @see #union(Trie, Trie, MergeFunction, Trie)
+	 */
+	public static <T> Trie<T> intersection(Trie<T> a, Trie<T> b, MergeFunction<T> merge, Trie<T> result) {
+		new TrieMerger<T>(TrieMerger.Operation.INTERSECTION, merge, a, b, result).merge();
+		return result;
+	}
+
+	/**
+	 * Write the entries of a whose keys do not belong to b to result, which
+	 * must be empty. Subtrees of a which do not exist in b are copied
+	 * without looking them up in b.
+	 *
+	 * @return result
+	 * @see #union(Trie, Trie, MergeFunction, Trie)
+	 */
+	public static <T> Trie<T> difference(Trie<T> a, Trie<?> b, Trie<T> result) {
+		new TrieMerger<T>(TrieMerger.Operation.DIFFERENCE, null, a, b, result).merge();
+		return result;
 	}
 
 	public static <T> void getNeighbors(char[] buffer, int offset, int length,
@@ -58,8 +341,44 @@ public enum Tries {
 		getNeighbors(buffer, 0, buffer.length, trie, weight, distance, neighbors);
 	}
 
+	/*
+	 * The following methods restrict the moves of getNeighborsR to the
+	 * subtree under prefix, so that the search can be split by prefixes.
+	 * Nodes above prefix are on its path, and their keys are not reported.
+	 */
+
+	private static boolean moveToFirstChild(Trie.Cursor<?> cursor, CharSequence prefix) {
+		if (prefix.length() > 0) {
+			final int depth = cursor.depth();
+			if (depth < prefix.length()) {
+				return cursor.moveToChild(prefix.charAt(depth));
+			}
+		}
+		return cursor.moveToFirstChild();
+	}
+
+	private static boolean moveToBrother(Trie.Cursor<?> cursor, CharSequence prefix) {
+		return (prefix.length() == 0 || cursor.depth() > prefix.length())
+			&& cursor.moveToBrother();
+	}
+
+	private static boolean moveToChild(Trie.Cursor<?> cursor, char c, CharSequence prefix) {
+		if (prefix.length() > 0) {
+			final int depth = cursor.depth();
+			if (depth < prefix.length() && prefix.charAt(depth) != c) {
+				return false;
+			}
+		}
+		return cursor.moveToChild(c);
+	}
+
+	private static boolean isUnder(Trie.Cursor<?> cursor, CharSequence prefix) {
+		return prefix.length() == 0 || cursor.depth() >= prefix.length();
+	}
+
 	private static <T> void getNeighborsR(CharSequence sequence, int offset, int length,
-			Trie.Cursor<T> cursor, BasicEditWeight weight, final double distance, Set<Map.Entry<String, T>> neighbors) {
+			Trie.Cursor<T> cursor, BasicEditWeight weight, final double distance, Set<Map.Entry<String, T>> neighbors,
+			CharSequence prefix) {
 
 		if (distance < weight.insertionCost() &&
 				distance < weight.deletionCost() &&
@@ -69,7 +388,7 @@ public enum Tries {
 			// Just follow the path
 			int n = 0;
 			for (int i = 0; i < length; ++i) {
-				if (cursor.moveToChild(sequence.charAt(offset+i))) {
+				if (moveToChild(cursor, sequence.charAt(offset+i), prefix)) {
 					++n;
 				} else {
 					for (int k = 0; k < n; ++k) {
@@ -79,7 +398,7 @@ public enum Tries {
 				}
 			}
 			T value = cursor.getValue();
-			if (value != null) {
+			if (value != null && isUnder(cursor, prefix)) {
 				neighbors.add(new AbstractMap.SimpleImmutableEntry<String, T>(cursor.getLabel(), value));
 			}
 			for (int i = 0; i < length; ++i) {
@@ -92,18 +411,18 @@ public enum Tries {
 
 			// First check whether there is a match
 			T value = cursor.getValue();
-			if (value != null) {
+			if (value != null && isUnder(cursor, prefix)) {
 				neighbors.add(new AbstractMap.SimpleImmutableEntry<String, T>(cursor.getLabel(), value));
 			}
 
-			if (cursor.moveToFirstChild()) {
+			if (moveToFirstChild(cursor, prefix)) {
 
 				// Add suffixes while distance > 0 (insertions at the end)
 				double newDistance = distance - weight.insertionCost();
 
 				do {
-					getNeighborsR(sequence, offset, length, cursor, weight, newDistance, neighbors);
-				} while (cursor.moveToBrother());
+					getNeighborsR(sequence, offset, length, cursor, weight, newDistance, neighbors, prefix);
+				} while (moveToBrother(cursor, prefix));
 
 				cursor.moveToParent();
 
@@ -117,10 +436,10 @@ public enum Tries {
 			if (deletionDistance >= 0) {
 
 				getNeighborsR(sequence, offset+1, length-1, cursor,
-						weight, deletionDistance, neighbors);
+						weight, deletionDistance, neighbors, prefix);
 			}
 
-			if (cursor.moveToFirstChild()) {
+			if (moveToFirstChild(cursor, prefix)) {
 				double insertionDistance = distance - weight.insertionCost();
 				double substitutionDistance = distance - weight.substitutionCost();
 				double transpositionDistance = distance - weight.transpositionCost();
@@ -128,128 +447,77 @@ public enum Tries {
 				do {
 
 					if (insertionDistance >= 0) { // insertion
-						getNeighborsR(sequence, offset, length, cursor, weight, insertionDistance, neighbors);
+						getNeighborsR(sequence, offset, length, cursor, weight, insertionDistance, neighbors, prefix);
 					}
 
 					if (cursor.getEdgeLabel() == sequence.charAt(offset)) { // match
-						getNeighborsR(sequence, offset+1, length-1, cursor, weight, distance, neighbors);
+						getNeighborsR(sequence, offset+1, length-1, cursor, weight, distance, neighbors, prefix);
 					}
 
 					else {
 
 						if (weight.substitutionEnabled() && substitutionDistance >= 0) { // substitution
-							getNeighborsR(sequence, offset+1, length-1, cursor, weight, substitutionDistance, neighbors);
+							getNeighborsR(sequence, offset+1, length-1, cursor, weight, substitutionDistance, neighbors, prefix);
 						}
 
 						if (weight.transpositionEnabled() &&
 								transpositionDistance >= 0 &&
 								length >= 2 &&
 								cursor.getEdgeLabel() == sequence.charAt(offset+1) &&
-								cursor.moveToChild(sequence.charAt(offset))) { // transposition
-							getNeighborsR(sequence, offset+2, length-2, cursor, weight, transpositionDistance, neighbors);
+								moveToChild(cursor, sequence.charAt(offset), prefix)) { // transposition
+							getNeighborsR(sequence, offset+2, length-2, cursor, weight, transpositionDistance, neighbors, prefix);
 							cursor.moveToParent();
 						}
 					}
 
-				} while (cursor.moveToBrother());
+				} while (moveToBrother(cursor, prefix));
 				cursor.moveToParent();
 			}
 
 		}
 	}
 
-	private static <T> void getNeighborsR(CharSequence sequence,
-			int originalOffset, int originalLength,
-			int offset, int length,
-			Trie.Cursor<T> cursor, EditWeight weight, final double distance, Set<Map.Entry<String, T>> neighbors) {
-
-		if (length <= 0) {
-
-			// First check whether there is a match
-			T value = cursor.getValue();
-			if (value != null) {
-				neighbors.add(new AbstractMap.SimpleImmutableEntry<String, T>(cursor.getLabel(), value));
-			}
-
-			if (cursor.moveToFirstChild()) {
-
-				// Add suffixes while distance > 0 (insertions at the end)
-				do {
-					double newDistance = distance - weight.insertionCost(cursor.depth()-1, cursor.getEdgeLabel());
-					if (newDistance >= 0) {
-						getNeighborsR(sequence, originalOffset, originalLength,
-								offset, length, cursor, weight, newDistance, neighbors);
-					}
-				} while (cursor.moveToBrother());
-
-				cursor.moveToParent();
-
-			}
-
+	/**
+	 * Get the maximum number of edits whose total cost under weight is
+	 * distance or less, for indexes which generate candidates from a number
+	 * of edits.
+	 */
+	static double maxEdits(BasicEditWeight weight, double distance) {
+		double minCost = Math.min(weight.insertionCost(), weight.deletionCost());
+		if (weight.substitutionEnabled()) {
+			minCost = Math.min(minCost, weight.substitutionCost());
 		}
+		if (weight.transpositionEnabled()) {
+			minCost = Math.min(minCost, weight.transpositionCost());
+		}
+		return Math.floor(distance / minCost);
+	}
 
-		else  { // length > 0
-
-			double deletionDistance = distance - weight.deletionCost(offset - originalOffset,
-					sequence.charAt(offset));
-			if (deletionDistance >= 0) {
-
-				getNeighborsR(sequence,
-						originalOffset, originalLength,
-						offset+1, length-1, cursor,
-						weight, deletionDistance, neighbors);
-			}
-
-			if (cursor.moveToFirstChild()) {
-
-				do {
-
-					double insertionDistance = distance - weight.insertionCost(offset-originalLength, cursor.getEdgeLabel());
-					if (insertionDistance >= 0) { // insertion
-						getNeighborsR(sequence,
-								originalOffset, originalLength,
-								offset, length,
-								cursor, weight, insertionDistance, neighbors);
-					}
-
-					if (cursor.getEdgeLabel() == sequence.charAt(offset)) { // match
-						getNeighborsR(sequence,
-								originalOffset, originalLength,
-								offset+1, length-1,
-								cursor, weight, distance, neighbors);
-					}
-
-					else {
-
-						double substitutionDistance = distance - weight.substitutionCost(
-								offset-originalLength, cursor.depth()-1, sequence.charAt(offset), cursor.getEdgeLabel());
-						if (weight.substitutionEnabled() && substitutionDistance >= 0) { // substitution
-							getNeighborsR(sequence,
-									originalOffset, originalLength,
-									offset+1, length-1,
-									cursor, weight, substitutionDistance, neighbors);
-						}
-
-						double transpositionDistance = distance - weight.substitutionCost(
-								offset-originalLength, cursor.depth()-1, sequence.charAt(offset), cursor.getEdgeLabel());
-						if (weight.transpositionEnabled() &&
-								transpositionDistance >= 0 &&
-								length >= 2 &&
-								cursor.getEdgeLabel() == sequence.charAt(offset+1) &&
-								cursor.moveToChild(sequence.charAt(offset))) { // transposition
-							getNeighborsR(sequence,
-									originalOffset, originalLength,
-									offset+2, length-2,
-									cursor, weight, transpositionDistance, neighbors);
-							cursor.moveToParent();
-						}
-					}
-
-				} while (cursor.moveToBrother());
-				cursor.moveToParent();
+	/**
+	 * Get the permutation which sorts keys lexicographically. The sort is
+	 * stable, so that equal keys keep their order.
+	 *
+	 * @param keys the keys to sort
+	 * @return order such that keys[order[0]] <= keys[order[1]] <= ...
+	 */
+	static int[] sortedOrder(final CharSequence[] keys) {
+		// fastutil 5 has no indirect sort, and the sort of the JDK is
+		// stable and linear on sorted input
+		Integer[] order = new Integer[keys.length];
+		for (int i = 0; i < order.length; ++i) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return CharComparator.DEFAULT.compare(keys[o1], keys[o2]);
 			}
-
+		});
+		int[] result = new int[order.length];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = order[i];
 		}
+		return result;
 	}
 
 	public static <T> Trie<T> sortedCharArrayListAsTrie(
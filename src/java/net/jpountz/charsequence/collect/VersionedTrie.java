@@ -0,0 +1,115 @@
+package net.jpountz.charsequence.collect;
+
+/**
+ * A {@link DelegatingTrie} which counts modifications, so that results which
+ * have been computed from the trie can be invalidated when it changes.
+ *
+ * The version is incremented by put, remove and clear, and by cursors which
+ * modify the values or the children of the trie, but the delegate must not
+ * be modified directly. Like other tries, this trie supports one writer
+ * and concurrent readers.
+ *
+ * @param <T> the value type
+ */
+public class VersionedTrie<T> extends DelegatingTrie<T> {
+
+	/**
+	 * A cursor which increments the version of the trie whenever it modifies
+	 * the trie.
+	 */
+	static class VersionedCursor<T> extends DelegatingTrie.Cursor<T> {
+
+		final VersionedTrie<T> trie;
+
+		VersionedCursor(Trie.Cursor<T> delegate, VersionedTrie<T> trie) {
+			super(delegate);
+			this.trie = trie;
+		}
+
+		@Override
+		public boolean removeChild(char c) {
+			boolean removed = delegate.removeChild(c);
+			++trie.version;
+			return removed;
+		}
+
+		@Override
+		public void removeChildren() {
+			delegate.removeChildren();
+			++trie.version;
+		}
+
+		@Override
+		public void setValue(T value) {
+			delegate.setValue(value);
+			++trie.version;
+		}
+
+	}
+
+	private volatile long version;
+
+	public VersionedTrie(Trie<T> delegate) {
+		super(delegate);
+	}
+
+	/**
+	 * Get the number of modifications of this trie.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	@Override
+	public T put(char[] buffer, int offset, int length, T value) {
+		T result = delegate.put(buffer, offset, length, value);
+		++version;
+		return result;
+	}
+
+	@Override
+	public T put(CharSequence sequence, int offset, int length, T value) {
+		T result = delegate.put(sequence, offset, length, value);
+		++version;
+		return result;
+	}
+
+	@Override
+	public T remove(char[] buffer, int offset, int length) {
+		T result = delegate.remove(buffer, offset, length);
+		++version;
+		return result;
+	}
+
+	@Override
+	public T remove(CharSequence sequence, int offset, int length) {
+		T result = delegate.remove(sequence, offset, length);
+		++version;
+		return result;
+	}
+
+	@Override
+	public void clear() {
+		delegate.clear();
+		++version;
+	}
+
+	@Override
+	public Trie.Cursor<T> getCursor() {
+		return new VersionedCursor<T>(delegate.getCursor(), this);
+	}
+
+	@Override
+	public Trie.Cursor<T> getCursor(Trie.Cursor<T> reuse) {
+		if (reuse instanceof VersionedCursor && ((VersionedCursor<T>) reuse).trie == this) {
+			VersionedCursor<T> cursor = (VersionedCursor<T>) reuse;
+			Trie.Cursor<T> inner = delegate.getCursor(cursor.delegate);
+			if (inner == cursor.delegate) {
+				return cursor;
+			}
+			return new VersionedCursor<T>(inner, this);
+		}
+		return getCursor();
+	}
+
+}
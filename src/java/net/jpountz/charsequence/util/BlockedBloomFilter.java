@@ -0,0 +1,155 @@
+package net.jpountz.charsequence.util;
+
+import java.util.Arrays;
+
+/**
+ * A blocked Bloom filter of char sequences (Putze et al., 2007).
+ *
+ * Bits are grouped into blocks of 512 bits, the size of a cache line. The
+ * hash of a key selects a block, and all bits of the key are set in this
+ * block, so that a lookup reads at most one or two cache lines depending
+ * on the alignment of the array. This is at the cost of a slightly higher
+ * false positive rate than a regular Bloom filter with the same number of
+ * bits.
+ */
+public final class BlockedBloomFilter {
+
+	private static final int WORDS_PER_BLOCK = 8;
+	private static final int MAX_HASHES = 16;
+
+	private final long[] words;
+	private final int blocks;
+	private final int hashes;
+	private int count;
+
+	/**
+	 * @param expectedKeys the number of keys the filter is sized for
+	 * @param bitsPerKey the number of bits per key, 10 gives about 1% of
+	 *                   false positives
+	 */
+	public BlockedBloomFilter(int expectedKeys, int bitsPerKey) {
+		if (expectedKeys < 0 || bitsPerKey < 1) {
+			throw new IllegalArgumentException("expectedKeys must be >= 0 and bitsPerKey > 0");
+		}
+		long bits = Math.max(1L, (long) expectedKeys * bitsPerKey);
+		blocks = (int) Math.min(Integer.MAX_VALUE / WORDS_PER_BLOCK, (bits + 511) >>> 9);
+		words = new long[blocks * WORDS_PER_BLOCK];
+		hashes = Math.max(1, Math.min(MAX_HASHES, (int) Math.round(bitsPerKey * Math.log(2))));
+	}
+
+	/**
+	 * Compute the 64-bits hash of a key.
+	 */
+	public static long hash(char[] buffer, int offset, int length) {
+		long h = 0xcbf29ce484222325L ^ length;
+		for (int i = 0; i < length; ++i) {
+			h = (h ^ buffer[offset + i]) * 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * Compute the 64-bits hash of a key.
+	 */
+	public static long hash(CharSequence sequence, int offset, int length) {
+		long h = 0xcbf29ce484222325L ^ length;
+		for (int i = 0; i < length; ++i) {
+			h = (h ^ sequence.charAt(offset + i)) * 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private int block(long hash) {
+		return (int) (((hash >>> 32) * blocks) >>> 32) * WORDS_PER_BLOCK;
+	}
+
+	/**
+	 * Add a key given its {@link #hash}.
+	 */
+	public void add(long hash) {
+		int block = block(hash);
+		int a = (int) hash;
+		int b = (int) ((hash * 0x9E3779B97F4A7C15L) >>> 32) | 1;
+		for (int i = 0; i < hashes; ++i) {
+			int bit = (a + i * b) >>> 23;
+			words[block + (bit >>> 6)] |= 1L << bit;
+		}
+		++count;
+	}
+
+	/**
+	 * Return false if the key whose hash is hash has not been added, and true
+	 * if it has been added or in case of a false positive.
+	 */
+	public boolean mightContain(long hash) {
+		int block = block(hash);
+		int a = (int) hash;
+		int b = (int) ((hash * 0x9E3779B97F4A7C15L) >>> 32) | 1;
+		for (int i = 0; i < hashes; ++i) {
+			int bit = (a + i * b) >>> 23;
+			if ((words[block + (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void add(char[] buffer, int offset, int length) {
+		add(hash(buffer, offset, length));
+	}
+
+	public void add(CharSequence sequence, int offset, int length) {
+		add(hash(sequence, offset, length));
+	}
+
+	public boolean mightContain(char[] buffer, int offset, int length) {
+		return mightContain(hash(buffer, offset, length));
+	}
+
+	public boolean mightContain(CharSequence sequence, int offset, int length) {
+		return mightContain(hash(sequence, offset, length));
+	}
+
+	/**
+	 * Return the number of keys which have been added.
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * Estimate the probability that {@link #mightContain} returns true for a
+	 * key which has not been added, from the number of bits which are set in
+	 * every block.
+	 */
+	public double falsePositiveRate() {
+		double sum = 0;
+		for (int block = 0; block < words.length; block += WORDS_PER_BLOCK) {
+			int ones = 0;
+			for (int i = 0; i < WORDS_PER_BLOCK; ++i) {
+				ones += Long.bitCount(words[block + i]);
+			}
+			sum += Math.pow(ones / 512d, hashes);
+		}
+		return sum / blocks;
+	}
+
+	public void clear() {
+		Arrays.fill(words, 0L);
+		count = 0;
+	}
+
+	public long ramBytesUsed() {
+		return RamUsageUtils.shallowSizeOf(this) + RamUsageUtils.sizeOf(words);
+	}
+
+}
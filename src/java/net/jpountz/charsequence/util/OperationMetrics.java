@@ -0,0 +1,143 @@
+package net.jpountz.charsequence.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of an operation: number of calls, latency histogram, number of
+ * visited elements and number of produced results.
+ *
+ * Counters are striped so that recording metrics from several threads
+ * causes negligible contention.
+ */
+public final class OperationMetrics {
+
+	private static final int BUCKETS = 64;
+
+	private final String name;
+	private final LongAdder count;
+	private final LongAdder nanos;
+	private final LongAdder visited;
+	private final LongAdder results;
+	private final LongAdder[] latencies;
+
+	public OperationMetrics(String name) {
+		this.name = name;
+		count = new LongAdder();
+		nanos = new LongAdder();
+		visited = new LongAdder();
+		results = new LongAdder();
+		latencies = new LongAdder[BUCKETS];
+		for (int i = 0; i < BUCKETS; ++i) {
+			latencies[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record a call to the operation.
+	 *
+	 * @param elapsedNanos the duration of the call
+	 * @param visited the number of visited elements (nodes, chars, ...)
+	 * @param results the number of produced results
+	 */
+	public void record(long elapsedNanos, long visited, long results) {
+		count.increment();
+		if (elapsedNanos > 0) {
+			nanos.add(elapsedNanos);
+			latencies[BUCKETS - Long.numberOfLeadingZeros(elapsedNanos)].increment();
+		} else {
+			latencies[0].increment();
+		}
+		if (visited != 0) {
+			this.visited.add(visited);
+		}
+		if (results != 0) {
+			this.results.add(results);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getTotalNanos() {
+		return nanos.sum();
+	}
+
+	public long getVisited() {
+		return visited.sum();
+	}
+
+	public long getResults() {
+		return results.sum();
+	}
+
+	/**
+	 * Get the latency histogram. Bucket 0 counts calls which lasted less
+	 * than 1ns, and bucket i > 0 counts calls which lasted between 2^(i-1)
+	 * (inclusive) and 2^i (exclusive) nanoseconds.
+	 *
+	 * @return the latency histogram
+	 */
+	public long[] getLatencyHistogram() {
+		long[] result = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; ++i) {
+			result[i] = latencies[i].sum();
+		}
+		return result;
+	}
+
+	/**
+	 * Get an upper bound of the given latency percentile, in nanoseconds.
+	 *
+	 * @param percentile a number between 0 and 100
+	 * @return the upper bound of the histogram bucket containing the percentile
+	 */
+	public long getLatencyPercentile(double percentile) {
+		long[] histogram = getLatencyHistogram();
+		long total = 0;
+		for (long n : histogram) {
+			total += n;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100 * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += histogram[i];
+			if (seen >= rank && seen > 0) {
+				return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Reset all counters. Calls which are recorded concurrently may be lost.
+	 */
+	public void reset() {
+		count.reset();
+		nanos.reset();
+		visited.reset();
+		results.reset();
+		for (LongAdder latency : latencies) {
+			latency.reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		long count = getCount();
+		return name + " [count=" + count
+			+ ", meanNanos=" + (count == 0 ? 0 : getTotalNanos() / count)
+			+ ", p50Nanos<" + getLatencyPercentile(50)
+			+ ", p99Nanos<" + getLatencyPercentile(99)
+			+ ", visited=" + getVisited()
+			+ ", results=" + getResults() + "]";
+	}
+
+}
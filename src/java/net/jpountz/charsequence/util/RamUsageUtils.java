@@ -0,0 +1,144 @@
+package net.jpountz.charsequence.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Sizes of objects and arrays on the heap, assuming a HotSpot JVM. On 64-bit
+ * JVMs, compressed object pointers are assumed to be enabled when the
+ * maximum heap size is less than 32GB (the JVM default).
+ */
+public enum RamUsageUtils {
+	;
+
+	public static final int NUM_BYTES_BOOLEAN = 1;
+	public static final int NUM_BYTES_BYTE = 1;
+	public static final int NUM_BYTES_CHAR = 2;
+	public static final int NUM_BYTES_SHORT = 2;
+	public static final int NUM_BYTES_INT = 4;
+	public static final int NUM_BYTES_FLOAT = 4;
+	public static final int NUM_BYTES_LONG = 8;
+	public static final int NUM_BYTES_DOUBLE = 8;
+
+	public static final int NUM_BYTES_OBJECT_REF;
+	public static final int NUM_BYTES_OBJECT_HEADER;
+	public static final int NUM_BYTES_ARRAY_HEADER;
+	public static final int NUM_BYTES_OBJECT_ALIGNMENT = 8;
+
+	static {
+		boolean is64Bit = "64".equals(System.getProperty("sun.arch.data.model"))
+			|| System.getProperty("os.arch", "").contains("64");
+		if (is64Bit) {
+			boolean compressedOops = Runtime.getRuntime().maxMemory() < (32L << 30);
+			NUM_BYTES_OBJECT_REF = compressedOops ? 4 : 8;
+			NUM_BYTES_OBJECT_HEADER = compressedOops ? 12 : 16;
+			NUM_BYTES_ARRAY_HEADER = 16;
+		} else {
+			NUM_BYTES_OBJECT_REF = 4;
+			NUM_BYTES_OBJECT_HEADER = 8;
+			NUM_BYTES_ARRAY_HEADER = 12;
+		}
+	}
+
+	private static final ConcurrentMap<Class<?>, Long> SHALLOW_SIZES =
+		new ConcurrentHashMap<Class<?>, Long>();
+
+	/**
+	 * Round size up to a multiple of the object alignment.
+	 */
+	public static long alignObjectSize(long size) {
+		return (size + NUM_BYTES_OBJECT_ALIGNMENT - 1) & -NUM_BYTES_OBJECT_ALIGNMENT;
+	}
+
+	/**
+	 * Size of an array whose elements use elementBytes bytes each, without
+	 * alignment.
+	 */
+	public static long sizeOfArrayUnaligned(int elementBytes, long length) {
+		return NUM_BYTES_ARRAY_HEADER + elementBytes * length;
+	}
+
+	/**
+	 * Size of an array whose elements use elementBytes bytes each.
+	 */
+	public static long sizeOfArray(int elementBytes, long length) {
+		return alignObjectSize(sizeOfArrayUnaligned(elementBytes, length));
+	}
+
+	public static long sizeOf(char[] array) {
+		return array == null ? 0 : sizeOfArray(NUM_BYTES_CHAR, array.length);
+	}
+
+	public static long sizeOf(int[] array) {
+		return array == null ? 0 : sizeOfArray(NUM_BYTES_INT, array.length);
+	}
+
+	public static long sizeOf(float[] array) {
+		return array == null ? 0 : sizeOfArray(NUM_BYTES_FLOAT, array.length);
+	}
+
+	public static long sizeOf(double[] array) {
+		return array == null ? 0 : sizeOfArray(NUM_BYTES_DOUBLE, array.length);
+	}
+
+	public static long sizeOf(long[] array) {
+		return array == null ? 0 : sizeOfArray(NUM_BYTES_LONG, array.length);
+	}
+
+	public static long sizeOf(Object[] array) {
+		return array == null ? 0 : sizeOfArray(NUM_BYTES_OBJECT_REF, array.length);
+	}
+
+	/**
+	 * Size of the chars of a {@link CharSequence}, as if they were stored in
+	 * a char[], plus the shallow size of the sequence.
+	 */
+	public static long sizeOf(CharSequence sequence) {
+		return shallowSizeOf(sequence) + sizeOfArray(NUM_BYTES_CHAR, sequence.length());
+	}
+
+	/**
+	 * Size of an instance of clazz, not counting the objects it references.
+	 * Results are cached per class.
+	 */
+	public static long shallowSizeOfInstance(Class<?> clazz) {
+		Long size = SHALLOW_SIZES.get(clazz);
+		if (size == null) {
+			long result = NUM_BYTES_OBJECT_HEADER;
+			for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					if (!Modifier.isStatic(field.getModifiers())) {
+						result += sizeOfField(field.getType());
+					}
+				}
+			}
+			size = alignObjectSize(result);
+			SHALLOW_SIZES.put(clazz, size);
+		}
+		return size;
+	}
+
+	/**
+	 * Size of o, not counting the objects it references.
+	 */
+	public static long shallowSizeOf(Object o) {
+		return o == null ? 0 : shallowSizeOfInstance(o.getClass());
+	}
+
+	private static int sizeOfField(Class<?> type) {
+		if (type == boolean.class || type == byte.class) {
+			return NUM_BYTES_BYTE;
+		} else if (type == char.class || type == short.class) {
+			return NUM_BYTES_CHAR;
+		} else if (type == int.class || type == float.class) {
+			return NUM_BYTES_INT;
+		} else if (type == long.class || type == double.class) {
+			return NUM_BYTES_LONG;
+		} else {
+			return NUM_BYTES_OBJECT_REF;
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+package net.jpountz.charsequence.util;
+
+import java.util.Arrays;
+
+/**
+ * An immutable bit vector supporting rank and select queries.
+ *
+ * Bits are packed into a long[], bit i being bit (i &amp; 63) of word i &gt;&gt;&gt; 6.
+ * The number of ones before every block of 512 bits is stored in an int[],
+ * which adds 6.25% to the size of the bits. rank is O(1) and select is
+ * O(log(n)).
+ */
+public final class RankSelectBitVector {
+
+	private static final int WORDS_PER_BLOCK = 8;
+	private static final int BLOCK_SHIFT = 9; // 512 bits per block
+
+	private final long[] words;
+	private final int length;
+	// number of ones before every block, plus the total number of ones
+	private final int[] ranks;
+
+	/**
+	 * @param words the bits, bits after length must be 0
+	 * @param length the number of bits
+	 */
+	public RankSelectBitVector(long[] words, int length) {
+		if (length < 0 || (length + 63) >>> 6 > words.length) {
+			throw new IllegalArgumentException("length is out of bounds");
+		}
+		this.words = words.length == (length + 63) >>> 6
+			? words
+			: Arrays.copyOf(words, (length + 63) >>> 6);
+		this.length = length;
+		int blocks = (this.words.length + WORDS_PER_BLOCK - 1) / WORDS_PER_BLOCK;
+		ranks = new int[blocks + 1];
+		int rank = 0;
+		for (int i = 0; i < this.words.length; ++i) {
+			if (i % WORDS_PER_BLOCK == 0) {
+				ranks[i / WORDS_PER_BLOCK] = rank;
+			}
+			rank += Long.bitCount(this.words[i]);
+		}
+		ranks[blocks] = rank;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public boolean get(int index) {
+		return (words[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Number of ones.
+	 */
+	public int ones() {
+		return ranks[ranks.length - 1];
+	}
+
+	/**
+	 * Number of ones in [0, index).
+	 */
+	public int rank1(int index) {
+		int word = index >>> 6;
+		int result = ranks[index >>> BLOCK_SHIFT];
+		for (int i = (index >>> BLOCK_SHIFT) * WORDS_PER_BLOCK; i < word; ++i) {
+			result += Long.bitCount(words[i]);
+		}
+		if ((index & 63) != 0) {
+			result += Long.bitCount(words[word] & ((1L << index) - 1));
+		}
+		return result;
+	}
+
+	/**
+	 * Number of zeros in [0, index).
+	 */
+	public int rank0(int index) {
+		return index - rank1(index);
+	}
+
+	private static int select(long word, int k) {
+		for (int i = 1; i < k; ++i) {
+			word &= word - 1;
+		}
+		return Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * Position of the k-th one, k being 1-based.
+	 */
+	public int select1(int k) {
+		if (k < 1 || k > ones()) {
+			throw new IllegalArgumentException("no such one: " + k);
+		}
+		// last block with less than k ones before it
+		int lo = 0, hi = ranks.length - 2;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (ranks[mid] < k) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		int remaining = k - ranks[lo];
+		for (int i = lo * WORDS_PER_BLOCK; ; ++i) {
+			int count = Long.bitCount(words[i]);
+			if (remaining <= count) {
+				return (i << 6) + select(words[i], remaining);
+			}
+			remaining -= count;
+		}
+	}
+
+	/**
+	 * Position of the k-th zero, k being 1-based.
+	 */
+	public int select0(int k) {
+		if (k < 1 || k > length - ones()) {
+			throw new IllegalArgumentException("no such zero: " + k);
+		}
+		int lo = 0, hi = ranks.length - 2;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if ((mid << BLOCK_SHIFT) - ranks[mid] < k) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		int remaining = k - ((lo << BLOCK_SHIFT) - ranks[lo]);
+		for (int i = lo * WORDS_PER_BLOCK; ; ++i) {
+			long word = ~words[i];
+			int count = Long.bitCount(word);
+			if (remaining <= count) {
+				return (i << 6) + select(word, remaining);
+			}
+			remaining -= count;
+		}
+	}
+
+	public long ramBytesUsed() {
+		return RamUsageUtils.shallowSizeOf(this) + RamUsageUtils.sizeOf(words)
+			+ RamUsageUtils.sizeOf(ranks);
+	}
+
+}
@@ -10,6 +10,7 @@ import java.util.TreeSet;
 
 import junit.framework.TestCase;
 import net.jpountz.charsequence.Automata.DistanceState;
+import net.jpountz.charsequence.util.OperationMetrics;
 
 public class AutomataTest extends TestCase {
 
@@ -131,4 +132,17 @@ public class AutomataTest extends TestCase {
 				toCollection(dfa2.getDictionary(alphabet)));
 	}
 
+	public void testInstrument() {
+		OperationMetrics metrics = new OperationMetrics("consume");
+		Automaton.AutomatonConsumer<Integer> consumer = Automata.instrument(
+				Automata.forWord("ab").getConsumer(), metrics);
+		assertEquals(1, consumer.consume('a'));
+		assertEquals(1, consumer.consume('b'));
+		assertTrue(consumer.isAtFinalState());
+		assertEquals(0, consumer.consume('c'));
+		assertEquals(3, metrics.getCount());
+		assertEquals(3, metrics.getVisited());
+		assertEquals(2, metrics.getResults());
+	}
+
 }
@@ -0,0 +1,174 @@
+package net.jpountz.charsequence;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.jpountz.charsequence.collect.ListTrie;
+import net.jpountz.charsequence.collect.Trie;
+import net.jpountz.charsequence.collect.Tries;
+
+public class CompiledEditWeightTest extends TestCase {
+
+	// substitutions of neighbor keys are cheaper
+	private static final EditWeight KEYBOARD = new AbstractEditWeight() {
+
+		private final String[] rows = {"qwertyuiop", "asdfghjkl", "zxcvbnm"};
+
+		private int row(char c) {
+			for (int i = 0; i < rows.length; ++i) {
+				if (rows[i].indexOf(c) >= 0) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public double insertionCost(int offset, char c) {
+			return c == 'e' ? 0.75 : 1;
+		}
+
+		@Override
+		public double deletionCost(int offset, char c) {
+			return 1;
+		}
+
+		@Override
+		public double substitutionCost(int fromOffset, int toOffset, char c1, char c2) {
+			int r1 = row(c1), r2 = row(c2);
+			if (r1 >= 0 && r1 == r2 && Math.abs(rows[r1].indexOf(c1) - rows[r2].indexOf(c2)) == 1) {
+				return 0.5;
+			}
+			return 1.25;
+		}
+
+		@Override
+		public double transpositionCost(int fromOffset, int toOffset, char c1, char c2) {
+			return 0.75;
+		}
+
+	};
+
+	private static final Alphabet ALPHABET = Alphabet.of("abcdefghijklmnopqrstuvwxyz".toCharArray(), null);
+
+	public void testCosts() {
+		CompiledEditWeight compiled = CompiledEditWeight.compile(KEYBOARD, ALPHABET);
+		assertSame(ALPHABET, compiled.getAlphabet());
+		assertEquals(0.75, compiled.insertionCost(3, 'e'));
+		assertEquals(0.75, compiled.insertion(compiled.code('e')));
+		assertEquals(0.5, compiled.substitutionCost(0, 0, 'q', 'w'));
+		assertEquals(0.5, compiled.substitution(compiled.code('w'), compiled.code('q')));
+		assertEquals(1.25, compiled.substitutionCost(0, 0, 'q', 'p'));
+		assertEquals(0.0, compiled.substitution(compiled.code('q'), compiled.code('q')));
+		assertEquals(0.75, compiled.transposition(compiled.code('a'), compiled.code('b')));
+		// not in the alphabet
+		assertEquals(-1, compiled.code('1'));
+		assertEquals(1.25, compiled.substitutionCost(0, 0, '1', 'q'));
+		assertTrue(compiled.ramBytesUsed() > 2 * 26 * 26 * 8);
+	}
+
+	private static String randomString(Random random) {
+		char[] chars = new char[random.nextInt(9)];
+		for (int i = 0; i < chars.length; ++i) {
+			chars[i] = random.nextInt(50) == 0 ? '1' : "qwertasdfg".charAt(random.nextInt(10));
+		}
+		return new String(chars);
+	}
+
+	public void testEditDistance() {
+		EditDistance expected = new EditDistance(KEYBOARD);
+		EditDistance actual = new EditDistance(CompiledEditWeight.compile(KEYBOARD, ALPHABET));
+		Random random = new Random(0);
+		for (int i = 0; i < 2000; ++i) {
+			String from = randomString(random), to = randomString(random);
+			assertEquals(expected.distance(from, to), actual.distance(from, to));
+			assertEquals(expected.distance(2, from, to), actual.distance(2, from, to));
+		}
+	}
+
+	public void testAsymmetricCosts() {
+		// substituting 'a' is cheap, and transpositions are cheaper than
+		// other substitutions
+		EditWeight weight = new AbstractEditWeight() {
+			@Override
+			public double insertionCost(int offset, char c) {
+				return 1;
+			}
+			@Override
+			public double deletionCost(int offset, char c) {
+				return 1;
+			}
+			@Override
+			public double substitutionCost(int fromOffset, int toOffset, char c1, char c2) {
+				return c1 == 'a' ? 0.25 : 1.5;
+			}
+			@Override
+			public double transpositionCost(int fromOffset, int toOffset, char c1, char c2) {
+				return 0.5;
+			}
+		};
+		EditDistance expected = new EditDistance(weight);
+		EditDistance actual = new EditDistance(CompiledEditWeight.compile(weight, ALPHABET));
+		assertEquals(0.5, expected.distance("ba", "ab"));
+		assertEquals(0.5, actual.distance("ba", "ab"));
+		Random random = new Random(2);
+		for (int i = 0; i < 2000; ++i) {
+			String from = randomString(random), to = randomString(random);
+			assertEquals(expected.distance(from, to), actual.distance(from, to));
+			assertEquals(expected.distance(2, from, to), actual.distance(2, from, to));
+		}
+	}
+
+	public void testInexactCosts() {
+		// 0.1 is not exactly representable, and (float) 0.1 + (float) 0.1 > 0.2
+		EditWeight weight = new AbstractEditWeight() {
+			@Override
+			public double insertionCost(int offset, char c) {
+				return 1;
+			}
+			@Override
+			public double deletionCost(int offset, char c) {
+				return 1;
+			}
+			@Override
+			public double substitutionCost(int fromOffset, int toOffset, char c1, char c2) {
+				return 0.1;
+			}
+			@Override
+			public boolean transpositionEnabled() {
+				return false;
+			}
+		};
+		CompiledEditWeight compiled = CompiledEditWeight.compile(weight, ALPHABET);
+		EditDistance expected = new EditDistance(weight);
+		EditDistance actual = new EditDistance(compiled);
+		assertEquals(expected.distance(0.2, "aa", "bb"), actual.distance(0.2, "aa", "bb"));
+		assertEquals(0.2, actual.distance(0.2, "aa", "bb"));
+		Trie<Integer> trie = new ListTrie<Integer>();
+		trie.put("bb", 0);
+		Set<Map.Entry<String, Integer>> neighbors = new HashSet<Map.Entry<String, Integer>>();
+		Tries.getNeighbors("aa", trie, compiled, 0.2, neighbors);
+		assertEquals(1, neighbors.size());
+	}
+
+	public void testGetNeighbors() {
+		CompiledEditWeight compiled = CompiledEditWeight.compile(KEYBOARD, ALPHABET);
+		Trie<Integer> trie = new ListTrie<Integer>();
+		Random random = new Random(1);
+		for (int i = 0; i < 2000; ++i) {
+			trie.put(randomString(random), i);
+		}
+		for (int i = 0; i < 50; ++i) {
+			String query = randomString(random);
+			Set<Map.Entry<String, Integer>> expected = new HashSet<Map.Entry<String, Integer>>();
+			Tries.getNeighbors(query, trie, KEYBOARD, 1.5, expected);
+			Set<Map.Entry<String, Integer>> actual = new HashSet<Map.Entry<String, Integer>>();
+			Tries.getNeighbors(query, trie, compiled, 1.5, actual);
+			assertEquals(expected, actual);
+		}
+	}
+
+}
@@ -1,5 +1,7 @@
 package net.jpountz.charsequence;
 
+import java.util.Random;
+
 import junit.framework.TestCase;
 
 public class EditDistanceTest extends TestCase {
@@ -66,4 +68,136 @@ public class EditDistanceTest extends TestCase {
 		assertEquals(weight.transpositionCost(2, 2, 'c', 'd'), distance.distance("abcd", "abdc"));
 	}
 
+	// optimal string alignment distance
+	private static int unitCostDistance(String from, String to, boolean transpositions) {
+		int[][] d = new int[from.length() + 1][to.length() + 1];
+		for (int i = 0; i <= from.length(); ++i) {
+			for (int j = 0; j <= to.length(); ++j) {
+				if (i == 0 || j == 0) {
+					d[i][j] = i + j;
+					continue;
+				}
+				int cost = from.charAt(i - 1) == to.charAt(j - 1) ? 0 : 1;
+				d[i][j] = Math.min(d[i - 1][j - 1] + cost, Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+				if (transpositions && i > 1 && j > 1
+						&& from.charAt(i - 1) == to.charAt(j - 2)
+						&& from.charAt(i - 2) == to.charAt(j - 1)) {
+					d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+				}
+			}
+		}
+		return d[from.length()][to.length()];
+	}
+
+	private static String randomString(Random random, int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; ++i) {
+			chars[i] = random.nextInt(10) == 0 ? (char) ('\u4E00' + random.nextInt(3)) : (char) ('a' + random.nextInt(4));
+		}
+		return new String(chars);
+	}
+
+	public void testUnitCost() {
+		Random random = new Random(0);
+		for (int i = 0; i < 2000; ++i) {
+			// cover patterns of one, two and three blocks
+			int maxLength = i % 3 == 0 ? 200 : 70;
+			String from = randomString(random, random.nextInt(maxLength));
+			String to = random.nextBoolean()
+				? randomString(random, random.nextInt(maxLength))
+				: from.substring(random.nextInt(from.length() + 1));
+			for (boolean transpositions : new boolean[] {false, true}) {
+				EditDistance distance = transpositions ? EditDistance.DAMEREAU_LEVENSHTEIN : EditDistance.LEVENSHTEIN;
+				int expected = unitCostDistance(from, to, transpositions);
+				assertEquals((double) expected, distance.distance(from, to));
+				assertEquals((double) expected, distance.distance(to, from));
+				assertEquals((double) expected, distance.distance(
+						"_" + from, 1, from.length(), to + "_", 0, to.length()));
+				assertEquals((double) expected, distance.distance(expected, from, to));
+				assertEquals(Double.MAX_VALUE, distance.distance(expected - 1, from, to));
+			}
+		}
+	}
+
+	public void testManyDistinctChars() {
+		Random random = new Random(3);
+		for (int i = 0; i < 200; ++i) {
+			// enough distinct chars to grow the table of the pattern
+			char[] chars = new char[random.nextInt(i % 10 == 0 ? 3000 : 300)];
+			for (int j = 0; j < chars.length; ++j) {
+				chars[j] = (char) (random.nextBoolean() ? 'a' + random.nextInt(26) : '\u0400' + random.nextInt(500));
+			}
+			String from = new String(chars);
+			String to = from.substring(random.nextInt(from.length() + 1)) + randomString(random, random.nextInt(10));
+			for (boolean transpositions : new boolean[] {false, true}) {
+				EditDistance distance = transpositions ? EditDistance.DAMEREAU_LEVENSHTEIN : EditDistance.LEVENSHTEIN;
+				double expected = unitCostDistance(from, to, transpositions);
+				assertEquals(expected, distance.distance(from, to));
+				assertEquals(expected, distance.distance(expected, from, to));
+			}
+		}
+	}
+
+	public void testDistances() {
+		Random random = new Random(2);
+		String query = randomString(random, 20);
+		String[] candidates = new String[300];
+		int[] offsets = new int[candidates.length + 1];
+		StringBuilder arena = new StringBuilder();
+		for (int i = 0; i < candidates.length; ++i) {
+			candidates[i] = randomString(random, random.nextInt(i < 100 ? 30 : 150));
+			arena.append(candidates[i]);
+			offsets[i+1] = arena.length();
+		}
+		char[] chars = arena.toString().toCharArray();
+		double[] distances = new double[candidates.length];
+		for (EditDistance distance : new EditDistance[] {
+				this.distance, EditDistance.LEVENSHTEIN, EditDistance.DAMEREAU_LEVENSHTEIN}) {
+			for (String q : new String[] {"", query, query + query + query + query}) {
+				distance.distances("_" + q, 1, q.length(), chars, offsets, candidates.length, distances);
+				for (int i = 0; i < candidates.length; ++i) {
+					assertEquals(distance.distance(q, candidates[i]), distances[i]);
+				}
+				distance.distances(10, q, 0, q.length(), chars, offsets, candidates.length, distances);
+				for (int i = 0; i < candidates.length; ++i) {
+					double expected = distance.distance(q, candidates[i]);
+					if (distance == this.distance) {
+						// weighted distances are only cut off when all costs of a row exceed the max
+						assertTrue(distances[i] == expected || (distances[i] == Double.MAX_VALUE && expected > 10));
+					} else {
+						assertEquals(expected > 10 ? Double.MAX_VALUE : expected, distances[i]);
+					}
+				}
+			}
+		}
+	}
+
+	public void testUnitCostMatchesWeights() {
+		// same weights as LEVENSHTEIN, but computed with dynamic programming
+		EditDistance levenshtein = new EditDistance(new AbstractEditWeight() {
+			@Override
+			public double insertionCost(int offset, char c) {
+				return 1;
+			}
+			@Override
+			public double deletionCost(int offset, char c) {
+				return 1;
+			}
+			@Override
+			public double substitutionCost(int fromOffset, int toOffset, char c1, char c2) {
+				return 1;
+			}
+			@Override
+			public boolean transpositionEnabled() {
+				return false;
+			}
+		});
+		Random random = new Random(1);
+		for (int i = 0; i < 500; ++i) {
+			String from = randomString(random, random.nextInt(80));
+			String to = randomString(random, random.nextInt(80));
+			assertEquals(levenshtein.distance(from, to), EditDistance.LEVENSHTEIN.distance(from, to));
+		}
+	}
+
 }
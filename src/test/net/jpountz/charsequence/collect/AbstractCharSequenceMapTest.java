@@ -125,4 +125,46 @@ public abstract class AbstractCharSequenceMapTest extends TestCase {
 		assertEquals("abc", map.entrySet().iterator().next().getKey());
 	}
 
+	public void testManyKeys() {
+		for (int i = 0; i < 1000; ++i) {
+			put(Integer.toString(i, 5), i);
+		}
+		for (int i = 0; i < 1000; ++i) {
+			String key = Integer.toString(i, 5);
+			assertEquals(Integer.valueOf(i), map.get(key));
+			assertEquals(Integer.valueOf(i), map.get(key.toCharArray()));
+		}
+		assertNull(map.get("5"));
+	}
+
+	private static void assertConsistent(RamUsage usage) {
+		assertTrue(usage.toString(), usage.getNodes() > 0);
+		assertTrue(usage.toString(), usage.getLabels() >= 0);
+		assertTrue(usage.toString(), usage.getChildren() >= 0);
+		assertTrue(usage.toString(), usage.getValues() >= 0);
+		assertTrue(usage.toString(), usage.getSlack() >= 0);
+		assertEquals(usage.getNodes() + usage.getLabels() + usage.getChildren()
+				+ usage.getValues() + usage.getSlack(), usage.total());
+	}
+
+	public void testRamUsage() {
+		RamUsage empty = map.ramUsage();
+		assertConsistent(empty);
+		assertEquals(empty.total(), map.ramBytesUsed());
+		for (int i = 0; i < 5000; ++i) {
+			put(Integer.toString(i, 7), i);
+		}
+		RamUsage full = map.ramUsage();
+		assertConsistent(full);
+		assertTrue(full.getLabels() > empty.getLabels());
+		assertTrue(full.getValues() > empty.getValues());
+		assertTrue(full.total() > empty.total());
+		if (map instanceof Trie.Trimmable) {
+			((Trie.Trimmable) map).trimToSize();
+			RamUsage trimmed = map.ramUsage();
+			assertConsistent(trimmed);
+			assertTrue(trimmed.getSlack() < full.getSlack());
+		}
+	}
+
 }
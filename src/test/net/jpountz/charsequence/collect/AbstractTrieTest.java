@@ -2,13 +2,29 @@ package net.jpountz.charsequence.collect;
 
 import it.unimi.dsi.fastutil.chars.CharArrayList;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
 import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
+import net.jpountz.charsequence.AbstractEditWeight;
+import net.jpountz.charsequence.Alphabet;
 import net.jpountz.charsequence.CommonEditWeight;
+import net.jpountz.charsequence.CompiledEditWeight;
+import net.jpountz.charsequence.EditDistance;
+import net.jpountz.charsequence.EditWeight;
 import net.jpountz.charsequence.collect.Trie.Cursor;
 
 public abstract class AbstractTrieTest extends AbstractCharSequenceMapTest {
@@ -51,6 +67,71 @@ public abstract class AbstractTrieTest extends AbstractCharSequenceMapTest {
 		assertFalse(trie.getCursor().moveToFirstChild());
 	}
 
+	public void testRemoveReturnsValue() {
+		put("xab", 1);
+		put("xcd", 2);
+		put("yz", 3);
+		// the removed subtrees start at "xa", "xc" and "y", which have no value
+		assertEquals(Integer.valueOf(1), trie.remove("xab"));
+		assertEquals(Integer.valueOf(2), trie.remove("xcd".toCharArray()));
+		assertEquals(Integer.valueOf(3), trie.remove("yz"));
+		assertNull(trie.remove("yz"));
+		assertNull(trie.get("xab"));
+		assertNull(trie.get("xcd"));
+		assertNull(trie.get("yz"));
+	}
+
+	public void testRemoveKeepsOtherKeys() {
+		// "a" and "ab" are on the single-child path of "abcd"
+		put("a", 1);
+		put("ab", 2);
+		put("abcd", 4);
+		assertEquals(Integer.valueOf(4), trie.remove("abcd"));
+		assertEquals(Integer.valueOf(1), trie.get("a"));
+		assertEquals(Integer.valueOf(2), trie.get("ab"));
+		assertNull(trie.get("abcd"));
+		assertNull(trie.get("abc"));
+
+		// keys which are prefixes of other keys
+		put("abcd", 4);
+		assertEquals(Integer.valueOf(2), trie.remove("ab".toCharArray()));
+		assertEquals(Integer.valueOf(1), trie.remove("a"));
+		assertNull(trie.get("a"));
+		assertNull(trie.get("ab"));
+		assertEquals(Integer.valueOf(4), trie.get("abcd"));
+	}
+
+	/**
+	 * Check that the values of the nodes which have been removed with a
+	 * cursor do not show up again when their ids are reused, for tries which
+	 * support removals with cursors.
+	 */
+	protected void checkRemovedValuesDoNotComeBack() {
+		// every node of the subtrees has a value
+		for (String key : new String[] {"a", "ab", "abc", "abcd", "abd", "ac", "acd", "b", "bc", "bcd"}) {
+			put(key, key.length());
+		}
+		Cursor<Integer> cursor = trie.getCursor();
+		assertTrue(cursor.removeChild('a'));
+		assertTrue(cursor.removeChild('b'));
+		// new nodes, which may reuse the removed ones, have no value
+		put("xyzwvu", 0);
+		put("xyzt", 1);
+		String[] prefixes = {"x", "xy", "xyz", "xyzw", "xyzwv"};
+		for (String prefix : prefixes) {
+			assertNull(prefix, trie.get(prefix));
+		}
+		assertEquals(Integer.valueOf(0), trie.get("xyzwvu"));
+		assertEquals(Integer.valueOf(1), trie.get("xyzt"));
+		assertNull(trie.get("a"));
+		assertNull(trie.get("bcd"));
+		cursor = trie.getCursor();
+		for (String prefix : prefixes) {
+			assertTrue(cursor.moveToChild(prefix.charAt(prefix.length() - 1)));
+			assertNull(prefix, cursor.getValue());
+		}
+	}
+
 	public void testEmptyTrie() {
 		Cursor<Integer> cursor = trie.getCursor();
 		Trie.Node root = cursor.getNode();
@@ -196,6 +277,52 @@ public abstract class AbstractTrieTest extends AbstractCharSequenceMapTest {
 		testMoveToNextNode(Trie.Traversal.BREADTH_FIRST, labels);
 	}
 
+	/**
+	 * Return the labels of the nodes under the node of label, level by
+	 * level, children being in cursor order.
+	 */
+	private List<String> breadthFirst(String label) {
+		List<String> result = new ArrayList<String>();
+		List<String> level = Collections.singletonList(label);
+		while (!level.isEmpty()) {
+			List<String> next = new ArrayList<String>();
+			for (String parent : level) {
+				Cursor<Integer> cursor = trie.getCursor();
+				for (int i = 0; i < parent.length(); ++i) {
+					assertTrue(cursor.moveToChild(parent.charAt(i)));
+				}
+				if (cursor.moveToFirstChild()) {
+					do {
+						next.add(cursor.getLabel());
+					} while (cursor.moveToBrother());
+				}
+			}
+			result.addAll(next);
+			level = next;
+		}
+		return result;
+	}
+
+	public void testMoveToNextNodeBFRandom() {
+		Random random = new Random(0);
+		for (int i = 0; i < 300; ++i) {
+			put(FuzzyFixtures.randomKey(random, 8, 3), i);
+		}
+		for (String from : new String[] {"", "a", "ab", "ca"}) {
+			Cursor<Integer> cursor = trie.getCursor();
+			for (int i = 0; i < from.length(); ++i) {
+				assertTrue(cursor.moveToChild(from.charAt(i)));
+			}
+			Trie.Node node = cursor.getNode();
+			List<String> actual = new ArrayList<String>();
+			while (Trie.Traversal.BREADTH_FIRST.moveToNextNode(node, cursor)) {
+				actual.add(cursor.getLabel());
+			}
+			assertEquals(breadthFirst(from), actual);
+		}
+		assertEquals(trie.nodes() - 1, breadthFirst("").size());
+	}
+
 	public void testGetNeightbors() {
 		put("aabc", 1);
 		put("acd", 2);
@@ -221,4 +348,382 @@ public abstract class AbstractTrieTest extends AbstractCharSequenceMapTest {
 		assertEquals(neighbors.toString(), 2, neighbors.size());
 	}
 
+	public void testGetNeighborsWeighted() {
+		// not BasicEditWeights so that neighbors are computed row by row
+		EditWeight dameerauLevenshtein = new AbstractEditWeight() {
+			public double insertionCost(int offset, char c) { return 1; }
+			public double deletionCost(int offset, char c) { return 1; }
+			public double substitutionCost(int fromOffset, int toOffset, char c1, char c2) { return 1; }
+			public double transpositionCost(int fromOffset, int toOffset, char c1, char c2) { return 1; }
+		};
+		Random random = new Random(0);
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 300; ++i) {
+			keys.add(FuzzyFixtures.randomKey(random, 7, 4));
+			put(keys.get(i), i);
+		}
+		for (int i = 0; i < 20; ++i) {
+			String query = FuzzyFixtures.randomQuery(random, keys, 5);
+			for (int k = 0; k < 2; ++k) {
+				EditWeight weight = k == 0 ? dameerauLevenshtein : FuzzyFixtures.WEIGHTED;
+				EditDistance distance = k == 0 ? EditDistance.DAMEREAU_LEVENSHTEIN : new EditDistance(weight);
+				assertEquals(FuzzyFixtures.bruteForceNeighbors(keys, distance, query, 2),
+						FuzzyFixtures.keys(FuzzyFixtures.neighbors(trie, query, weight, 2)));
+			}
+		}
+	}
+
+	public void testGetNeighborsCompiled() {
+		// compiled weights have positive costs, so that keys may be matched
+		// exactly once the distance has been spent
+		Alphabet alphabet = Alphabet.of("abc".toCharArray(), null);
+		Random random = new Random(0);
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 300; ++i) {
+			keys.add(FuzzyFixtures.randomKey(random, 7, 4));
+			put(keys.get(i), i);
+		}
+		for (int i = 0; i < 20; ++i) {
+			String query = FuzzyFixtures.randomQuery(random, keys, 5);
+			for (EditDistance distance : new EditDistance[] {EditDistance.LEVENSHTEIN, EditDistance.DAMEREAU_LEVENSHTEIN}) {
+				EditWeight weight = CompiledEditWeight.compile(distance.getWeight(), alphabet);
+				for (int d = 0; d <= 2; ++d) {
+					assertEquals(FuzzyFixtures.bruteForceNeighbors(keys, distance, query, d),
+							FuzzyFixtures.keys(FuzzyFixtures.neighbors(trie, query, weight, d)));
+				}
+			}
+		}
+	}
+
+	public void testGetNeighborsParallel() {
+		Random random = new Random(0);
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 500; ++i) {
+			keys.add(FuzzyFixtures.randomKey(random, 7, 5));
+			put(keys.get(i), i);
+		}
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int i = 0; i < 20; ++i) {
+				String query = FuzzyFixtures.randomQuery(random, keys, 6);
+				// BasicEditWeights are searched recursively, other weights row by row
+				for (EditDistance distance : new EditDistance[] {EditDistance.LEVENSHTEIN,
+						EditDistance.DAMEREAU_LEVENSHTEIN, new EditDistance(FuzzyFixtures.WEIGHTED)}) {
+					EditWeight weight = distance.getWeight();
+					Set<Map.Entry<String, Integer>> neighbors = new HashSet<Map.Entry<String, Integer>>();
+					Tries.getNeighbors(query, trie, weight, 2, neighbors, pool);
+					assertEquals(FuzzyFixtures.bruteForceNeighbors(keys, distance, query, 2),
+							FuzzyFixtures.keys(neighbors));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testJoin() {
+		Random random = new Random(0);
+		Trie<Integer> other = new ListTrie<Integer>();
+		Set<String> keys = new TreeSet<String>(), otherKeys = new TreeSet<String>();
+		for (int i = 0; i < 200; ++i) {
+			for (int k = 0; k < 2; ++k) {
+				String key = FuzzyFixtures.randomKey(random, 7, 4);
+				if (k == 0) {
+					keys.add(key);
+					put(key, i);
+				} else {
+					otherKeys.add(key);
+					other.put(key, i);
+				}
+			}
+		}
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (EditWeight weight : new EditWeight[] {CommonEditWeight.LEVENSHTEIN, CommonEditWeight.DAMEREAU_LEVENSHTEIN, FuzzyFixtures.WEIGHTED}) {
+				EditDistance distance = new EditDistance(weight);
+				for (int k = 0; k < 2; ++k) {
+					Trie<Integer> b = k == 0 ? trie : other;
+					Set<String> bKeys = k == 0 ? keys : otherKeys;
+					final Map<String, Double> expected = new TreeMap<String, Double>();
+					for (String keyA : keys) {
+						for (String keyB : bKeys) {
+							double d = distance.distance(keyA, keyB);
+							if (d <= 2) {
+								expected.put(keyA + " " + keyB, d);
+							}
+						}
+					}
+					for (int mode = 0; mode < 3; ++mode) {
+						final Map<String, Double> actual = new TreeMap<String, Double>();
+						Tries.PairConsumer consumer = new Tries.PairConsumer() {
+							public synchronized void accept(String keyA, String keyB, double distance) {
+								assertNull(actual.put(keyA + " " + keyB, distance));
+							}
+						};
+						if (mode == 0) {
+							Tries.join(trie, b, weight, 2, consumer);
+						} else if (mode == 1) {
+							Tries.join(trie, b, weight, 2, consumer, pool);
+						} else {
+							// one join for all subtrees, like every task of the parallel join
+							SimilarityJoin join = new SimilarityJoin(b, weight, 2);
+							List<String> prefixes = new ArrayList<String>();
+							join.split(trie.getCursor(), 1, consumer, prefixes);
+							Cursor<Integer> cursor = trie.getCursor();
+							for (String prefix : prefixes) {
+								join.join(cursor, prefix, consumer);
+								cursor.reset();
+							}
+						}
+						assertEquals(expected.keySet(), actual.keySet());
+						for (Map.Entry<String, Double> entry : expected.entrySet()) {
+							assertEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()), 0.000001);
+						}
+					}
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testSetOperations() {
+		Random random = new Random(0);
+		Trie<Integer> other = new ListTrie<Integer>();
+		Map<String, Integer> entries = new TreeMap<String, Integer>(), otherEntries = new TreeMap<String, Integer>();
+		for (int i = 0; i < 300; ++i) {
+			for (int k = 0; k < 2; ++k) {
+				String key = FuzzyFixtures.randomKey(random, 7, k == 0 ? 4 : 5);
+				if (k == 0) {
+					entries.put(key, i);
+					put(key, i);
+				} else {
+					otherEntries.put(key, i);
+					other.put(key, i);
+				}
+			}
+		}
+		// leave odd sums out of the result
+		Tries.MergeFunction<Integer> merge = new Tries.MergeFunction<Integer>() {
+			public Integer merge(Integer a, Integer b) {
+				return (a + b) % 2 == 0 ? a + b : null;
+			}
+		};
+		for (int k = 0; k < 2; ++k) {
+			Trie<Integer> a = k == 0 ? trie : other;
+			Trie<Integer> b = k == 0 ? other : trie;
+			Map<String, Integer> aEntries = k == 0 ? entries : otherEntries;
+			Map<String, Integer> bEntries = k == 0 ? otherEntries : entries;
+			Map<String, Integer> union = new TreeMap<String, Integer>(bEntries);
+			Map<String, Integer> intersection = new TreeMap<String, Integer>();
+			Map<String, Integer> difference = new TreeMap<String, Integer>();
+			for (Map.Entry<String, Integer> entry : aEntries.entrySet()) {
+				Integer bValue = bEntries.get(entry.getKey());
+				if (bValue == null) {
+					union.put(entry.getKey(), entry.getValue());
+					difference.put(entry.getKey(), entry.getValue());
+				} else {
+					Integer merged = merge.merge(entry.getValue(), bValue);
+					if (merged == null) {
+						union.remove(entry.getKey());
+					} else {
+						union.put(entry.getKey(), merged);
+						intersection.put(entry.getKey(), merged);
+					}
+				}
+			}
+			assertEquals(union, new TreeMap<String, Integer>(
+					Tries.union(a, b, merge, new ListTrie<Integer>())));
+			Trie<Integer> intersectionTrie = Tries.intersection(a, b, merge, new ListTrie<Integer>());
+			assertEquals(intersection, new TreeMap<String, Integer>(intersectionTrie));
+			Trie<Integer> differenceTrie = Tries.difference(a, b, new ListTrie<Integer>());
+			assertEquals(difference, new TreeMap<String, Integer>(differenceTrie));
+			// no dead branches
+			for (Trie<Integer> result : Arrays.asList(intersectionTrie, differenceTrie)) {
+				Trie.Cursor<Integer> cursor = result.getCursor();
+				Trie.Node root = cursor.getNode();
+				while (Trie.Traversal.DEPTH_FIRST.moveToNextNode(root, cursor)) {
+					if (cursor.getChildrenSize() == 0) {
+						assertNotNull(cursor.getLabel(), cursor.getValue());
+					}
+				}
+			}
+		}
+	}
+
+	public void testGetFuzzyPrefixMatches() {
+		Random random = new Random(0);
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 300; ++i) {
+			keys.add(FuzzyFixtures.randomKey(random, 8, 4));
+			put(keys.get(i), i);
+		}
+		for (int i = 0; i < 20; ++i) {
+			String query = keys.get(random.nextInt(keys.size()));
+			query = query.substring(0, random.nextInt(query.length() + 1)) + (char) ('a' + random.nextInt(5));
+			for (int k = 0; k < 2; ++k) {
+				EditWeight weight = k == 0 ? CommonEditWeight.LEVENSHTEIN : CommonEditWeight.DAMEREAU_LEVENSHTEIN;
+				EditDistance distance = new EditDistance(weight);
+				Map<String, Double> expected = new TreeMap<String, Double>();
+				for (String key : keys) {
+					double min = Double.MAX_VALUE;
+					for (int j = 0; j <= key.length(); ++j) {
+						min = Math.min(min, distance.distance(query, key.substring(0, j)));
+					}
+					if (min <= 1) {
+						expected.put(key, min);
+					}
+				}
+				final Map<String, Double> actual = new TreeMap<String, Double>();
+				int count = Tries.getFuzzyPrefixMatches(query, trie, weight, 1, Integer.MAX_VALUE, new Tries.MatchConsumer<Integer>() {
+					public void accept(String key, Integer value, double distance) {
+						assertNull(actual.put(key, distance));
+					}
+				});
+				assertEquals(expected, actual);
+				assertEquals(expected.size(), count);
+
+				if (count > 2) {
+					final List<String> capped = new ArrayList<String>();
+					assertEquals(2, Tries.getFuzzyPrefixMatches(query, trie, weight, 1, 2, new Tries.MatchConsumer<Integer>() {
+						public void accept(String key, Integer value, double distance) {
+							capped.add(key);
+						}
+					}));
+					assertEquals(2, capped.size());
+				}
+			}
+		}
+	}
+
+	private static <E> void splitAndCollect(Spliterator<E> spliterator, final List<E> elements) {
+		Spliterator<E> split = spliterator.trySplit();
+		if (split != null) {
+			splitAndCollect(split, elements);
+			splitAndCollect(spliterator, elements);
+		} else {
+			spliterator.forEachRemaining(new Consumer<E>() {
+				public void accept(E e) {
+					elements.add(e);
+				}
+			});
+		}
+	}
+
+	public void testSpliterator() {
+		String[] keys = new String[] {
+				"", "a", "ab", "abcd", "abd", "ae", "b", "bcdef", "bcdeg", "z"
+		};
+		for (int i = keys.length - 1; i >= 0; --i) {
+			put(keys[i], i);
+		}
+		List<String> expectedKeys = new ArrayList<String>();
+		for (Map.Entry<String, Integer> entry : trie.entrySet()) {
+			expectedKeys.add(entry.getKey());
+		}
+		assertEquals(keys.length, expectedKeys.size());
+
+		List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>();
+		splitAndCollect(Tries.entrySpliterator(trie), entries);
+		assertEquals(expectedKeys.size(), entries.size());
+		for (int i = 0; i < entries.size(); ++i) {
+			assertEquals(expectedKeys.get(i), entries.get(i).getKey());
+			assertEquals(trie.get(entries.get(i).getKey()), entries.get(i).getValue());
+		}
+
+		List<String> splitKeys = new ArrayList<String>();
+		splitAndCollect(trie.keySet().spliterator(), splitKeys);
+		assertEquals(expectedKeys, splitKeys);
+
+		List<Integer> values = new ArrayList<Integer>();
+		splitAndCollect(trie.values().spliterator(), values);
+		assertEquals(keys.length, values.size());
+	}
+
+	public void testParallelStream() {
+		for (int i = 0; i < 1000; ++i) {
+			put(Integer.toString(i, 7), i);
+		}
+		assertEquals(1000, trie.entrySet().parallelStream().count());
+		assertEquals(1000, trie.keySet().parallelStream().distinct().count());
+		long sum = 0;
+		for (Integer value : trie.values()) {
+			sum += value;
+		}
+		long parallelSum = 0;
+		for (Object value : trie.values().parallelStream().toArray()) {
+			parallelSum += (Integer) value;
+		}
+		assertEquals(sum, parallelSum);
+	}
+
+	public void testCursorReuse() {
+		put("ab", 1);
+		put("abc", 2);
+		put("b", 3);
+		Cursor<Integer> cursor = trie.getCursor();
+		assertTrue(cursor.moveToChild('a'));
+		assertTrue(cursor.moveToChild('b'));
+		Cursor<Integer> reused = trie.getCursor(cursor);
+		assertTrue(reused.isAtRoot());
+		assertEquals(0, reused.depth());
+		assertEquals("", reused.getLabel());
+		assertTrue(reused.moveToChild('a'));
+		assertTrue(reused.moveToChild('b'));
+		assertEquals("ab", reused.getLabel());
+		assertEquals(Integer.valueOf(1), reused.getValue());
+
+		// a cursor from another trie is reset, and only recycled if it can
+		// be retargeted to the other trie
+		Trie<Integer> other = newMap();
+		Cursor<Integer> otherCursor = other.getCursor(trie.getCursor());
+		assertTrue(otherCursor.isAtRoot());
+		assertFalse(otherCursor.moveToChild('b'));
+
+		CursorPool<Integer> pool = new CursorPool<Integer>(trie);
+		for (String key : new String[] {"ab", "abc", "b"}) {
+			cursor = pool.get();
+			assertTrue(cursor.isAtRoot());
+			for (int i = 0; i < key.length(); ++i) {
+				assertTrue(cursor.moveToChild(key.charAt(i)));
+			}
+			assertEquals(trie.get(key), cursor.getValue());
+		}
+		Set<Map.Entry<String, Integer>> expected = new HashSet<Map.Entry<String, Integer>>();
+		Tries.getNeighbors("ac", trie, CommonEditWeight.LEVENSHTEIN, 1, expected);
+		Set<Map.Entry<String, Integer>> neighbors = new HashSet<Map.Entry<String, Integer>>();
+		Tries.getNeighbors("ac", pool, CommonEditWeight.LEVENSHTEIN, 1, neighbors);
+		assertEquals(expected, neighbors);
+		assertEquals(2, neighbors.size());
+	}
+
+	public void testGetAll() {
+		String[] keys = new String[] {
+				"abc", "", "abcd", "ab", "b", "abd", "bcd", "zz", "abce", "a", "abc", "bc"
+		};
+		put("a", 0);
+		put("abc", 1);
+		put("abcd", 2);
+		put("abd", 3);
+		put("bc", 4);
+		put("bcd", 5);
+		Integer[] results = new Integer[keys.length];
+		trie.getAll(keys, results);
+		for (int i = 0; i < keys.length; ++i) {
+			assertEquals(keys[i], trie.get(keys[i]), results[i]);
+		}
+		String[] sortedKeys = keys.clone();
+		Arrays.sort(sortedKeys);
+		Integer[] sortedResults = new Integer[sortedKeys.length];
+		trie.getAll(sortedKeys, sortedResults, true);
+		for (int i = 0; i < sortedKeys.length; ++i) {
+			assertEquals(sortedKeys[i], trie.get(sortedKeys[i]), sortedResults[i]);
+		}
+		// unsorted keys are still looked up correctly
+		trie.getAll(keys, results, true);
+		for (int i = 0; i < keys.length; ++i) {
+			assertEquals(keys[i], trie.get(keys[i]), results[i]);
+		}
+	}
+
 }
@@ -0,0 +1,88 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import net.jpountz.charsequence.collect.AdaptiveRadixTrie.Layout;
+
+public class AdaptiveRadixTrieTest extends AbstractTrieTest {
+
+	@Override
+	public Trie<Integer> newMap() {
+		return new AdaptiveRadixTrie<Integer>();
+	}
+
+	@Override
+	public void testRemove() {
+		// unsupported
+	}
+
+	private static Layout layoutAfter(int children, char first) {
+		AdaptiveRadixTrie<Integer> trie = new AdaptiveRadixTrie<Integer>();
+		trie.put("x", -1);
+		for (int i = 0; i < children; ++i) {
+			trie.put("x" + (char) (first + i), i);
+		}
+		Trie.Cursor<Integer> cursor = trie.getCursor();
+		assertEquals(Layout.NODE4, trie.getLayout(cursor));
+		assertTrue(cursor.moveToChild('x'));
+		assertEquals(children, cursor.getChildrenSize());
+		Layout layout = trie.getLayout(cursor);
+		assertTrue(cursor.moveToFirstChild());
+		assertEquals(Layout.NONE, trie.getLayout(cursor));
+		return layout;
+	}
+
+	public void testLayouts() {
+		assertEquals(Layout.NODE4, layoutAfter(1, 'a'));
+		assertEquals(Layout.NODE4, layoutAfter(4, 'a'));
+		assertEquals(Layout.NODE16, layoutAfter(5, 'a'));
+		assertEquals(Layout.NODE16, layoutAfter(16, 'a'));
+		assertEquals(Layout.NODE48, layoutAfter(17, 'a'));
+		assertEquals(Layout.NODE48, layoutAfter(48, '\u0000'));
+		assertEquals(Layout.NODE256, layoutAfter(49, '\u0000'));
+		assertEquals(Layout.NODE256, layoutAfter(256, '\u0000'));
+		// labels span two pages
+		assertEquals(Layout.SORTED, layoutAfter(17, '\u00F8'));
+		assertEquals(Layout.SORTED, layoutAfter(257, '\u0000'));
+		assertEquals(Layout.SORTED, layoutAfter(5000, '\u4E00'));
+	}
+
+	public void testRandom() {
+		AdaptiveRadixTrie<Integer> trie = (AdaptiveRadixTrie<Integer>) this.trie;
+		Map<String, Integer> expected = new TreeMap<String, Integer>();
+		Random random = new Random(0);
+		for (int i = 0; i < 20000; ++i) {
+			char[] chars = new char[1 + random.nextInt(6)];
+			for (int j = 0; j < chars.length; ++j) {
+				switch (random.nextInt(3)) {
+				case 0:
+					chars[j] = (char) ('a' + random.nextInt(3));
+					break;
+				case 1:
+					chars[j] = (char) random.nextInt(300);
+					break;
+				default:
+					chars[j] = (char) ('\u4E00' + random.nextInt(1000));
+					break;
+				}
+			}
+			String key = new String(chars);
+			assertEquals(expected.put(key, i), trie.put(key, i));
+		}
+		for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), trie.get(entry.getKey()));
+		}
+		assertEquals(expected.toString(), trie.toString());
+
+		trie.optimizeFor(Trie.Traversal.BREADTH_FIRST);
+		assertEquals(trie.size, trie.tables.length);
+		assertEquals(trie.poolSize, trie.pool.length);
+		assertEquals(expected.toString(), trie.toString());
+		for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), trie.get(entry.getKey()));
+		}
+	}
+
+}
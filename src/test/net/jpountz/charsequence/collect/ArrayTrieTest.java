@@ -1,5 +1,14 @@
 package net.jpountz.charsequence.collect;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import net.jpountz.charsequence.Alphabet;
+import net.jpountz.charsequence.CharComparator;
+
 import net.jpountz.charsequence.collect.ArrayTrie;
 import net.jpountz.charsequence.collect.Trie;
 
@@ -10,4 +19,96 @@ public class ArrayTrieTest extends AbstractTrieTest {
 		return new ArrayTrie<Integer>();
 	}
 
+	public void testChildrenAccounting() {
+		ArrayTrie<Integer> trie = (ArrayTrie<Integer>) this.trie;
+		for (int i = 0; i < 2000; ++i) {
+			put(Integer.toString(i * 7919, 36), i);
+		}
+		for (int i = 0; i < 2000; i += 3) {
+			trie.remove(Integer.toString(i * 7919, 36));
+		}
+		int used = trie.poolSize - trie.poolGarbage;
+		trie.trimToSize();
+		assertEquals(used, trie.poolSize);
+		assertEquals(used, trie.pool.length);
+		assertEquals(0, trie.poolGarbage);
+		for (int i = 0; i < 2000; ++i) {
+			Integer expected = i % 3 == 0 ? null : i;
+			assertEquals(expected, trie.get(Integer.toString(i * 7919, 36)));
+		}
+	}
+
+	public void testSparseChildren() {
+		Map<String, Integer> expected = new TreeMap<String, Integer>();
+		char[] labels = new char[] {'z', 'a', '\uffff', '0', '\u4e2d', '\u0001', 'b', '\u4e2e'};
+		for (int i = 0; i < labels.length; ++i) {
+			for (int j = 0; j < labels.length; ++j) {
+				String key = new String(new char[] {labels[i], labels[j]});
+				put(key, i * labels.length + j);
+				expected.put(key, i * labels.length + j);
+			}
+		}
+		for (int i = 0; i < labels.length; i += 2) {
+			String key = new String(new char[] {labels[i], labels[i]});
+			trie.remove(key);
+			expected.remove(key);
+		}
+		for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), trie.get(entry.getKey()));
+		}
+		assertEquals(expected.toString(), trie.toString());
+	}
+
+	public void testAlphabet() {
+		Random random = new Random(0);
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 3000; ++i) {
+			char[] chars = new char[1 + random.nextInt(4)];
+			for (int j = 0; j < chars.length; ++j) {
+				chars[j] = (char) ('\u4e00' + 37 * random.nextInt(100));
+			}
+			keys.add(new String(chars));
+		}
+		CharComparator reverse = new CharComparator() {
+			@Override
+			public int compare(char c1, char c2) {
+				return (int) c2 - c1;
+			}
+		};
+		Alphabet alphabet = Alphabet.of(keys, reverse);
+		assertEquals(100, alphabet.size());
+		assertEquals(-1, alphabet.code('a'));
+		assertEquals('\u4e00', alphabet.charAt(99));
+
+		ArrayTrie<Integer> raw = new ArrayTrie<Integer>();
+		ArrayTrie<Integer> dense = new ArrayTrie<Integer>(alphabet);
+		Map<String, Integer> expected = new TreeMap<String, Integer>(reverse.<String>asCharSequenceComparator());
+		for (int i = 0; i < keys.size(); ++i) {
+			raw.put(keys.get(i), i);
+			dense.put(keys.get(i), i);
+			expected.put(keys.get(i), i);
+		}
+		for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), dense.get(entry.getKey()));
+		}
+		assertNull(dense.get("a"));
+		assertFalse(dense.remove("\u4e00a") != null);
+		try {
+			dense.put("\u4e00a", 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// ok
+		}
+		assertEquals(new ArrayList<String>(expected.keySet()),
+				new ArrayList<String>(dense.keySet()));
+
+		raw.trimToSize();
+		dense.trimToSize();
+		assertTrue(dense.ramUsage().getChildren() < raw.ramUsage().getChildren() / 2);
+	}
+
+	public void testRemovedValuesDoNotComeBack() {
+		checkRemovedValuesDoNotComeBack();
+	}
+
 }
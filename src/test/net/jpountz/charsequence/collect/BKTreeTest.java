@@ -0,0 +1,160 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+import net.jpountz.charsequence.AbstractEditWeight;
+import net.jpountz.charsequence.CharSequenceDistance;
+import net.jpountz.charsequence.CommonEditWeight;
+import net.jpountz.charsequence.EditDistance;
+
+public class BKTreeTest extends TestCase {
+
+	/**
+	 * Number of positions at which chars differ, shorter sequences being
+	 * padded.
+	 */
+	private static final CharSequenceDistance HAMMING = new CharSequenceDistance() {
+		@Override
+		public double distance(CharSequence from, int off1, int len1,
+				CharSequence to, int off2, int len2) {
+			int result = Math.abs(len1 - len2);
+			for (int i = 0, n = Math.min(len1, len2); i < n; ++i) {
+				if (from.charAt(off1 + i) != to.charAt(off2 + i)) {
+					++result;
+				}
+			}
+			return result;
+		}
+	};
+
+	private static final CharSequenceDistance WEIGHTED = new EditDistance(FuzzyFixtures.SYMMETRIC_WEIGHTED);
+
+	private static final CharSequenceDistance[] DISTANCES = {
+		EditDistance.LEVENSHTEIN, HAMMING, WEIGHTED
+	};
+
+	private List<String> keys;
+
+	@Override
+	public void setUp() {
+		Random random = new Random(0);
+		keys = new ArrayList<String>();
+		for (int i = 0; i < 500; ++i) {
+			keys.add(FuzzyFixtures.randomKey(random, 8, 4));
+		}
+	}
+
+	public void testNotAMetric() {
+		// "ca" -> "ac" -> "abc" is 2 edits but "ca" and "abc" are 3 edits apart
+		assertEquals(3.0, EditDistance.DAMEREAU_LEVENSHTEIN.distance("ca", "abc"));
+		for (EditDistance distance : new EditDistance[] {
+				EditDistance.DAMEREAU_LEVENSHTEIN,
+				new EditDistance(CommonEditWeight.DAMEREAU_LEVENSHTEIN),
+				new EditDistance(new AbstractEditWeight() {
+					public double insertionCost(int offset, char c) { return 1; }
+					public double deletionCost(int offset, char c) { return 1; }
+					public double substitutionCost(int fromOffset, int toOffset, char c1, char c2) { return 1; }
+					public double transpositionCost(int fromOffset, int toOffset, char c1, char c2) { return 1; }
+				})}) {
+			try {
+				new BKTree<Integer>(distance);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// ok
+			}
+		}
+		// no transpositions
+		new BKTree<Integer>(new EditDistance(CommonEditWeight.LEVENSHTEIN));
+	}
+
+	public void testPutGet() {
+		for (CharSequenceDistance distance : DISTANCES) {
+			BKTree<Integer> tree = new BKTree<Integer>(distance);
+			Map<String, Integer> expected = new HashMap<String, Integer>();
+			for (int i = 0; i < keys.size(); ++i) {
+				assertEquals(expected.put(keys.get(i), i), tree.put(keys.get(i), i));
+			}
+			assertEquals(expected.size(), tree.size());
+			for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+				assertEquals(entry.getValue(), tree.get(entry.getKey()));
+			}
+			assertNull(tree.get("eeee"));
+			BKTree<Integer> bulk = new BKTree<Integer>(distance, expected);
+			assertEquals(expected.size(), bulk.size());
+			for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+				assertEquals(entry.getValue(), bulk.get(entry.getKey()));
+			}
+		}
+	}
+
+	public void testGetNeighbors() {
+		Random random = new Random(1);
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		for (int i = 0; i < keys.size(); ++i) {
+			map.put(keys.get(i), i);
+		}
+		for (CharSequenceDistance distance : DISTANCES) {
+			BKTree<Integer> tree = new BKTree<Integer>(distance, map);
+			for (int i = 0; i < 20; ++i) {
+				String query = FuzzyFixtures.randomQuery(random, keys, 5);
+				for (double d : new double[] {0, 1, 1.5, 2, 3}) {
+					Set<String> expected = FuzzyFixtures.bruteForceNeighbors(map.keySet(), distance, query, d);
+					Set<Map.Entry<String, Integer>> neighbors = new HashSet<Map.Entry<String, Integer>>();
+					tree.getNeighbors(query, d, neighbors);
+					assertEquals(expected, FuzzyFixtures.keys(neighbors));
+				}
+			}
+		}
+	}
+
+	public void testGetNearest() {
+		Random random = new Random(2);
+		final BKTree<Integer> tree = new BKTree<Integer>(WEIGHTED);
+		for (int i = 0; i < keys.size(); ++i) {
+			tree.put(keys.get(i), i);
+		}
+		for (int i = 0; i < 20; ++i) {
+			final String query = FuzzyFixtures.randomQuery(random, keys, 5);
+			List<Double> expected = new ArrayList<Double>();
+			for (String key : new TreeSet<String>(keys)) {
+				expected.add(WEIGHTED.distance(query, key));
+			}
+			Collections.sort(expected);
+			final int k = 1 + random.nextInt(10);
+			final List<Double> actual = new ArrayList<Double>();
+			int count = tree.getNearest(query, k, new Tries.MatchConsumer<Integer>() {
+				public void accept(String key, Integer value, double distance) {
+					assertEquals(WEIGHTED.distance(query, key), distance);
+					assertEquals(tree.get(key), value);
+					actual.add(distance);
+				}
+			});
+			assertEquals(k, count);
+			assertEquals(expected.subList(0, k), actual);
+
+			actual.clear();
+			count = tree.getNearest(query, k, 1, new Tries.MatchConsumer<Integer>() {
+				public void accept(String key, Integer value, double distance) {
+					actual.add(distance);
+				}
+			});
+			List<Double> withinOne = new ArrayList<Double>();
+			for (double d : expected.subList(0, k)) {
+				if (d <= 1) {
+					withinOne.add(d);
+				}
+			}
+			assertEquals(withinOne, actual);
+		}
+	}
+
+}
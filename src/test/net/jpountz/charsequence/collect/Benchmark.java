@@ -43,6 +43,12 @@ public class Benchmark {
 				return new ListRadixTrie<String>();
 			}
 		},
+		ADAPTIVE_RADIX_TRIE {
+			@Override
+			Map<String, String> newMap() {
+				return new AdaptiveRadixTrie<String>();
+			}
+		},
 		COMPOSITE_TRIE {
 
 			@Override
@@ -69,6 +75,12 @@ public class Benchmark {
 				return new ArrayTrie<String>();
 			}
 		},
+		DOUBLE_ARRAY_TRIE {
+			@Override
+			Map<String, String> newMap() {
+				return new DoubleArrayTrie<String>();
+			}
+		},
 		BINARY_SEARCH_TRIE {
 			@Override
 			Map<String, String> newMap() {
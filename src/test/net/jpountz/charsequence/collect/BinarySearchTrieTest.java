@@ -31,6 +31,16 @@ public class BinarySearchTrieTest extends AbstractTrieTest {
 		// unsupported
 	}
 
+	@Override
+	public void testRemoveKeepsOtherKeys() {
+		// unsupported
+	}
+
+	@Override
+	public void testRemoveReturnsValue() {
+		// unsupported
+	}
+
 	@Override
 	public void testCursorRW() {
 		// unsupported
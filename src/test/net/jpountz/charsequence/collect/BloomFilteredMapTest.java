@@ -0,0 +1,81 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BloomFilteredMapTest extends AbstractCharSequenceMapTest {
+
+	@Override
+	public CharSequenceMap<Integer> newMap() {
+		return new BloomFilteredMap<Integer>(new ListTrie<Integer>());
+	}
+
+	public void testMisses() {
+		BloomFilteredMap<Integer> map = (BloomFilteredMap<Integer>) this.map;
+		for (int i = 0; i < 10000; ++i) {
+			map.put("key" + i, i);
+		}
+		for (int i = 0; i < 10000; ++i) {
+			assertEquals(Integer.valueOf(i), map.get("key" + i));
+		}
+		assertEquals(0, map.getRejections());
+		for (int i = 10000; i < 20000; ++i) {
+			assertNull(map.get("key" + i));
+			assertFalse(map.containsKey("key" + i));
+		}
+		long positives = map.getLookups() - 10000 - map.getRejections();
+		assertTrue(positives < 0.05 * 20000);
+		assertTrue(map.getFalsePositiveRate() > 0);
+		assertTrue(map.getFalsePositiveRate() < 0.05);
+		assertTrue(map.ramUsage().getNodes() >= map.getFilter().ramBytesUsed());
+	}
+
+	public void testRebuild() {
+		BloomFilteredMap<Integer> map = (BloomFilteredMap<Integer>) this.map;
+		for (int i = 0; i < 1000; ++i) {
+			map.put("key" + i, i);
+		}
+		for (int i = 0; i < 1000; ++i) {
+			map.remove("key" + i);
+		}
+		double fpr = map.getFalsePositiveRate();
+		map.rebuild();
+		assertTrue(map.getFalsePositiveRate() < fpr);
+		assertEquals(0, map.getFilter().count());
+		for (int i = 0; i < 1000; ++i) {
+			assertNull(map.get("key" + i));
+		}
+		assertEquals(1000, map.getRejections());
+	}
+
+	public void testConcurrentLookups() throws InterruptedException {
+		final BloomFilteredMap<Integer> map = (BloomFilteredMap<Integer>) this.map;
+		for (int i = 0; i < 100; ++i) {
+			map.put("key" + i, i);
+		}
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; ++t) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 20000; ++i) {
+							assertEquals(Integer.valueOf(i % 100), map.get("key" + (i % 100)));
+							assertNull(map.get("absent" + i));
+						}
+					} catch (Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(error.get());
+		assertEquals(threads.length * 20000 * 2, map.getLookups());
+		assertTrue(map.getRejections() <= threads.length * 20000);
+	}
+
+}
@@ -0,0 +1,184 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class CachingTrieTest extends AbstractTrieTest {
+
+	@Override
+	public Trie<Integer> newMap() {
+		return new CachingTrie<Integer>(new ListTrie<Integer>(), 16);
+	}
+
+	public void testHitRate() {
+		CachingTrie<Integer> trie = (CachingTrie<Integer>) this.trie;
+		for (int i = 0; i < 1000; ++i) {
+			put(Integer.toString(i), i);
+		}
+		for (int round = 0; round < 10; ++round) {
+			for (int i = 0; i < 4; ++i) {
+				assertEquals(Integer.valueOf(i), trie.get(Integer.toString(i)));
+			}
+			// cold keys do not evict hot keys
+			assertEquals(Integer.valueOf(100 + round), trie.get(Integer.toString(100 + round).toCharArray()));
+		}
+		assertNull(trie.get("x"));
+		assertEquals(36, trie.getHits());
+		assertEquals(15, trie.getMisses());
+		assertEquals(36d / 51, trie.getHitRate(), 0.000001);
+
+		trie.resetStats();
+		assertEquals(0, trie.getHits());
+		assertEquals(0d, trie.getHitRate());
+	}
+
+	public void testInvalidation() {
+		CachingTrie<Integer> trie = (CachingTrie<Integer>) this.trie;
+		put("abc", 1);
+		put("abd", 2);
+		assertEquals(Integer.valueOf(1), trie.get("abc"));
+		assertEquals(Integer.valueOf(2), trie.get("abd".toCharArray()));
+
+		put("abc", 3);
+		assertEquals(Integer.valueOf(3), trie.get("abc"));
+		trie.remove("abd".toCharArray());
+		assertNull(trie.get("abd"));
+
+		Trie.Cursor<Integer> cursor = trie.getCursor();
+		assertTrue(cursor.moveToChild('a'));
+		assertTrue(cursor.moveToChild('b'));
+		assertTrue(cursor.moveToChild('c'));
+		cursor.setValue(4);
+		assertEquals(Integer.valueOf(4), trie.get("abc"));
+		assertTrue(cursor.moveToParent());
+		assertTrue(cursor.removeChild('c'));
+		assertNull(trie.get("abc"));
+
+		put("abc", 5);
+		assertEquals(Integer.valueOf(5), trie.get("abc"));
+		trie.clear();
+		assertNull(trie.get("abc"));
+	}
+
+	public void testAdmission() {
+		CachingTrie<Integer> trie = new CachingTrie<Integer>(new ListTrie<Integer>(), 8);
+		for (int i = 0; i < 1000; ++i) {
+			trie.put(Integer.toString(i), i);
+		}
+		for (int round = 0; round < 3; ++round) {
+			for (int i = 0; i < 8; ++i) {
+				assertEquals(Integer.valueOf(i), trie.get(Integer.toString(i)));
+			}
+		}
+		assertEquals(16, trie.getHits());
+		// a scan of cold keys does not flush the hot keys
+		for (int i = 100; i < 140; ++i) {
+			assertEquals(Integer.valueOf(i), trie.get(Integer.toString(i)));
+		}
+		trie.resetStats();
+		for (int i = 0; i < 8; ++i) {
+			assertEquals(Integer.valueOf(i), trie.get(Integer.toString(i)));
+		}
+		assertEquals(8, trie.getHits());
+	}
+
+	public void testGetAllUsesCache() {
+		CachingTrie<Integer> trie = (CachingTrie<Integer>) this.trie;
+		for (int i = 0; i < 100; ++i) {
+			put(Integer.toString(i), i);
+		}
+		assertEquals(Integer.valueOf(7), trie.get("7"));
+		trie.resetStats();
+		CharSequence[] keys = {"7", "42", "x", "7"};
+		Integer[] results = new Integer[keys.length];
+		trie.getAll(keys, results);
+		assertEquals(Integer.valueOf(7), results[0]);
+		assertEquals(Integer.valueOf(42), results[1]);
+		assertNull(results[2]);
+		assertEquals(Integer.valueOf(7), results[3]);
+		assertEquals(2, trie.getHits());
+		assertEquals(2, trie.getMisses());
+		// 42 has been cached
+		assertEquals(Integer.valueOf(42), trie.get("42"));
+		assertEquals(3, trie.getHits());
+	}
+
+	public void testConcurrentReads() throws InterruptedException {
+		final CachingTrie<Integer> trie = new CachingTrie<Integer>(new ListTrie<Integer>(), 64);
+		for (int i = 0; i < 2000; ++i) {
+			trie.put(Integer.toString(i), i);
+		}
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			final Random random = new Random(t);
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 50000; ++i) {
+							// skewed so that some keys are hot
+							int key = random.nextBoolean() ? random.nextInt(50) : random.nextInt(2500);
+							Integer expected = key < 2000 ? Integer.valueOf(key) : null;
+							assertEquals(expected, i % 2 == 0
+									? trie.get(Integer.toString(key))
+									: trie.get(Integer.toString(key).toCharArray()));
+						}
+					} catch (Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(error.get());
+		assertEquals(threads.length * 50000, trie.getHits() + trie.getMisses());
+		assertTrue(trie.getHitRate() > 0.3);
+	}
+
+	public void testConcurrentEvictions() throws InterruptedException {
+		// a single set and uniform lookups so that slots are replaced while
+		// other threads read them
+		final CachingTrie<Integer> trie = new CachingTrie<Integer>(new ListTrie<Integer>(), 8);
+		for (int i = 0; i < 64; ++i) {
+			trie.put(Integer.toString(i), i);
+		}
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; ++t) {
+			final Random random = new Random(t);
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						CharSequence[] keys = new CharSequence[4];
+						Integer[] results = new Integer[keys.length];
+						for (int i = 0; i < 50000; ++i) {
+							int key = random.nextInt(64);
+							assertEquals(Integer.valueOf(key), trie.get(Integer.toString(key)));
+							for (int j = 0; j < keys.length; ++j) {
+								keys[j] = Integer.toString((key + j) % 64);
+							}
+							trie.getAll(keys, results);
+							for (int j = 0; j < keys.length; ++j) {
+								assertEquals(Integer.valueOf((key + j) % 64), results[j]);
+							}
+						}
+					} catch (Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(error.get());
+		assertEquals(threads.length * 50000 * 5, trie.getHits() + trie.getMisses());
+	}
+
+}
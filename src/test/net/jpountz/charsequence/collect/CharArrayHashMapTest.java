@@ -1,5 +1,10 @@
 package net.jpountz.charsequence.collect;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
 public class CharArrayHashMapTest extends AbstractCharSequenceMapTest {
 
 	@Override
@@ -7,4 +12,41 @@ public class CharArrayHashMapTest extends AbstractCharSequenceMapTest {
 		return new CharArrayHashMap<Integer>();
 	}
 
+	public void testOffsets() {
+		map.put("xabcx", 1, 3, 1);
+		map.put(new StringBuilder("yabdy"), 1, 3, 2);
+		map.put("zabez".toCharArray(), 1, 3, 3);
+		assertEquals(3, map.size());
+		assertEquals(Integer.valueOf(1), map.get("abc"));
+		assertEquals(Integer.valueOf(2), map.get("abd".toCharArray()));
+		assertEquals(Integer.valueOf(3), map.get("_abe_", 1, 3));
+		assertEquals(Integer.valueOf(1), map.put("abc".toCharArray(), 4));
+		assertEquals(3, map.size());
+	}
+
+	public void testRemove() {
+		Random random = new Random(0);
+		Map<String, Integer> expected = new HashMap<String, Integer>();
+		for (int round = 0; round < 20; ++round) {
+			for (int i = 0; i < 200; ++i) {
+				String key = Integer.toString(random.nextInt(500), 3);
+				Integer value = random.nextInt();
+				assertEquals(expected.put(key, value), map.put(key, value));
+			}
+			// remove a third of the keys through the iterator
+			for (Iterator<Map.Entry<String, Integer>> it = map.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<String, Integer> entry = it.next();
+				if (entry.getKey().hashCode() % 3 == round % 3) {
+					it.remove();
+					assertEquals(entry.getValue(), expected.remove(entry.getKey()));
+				}
+			}
+			assertEquals(expected.size(), map.size());
+			assertEquals(expected, map);
+			for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+				assertEquals(entry.getValue(), map.get(entry.getKey().toCharArray()));
+			}
+		}
+	}
+
 }
@@ -1,5 +1,7 @@
 package net.jpountz.charsequence.collect;
 
+import java.util.Random;
+
 import net.jpountz.charsequence.collect.ListTrie;
 import net.jpountz.charsequence.collect.CompositeTrie;
 import net.jpountz.charsequence.collect.ArrayTrie;
@@ -27,4 +29,70 @@ public class CompositeTrieTest extends AbstractTrieTest {
 		return new CompositeTrie<Integer>(rootFactory, childFactory, 2);
 	}
 
+	private static String expectedRamUsage(CompositeTrie<Integer> trie) {
+		RamUsage usage = new RamUsage();
+		usage.addNodes(trie);
+		usage.add(trie.backend.ramUsage());
+		Trie.Cursor<Object> cursor = trie.backend.getCursor();
+		Trie.Node root = cursor.getNode();
+		while (Trie.Traversal.DEPTH_FIRST.moveToNextNode(root, cursor)) {
+			if (cursor.depth() == trie.getRootDepth() && cursor.getValue() != null) {
+				usage.add(((Trie<?>) cursor.getValue()).ramUsage());
+			}
+		}
+		return usage.toString();
+	}
+
+	public void testRamUsageTracking() {
+		Random random = new Random(0);
+		CompositeTrie<Integer> trie = (CompositeTrie<Integer>) newMap();
+		for (int i = 0; i < 2000; ++i) {
+			char[] key = new char[random.nextInt(6)];
+			for (int j = 0; j < key.length; ++j) {
+				key[j] = (char) ('a' + random.nextInt(3));
+			}
+			switch (random.nextInt(6)) {
+			case 0:
+			case 1:
+				trie.put(new String(key), i);
+				break;
+			case 2:
+				trie.remove(key, 0, key.length);
+				break;
+			case 3:
+			case 4:
+			case 5:
+				Trie.Cursor<Integer> cursor = trie.getCursor();
+				int depth = 0;
+				while (depth < key.length && cursor.moveToChild(key[depth])) {
+					++depth;
+				}
+				char c = (char) ('a' + random.nextInt(3));
+				switch (random.nextInt(4)) {
+				case 0:
+					cursor.addChild(c);
+					cursor.setValue(i);
+					break;
+				case 1:
+					cursor.setValue(i);
+					break;
+				case 2:
+					cursor.removeChild(c);
+					break;
+				case 3:
+					cursor.removeChildren();
+					break;
+				}
+				break;
+			}
+			assertEquals(expectedRamUsage(trie), trie.ramUsage().toString());
+		}
+		trie.optimizeFor(Trie.Traversal.DEPTH_FIRST);
+		assertEquals(expectedRamUsage(trie), trie.ramUsage().toString());
+		trie.trimToSize();
+		assertEquals(expectedRamUsage(trie), trie.ramUsage().toString());
+		trie.clear();
+		assertEquals(expectedRamUsage(trie), trie.ramUsage().toString());
+	}
+
 }
@@ -0,0 +1,65 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import net.jpountz.charsequence.Alphabet;
+
+public class DoubleArrayTrieTest extends AbstractTrieTest {
+
+	@Override
+	public Trie<Integer> newMap() {
+		return new DoubleArrayTrie<Integer>();
+	}
+
+	public void testRelocations() {
+		DoubleArrayTrie<Integer> trie = (DoubleArrayTrie<Integer>) this.trie;
+		Map<String, Integer> expected = new TreeMap<String, Integer>();
+		Random random = new Random(0);
+		for (int i = 0; i < 5000; ++i) {
+			char[] chars = new char[1 + random.nextInt(6)];
+			for (int j = 0; j < chars.length; ++j) {
+				chars[j] = (char) ('a' + random.nextInt(random.nextBoolean() ? 3 : 26));
+			}
+			String key = new String(chars);
+			if (random.nextInt(4) == 0) {
+				assertEquals(expected.remove(key), trie.remove(key));
+			} else {
+				assertEquals(expected.put(key, i), trie.put(key, i));
+			}
+		}
+		for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), trie.get(entry.getKey()));
+		}
+		assertEquals(expected.toString(), trie.toString());
+
+		trie.optimizeFor(Trie.Traversal.BREADTH_FIRST);
+		assertEquals(trie.size, trie.base.length);
+		assertEquals(expected.toString(), trie.toString());
+	}
+
+	public void testAlphabet() {
+		String[] keys = new String[] {"\u4e00", "z\u4e00", "\u4e00\u9fa5z", "z", "\u9fa5"};
+		Alphabet alphabet = Alphabet.of(Arrays.asList(keys), null);
+		assertEquals(3, alphabet.size());
+		DoubleArrayTrie<Integer> trie = new DoubleArrayTrie<Integer>(alphabet);
+		Map<String, Integer> expected = new TreeMap<String, Integer>();
+		for (int i = 0; i < keys.length; ++i) {
+			trie.put(keys[i], i);
+			expected.put(keys[i], i);
+		}
+		assertEquals(expected.toString(), trie.toString());
+		assertNull(trie.get("a"));
+		trie.optimizeFor(Trie.Traversal.DEPTH_FIRST);
+		assertEquals(expected.toString(), trie.toString());
+		// all codes are < 3
+		assertTrue(trie.base.length < 16);
+	}
+
+	public void testRemovedValuesDoNotComeBack() {
+		checkRemovedValuesDoNotComeBack();
+	}
+
+}
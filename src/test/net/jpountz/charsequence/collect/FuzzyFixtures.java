@@ -0,0 +1,101 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.Assert;
+import net.jpountz.charsequence.AbstractEditWeight;
+import net.jpountz.charsequence.CharSequenceDistance;
+import net.jpountz.charsequence.EditWeight;
+
+/**
+ * Weights, random keys and brute-force oracles shared by fuzzy search tests.
+ */
+final class FuzzyFixtures {
+
+	private FuzzyFixtures() {}
+
+	/**
+	 * A weight which is not a {@link net.jpountz.charsequence.BasicEditWeight}
+	 * and whose costs depend on chars and offsets.
+	 */
+	static final EditWeight WEIGHTED = new AbstractEditWeight() {
+		public double insertionCost(int offset, char c) { return 1 + (c % 3) / 4d; }
+		public double deletionCost(int offset, char c) { return 1 + offset / 8d; }
+		public double substitutionCost(int fromOffset, int toOffset, char c1, char c2) { return c1 < c2 ? 1 : 1.5; }
+		public boolean transpositionEnabled() { return false; }
+	};
+
+	/**
+	 * A weight whose costs depend on chars but which is symmetric, so that
+	 * the distance is a metric.
+	 */
+	static final EditWeight SYMMETRIC_WEIGHTED = new AbstractEditWeight() {
+		public double insertionCost(int offset, char c) { return 1 + (c % 3) / 4d; }
+		public double deletionCost(int offset, char c) { return 1 + (c % 3) / 4d; }
+		public double substitutionCost(int fromOffset, int toOffset, char c1, char c2) { return 1.25; }
+		public boolean transpositionEnabled() { return false; }
+	};
+
+	/**
+	 * Return a key of less than lengthBound chars among the first
+	 * alphabetSize lowercase letters.
+	 */
+	static String randomKey(Random random, int lengthBound, int alphabetSize) {
+		char[] chars = new char[random.nextInt(lengthBound)];
+		for (int j = 0; j < chars.length; ++j) {
+			chars[j] = (char) ('a' + random.nextInt(alphabetSize));
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Return one of keys followed by one of the first alphabetSize
+	 * lowercase letters.
+	 */
+	static String randomQuery(Random random, List<String> keys, int alphabetSize) {
+		return keys.get(random.nextInt(keys.size())) + (char) ('a' + random.nextInt(alphabetSize));
+	}
+
+	/**
+	 * Return the keys which are within maxDistance of query, by computing the
+	 * distance to every key.
+	 */
+	static Set<String> bruteForceNeighbors(Collection<String> keys,
+			CharSequenceDistance distance, String query, double maxDistance) {
+		Set<String> neighbors = new TreeSet<String>();
+		for (String key : keys) {
+			if (distance.distance(query, key) <= maxDistance) {
+				neighbors.add(key);
+			}
+		}
+		return neighbors;
+	}
+
+	/**
+	 * Return the entries of trie whose keys are within distance of query.
+	 */
+	static Set<Map.Entry<String, Integer>> neighbors(Trie<Integer> trie,
+			String query, EditWeight weight, double distance) {
+		Set<Map.Entry<String, Integer>> neighbors = new HashSet<Map.Entry<String, Integer>>();
+		Tries.getNeighbors(query, trie, weight, distance, neighbors);
+		return neighbors;
+	}
+
+	/**
+	 * Return the keys of entries, which must all be distinct.
+	 */
+	static Set<String> keys(Set<Map.Entry<String, Integer>> entries) {
+		Set<String> keys = new TreeSet<String>();
+		for (Map.Entry<String, Integer> entry : entries) {
+			Assert.assertTrue(entry.getKey(), keys.add(entry.getKey()));
+		}
+		return keys;
+	}
+
+}
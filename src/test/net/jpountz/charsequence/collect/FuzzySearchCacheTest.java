@@ -0,0 +1,101 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.jpountz.charsequence.CommonEditWeight;
+
+public class FuzzySearchCacheTest extends TestCase {
+
+	private VersionedTrie<Integer> trie;
+	private FuzzySearchCache<Integer> cache;
+
+	@Override
+	public void setUp() {
+		trie = new VersionedTrie<Integer>(new ListTrie<Integer>());
+		String[] keys = {"abc", "abd", "abcd", "bcd", "xyz", "ab"};
+		for (int i = 0; i < keys.length; ++i) {
+			trie.put(keys[i], i);
+		}
+		cache = new FuzzySearchCache<Integer>(trie, 100);
+	}
+
+	private Set<Map.Entry<String, Integer>> neighbors(String query) {
+		Set<Map.Entry<String, Integer>> neighbors = new HashSet<Map.Entry<String, Integer>>();
+		cache.getNeighbors(query, CommonEditWeight.LEVENSHTEIN, 1, neighbors);
+		return neighbors;
+	}
+
+	private List<String> prefixMatches(String query, int maxResults) {
+		final List<String> matches = new ArrayList<String>();
+		cache.getFuzzyPrefixMatches(query, CommonEditWeight.LEVENSHTEIN, 1, maxResults, new Tries.MatchConsumer<Integer>() {
+			public void accept(String key, Integer value, double distance) {
+				matches.add(key + "=" + value + "@" + distance);
+			}
+		});
+		return matches;
+	}
+
+	public void testNeighbors() {
+		Set<Map.Entry<String, Integer>> expected = new HashSet<Map.Entry<String, Integer>>();
+		Tries.getNeighbors("abc", trie, CommonEditWeight.LEVENSHTEIN, 1, expected);
+		assertEquals(expected, neighbors("abc"));
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(expected, neighbors("abc"));
+		assertEquals(1, cache.getHits());
+		assertEquals(0.5, cache.getHitRate());
+		assertEquals(1, cache.size());
+		assertEquals(1 + expected.size(), cache.getWeight());
+
+		// another distance is another entry
+		Set<Map.Entry<String, Integer>> neighbors = new HashSet<Map.Entry<String, Integer>>();
+		cache.getNeighbors("abc", CommonEditWeight.LEVENSHTEIN, 0, neighbors);
+		assertEquals(1, neighbors.size());
+		assertEquals(2, cache.getMisses());
+	}
+
+	public void testPrefixMatches() {
+		List<String> matches = prefixMatches("abd", 10);
+		assertEquals(matches, prefixMatches("abd", 10));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, prefixMatches("abd", 2).size());
+		assertEquals(2, cache.getMisses());
+	}
+
+	public void testInvalidation() {
+		int size = neighbors("abc").size();
+		trie.put("abe", 42);
+		assertEquals(size + 1, neighbors("abc").size());
+		assertEquals(0, cache.getHits());
+		trie.getCursor().removeChildren();
+		assertTrue(neighbors("abc").isEmpty());
+		assertEquals(0, cache.getHits());
+		assertTrue(neighbors("abc").isEmpty());
+		assertEquals(1, cache.getHits());
+	}
+
+	public void testEviction() {
+		cache = new FuzzySearchCache<Integer>(trie, 10);
+		int weight = 0;
+		for (String query : new String[] {"abc", "abd", "ab", "xyz", "bcd"}) {
+			neighbors(query);
+			assertTrue(cache.getWeight() <= 10);
+			weight += 1 + neighbors(query).size();
+		}
+		assertTrue(weight > 10);
+		assertTrue(cache.size() < 5);
+		// the most recently used entry is still cached
+		cache.resetStats();
+		neighbors("bcd");
+		assertEquals(1, cache.getHits());
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getWeight());
+	}
+
+}
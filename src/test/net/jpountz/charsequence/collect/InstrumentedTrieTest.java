@@ -0,0 +1,105 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import net.jpountz.charsequence.CommonEditWeight;
+
+public class InstrumentedTrieTest extends AbstractTrieTest {
+
+	@Override
+	public Trie<Integer> newMap() {
+		return new InstrumentedTrie<Integer>(new ListTrie<Integer>());
+	}
+
+	public void testMetrics() {
+		InstrumentedTrie<Integer> trie = (InstrumentedTrie<Integer>) this.trie;
+		put("abc", 1);
+		put("abd", 2);
+		put("abc", 3);
+		trie.get("abc");
+		trie.get("abx");
+		trie.remove("abd");
+
+		TrieMetrics metrics = trie.getMetrics();
+		assertEquals(3, metrics.getPut().getCount());
+		assertEquals(2, metrics.getPut().getResults());
+		assertEquals(2, metrics.getGet().getCount());
+		assertEquals(1, metrics.getGet().getResults());
+		assertEquals(1, metrics.getRemove().getCount());
+		assertEquals(1, metrics.getRemove().getResults());
+		// visited nodes are not counted by default
+		assertEquals(0, metrics.getGet().getVisited());
+
+		long[] histogram = metrics.getGet().getLatencyHistogram();
+		long total = 0;
+		for (long n : histogram) {
+			total += n;
+		}
+		assertEquals(2, total);
+		assertTrue(metrics.getGet().getLatencyPercentile(50)
+				<= metrics.getGet().getLatencyPercentile(100));
+
+		Set<Map.Entry<String, Integer>> neighbors = new HashSet<Map.Entry<String, Integer>>();
+		Tries.getNeighbors("abd", trie, CommonEditWeight.LEVENSHTEIN, 1, neighbors);
+		assertEquals(1, neighbors.size());
+		assertEquals(1, metrics.getNeighbors().getCount());
+		assertEquals(1, metrics.getNeighbors().getResults());
+		assertTrue(metrics.getNeighbors().getVisited() > 0);
+		assertTrue(metrics.getCursorMoves() >= metrics.getNeighbors().getVisited());
+
+		metrics.reset();
+		assertEquals(0, metrics.getGet().getCount());
+		assertEquals(0, metrics.getCursorMoves());
+	}
+
+	public void testParallelNeighborsMetrics() {
+		InstrumentedTrie<Integer> trie = (InstrumentedTrie<Integer>) this.trie;
+		put("abc", 1);
+		put("abd", 2);
+		put("bbd", 3);
+		put("xyz", 4);
+		TrieMetrics metrics = trie.getMetrics();
+		Set<Map.Entry<String, Integer>> expected = new HashSet<Map.Entry<String, Integer>>();
+		Tries.getNeighbors("abd", trie, CommonEditWeight.LEVENSHTEIN, 1, expected);
+		long moves = metrics.getNeighbors().getVisited();
+
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			Set<Map.Entry<String, Integer>> neighbors = new HashSet<Map.Entry<String, Integer>>();
+			Tries.getNeighbors("abd", trie, CommonEditWeight.LEVENSHTEIN, 1, neighbors, pool);
+			assertEquals(expected, neighbors);
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(2, metrics.getNeighbors().getCount());
+		assertEquals(6, metrics.getNeighbors().getResults());
+		assertTrue(metrics.getNeighbors().getVisited() > moves);
+	}
+
+	public void testVisitedNodes() {
+		InstrumentedTrie<Integer> trie = new InstrumentedTrie<Integer>(
+				new ListTrie<Integer>(), new TrieMetrics(), true);
+		assertNull(trie.put("abc", 1));
+		assertNull(trie.put("abd", 2));
+		assertEquals(Integer.valueOf(1), trie.put("abc", 3));
+		assertEquals(Integer.valueOf(3), trie.get("abc"));
+		assertNull(trie.get("abx"));
+		assertNull(trie.remove("abx"));
+		assertEquals(Integer.valueOf(2), trie.remove("abd"));
+		assertNull(trie.get("abd"));
+
+		TrieMetrics metrics = trie.getMetrics();
+		assertEquals(2, metrics.getPut().getResults());
+		// root + existing nodes: 1, then 3, then 4 for puts
+		assertEquals(8, metrics.getPut().getVisited());
+		// 4 for abc, 3 for abx, 3 for abd after its removal
+		assertEquals(10, metrics.getGet().getVisited());
+		// 3 for abx, 4 for abd
+		assertEquals(7, metrics.getRemove().getVisited());
+		assertEquals(1, metrics.getRemove().getResults());
+	}
+
+}
@@ -1,7 +1,13 @@
 package net.jpountz.charsequence.collect;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.Set;
+
 import net.jpountz.charsequence.collect.ListRadixTrie;
 import net.jpountz.charsequence.collect.Trie;
+import net.jpountz.charsequence.util.RamUsageUtils;
 
 public class ListRadixTrieTest extends AbstractTrieTest {
 
@@ -15,4 +21,55 @@ public class ListRadixTrieTest extends AbstractTrieTest {
 	    // unsupported
 	}
 
+	/**
+	 * Bytes used by the labels of trie which have not been interned.
+	 */
+	private static long ownedLabelsBytes(ListRadixTrie<Integer> trie, Set<char[]> interned) {
+		long bytes = 0;
+		for (int i = 1; i < trie.size; ++i) {
+			if (!interned.contains(trie.labels[i])) {
+				bytes += RamUsageUtils.sizeOf(trie.labels[i]);
+			}
+		}
+		return bytes;
+	}
+
+	private static Set<char[]> values(Trie<char[]> interner) {
+		Set<char[]> values = Collections.newSetFromMap(new IdentityHashMap<char[], Boolean>());
+		values.addAll(interner.values());
+		return values;
+	}
+
+	public void testLabelsAccounting() {
+		Random random = new Random(0);
+		ListRadixTrie<Integer> first = new ListRadixTrie<Integer>();
+		ListRadixTrie<Integer> second = new ListRadixTrie<Integer>();
+		for (int i = 0; i < 500; ++i) {
+			String key = FuzzyFixtures.randomKey(random, 10, 3);
+			first.put(key, i);
+			second.put(key, i);
+		}
+		assertEquals(ownedLabelsBytes(second, Collections.<char[]>emptySet()), second.labelsBytes);
+
+		// interned labels are not accounted anymore
+		Trie<char[]> interner = new ListTrie<char[]>();
+		first.internLabels(interner);
+		second.internLabels(interner);
+		assertEquals(0, first.labelsBytes);
+		assertEquals(0, second.labelsBytes);
+
+		// splitting labels replaces interned labels with new ones
+		for (int i = 0; i < 500; ++i) {
+			second.put(FuzzyFixtures.randomKey(random, 12, 3), i);
+			assertEquals(ownedLabelsBytes(second, values(interner)), second.labelsBytes);
+		}
+		assertTrue(second.labelsBytes > 0);
+		second.trimToSize();
+		assertEquals(ownedLabelsBytes(second, values(interner)), second.labelsBytes);
+		second.internLabels(interner);
+		assertEquals(0, second.labelsBytes);
+		second.put("cccccccccccccc", 0);
+		assertEquals(ownedLabelsBytes(second, values(interner)), second.labelsBytes);
+	}
+
 }
@@ -1,5 +1,10 @@
 package net.jpountz.charsequence.collect;
 
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import net.jpountz.charsequence.GrowthStrategy;
 import net.jpountz.charsequence.collect.ListTrie;
 import net.jpountz.charsequence.collect.Trie;
 
@@ -10,4 +15,55 @@ public class ListTrieTest extends AbstractTrieTest {
 		return new ListTrie<Integer>();
 	}
 
+	public void testHashedChildren() {
+		for (int threshold : new int[] {1, 3, ListTrie.DEFAULT_HASH_THRESHOLD}) {
+			ListTrie<Integer> trie = new ListTrie<Integer>(16, GrowthStrategy.FAST_GROWTH, threshold);
+			Map<String, Integer> expected = new TreeMap<String, Integer>();
+			Random random = new Random(threshold);
+			for (int i = 0; i < 20000; ++i) {
+				char[] chars = new char[1 + random.nextInt(3)];
+				for (int j = 0; j < chars.length; ++j) {
+					chars[j] = (char) ('\u4e00' + random.nextInt(j == 0 ? 2000 : 20));
+				}
+				String key = new String(chars);
+				if (random.nextInt(3) == 0) {
+					assertEquals(expected.remove(key), trie.remove(key));
+				} else {
+					assertEquals(expected.put(key, i), trie.put(key, i));
+				}
+			}
+			for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+				assertEquals(entry.getValue(), trie.get(entry.getKey()));
+			}
+			assertEquals(expected.toString(), trie.toString());
+
+			trie.optimizeFor(Trie.Traversal.DEPTH_FIRST);
+			for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+				assertEquals(entry.getValue(), trie.get(entry.getKey()));
+			}
+			assertNull(trie.get("\u4e00\u4e00\u4e00\u4e00"));
+		}
+	}
+
+	public void testHashTablesAreAllocatedLazily() {
+		ListTrie<Integer> trie = new ListTrie<Integer>(16, GrowthStrategy.FAST_GROWTH, 3);
+		ListTrie<Integer> unhashed = new ListTrie<Integer>(16, GrowthStrategy.FAST_GROWTH, Integer.MAX_VALUE);
+		for (String key : new String[] {"a", "ab", "ac", "ad", "b", "c"}) {
+			trie.put(key, 0);
+			unhashed.put(key, 0);
+			assertEquals(key, unhashed.ramUsage().getChildren(), trie.ramUsage().getChildren());
+		}
+		trie.put("ae", 0);
+		unhashed.put("ae", 0);
+		assertTrue(trie.ramUsage().getChildren() > unhashed.ramUsage().getChildren());
+		assertEquals(Integer.valueOf(0), trie.get("ae"));
+		trie.clear();
+		unhashed.clear();
+		assertEquals(unhashed.ramUsage().getChildren(), trie.ramUsage().getChildren());
+	}
+
+	public void testRemovedValuesDoNotComeBack() {
+		checkRemovedValuesDoNotComeBack();
+	}
+
 }
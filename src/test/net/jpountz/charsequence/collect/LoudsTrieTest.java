@@ -0,0 +1,112 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.Random;
+
+import net.jpountz.charsequence.Alphabet;
+import net.jpountz.charsequence.CharComparator;
+import net.jpountz.charsequence.util.RankSelectBitVector;
+
+public class LoudsTrieTest extends AbstractTrieTest {
+
+	private ListTrie<Integer> source;
+
+	@Override
+	public Trie<Integer> newMap() {
+		source = new ListTrie<Integer>();
+		return new LoudsTrie<Integer>(source);
+	}
+
+	@Override
+	protected void put(String key, Integer value) {
+		source.put(key, value);
+		map = trie = new LoudsTrie<Integer>(source);
+	}
+
+	@Override
+	public void testRemove() {
+		// unsupported
+	}
+
+	@Override
+	public void testRemoveKeepsOtherKeys() {
+		// unsupported
+	}
+
+	@Override
+	public void testRemoveReturnsValue() {
+		// unsupported
+	}
+
+	@Override
+	public void testCursorRW() {
+		// unsupported
+	}
+
+	public void testCopy() {
+		ListTrie<Integer> source = new ListTrie<Integer>();
+		Random random = new Random(0);
+		for (int i = 0; i < 5000; ++i) {
+			char[] chars = new char[1 + random.nextInt(8)];
+			for (int j = 0; j < chars.length; ++j) {
+				chars[j] = (char) ('a' + random.nextInt(random.nextBoolean() ? 3 : 26));
+			}
+			source.put(new String(chars), i);
+		}
+		LoudsTrie<Integer> trie = new LoudsTrie<Integer>(source);
+		assertEquals(source.toString(), trie.toString());
+		assertEquals(source.nodes(), trie.nodes());
+		for (String key : source.keySet()) {
+			assertEquals(source.get(key), trie.get(key));
+			assertNull(trie.get(key + "{"));
+		}
+	}
+
+	public void testUnsortedSource() {
+		CharComparator reverse = new CharComparator() {
+			@Override
+			public int compare(char c1, char c2) {
+				return (int) c2 - c1;
+			}
+		};
+		// children are enumerated in reverse order
+		ArrayTrie<Integer> source = new ArrayTrie<Integer>(Alphabet.of("abc".toCharArray(), reverse));
+		String[] keys = {"a", "b", "c", "ab", "ca", "cab"};
+		for (int i = 0; i < keys.length; ++i) {
+			source.put(keys[i], i);
+		}
+		LoudsTrie<Integer> trie = new LoudsTrie<Integer>(source);
+		assertEquals(source.nodes(), trie.nodes());
+		for (int i = 0; i < keys.length; ++i) {
+			assertEquals(Integer.valueOf(i), trie.get(keys[i]));
+		}
+		assertNull(trie.get("ba"));
+		assertNull(trie.get("cb"));
+	}
+
+	public void testRankSelect() {
+		Random random = new Random(0);
+		int length = 10000;
+		long[] words = new long[(length + 63) / 64];
+		int ones = 0;
+		for (int i = 0; i < length; ++i) {
+			if (random.nextInt(3) == 0) {
+				words[i >>> 6] |= 1L << i;
+				++ones;
+			}
+		}
+		RankSelectBitVector bits = new RankSelectBitVector(words, length);
+		assertEquals(ones, bits.ones());
+		int rank1 = 0, rank0 = 0;
+		for (int i = 0; i < length; ++i) {
+			assertEquals(rank1, bits.rank1(i));
+			assertEquals(rank0, bits.rank0(i));
+			if (bits.get(i)) {
+				assertEquals(i, bits.select1(++rank1));
+			} else {
+				assertEquals(i, bits.select0(++rank0));
+			}
+		}
+		assertEquals(rank1, bits.rank1(length));
+	}
+
+}
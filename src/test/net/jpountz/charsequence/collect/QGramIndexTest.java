@@ -0,0 +1,60 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.jpountz.charsequence.CommonEditWeight;
+
+public class QGramIndexTest extends TestCase {
+
+	private void testGetNeighbors(int alphabetSize) {
+		Random random = new Random(alphabetSize);
+		Trie<Integer> trie = new ListTrie<Integer>();
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 500; ++i) {
+			keys.add(FuzzyFixtures.randomKey(random, 10, alphabetSize));
+			trie.put(keys.get(i), i);
+		}
+		for (int q = 1; q <= 3; ++q) {
+			QGramIndex<Integer> index = new QGramIndex<Integer>(trie, q);
+			assertEquals(q, index.getQ());
+			assertEquals(new HashSet<String>(keys).size(), index.size());
+			assertTrue(index.ramBytesUsed() > 0);
+			for (int i = 0; i < 30; ++i) {
+				String query = FuzzyFixtures.randomQuery(random, keys, alphabetSize + 1);
+				for (int d = 0; d <= 3; ++d) {
+					for (CommonEditWeight weight : CommonEditWeight.values()) {
+						Set<Map.Entry<String, Integer>> actual = new HashSet<Map.Entry<String, Integer>>();
+						index.getNeighbors(query, weight, d, actual);
+						assertEquals(FuzzyFixtures.neighbors(trie, query, weight, d), actual);
+					}
+					Set<Map.Entry<String, Integer>> actual = new HashSet<Map.Entry<String, Integer>>();
+					index.getNeighbors(query, d, FuzzyFixtures.WEIGHTED, d, actual);
+					assertEquals(FuzzyFixtures.neighbors(trie, query, FuzzyFixtures.WEIGHTED, d), actual);
+				}
+			}
+		}
+	}
+
+	public void testGetNeighborsSmallAlphabet() {
+		testGetNeighbors(4);
+	}
+
+	public void testGetNeighborsLargeAlphabet() {
+		testGetNeighbors(26);
+	}
+
+	public void testEmpty() {
+		QGramIndex<Integer> index = new QGramIndex<Integer>(new ListTrie<Integer>(), 3);
+		assertEquals(0, index.size());
+		Set<Map.Entry<String, Integer>> neighbors = new HashSet<Map.Entry<String, Integer>>();
+		index.getNeighbors("abc", CommonEditWeight.LEVENSHTEIN, 2, neighbors);
+		assertTrue(neighbors.isEmpty());
+	}
+
+}
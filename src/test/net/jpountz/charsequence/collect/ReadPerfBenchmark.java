@@ -47,6 +47,14 @@ public class ReadPerfBenchmark extends Benchmark {
 			System.out.println(
 					RamUsageEstimator.humanReadableUnits(stats.memory,
 							DECIMAL_FORMAT));
+			if (stats.ramUsage != null) {
+				System.out.print(" - ramBytesUsed: ");
+				System.out.println(
+						RamUsageEstimator.humanReadableUnits(stats.ramUsage.total(),
+								DECIMAL_FORMAT));
+				System.out.print("     ");
+				System.out.println(stats.ramUsage);
+			}
 		}
 	}
 
@@ -115,6 +123,7 @@ public class ReadPerfBenchmark extends Benchmark {
 		public long lookup = 0;
 		public long enumerate = 0;
 		public long memory = 0;
+		public RamUsage ramUsage = null;
 	}
 
 	public Stats test(CharSequenceMapFactory factory, int n) {
@@ -141,6 +150,9 @@ public class ReadPerfBenchmark extends Benchmark {
 			stats.enumerate += testEnumerate(map);
 		}
 		stats.memory = RAM_USAGE_ESTIMATOR.estimateRamUsage(map);
+		if (map instanceof CharSequenceMap) {
+			stats.ramUsage = ((CharSequenceMap<String>) map).ramUsage();
+		}
 		stats.insert /= n;
 		stats.lookupUnoptimized /= n;
 		stats.trim /= n;
@@ -0,0 +1,64 @@
+package net.jpountz.charsequence.collect;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.jpountz.charsequence.CommonEditWeight;
+import net.jpountz.charsequence.EditWeight;
+
+public class SymmetricDeleteIndexTest extends TestCase {
+
+	private static Set<Map.Entry<String, Integer>> neighbors(SymmetricDeleteIndex<Integer> index,
+			String query, EditWeight weight, int edits, double distance) {
+		Set<Map.Entry<String, Integer>> neighbors = new HashSet<Map.Entry<String, Integer>>();
+		index.getNeighbors(query, edits, weight, distance, neighbors);
+		return neighbors;
+	}
+
+	public void testGetNeighbors() {
+		Random random = new Random(0);
+		Trie<Integer> trie = new ListTrie<Integer>();
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 500; ++i) {
+			keys.add(FuzzyFixtures.randomKey(random, 8, 4));
+			trie.put(keys.get(i), i);
+		}
+		SymmetricDeleteIndex<Integer> index = new SymmetricDeleteIndex<Integer>(trie, 2);
+		assertEquals(new HashSet<String>(keys).size(), index.size());
+		assertTrue(index.variantCount() >= index.size());
+		assertTrue(index.ramBytesUsed() > 0);
+		for (int i = 0; i < 50; ++i) {
+			String query = FuzzyFixtures.randomQuery(random, keys, 5);
+			for (int d = 0; d <= 2; ++d) {
+				for (CommonEditWeight weight : CommonEditWeight.values()) {
+					Set<Map.Entry<String, Integer>> expected = FuzzyFixtures.neighbors(trie, query, weight, d);
+					Set<Map.Entry<String, Integer>> actual = new HashSet<Map.Entry<String, Integer>>();
+					index.getNeighbors(query, weight, d, actual);
+					assertEquals(expected, actual);
+				}
+				assertEquals(FuzzyFixtures.neighbors(trie, query, FuzzyFixtures.WEIGHTED, d),
+						neighbors(index, query, FuzzyFixtures.WEIGHTED, d, d));
+			}
+		}
+	}
+
+	public void testTooManyEdits() {
+		Trie<Integer> trie = new ListTrie<Integer>();
+		trie.put("abc", 0);
+		SymmetricDeleteIndex<Integer> index = new SymmetricDeleteIndex<Integer>(trie, 1);
+		assertEquals(1, neighbors(index, "abd", CommonEditWeight.LEVENSHTEIN, 1, 1).size());
+		try {
+			index.getNeighbors("abd", CommonEditWeight.LEVENSHTEIN, 2,
+					new HashSet<Map.Entry<String, Integer>>());
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+package net.jpountz.charsequence.collect;
+
+public class VersionedTrieTest extends AbstractTrieTest {
+
+	@Override
+	public Trie<Integer> newMap() {
+		return new VersionedTrie<Integer>(new ListTrie<Integer>());
+	}
+
+	public void testVersion() {
+		VersionedTrie<Integer> trie = (VersionedTrie<Integer>) this.trie;
+		long version = trie.getVersion();
+		trie.put("ab", 1);
+		assertTrue(trie.getVersion() > version);
+		version = trie.getVersion();
+		trie.get("ab");
+		trie.getCursor().moveToChild('a');
+		assertEquals(version, trie.getVersion());
+		Trie.Cursor<Integer> cursor = trie.getCursor();
+		assertTrue(cursor.moveToChild('a'));
+		cursor.setValue(2);
+		assertTrue(trie.getVersion() > version);
+		version = trie.getVersion();
+		cursor.removeChildren();
+		assertTrue(trie.getVersion() > version);
+		assertNull(trie.get("ab"));
+		version = trie.getVersion();
+		trie.remove("a");
+		assertTrue(trie.getVersion() > version);
+		version = trie.getVersion();
+		trie.clear();
+		assertTrue(trie.getVersion() > version);
+		assertSame(cursor, trie.getCursor(cursor));
+	}
+
+}